@@ -0,0 +1,91 @@
+package org.limeprotocol.benchmarks;
+
+import org.limeprotocol.*;
+import org.limeprotocol.network.tcp.TcpTransport;
+import org.limeprotocol.serialization.EnvelopeSerializer;
+import org.limeprotocol.serialization.JacksonEnvelopeSerializer;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures many threads sending messages through a single connection.
+ * The previous send path, which serialized, wrote and flushed each envelope inside a lock, is reproduced
+ * over a plain socket to be compared with the coalescing writer of the {@link TcpTransport}, both waiting for the
+ * write to complete ({@code send}) and only enqueuing the envelope ({@code sendAsync}).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+@State(Scope.Benchmark)
+public class ConcurrentSendBenchmark {
+
+    @Param({"synchronized", "coalescing", "coalescingAsync"})
+    String sendMode;
+
+    EchoServer discardServer;
+    EnvelopeSerializer envelopeSerializer;
+    TcpTransport transport;
+    Socket socket;
+    OutputStream outputStream;
+    final Object syncRoot = new Object();
+
+    @Setup
+    public void setUp() throws Exception {
+        discardServer = new EchoServer(true);
+        envelopeSerializer = new JacksonEnvelopeSerializer();
+        if (sendMode.startsWith("coalescing")) {
+            transport = new TcpTransport(envelopeSerializer);
+            transport.open(discardServer.getUri());
+        } else {
+            URI uri = discardServer.getUri();
+            socket = new Socket(uri.getHost(), uri.getPort());
+            socket.setTcpNoDelay(true);
+            outputStream = socket.getOutputStream();
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        if (transport != null) {
+            transport.close();
+        }
+        if (socket != null) {
+            socket.close();
+        }
+        discardServer.close();
+    }
+
+    @State(Scope.Thread)
+    public static class Sender {
+        Message message;
+
+        @Setup
+        public void setUp() {
+            message = new Message(EnvelopeId.newId());
+            message.setTo(Node.parse("benchmark@limeprotocol.org/default"));
+            message.setContent(new PlainDocument("Hello world", MediaType.parse("text/plain")));
+        }
+    }
+
+    @Benchmark
+    public void send(Sender sender) throws IOException {
+        if (sendMode.equals("coalescingAsync")) {
+            transport.sendAsync(sender.message);
+        } else if (transport != null) {
+            transport.send(sender.message);
+        } else {
+            synchronized (syncRoot) {
+                envelopeSerializer.serialize(sender.message, outputStream);
+                outputStream.flush();
+            }
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package org.limeprotocol.benchmarks;
+
+import org.limeprotocol.network.compression.DictionaryDeflateCodec;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compares the CPU cost of compressing an envelope with the {@link DictionaryDeflateCodec}, with a GZIP member per
+ * envelope and with a GZIP stream sync flushed after each envelope, like the {@code TcpTransport} session compression.
+ * The compression ratios are printed in the setup.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DictionaryCompressionBenchmark {
+
+    private static final int RATIO_ENVELOPES_COUNT = 1000;
+
+    @Param({"notification", "message", "chatState", "command", "collection"})
+    String envelopeKind;
+
+    DictionaryDeflateCodec codec;
+    ByteArrayOutputStream outputStream;
+    GZIPOutputStream gzipStream;
+    byte[] json;
+
+    @Setup
+    public void setUp() throws IOException {
+        codec = new DictionaryDeflateCodec();
+        outputStream = new ByteArrayOutputStream();
+        gzipStream = new GZIPOutputStream(outputStream, true);
+        json = createEnvelopeJson();
+
+        int dictionaryLength = 0;
+        int gzipLength = 0;
+        for (int i = 0; i < RATIO_ENVELOPES_COUNT; i++) {
+            byte[] envelopeJson = createEnvelopeJson();
+            dictionaryLength += codec.compress(envelopeJson, 0, envelopeJson.length).length;
+            gzipLength += gzip(envelopeJson);
+            gzipStream.write(envelopeJson);
+            gzipStream.flush();
+        }
+        int uncompressedLength = json.length * RATIO_ENVELOPES_COUNT;
+        System.out.printf("%n%s (%d bytes) compression ratio - deflateDictionary: %.3f, gzip: %.3f, gzipStream: %.3f%n",
+                envelopeKind, json.length,
+                (double) dictionaryLength / uncompressedLength,
+                (double) gzipLength / uncompressedLength,
+                (double) outputStream.size() / uncompressedLength);
+        outputStream.reset();
+    }
+
+    @TearDown
+    public void tearDown() {
+        codec.close();
+    }
+
+    @Benchmark
+    public byte[] deflateDictionary() {
+        return codec.compress(json, 0, json.length);
+    }
+
+    @Benchmark
+    public int gzip() throws IOException {
+        return gzip(json);
+    }
+
+    @Benchmark
+    public int gzipStream() throws IOException {
+        outputStream.reset();
+        gzipStream.write(json);
+        gzipStream.flush();
+        return outputStream.size();
+    }
+
+    private int gzip(byte[] envelopeJson) throws IOException {
+        ByteArrayOutputStream envelopeOutputStream = new ByteArrayOutputStream(envelopeJson.length);
+        try (GZIPOutputStream envelopeGzipStream = new GZIPOutputStream(envelopeOutputStream)) {
+            envelopeGzipStream.write(envelopeJson);
+        }
+        return envelopeOutputStream.size();
+    }
+
+    private byte[] createEnvelopeJson() {
+        String id = UUID.randomUUID().toString();
+        String envelopeJson;
+        switch (envelopeKind) {
+            case "notification":
+                envelopeJson = "{\"id\":\"" + id + "\",\"from\":\"postmaster@msging.net\",\"to\":\"user@msging.net/default\",\"event\":\"received\"}";
+                break;
+            case "message":
+                envelopeJson = "{\"id\":\"" + id + "\",\"from\":\"5531999999999@wa.gw.msging.net\",\"to\":\"user@msging.net/default\",\"type\":\"text/plain\",\"content\":\"Hello, I would like to check my order\"}";
+                break;
+            case "chatState":
+                envelopeJson = "{\"id\":\"" + id + "\",\"from\":\"user@msging.net/default\",\"to\":\"5531999999999@wa.gw.msging.net\",\"type\":\"application/vnd.lime.chatstate+json\",\"content\":{\"state\":\"composing\"}}";
+                break;
+            case "command":
+                envelopeJson = "{\"id\":\"" + id + "\",\"to\":\"postmaster@msging.net\",\"method\":\"get\",\"uri\":\"/contacts/5531999999999%40wa.gw.msging.net\"}";
+                break;
+            case "collection":
+                StringBuilder items = new StringBuilder();
+                for (int i = 0; i < 20; i++) {
+                    if (i > 0) {
+                        items.append(',');
+                    }
+                    items.append("{\"id\":\"").append(UUID.randomUUID()).append("\",\"direction\":\"received\",\"type\":\"text/plain\",\"content\":\"Message ")
+                            .append(i).append("\",\"date\":\"2016-10-18T12:00:0").append(i % 10).append(".000Z\",\"status\":\"consumed\"}");
+                }
+                envelopeJson = "{\"id\":\"" + id + "\",\"from\":\"postmaster@msging.net/#az-iris1\",\"to\":\"user@msging.net/default\",\"type\":\"application/vnd.lime.collection+json\",\"resource\":{\"total\":20,\"itemType\":\"application/vnd.iris.thread-message+json\",\"items\":["
+                        + items + "]},\"method\":\"get\",\"status\":\"success\"}";
+                break;
+            default:
+                throw new IllegalArgumentException("envelopeKind");
+        }
+        return envelopeJson.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,82 @@
+package org.limeprotocol.benchmarks;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.net.URISyntaxException;
+
+/**
+ * Loopback TCP server that writes back every received byte, used to measure the transports without a real LIME server.
+ * It can also discard the received bytes, to measure only the sending side.
+ */
+public class EchoServer implements Closeable {
+
+    private final ServerSocket serverSocket;
+    private final boolean discardInput;
+
+    public EchoServer() throws IOException {
+        this(false);
+    }
+
+    public EchoServer(boolean discardInput) throws IOException {
+        this.serverSocket = new ServerSocket(0);
+        this.discardInput = discardInput;
+        Thread acceptThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                accept();
+            }
+        }, "echo-server-accept");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+    }
+
+    public URI getUri() throws URISyntaxException {
+        return new URI(String.format("net.tcp://localhost:%d", serverSocket.getLocalPort()));
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+    }
+
+    private void accept() {
+        while (!serverSocket.isClosed()) {
+            try {
+                final Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                Thread echoThread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        echo(socket, discardInput);
+                    }
+                }, "echo-server-connection");
+                echoThread.setDaemon(true);
+                echoThread.start();
+            } catch (IOException e) {
+                // The server was closed
+            }
+        }
+    }
+
+    private static void echo(Socket socket, boolean discardInput) {
+        byte[] buffer = new byte[8192];
+        try (Socket s = socket) {
+            InputStream inputStream = s.getInputStream();
+            OutputStream outputStream = s.getOutputStream();
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                if (!discardInput) {
+                    outputStream.write(buffer, 0, read);
+                    outputStream.flush();
+                }
+            }
+        } catch (IOException e) {
+            // The connection was closed
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package org.limeprotocol.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.limeprotocol.*;
+import org.limeprotocol.serialization.JacksonEnvelopeSerializer;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the streaming envelope deserialization of the {@link JacksonEnvelopeSerializer} with the previous
+ * tree based path, which reads the envelope to an {@link ObjectNode} and converts it to the envelope class.
+ * Run with {@code -prof gc} to compare the allocation rate.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EnvelopeDeserializationBenchmark {
+
+    @Param({"message", "jsonMessage", "notification", "command", "collection"})
+    String envelopeKind;
+
+    JacksonEnvelopeSerializer serializer;
+    ObjectMapper mapper;
+    byte[] json;
+
+    @Setup
+    public void setUp() {
+        serializer = new JacksonEnvelopeSerializer();
+        mapper = JacksonEnvelopeSerializer.getObjectMapper();
+        String id = UUID.randomUUID().toString();
+        String envelopeJson;
+        switch (envelopeKind) {
+            case "message":
+                envelopeJson = "{\"type\":\"text/plain\",\"content\":\"Hello world\",\"id\":\"" + id + "\",\"from\":\"sender@limeprotocol.org/home\",\"to\":\"receiver@limeprotocol.org/home\",\"metadata\":{\"key\":\"value\"}}";
+                break;
+            case "jsonMessage":
+                envelopeJson = "{\"type\":\"application/vnd.lime.sample+json\",\"content\":{\"text\":\"Hello world\",\"count\":42,\"tags\":[\"a\",\"b\"]},\"id\":\"" + id + "\",\"from\":\"sender@limeprotocol.org/home\",\"to\":\"receiver@limeprotocol.org/home\"}";
+                break;
+            case "notification":
+                envelopeJson = "{\"event\":\"received\",\"id\":\"" + id + "\",\"from\":\"sender@limeprotocol.org/home\",\"to\":\"receiver@limeprotocol.org/home\"}";
+                break;
+            case "command":
+                envelopeJson = "{\"uri\":\"/presence\",\"method\":\"get\",\"id\":\"" + id + "\",\"from\":\"sender@limeprotocol.org/home\",\"to\":\"postmaster@limeprotocol.org\"}";
+                break;
+            case "collection":
+                envelopeJson = "{\"type\":\"application/vnd.lime.collection+json\",\"resource\":{\"total\":3,\"itemType\":\"application/vnd.lime.container+json\",\"items\":[{\"type\":\"text/plain\",\"value\":\"First\"},{\"type\":\"application/vnd.lime.sample+json\",\"value\":{\"text\":\"Second\",\"count\":2}},{\"type\":\"text/plain\",\"value\":\"Third\"}]},\"method\":\"get\",\"status\":\"success\",\"id\":\"" + id + "\",\"from\":\"postmaster@limeprotocol.org\",\"to\":\"receiver@limeprotocol.org/home\"}";
+                break;
+            default:
+                throw new IllegalArgumentException("envelopeKind");
+        }
+        json = envelopeJson.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public Envelope streaming() {
+        return serializer.deserialize(json, 0, json.length);
+    }
+
+    @Benchmark
+    public Envelope tree() throws IOException {
+        ObjectNode node = (ObjectNode) mapper.readTree(json);
+        if (node.has("content")) {
+            return mapper.convertValue(node, Message.class);
+        } else if (node.has("event")) {
+            return mapper.convertValue(node, Notification.class);
+        } else if (node.has("method")) {
+            return mapper.convertValue(node, Command.class);
+        }
+        throw new IllegalArgumentException("Envelope deserialization not implemented for this value");
+    }
+}
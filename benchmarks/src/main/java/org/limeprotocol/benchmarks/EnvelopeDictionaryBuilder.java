@@ -0,0 +1,245 @@
+package org.limeprotocol.benchmarks;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import org.limeprotocol.*;
+import org.limeprotocol.network.compression.EnvelopeDictionary;
+import org.limeprotocol.serialization.JacksonEnvelopeSerializer;
+import org.limeprotocol.serialization.SerializationUtil;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * Builds the {@link EnvelopeDictionary} resource from captured traffic.
+ * The traffic file has one envelope JSON per line, like the received envelopes traced by the transports.
+ * Since the captures may not have every document type, envelopes with the documents registered by both
+ * registrators are also generated. The fragments with the highest frequency times length are written to the
+ * dictionary, the most valuable at its end, where the deflate distances are shorter.
+ * <p>
+ * Usage: {@code EnvelopeDictionaryBuilder <output file> [traffic file] [max dictionary size]}
+ */
+public class EnvelopeDictionaryBuilder {
+
+    public final static int DEFAULT_MAX_DICTIONARY_SIZE = 4096;
+    private final static int MAX_FRAGMENT_LENGTH = 96;
+    private final static int MIN_FRAGMENT_OCCURRENCES = 4;
+
+    private final static String[] NODES = {
+            "postmaster@msging.net", "postmaster@limeprotocol.org", "user@msging.net/default",
+            "5531999999999@wa.gw.msging.net", "1234567890@messenger.gw.msging.net", "contact@0mn.io/instance"
+    };
+    private final static String[] RESOURCE_URIS = {
+            "/ping", "/presence", "/receipt", "/account", "/contacts", "/delegations", "/threads",
+            "/event-track", "/schedules", "/lists", "/buckets", "/sessions"
+    };
+
+    private final JsonFactory jsonFactory;
+    private final Map<String, Integer> fragmentOccurrences;
+
+    public EnvelopeDictionaryBuilder() {
+        this.jsonFactory = new JsonFactory();
+        this.fragmentOccurrences = new HashMap<>();
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: EnvelopeDictionaryBuilder <output file> [traffic file] [max dictionary size]");
+            System.exit(1);
+        }
+        EnvelopeDictionaryBuilder builder = new EnvelopeDictionaryBuilder();
+        if (args.length > 1) {
+            for (String line : Files.readAllLines(Paths.get(args[1]), StandardCharsets.UTF_8)) {
+                if (!line.trim().isEmpty()) {
+                    builder.addEnvelope(line.trim());
+                }
+            }
+        }
+        for (String envelopeJson : createRegisteredDocumentsTraffic()) {
+            builder.addEnvelope(envelopeJson);
+        }
+        int maxSize = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_MAX_DICTIONARY_SIZE;
+        Path outputPath = Paths.get(args[0]);
+        byte[] dictionary = builder.build(maxSize);
+        Files.write(outputPath, dictionary);
+        System.out.printf("Wrote %d bytes to %s%n", dictionary.length, outputPath);
+    }
+
+    /**
+     * Counts the fragments of the envelope, which are its property names and the pairs of names and short values.
+     * @param envelopeJson
+     */
+    public void addEnvelope(String envelopeJson) throws IOException {
+        try (JsonParser parser = jsonFactory.createParser(envelopeJson)) {
+            String fieldName = null;
+            JsonToken token;
+            while ((token = parser.nextToken()) != null) {
+                switch (token) {
+                    case FIELD_NAME:
+                        fieldName = parser.getCurrentName();
+                        addFragment("\"" + fieldName + "\":");
+                        break;
+                    case START_OBJECT:
+                        if (fieldName != null) {
+                            addFragment("\"" + fieldName + "\":{");
+                        }
+                        fieldName = null;
+                        break;
+                    case VALUE_STRING:
+                    case VALUE_TRUE:
+                    case VALUE_FALSE:
+                        if (fieldName != null && !isUnique(parser.getText())) {
+                            String value = token == JsonToken.VALUE_STRING ? "\"" + parser.getText() + "\"" : parser.getText();
+                            addFragment("\"" + fieldName + "\":" + value + ",");
+                        }
+                        fieldName = null;
+                        break;
+                    default:
+                        fieldName = null;
+                        break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Builds the dictionary with the most valuable fragments.
+     * @param maxSize
+     * @return
+     */
+    public byte[] build(int maxSize) {
+        List<Map.Entry<String, Integer>> fragments = new ArrayList<>();
+        for (Map.Entry<String, Integer> fragment : fragmentOccurrences.entrySet()) {
+            if (fragment.getValue() >= MIN_FRAGMENT_OCCURRENCES) {
+                fragments.add(fragment);
+            }
+        }
+        Collections.sort(fragments, new Comparator<Map.Entry<String, Integer>>() {
+            @Override
+            public int compare(Map.Entry<String, Integer> e1, Map.Entry<String, Integer> e2) {
+                int compare = Long.compare(getScore(e2), getScore(e1));
+                return compare != 0 ? compare : e1.getKey().compareTo(e2.getKey());
+            }
+        });
+
+        Deque<String> selectedFragments = new ArrayDeque<>();
+        int size = 0;
+        for (Map.Entry<String, Integer> fragment : fragments) {
+            String value = fragment.getKey();
+            int length = value.getBytes(StandardCharsets.UTF_8).length;
+            if (size + length > maxSize) {
+                continue;
+            }
+            // Fragments contained in a selected one are already referenceable
+            boolean isContained = false;
+            for (String selectedFragment : selectedFragments) {
+                if (selectedFragment.contains(value)) {
+                    isContained = true;
+                    break;
+                }
+            }
+            if (!isContained) {
+                // The most valuable fragments are added last
+                selectedFragments.addFirst(value);
+                size += length;
+            }
+        }
+
+        StringBuilder dictionary = new StringBuilder(size);
+        for (String selectedFragment : selectedFragments) {
+            dictionary.append(selectedFragment);
+        }
+        return dictionary.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private void addFragment(String fragment) {
+        if (fragment.length() <= MAX_FRAGMENT_LENGTH) {
+            Integer occurrences = fragmentOccurrences.get(fragment);
+            fragmentOccurrences.put(fragment, occurrences == null ? 1 : occurrences + 1);
+        }
+    }
+
+    private static long getScore(Map.Entry<String, Integer> fragment) {
+        return (long) fragment.getValue() * fragment.getKey().length();
+    }
+
+    private static boolean isUnique(String value) {
+        // Identifiers and dates are not repeated between the envelopes
+        return value.matches("[0-9a-fA-F]{8}-[0-9a-fA-F]{4}-.*")
+                || value.matches("\\d{4}-\\d{2}-\\d{2}T.*");
+    }
+
+    /**
+     * Creates envelopes with empty instances of the documents registered by the messaging registrators.
+     * @return
+     */
+    static List<String> createRegisteredDocumentsTraffic() {
+        org.limeprotocol.messaging.Registrator.registerDocuments();
+        net.take.iris.messaging.Registrator.registerDocuments();
+        JacksonEnvelopeSerializer serializer = new JacksonEnvelopeSerializer();
+        Random random = new Random(0);
+        List<MediaType> mediaTypes = new ArrayList<>(SerializationUtil.getDocumentMediaTypes());
+        Collections.sort(mediaTypes, new Comparator<MediaType>() {
+            @Override
+            public int compare(MediaType m1, MediaType m2) {
+                return m1.toString().compareTo(m2.toString());
+            }
+        });
+
+        List<String> traffic = new ArrayList<>();
+        for (MediaType mediaType : mediaTypes) {
+            Document document;
+            try {
+                document = SerializationUtil.findDocumentClassFor(mediaType).getConstructor().newInstance();
+            } catch (ReflectiveOperationException e) {
+                continue;
+            }
+            for (int i = 0; i < MIN_FRAGMENT_OCCURRENCES; i++) {
+                Message message = new Message(UUID.randomUUID().toString());
+                setNodes(message, random);
+                message.setContent(document);
+                addSerialized(traffic, serializer, message);
+
+                Command command = new Command(UUID.randomUUID().toString());
+                setNodes(command, random);
+                command.setUri(new LimeUri(RESOURCE_URIS[random.nextInt(RESOURCE_URIS.length)]));
+                command.setMethod(Command.CommandMethod.GET);
+                addSerialized(traffic, serializer, command);
+
+                Command response = new Command(command.getId());
+                setNodes(response, random);
+                response.setMethod(Command.CommandMethod.values()[random.nextInt(Command.CommandMethod.values().length)]);
+                response.setStatus(Command.CommandStatus.SUCCESS);
+                response.setResource(document);
+                addSerialized(traffic, serializer, response);
+            }
+        }
+        for (Notification.Event event : Notification.Event.values()) {
+            for (int i = 0; i < mediaTypes.size(); i++) {
+                Notification notification = new Notification(UUID.randomUUID().toString());
+                setNodes(notification, random);
+                notification.setEvent(event);
+                addSerialized(traffic, serializer, notification);
+            }
+        }
+        return traffic;
+    }
+
+    private static void setNodes(Envelope envelope, Random random) {
+        envelope.setFrom(Node.parse(NODES[random.nextInt(NODES.length)]));
+        envelope.setTo(Node.parse(NODES[random.nextInt(NODES.length)]));
+    }
+
+    private static void addSerialized(List<String> traffic, JacksonEnvelopeSerializer serializer, Envelope envelope) {
+        try {
+            traffic.add(serializer.serialize(envelope));
+        } catch (RuntimeException e) {
+            // Some documents cannot be serialized without values
+        }
+    }
+}
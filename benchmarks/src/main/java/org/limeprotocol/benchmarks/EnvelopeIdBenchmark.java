@@ -0,0 +1,45 @@
+package org.limeprotocol.benchmarks;
+
+import org.limeprotocol.EnvelopeIdGenerator;
+import org.limeprotocol.RandomEnvelopeIdGenerator;
+import org.limeprotocol.TimeOrderedEnvelopeIdGenerator;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the generation of envelope ids by many sending threads, comparing the random UUIDs, which share
+ * a {@code SecureRandom}, with the time-ordered ids built from thread confined state.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EnvelopeIdBenchmark {
+
+    @Param({"random", "timeOrdered"})
+    String generatorType;
+
+    EnvelopeIdGenerator generator;
+
+    @Setup
+    public void setUp() {
+        generator = generatorType.equals("random")
+                ? new RandomEnvelopeIdGenerator()
+                : new TimeOrderedEnvelopeIdGenerator();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public String newIdSingleThread() {
+        return generator.newId();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public String newIdContended() {
+        return generator.newId();
+    }
+}
@@ -0,0 +1,111 @@
+package org.limeprotocol.benchmarks;
+
+import org.limeprotocol.network.JsonBuffer;
+import org.limeprotocol.network.JsonRingBuffer;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the framing of a stream of small envelopes, received in socket-sized chunks,
+ * by the copying {@link JsonBuffer} and the {@link JsonRingBuffer}, which skips the strings 8 bytes at a time.
+ * The envelope sizes are of a notification, a text message and a collection of thread messages.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class JsonFramingBenchmark {
+
+    private static final int ENVELOPES_COUNT = 1000;
+
+    @Param({"65536"})
+    int bufferSize;
+
+    @Param({"4096"})
+    int chunkSize;
+
+    @Param({"notification", "message", "collection"})
+    String envelopeKind;
+
+    byte[] stream;
+
+    @Setup
+    public void setUp() {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < ENVELOPES_COUNT; i++) {
+            builder.append(createEnvelopeJson(i));
+        }
+        stream = builder.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private String createEnvelopeJson(int i) {
+        switch (envelopeKind) {
+            case "notification":
+                return String.format(
+                        "{\"event\":\"received\",\"id\":\"%s\",\"from\":\"sender@limeprotocol.org/home\",\"to\":\"receiver@limeprotocol.org/home\"}",
+                        UUID.randomUUID());
+            case "message":
+                return String.format(
+                        "{\"type\":\"text/plain\",\"content\":\"Message %d\",\"id\":\"%s\",\"from\":\"sender@limeprotocol.org/home\",\"to\":\"receiver@limeprotocol.org/home\"}",
+                        i, UUID.randomUUID());
+            case "collection":
+                StringBuilder items = new StringBuilder();
+                for (int j = 0; j < 20; j++) {
+                    if (j > 0) {
+                        items.append(',');
+                    }
+                    items.append(String.format(
+                            "{\"id\":\"%s\",\"direction\":\"received\",\"type\":\"text/plain\",\"content\":\"Message %d with a \\\"quoted\\\" {word}\",\"date\":\"2016-10-18T12:00:00.000Z\",\"status\":\"consumed\"}",
+                            UUID.randomUUID(), j));
+                }
+                return String.format(
+                        "{\"type\":\"application/vnd.lime.collection+json\",\"resource\":{\"total\":20,\"itemType\":\"application/vnd.iris.thread-message+json\",\"items\":[%s]},\"method\":\"get\",\"status\":\"success\",\"id\":\"%s\",\"from\":\"postmaster@limeprotocol.org\",\"to\":\"receiver@limeprotocol.org/home\"}",
+                        items, UUID.randomUUID());
+            default:
+                throw new IllegalArgumentException("envelopeKind");
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ENVELOPES_COUNT)
+    public void jsonBuffer(Blackhole blackhole) {
+        JsonBuffer jsonBuffer = new JsonBuffer(bufferSize);
+        int offset = 0;
+        while (offset < stream.length) {
+            int length = Math.min(Math.min(chunkSize, stream.length - offset), jsonBuffer.getBuffer().length - jsonBuffer.getBufferCurPos());
+            System.arraycopy(stream, offset, jsonBuffer.getBuffer(), jsonBuffer.getBufferCurPos(), length);
+            jsonBuffer.increaseBufferCurPos(length);
+            offset += length;
+
+            JsonBuffer.JsonBufferReadResult result;
+            while ((result = jsonBuffer.tryExtractJsonFromBuffer()).isSuccess()) {
+                blackhole.consume(result.getJsonBytes());
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ENVELOPES_COUNT)
+    public void jsonRingBuffer(Blackhole blackhole) {
+        JsonRingBuffer jsonBuffer = new JsonRingBuffer(bufferSize);
+        int offset = 0;
+        while (offset < stream.length) {
+            jsonBuffer.compact();
+            int length = Math.min(Math.min(chunkSize, stream.length - offset), jsonBuffer.getWritableLength());
+            jsonBuffer.write(ByteBuffer.wrap(stream, offset, length));
+            offset += length;
+
+            while (jsonBuffer.tryExtractJson()) {
+                blackhole.consume(jsonBuffer.getJsonOffset());
+                blackhole.consume(jsonBuffer.getJsonLength());
+            }
+        }
+    }
+}
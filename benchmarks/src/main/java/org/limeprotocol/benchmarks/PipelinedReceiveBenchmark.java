@@ -0,0 +1,148 @@
+package org.limeprotocol.benchmarks;
+
+import org.limeprotocol.*;
+import org.limeprotocol.messaging.contents.PlainText;
+import org.limeprotocol.network.Transport;
+import org.limeprotocol.network.tcp.TcpClient;
+import org.limeprotocol.network.tcp.TcpClientFactory;
+import org.limeprotocol.network.tcp.TcpTransport;
+import org.limeprotocol.serialization.JacksonEnvelopeSerializer;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.*;
+import java.net.SocketAddress;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the receive throughput of a single {@link TcpTransport} connection, deserializing the envelopes in the
+ * listener thread or in a pool with the specified number of threads. The envelopes are read from memory, so the
+ * throughput is bound by the framing and deserialization; it should scale with the pool size up to the
+ * available cores, until the framing thread becomes the bottleneck.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PipelinedReceiveBenchmark {
+
+    private static final int ENVELOPES_COUNT = 2000;
+
+    @Param({"0", "1", "2", "4"})
+    int deserializationThreads;
+
+    byte[] stream;
+    ExecutorService executorService;
+
+    @Setup
+    public void setUp() throws IOException {
+        org.limeprotocol.messaging.Registrator.registerDocuments();
+        JacksonEnvelopeSerializer serializer = new JacksonEnvelopeSerializer();
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        for (int i = 0; i < ENVELOPES_COUNT; i++) {
+            List<Document> items = new ArrayList<>();
+            for (int j = 0; j < 10; j++) {
+                items.add(new PlainText("Message " + j + " of the thread, with some text to parse"));
+            }
+            Command command = new Command(EnvelopeId.newId());
+            command.setFrom(Node.parse("postmaster@msging.net/#az-iris1"));
+            command.setTo(Node.parse("user@msging.net/default"));
+            command.setMethod(Command.CommandMethod.GET);
+            command.setStatus(Command.CommandStatus.SUCCESS);
+            DocumentCollection collection = new DocumentCollection();
+            collection.setTotal(items.size());
+            collection.setItemType(MediaType.parse(PlainText.MIME_TYPE));
+            collection.setItems(items.toArray(new Document[items.size()]));
+            command.setResource(collection);
+            outputStream.write(serializer.serialize(command).getBytes("UTF-8"));
+        }
+        stream = outputStream.toByteArray();
+        if (deserializationThreads > 0) {
+            executorService = Executors.newFixedThreadPool(deserializationThreads);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (executorService != null) {
+            executorService.shutdown();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ENVELOPES_COUNT)
+    public void receive() throws Exception {
+        TcpTransport transport = new TcpTransport(new JacksonEnvelopeSerializer(), new TcpClientFactory() {
+            @Override
+            public TcpClient create() {
+                return new MemoryTcpClient(stream);
+            }
+        });
+        transport.setDeserializationExecutor(executorService);
+        transport.open(new URI("net.tcp://localhost:55321"));
+        final CountDownLatch receivedLatch = new CountDownLatch(ENVELOPES_COUNT);
+        transport.setEnvelopeListener(new Transport.TransportEnvelopeListener() {
+            @Override
+            public void onReceive(Envelope envelope) {
+                receivedLatch.countDown();
+            }
+        });
+        if (!receivedLatch.await(1, TimeUnit.MINUTES)) {
+            throw new IllegalStateException("The envelopes were not received");
+        }
+        transport.close();
+    }
+
+    private static class MemoryTcpClient implements TcpClient {
+        private final InputStream inputStream;
+
+        MemoryTcpClient(byte[] stream) {
+            this.inputStream = new ByteArrayInputStream(stream);
+        }
+
+        @Override
+        public void connect(SocketAddress endpoint) {
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return new ByteArrayOutputStream();
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return inputStream;
+        }
+
+        @Override
+        public boolean isTlsStarted() {
+            return false;
+        }
+
+        @Override
+        public void startTls() throws IOException {
+            throw new IOException("TLS is not supported");
+        }
+
+        @Override
+        public boolean isInputShutdown() {
+            return false;
+        }
+
+        @Override
+        public boolean isOutputShutdown() {
+            return false;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
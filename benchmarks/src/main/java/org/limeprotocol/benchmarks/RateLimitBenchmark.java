@@ -0,0 +1,81 @@
+package org.limeprotocol.benchmarks;
+
+import org.limeprotocol.util.TokenBucket;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures many threads taking permits of a single rate limiter, with a rate high enough to never wait.
+ * The previous {@code RateGate}, which polls and adds an element of a {@link DelayQueue} for each permit, is
+ * reproduced to be compared with the compare-and-set of the {@link TokenBucket}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RateLimitBenchmark {
+
+    private static final int PERMITS = 100000;
+
+    @Param({"delayQueue", "tokenBucket"})
+    String limiter;
+
+    DelayQueue<DelayedPermit> delayQueue;
+    TokenBucket tokenBucket;
+
+    @Setup
+    public void setUp() {
+        if (limiter.equals("delayQueue")) {
+            delayQueue = new DelayQueue<>();
+            for (int i = 0; i < PERMITS; i++) {
+                delayQueue.add(new DelayedPermit(0));
+            }
+        } else {
+            tokenBucket = new TokenBucket(PERMITS, TimeUnit.SECONDS.toNanos(1));
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean acquireSingleThread() {
+        return acquire();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public boolean acquireContended() {
+        return acquire();
+    }
+
+    private boolean acquire() {
+        if (delayQueue != null) {
+            boolean acquired = delayQueue.poll() != null;
+            delayQueue.add(new DelayedPermit(0));
+            return acquired;
+        }
+        return tokenBucket.tryAcquire();
+    }
+
+    private static class DelayedPermit implements Delayed {
+        private final long expirationTime;
+
+        DelayedPermit(long delayMillis) {
+            this.expirationTime = System.currentTimeMillis() + delayMillis;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(expirationTime - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed o) {
+            return Long.compare(expirationTime, ((DelayedPermit) o).expirationTime);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package org.limeprotocol.benchmarks;
+
+import org.limeprotocol.*;
+import org.limeprotocol.network.Transport;
+import org.limeprotocol.network.tcp.NioEventLoopGroup;
+import org.limeprotocol.network.tcp.NioTcpTransport;
+import org.limeprotocol.network.tcp.TcpTransport;
+import org.limeprotocol.serialization.JacksonEnvelopeSerializer;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the thread-per-connection {@link TcpTransport} with the selector-based {@link NioTcpTransport},
+ * sending a message and awaiting its echo from a loopback server. Run with many threads (-t) to simulate many channels.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TransportRoundTripBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Server {
+        EchoServer echoServer;
+        NioEventLoopGroup eventLoopGroup;
+
+        @Setup
+        public void setUp() throws Exception {
+            echoServer = new EchoServer();
+            eventLoopGroup = new NioEventLoopGroup();
+        }
+
+        @TearDown
+        public void tearDown() throws Exception {
+            eventLoopGroup.close();
+            echoServer.close();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Connection {
+        @Param({"blocking", "nio"})
+        String transportType;
+
+        Transport transport;
+        Message message;
+        final SynchronousQueue<Envelope> receivedEnvelopes = new SynchronousQueue<>();
+
+        @Setup
+        public void setUp(Server server) throws Exception {
+            if (transportType.equals("nio")) {
+                transport = new NioTcpTransport(new JacksonEnvelopeSerializer(), server.eventLoopGroup);
+            } else {
+                transport = new TcpTransport();
+            }
+            transport.open(server.echoServer.getUri());
+            transport.setEnvelopeListener(new Transport.TransportEnvelopeListener() {
+                @Override
+                public void onReceive(Envelope envelope) {
+                    try {
+                        receivedEnvelopes.put(envelope);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+
+            message = new Message(EnvelopeId.newId());
+            message.setTo(Node.parse("benchmark@limeprotocol.org/default"));
+            message.setContent(new PlainDocument("Hello world", MediaType.parse("text/plain")));
+        }
+
+        @TearDown
+        public void tearDown() throws Exception {
+            transport.close();
+        }
+    }
+
+    @Benchmark
+    public Envelope roundTrip(Connection connection) throws Exception {
+        connection.transport.send(connection.message);
+        return connection.receivedEnvelopes.take();
+    }
+}
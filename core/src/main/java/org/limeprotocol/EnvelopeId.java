@@ -1,16 +1,48 @@
 package org.limeprotocol;
 
-import java.util.UUID;
+import java.util.Iterator;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
 
 /**
  * Utility class for generating envelope ids.
  */
 public class EnvelopeId {
+
+    private static volatile EnvelopeIdGenerator generator = loadGenerator();
+
     /**
      * Generates a new envelope identifier.
      * @return
      */
     public static String newId() {
-        return UUID.randomUUID().toString();
+        return generator.newId();
+    }
+
+    public static EnvelopeIdGenerator getGenerator() {
+        return generator;
+    }
+
+    /**
+     * Sets the strategy used by all the envelope id generations of the process.
+     * @param generator
+     */
+    public static void setGenerator(EnvelopeIdGenerator generator) {
+        if (generator == null) {
+            throw new IllegalArgumentException("generator");
+        }
+        EnvelopeId.generator = generator;
+    }
+
+    private static EnvelopeIdGenerator loadGenerator() {
+        try {
+            Iterator<EnvelopeIdGenerator> iterator = ServiceLoader.load(EnvelopeIdGenerator.class).iterator();
+            if (iterator.hasNext()) {
+                return iterator.next();
+            }
+        } catch (ServiceConfigurationError e) {
+            e.printStackTrace();
+        }
+        return new RandomEnvelopeIdGenerator();
     }
 }
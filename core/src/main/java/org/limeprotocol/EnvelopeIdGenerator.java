@@ -0,0 +1,15 @@
+package org.limeprotocol;
+
+/**
+ * Defines a strategy for generating envelope ids.
+ * The default strategy of {@link EnvelopeId} can be replaced by {@link EnvelopeId#setGenerator(EnvelopeIdGenerator)}
+ * or by declaring an implementation in a {@code META-INF/services/org.limeprotocol.EnvelopeIdGenerator} file.
+ */
+public interface EnvelopeIdGenerator {
+
+    /**
+     * Generates a new envelope identifier. It may be called by many threads concurrently.
+     * @return
+     */
+    String newId();
+}
@@ -6,6 +6,8 @@ import org.limeprotocol.util.StringUtils;
 public class Identity {
     private String name;
     private String domain;
+    private String string;
+    private int hash;
 
     public Identity(String name, String domain){
         setName(name);
@@ -18,6 +20,7 @@ public class Identity {
 
     public void setName(String name) {
         this.name = name;
+        onChanged();
     }
 
     public String getDomain() {
@@ -26,6 +29,15 @@ public class Identity {
 
     public void setDomain(String domain) {
         this.domain = domain;
+        onChanged();
+    }
+
+    /**
+     * Clears the cached string and hash code forms. It is called by the setters.
+     */
+    protected void onChanged() {
+        this.string = null;
+        this.hash = 0;
     }
 
     @Override
@@ -51,7 +63,13 @@ public class Identity {
 
     @Override
     public int hashCode() {
-        return this.toString().toLowerCase().hashCode();
+        int hash = this.hash;
+        if (hash == 0) {
+            String string = this.toString();
+            hash = string != null ? string.toLowerCase().hashCode() : 0;
+            this.hash = hash;
+        }
+        return hash;
     }
 
     @Override
@@ -59,11 +77,12 @@ public class Identity {
         if (StringUtils.isNullOrWhiteSpace(this.domain)) {
             return this.name;
         }
-        else {
-            return String.format("%1$s@%2$s",
-                                name == null ? "" : name,
-                                domain);
+        String string = this.string;
+        if (string == null) {
+            string = (name == null ? "" : name) + "@" + domain;
+            this.string = string;
         }
+        return string;
     }
 
     /**
@@ -9,6 +9,7 @@ public class Node extends Identity {
 
     private String instance;
     private boolean isComplete;
+    private String nodeString;
 
 
     public Node(String name, String domain, String instance){
@@ -34,14 +35,24 @@ public class Node extends Identity {
 
     public void setInstance(String instance) {
         this.instance = instance;
+        onChanged();
     }
 
     @Override
-    public String toString() {
-        //'\0' == '' (Empty character)
-        String nodeString = StringUtils.format("{0}/{1}", super.toString(), instance);
-        nodeString = StringUtils.trimEnd(nodeString, "/");
+    protected void onChanged() {
+        super.onChanged();
+        this.nodeString = null;
+    }
 
+    @Override
+    public String toString() {
+        String nodeString = this.nodeString;
+        if (nodeString == null) {
+            String identityString = super.toString();
+            nodeString = (identityString == null ? "" : identityString) + "/" + (instance == null ? "" : instance);
+            nodeString = StringUtils.trimEnd(nodeString, "/");
+            this.nodeString = nodeString;
+        }
         return nodeString;
     }
 
@@ -0,0 +1,177 @@
+package org.limeprotocol;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Bounded cache of canonical identity and node values, so the parsing and the string and hash code forms of
+ * the peers that exchange many envelopes are computed once.
+ * The cached values are shared by all envelopes, so they can't be changed; a changed value can be obtained
+ * with {@link Node#copy()}. When the cache is full, it is cleared.
+ */
+public final class NodeCache {
+
+    public static final int DEFAULT_MAX_SIZE = 10000;
+
+    private static final NodeCache DEFAULT = new NodeCache(DEFAULT_MAX_SIZE);
+
+    private final int maxSize;
+    private final ConcurrentHashMap<String, Node> nodes;
+    private final ConcurrentHashMap<String, Identity> identities;
+
+    public NodeCache(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize");
+        }
+        this.maxSize = maxSize;
+        this.nodes = new ConcurrentHashMap<>();
+        this.identities = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Gets the cache used by the envelope deserialization.
+     * @return
+     */
+    public static NodeCache getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Gets the canonical node of the string.
+     * @param s
+     * @return An immutable node.
+     */
+    public Node parseNode(String s) {
+        Node node = nodes.get(s);
+        if (node == null) {
+            Node parsedNode = Node.parse(s);
+            node = putNode(s, new ImmutableNode(parsedNode.getName(), parsedNode.getDomain(), parsedNode.getInstance()));
+        }
+        return node;
+    }
+
+    /**
+     * Gets the canonical identity of the string.
+     * @param s
+     * @return An immutable identity.
+     */
+    public Identity parseIdentity(String s) {
+        Identity identity = identities.get(s);
+        if (identity == null) {
+            Identity parsedIdentity = Identity.parse(s);
+            ImmutableIdentity newIdentity = new ImmutableIdentity(parsedIdentity.getName(), parsedIdentity.getDomain());
+            if (identities.size() >= maxSize) {
+                identities.clear();
+            }
+            identity = identities.putIfAbsent(s, newIdentity);
+            if (identity == null) {
+                identity = newIdentity;
+            }
+        }
+        return identity;
+    }
+
+    /**
+     * Gets the canonical node with the values of the specified node.
+     * @param node
+     * @return An immutable node.
+     */
+    public Node intern(Node node) {
+        if (node == null) {
+            throw new IllegalArgumentException("node");
+        }
+        if (node instanceof ImmutableNode) {
+            return node;
+        }
+        String key = node.toString();
+        Node cachedNode = nodes.get(key);
+        if (cachedNode == null || !equalsExactly(cachedNode, node)) {
+            ImmutableNode newNode = new ImmutableNode(node.getName(), node.getDomain(), node.getInstance());
+            cachedNode = putNode(key, newNode);
+            if (!equalsExactly(cachedNode, node)) {
+                // The key is used by a parsed string that results in other values
+                return newNode;
+            }
+        }
+        return cachedNode;
+    }
+
+    public int size() {
+        return nodes.size() + identities.size();
+    }
+
+    private Node putNode(String key, ImmutableNode newNode) {
+        if (nodes.size() >= maxSize) {
+            nodes.clear();
+        }
+        Node node = nodes.putIfAbsent(key, newNode);
+        return node != null ? node : newNode;
+    }
+
+    private static boolean equalsExactly(Node node, Node otherNode) {
+        // The nodes are case insensitive, but the canonical value keeps the case of the original one
+        return equalsExactly(node.getName(), otherNode.getName())
+                && equalsExactly(node.getDomain(), otherNode.getDomain())
+                && equalsExactly(node.getInstance(), otherNode.getInstance());
+    }
+
+    private static boolean equalsExactly(String value, String otherValue) {
+        return value == null ? otherValue == null : value.equals(otherValue);
+    }
+
+    private static final class ImmutableNode extends Node {
+        private final boolean isFrozen;
+
+        ImmutableNode(String name, String domain, String instance) {
+            super(name, domain, instance);
+            this.isFrozen = true;
+            // Computes the cached forms before the node is shared
+            hashCode();
+        }
+
+        @Override
+        public void setName(String name) {
+            checkNotFrozen(isFrozen);
+            super.setName(name);
+        }
+
+        @Override
+        public void setDomain(String domain) {
+            checkNotFrozen(isFrozen);
+            super.setDomain(domain);
+        }
+
+        @Override
+        public void setInstance(String instance) {
+            checkNotFrozen(isFrozen);
+            super.setInstance(instance);
+        }
+    }
+
+    private static final class ImmutableIdentity extends Identity {
+        private final boolean isFrozen;
+
+        ImmutableIdentity(String name, String domain) {
+            super(name, domain);
+            this.isFrozen = true;
+            hashCode();
+        }
+
+        @Override
+        public void setName(String name) {
+            checkNotFrozen(isFrozen);
+            super.setName(name);
+        }
+
+        @Override
+        public void setDomain(String domain) {
+            checkNotFrozen(isFrozen);
+            super.setDomain(domain);
+        }
+    }
+
+    private static void checkNotFrozen(boolean isFrozen) {
+        if (isFrozen) {
+            throw new UnsupportedOperationException("The cached value can't be changed. Use a copy of it.");
+        }
+    }
+}
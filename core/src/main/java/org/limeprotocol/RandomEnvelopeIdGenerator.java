@@ -0,0 +1,14 @@
+package org.limeprotocol;
+
+import java.util.UUID;
+
+/**
+ * Generates random UUID envelope ids, which is the default strategy.
+ */
+public class RandomEnvelopeIdGenerator implements EnvelopeIdGenerator {
+
+    @Override
+    public String newId() {
+        return UUID.randomUUID().toString();
+    }
+}
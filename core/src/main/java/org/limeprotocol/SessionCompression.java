@@ -12,5 +12,11 @@ public enum SessionCompression {
     /**
      * The session is using the GZip algorithm for compression.
      */
-    GZIP
+    GZIP,
+
+    /**
+     * The session is using the deflate algorithm with the preset envelope dictionary,
+     * compressing each envelope independently. Requires a transport that preserves the message boundaries.
+     */
+    DEFLATE_DICTIONARY
 }
@@ -0,0 +1,175 @@
+package org.limeprotocol;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.security.SecureRandom;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Generates time-ordered envelope ids in the UUID format, with the layout of the version 7 UUIDs.
+ * The ids have the milliseconds timestamp in the 48 most significant bits, followed by a sequence of the
+ * generating thread, the bits of the thread and the random bits of the node, so the generation uses only
+ * thread confined state. The ids of a thread are strictly increasing, even if the clock goes back.
+ * The bits of the finished threads are reused by the new ones, which continue the sequence of the finished thread,
+ * so the bits are not repeated by live threads even if the process creates more threads than the bits allow.
+ */
+public class TimeOrderedEnvelopeIdGenerator implements EnvelopeIdGenerator {
+
+    private static final int THREAD_BITS = 20;
+    private static final int NODE_BITS = 22;
+    private static final int SEQUENCE_LOW_BITS = 20;
+    private static final long SEQUENCE_MASK = 0xFFFFFFFFL;
+    private static final long VERSION = 0x7000L;
+    private static final long VARIANT = 0x8000000000000000L;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final long nodeBits;
+    private final AtomicInteger threadsCount;
+    private final Set<ThreadState> liveThreadStates;
+    private final ReferenceQueue<Thread> finishedThreads;
+    private final Queue<ThreadState> releasedThreadStates;
+    private final ThreadLocal<ThreadState> threadState;
+
+    public TimeOrderedEnvelopeIdGenerator() {
+        this(new SecureRandom().nextInt(1 << NODE_BITS));
+    }
+
+    /**
+     * Creates a generator for the specified node, which should be unique among the processes that send
+     * envelopes to the same destinations. Only the 22 less significant bits are used.
+     * @param node
+     */
+    public TimeOrderedEnvelopeIdGenerator(int node) {
+        this.nodeBits = (long) (node & ((1 << NODE_BITS) - 1)) << (THREAD_BITS + SEQUENCE_LOW_BITS);
+        this.threadsCount = new AtomicInteger();
+        this.liveThreadStates = ConcurrentHashMap.newKeySet();
+        this.finishedThreads = new ReferenceQueue<>();
+        this.releasedThreadStates = new ConcurrentLinkedQueue<>();
+        this.threadState = new ThreadLocal<ThreadState>() {
+            @Override
+            protected ThreadState initialValue() {
+                return registerThread(Thread.currentThread());
+            }
+        };
+    }
+
+    @Override
+    public String newId() {
+        ThreadState state = threadState.get();
+        long timestamp = System.currentTimeMillis();
+        if (timestamp > state.timestamp) {
+            state.timestamp = timestamp;
+            state.sequence = 0;
+        } else if (++state.sequence > SEQUENCE_MASK) {
+            // The sequence of the millisecond was exhausted, so the next millisecond is borrowed
+            state.timestamp++;
+            state.sequence = 0;
+        }
+        long sequence = state.sequence;
+        long mostSigBits = state.timestamp << 16 | VERSION | sequence >>> SEQUENCE_LOW_BITS;
+        long leastSigBits = VARIANT | nodeBits | state.threadBits | sequence & ((1L << SEQUENCE_LOW_BITS) - 1);
+        return format(mostSigBits, leastSigBits);
+    }
+
+    private ThreadState registerThread(Thread owner) {
+        releaseFinishedThreads();
+        ThreadState previousState = releasedThreadStates.poll();
+        if (previousState == null) {
+            int thread = nextUnusedThread();
+            if (thread >= 0) {
+                return register(new ThreadState(thread, owner, finishedThreads, 0, 0));
+            }
+            // The finished threads may not have been collected yet
+            previousState = reclaimFinishedThread();
+        }
+        // The finished thread may have generated ids in the current millisecond, so its sequence is continued
+        return register(new ThreadState(previousState.thread, owner, finishedThreads, previousState.timestamp, previousState.sequence));
+    }
+
+    private ThreadState register(ThreadState state) {
+        liveThreadStates.add(state);
+        return state;
+    }
+
+    private int nextUnusedThread() {
+        while (true) {
+            int thread = threadsCount.get();
+            if (thread >= 1 << THREAD_BITS) {
+                return -1;
+            }
+            if (threadsCount.compareAndSet(thread, thread + 1)) {
+                return thread;
+            }
+        }
+    }
+
+    /**
+     * Moves the states of the collected threads to the released ones.
+     */
+    private void releaseFinishedThreads() {
+        ThreadState state;
+        while ((state = (ThreadState) finishedThreads.poll()) != null) {
+            if (liveThreadStates.remove(state)) {
+                releasedThreadStates.add(state);
+            }
+        }
+    }
+
+    private ThreadState reclaimFinishedThread() {
+        for (ThreadState state : liveThreadStates) {
+            if (!state.isOwnerAlive() && liveThreadStates.remove(state)) {
+                return state;
+            }
+        }
+        throw new IllegalStateException("The bits of the live threads were exhausted");
+    }
+
+    private static String format(long mostSigBits, long leastSigBits) {
+        char[] chars = new char[36];
+        formatHex(chars, 0, mostSigBits >>> 32, 8);
+        chars[8] = '-';
+        formatHex(chars, 9, mostSigBits >>> 16, 4);
+        chars[13] = '-';
+        formatHex(chars, 14, mostSigBits, 4);
+        chars[18] = '-';
+        formatHex(chars, 19, leastSigBits >>> 48, 4);
+        chars[23] = '-';
+        formatHex(chars, 24, leastSigBits, 12);
+        return new String(chars);
+    }
+
+    private static void formatHex(char[] chars, int offset, long value, int digits) {
+        for (int i = offset + digits - 1; i >= offset; i--) {
+            chars[i] = HEX_DIGITS[(int) (value & 0xF)];
+            value >>>= 4;
+        }
+    }
+
+    /**
+     * State of a thread, which is enqueued when the thread is collected so its bits can be reused.
+     */
+    private static final class ThreadState extends WeakReference<Thread> {
+        private final int thread;
+        private final long threadBits;
+        private long timestamp;
+        private long sequence;
+
+        ThreadState(int thread, Thread owner, ReferenceQueue<Thread> finishedThreads, long timestamp, long sequence) {
+            super(owner, finishedThreads);
+            this.thread = thread;
+            this.threadBits = (long) thread << SEQUENCE_LOW_BITS;
+            this.timestamp = timestamp;
+            this.sequence = sequence;
+        }
+
+        boolean isOwnerAlive() {
+            // The isAlive call also makes the last values written by the finished owner visible
+            Thread owner = get();
+            return owner != null && owner.isAlive();
+        }
+    }
+}
@@ -14,6 +14,8 @@ import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
@@ -158,6 +160,25 @@ public class OnDemandClientChannelImpl implements OnDemandClientChannel {
         throw new IllegalStateException("The channel is in finishing state");
     }
 
+    @Override
+    public CompletableFuture<Command> processCommandAsync(Command requestCommand, long timeout, TimeUnit timeoutTimeUnit) {
+        Objects.requireNonNull(requestCommand);
+
+        // Only the channel establishment blocks, so the command is sent directly when the channel is ready
+        ClientChannel channel = this.clientChannel;
+        if (!isFinishing && channelIsEstablished(channel)) {
+            return channel.processCommandAsync(requestCommand, timeout, timeoutTimeUnit);
+        }
+
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return getChannel("processCommand", timeout, timeoutTimeUnit);
+            } catch (TimeoutException e) {
+                throw new CompletionException(e);
+            }
+        }).thenCompose(c -> c.processCommandAsync(requestCommand, timeout, timeoutTimeUnit));
+    }
+
     @Override
     public void sendMessage(Message message) throws IOException {
         send(channel -> channel.sendMessage(message));
@@ -6,6 +6,7 @@ import org.limeprotocol.network.modules.RemotePingChannelModule;
 import org.limeprotocol.network.modules.ReplyPingChannelModule;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.*;
 import java.util.concurrent.*;
 
@@ -22,18 +23,16 @@ public abstract class ChannelBase implements Channel {
     private String sessionId;
     private Session.SessionState state;
 
-    private final Collection<ChannelModule<Message>> messageModules;
-    private final Collection<ChannelModule<Notification>> notificationModules;
-    private final Collection<ChannelModule<Command>> commandModules;
+    private final ChannelModuleCollection<Message> messageModules;
+    private final ChannelModuleCollection<Notification> notificationModules;
+    private final ChannelModuleCollection<Command> commandModules;
 
-    private final Set<CommandChannelListener> commandListeners;
-    private final Set<MessageChannelListener> messageListeners;
-    private final Set<NotificationChannelListener> notificationListeners;
-    private final Queue<CommandChannelListener> singleReceiveCommandListeners;
-    private final Queue<NotificationChannelListener> singleReceiveNotificationListeners;
-    private final Queue<MessageChannelListener> singleReceiveMessageListeners;
+    private final ChannelListenerCollection<CommandChannelListener> commandListeners;
+    private final ChannelListenerCollection<MessageChannelListener> messageListeners;
+    private final ChannelListenerCollection<NotificationChannelListener> notificationListeners;
     private final Queue<SessionChannelListener> sessionChannelListeners;
     private final Transport.TransportEnvelopeListener transportEnvelopeListener;
+    private volatile PartitionedEnvelopeDispatcher receiveDispatcher;
 
     protected ChannelBase(
             Transport transport,
@@ -49,15 +48,12 @@ public abstract class ChannelBase implements Channel {
         this.transport = transport;
         this.channelCommandProcessor = channelCommandProcessor;
 
-        messageModules = new ArrayList<>();
-        notificationModules = new ArrayList<>();
-        commandModules = new ArrayList<>();
-        commandListeners = new HashSet<>();
-        messageListeners = new HashSet<>();
-        notificationListeners = new HashSet<>();
-        singleReceiveCommandListeners = new LinkedBlockingQueue<>();
-        singleReceiveNotificationListeners = new LinkedBlockingQueue<>();
-        singleReceiveMessageListeners = new LinkedBlockingQueue<>();
+        messageModules = new ChannelModuleCollection<>();
+        notificationModules = new ChannelModuleCollection<>();
+        commandModules = new ChannelModuleCollection<>();
+        commandListeners = new ChannelListenerCollection<>(new CommandChannelListener[0]);
+        messageListeners = new ChannelListenerCollection<>(new MessageChannelListener[0]);
+        notificationListeners = new ChannelListenerCollection<>(new NotificationChannelListener[0]);
         sessionChannelListeners = new LinkedBlockingQueue<>();
         transportEnvelopeListener = new ChannelTransportEnvelopeListener();
 
@@ -154,6 +150,23 @@ public abstract class ChannelBase implements Channel {
         }
     }
 
+    /**
+     * Gets the dispatcher of the received envelopes to the listeners.
+     * @return
+     */
+    public PartitionedEnvelopeDispatcher getReceiveDispatcher() {
+        return receiveDispatcher;
+    }
+
+    /**
+     * Sets the dispatcher of the received envelopes to the listeners, which are otherwise called in the transport thread.
+     * The modules and the command responses are still handled by the transport thread, in the receive order.
+     * @param receiveDispatcher
+     */
+    public void setReceiveDispatcher(PartitionedEnvelopeDispatcher receiveDispatcher) {
+        this.receiveDispatcher = receiveDispatcher;
+    }
+
     @Override
     public Collection<ChannelModule<Message>> getMessageModules() {
         return messageModules;
@@ -179,6 +192,45 @@ public abstract class ChannelBase implements Channel {
         send(command, commandModules);
     }
 
+    /**
+     * Sends the commands to the remote node, writing them together in the transport.
+     *
+     * @param commands
+     */
+    @Override
+    public void sendCommands(List<Command> commands) throws IOException {
+        if (commands == null) {
+            throw new IllegalArgumentException("commands");
+        }
+        List<Command> sendingCommands = new ArrayList<>(commands.size());
+        for (Command command : commands) {
+            Command sendingCommand = onSending(command, commandModules);
+            if (sendingCommand != null) {
+                sendingCommands.add(sendingCommand);
+            }
+        }
+        if (sendingCommands.isEmpty()) {
+            return;
+        }
+        if (!transport.isConnected()) {
+            throw new IllegalStateException("The transport is not connected");
+        }
+        try {
+            transport.sendAllAsync(sendingCommands).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("The send was interrupted");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
     /**
      * Sets the listener for receiving commands.
      *
@@ -187,7 +239,7 @@ public abstract class ChannelBase implements Channel {
      */
     @Override
     public void addCommandListener(CommandChannelListener listener, boolean removeAfterReceive) {
-        addListener(listener, removeAfterReceive, commandListeners, singleReceiveCommandListeners);
+        commandListeners.add(listener, removeAfterReceive);
     }
 
     /**
@@ -197,7 +249,7 @@ public abstract class ChannelBase implements Channel {
      */
     @Override
     public void removeCommandListener(CommandChannelListener listener) {
-        removeListener(listener, commandListeners, singleReceiveCommandListeners);
+        commandListeners.remove(listener);
     }
 
     /**
@@ -211,6 +263,16 @@ public abstract class ChannelBase implements Channel {
         return this.channelCommandProcessor.processCommand(this, requestCommand, timeout, timeoutTimeUnit);
     }
 
+    @Override
+    public CompletableFuture<Command> processCommandAsync(Command requestCommand, long timeout, TimeUnit timeoutTimeUnit) {
+        return this.channelCommandProcessor.processCommandAsync(this, requestCommand, timeout, timeoutTimeUnit);
+    }
+
+    @Override
+    public List<CompletableFuture<Command>> processCommandsAsync(List<Command> requestCommands, int maxInFlightCommands, long timeout, TimeUnit timeoutTimeUnit) {
+        return this.channelCommandProcessor.processCommandsAsync(this, requestCommands, maxInFlightCommands, timeout, timeoutTimeUnit);
+    }
+
     /**
      * Sends a message to the remote node.
      *
@@ -229,7 +291,7 @@ public abstract class ChannelBase implements Channel {
      */
     @Override
     public void addMessageListener(MessageChannelListener listener, boolean removeAfterReceive) {
-        addListener(listener, removeAfterReceive, messageListeners, singleReceiveMessageListeners);
+        messageListeners.add(listener, removeAfterReceive);
     }
 
     /**
@@ -239,7 +301,7 @@ public abstract class ChannelBase implements Channel {
      */
     @Override
     public void removeMessageListener(MessageChannelListener listener) {
-        removeListener(listener, messageListeners, singleReceiveMessageListeners);
+        messageListeners.remove(listener);
     }
 
     /**
@@ -260,7 +322,7 @@ public abstract class ChannelBase implements Channel {
      */
     @Override
     public void addNotificationListener(NotificationChannelListener listener, boolean removeAfterReceive) {
-        addListener(listener, removeAfterReceive, notificationListeners, singleReceiveNotificationListeners);
+        notificationListeners.add(listener, removeAfterReceive);
     }
 
     /**
@@ -270,7 +332,7 @@ public abstract class ChannelBase implements Channel {
      */
     @Override
     public void removeNotificationListener(NotificationChannelListener listener) {
-        removeListener(listener, notificationListeners, singleReceiveNotificationListeners);
+        notificationListeners.remove(listener);
     }
 
     /**
@@ -308,12 +370,19 @@ public abstract class ChannelBase implements Channel {
 
         message = invokeModulesOnReceiving(message, messageModules);
         if (message != null) {
-            for (MessageChannelListener listener : snapshot(singleReceiveMessageListeners, messageListeners)) {
-                try {
-                    listener.onReceiveMessage(message);
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
+            final Message receivedMessage = message;
+            final MessageChannelListener[] listeners = messageListeners.getListeners();
+            final MessageChannelListener[] singleReceiveListeners = messageListeners.removeSingleReceiveListeners();
+            PartitionedEnvelopeDispatcher dispatcher = receiveDispatcher;
+            if (dispatcher == null) {
+                notifyMessageListeners(receivedMessage, listeners, singleReceiveListeners);
+            } else {
+                dispatcher.dispatch(message, new Runnable() {
+                    @Override
+                    public void run() {
+                        notifyMessageListeners(receivedMessage, listeners, singleReceiveListeners);
+                    }
+                });
             }
         }
     }
@@ -325,12 +394,19 @@ public abstract class ChannelBase implements Channel {
 
         // Checks it is a command response
         if (command != null && !this.channelCommandProcessor.trySubmitCommandResult(command)) {
-            for (CommandChannelListener listener : snapshot(singleReceiveCommandListeners, commandListeners)) {
-                try {
-                    listener.onReceiveCommand(command);
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
+            final Command receivedCommand = command;
+            final CommandChannelListener[] listeners = commandListeners.getListeners();
+            final CommandChannelListener[] singleReceiveListeners = commandListeners.removeSingleReceiveListeners();
+            PartitionedEnvelopeDispatcher dispatcher = receiveDispatcher;
+            if (dispatcher == null) {
+                notifyCommandListeners(receivedCommand, listeners, singleReceiveListeners);
+            } else {
+                dispatcher.dispatch(command, new Runnable() {
+                    @Override
+                    public void run() {
+                        notifyCommandListeners(receivedCommand, listeners, singleReceiveListeners);
+                    }
+                });
             }
         }
     }
@@ -340,18 +416,58 @@ public abstract class ChannelBase implements Channel {
 
         notification = invokeModulesOnReceiving(notification, notificationModules);
         if (notification != null) {
-            for (NotificationChannelListener listener : snapshot(singleReceiveNotificationListeners, notificationListeners)) {
-                try {
-                    listener.onReceiveNotification(notification);
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
+            final Notification receivedNotification = notification;
+            final NotificationChannelListener[] listeners = notificationListeners.getListeners();
+            final NotificationChannelListener[] singleReceiveListeners = notificationListeners.removeSingleReceiveListeners();
+            PartitionedEnvelopeDispatcher dispatcher = receiveDispatcher;
+            if (dispatcher == null) {
+                notifyNotificationListeners(receivedNotification, listeners, singleReceiveListeners);
+            } else {
+                dispatcher.dispatch(notification, new Runnable() {
+                    @Override
+                    public void run() {
+                        notifyNotificationListeners(receivedNotification, listeners, singleReceiveListeners);
+                    }
+                });
             }
         }
     }
 
-    private <T extends Envelope> T invokeModulesOnReceiving(T envelope, Collection<ChannelModule<T>> modules) {
-        for (ChannelModule<T> module : new ArrayList<>(modules)) {
+    private static void notifyMessageListeners(Message message, MessageChannelListener[] listeners, MessageChannelListener[] singleReceiveListeners) {
+        for (int i = 0; i < listeners.length + singleReceiveListeners.length; i++) {
+            MessageChannelListener listener = i < listeners.length ? listeners[i] : singleReceiveListeners[i - listeners.length];
+            try {
+                listener.onReceiveMessage(message);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private static void notifyCommandListeners(Command command, CommandChannelListener[] listeners, CommandChannelListener[] singleReceiveListeners) {
+        for (int i = 0; i < listeners.length + singleReceiveListeners.length; i++) {
+            CommandChannelListener listener = i < listeners.length ? listeners[i] : singleReceiveListeners[i - listeners.length];
+            try {
+                listener.onReceiveCommand(command);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private static void notifyNotificationListeners(Notification notification, NotificationChannelListener[] listeners, NotificationChannelListener[] singleReceiveListeners) {
+        for (int i = 0; i < listeners.length + singleReceiveListeners.length; i++) {
+            NotificationChannelListener listener = i < listeners.length ? listeners[i] : singleReceiveListeners[i - listeners.length];
+            try {
+                listener.onReceiveNotification(notification);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private static <T extends Envelope> T invokeModulesOnReceiving(T envelope, ChannelModuleCollection<T> modules) {
+        for (ChannelModule<T> module : modules.getReceivingModules()) {
             if (envelope == null) break;
             envelope = module.onReceiving(envelope);
         }
@@ -384,28 +500,14 @@ public abstract class ChannelBase implements Channel {
         transport.setEnvelopeListener(transportEnvelopeListener);
     }
 
-    private <TListener> void addListener(TListener listener, boolean removeAfterReceive, Set<TListener> listeners, Queue<TListener> singleReceiveListeners) {
-        if (listener == null) {
-            throw new IllegalArgumentException("listener");
-        }
-
-        if (!singleReceiveListeners.contains(listener) &&
-                !listeners.contains(listener)) {
-            if (removeAfterReceive) {
-                singleReceiveListeners.add(listener);
-            } else {
-                listeners.add(listener);
-            }
-        }
-    }
-
-    private <TListener> void removeListener(TListener listener, Set<TListener> listeners, Queue<TListener> singleReceiveListeners) {
-        if (!listeners.remove(listener)) {
-            singleReceiveListeners.remove(listener);
+    private <T extends Envelope> void send(T envelope, ChannelModuleCollection<T> modules) throws IOException {
+        envelope = onSending(envelope, modules);
+        if (envelope != null) {
+            send(envelope);
         }
     }
 
-    private <T extends Envelope> void send(T envelope, Collection<ChannelModule<T>> modules) throws IOException {
+    private <T extends Envelope> T onSending(T envelope, ChannelModuleCollection<T> modules) {
         if (envelope == null) {
             throw new IllegalArgumentException("envelope");
         }
@@ -413,14 +515,11 @@ public abstract class ChannelBase implements Channel {
             throw new IllegalStateException(String.format("Cannot send in the '%s' session state", state));
         }
 
-        for (ChannelModule<T> module : new ArrayList<>(modules)) {
+        for (ChannelModule<T> module : modules.getSendingModules()) {
             if (envelope == null) break;
             envelope = module.onSending(envelope);
         }
-
-        if (envelope != null) {
-            send(envelope);
-        }
+        return envelope;
     }
 
     private void send(Envelope envelope) throws IOException {
@@ -431,31 +530,8 @@ public abstract class ChannelBase implements Channel {
         transport.send(envelope);
     }
 
-    /**
-     * Merges a queue and a collection, removing all items from the queue.
-     * @param queue
-     * @param collection
-     * @param <T>
-     * @return
-     */
-    private synchronized static <T> Iterable<T> snapshot(Queue<T> queue, Collection<T> collection) {
-        List<T> result = new ArrayList<>();
-        if (collection != null) {
-            Iterator<T> iterator = collection.iterator();
-            while (iterator.hasNext()) {
-                result.add(iterator.next());
-            }
-        }
-        if (queue != null) {
-            while (!queue.isEmpty()) {
-                result.add(queue.remove());
-            }
-        }
-        return result;
-    }
-
-    private static <T extends Envelope> void onStateChanged(Collection<ChannelModule<T>> modules, Session.SessionState state) {
-        for (ChannelModule<T> module: new ArrayList<>(modules)) {
+    private static <T extends Envelope> void onStateChanged(ChannelModuleCollection<T> modules, Session.SessionState state) {
+        for (ChannelModule<T> module: modules.getModules()) {
             module.onStateChanged(state);
         }
     }
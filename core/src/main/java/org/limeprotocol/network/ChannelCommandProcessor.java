@@ -3,6 +3,8 @@ package org.limeprotocol.network;
 import org.limeprotocol.Command;
 
 import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
@@ -10,6 +12,29 @@ import java.util.concurrent.TimeoutException;
 public interface ChannelCommandProcessor {
     Command processCommand(CommandChannel commandChannel, Command requestCommand, long timeout, TimeUnit timeoutTimeUnit) throws IOException, TimeoutException, InterruptedException;
 
+    /**
+     * Sends a command request through the channel, returning a future that is completed
+     * with the response or exceptionally with a {@link TimeoutException} if no response is received in the timeout.
+     * @param commandChannel
+     * @param requestCommand
+     * @param timeout
+     * @param timeoutTimeUnit
+     * @return
+     */
+    CompletableFuture<Command> processCommandAsync(CommandChannel commandChannel, Command requestCommand, long timeout, TimeUnit timeoutTimeUnit);
+
+    /**
+     * Sends the command requests through the channel, keeping up to the specified number of them awaiting
+     * for a response. The commands that fit in the window are written together.
+     * @param commandChannel
+     * @param requestCommands
+     * @param maxInFlightCommands
+     * @param timeout The timeout of each command, counted from when it is sent.
+     * @param timeoutTimeUnit
+     * @return The futures of the responses, in the same order of the commands.
+     */
+    List<CompletableFuture<Command>> processCommandsAsync(CommandChannel commandChannel, List<Command> requestCommands, int maxInFlightCommands, long timeout, TimeUnit timeoutTimeUnit);
+
     boolean trySubmitCommandResult(Command responseCommand);
 
     void cancelAll();
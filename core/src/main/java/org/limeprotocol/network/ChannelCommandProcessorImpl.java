@@ -1,24 +1,201 @@
 package org.limeprotocol.network;
 
 import org.limeprotocol.Command;
+import org.limeprotocol.util.HashedWheelTimer;
+import org.limeprotocol.util.SharedExecutors;
 
 import java.io.IOException;
-import java.util.Iterator;
-import java.util.Map;
-import java.util.Objects;
+import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
 
 public class ChannelCommandProcessorImpl implements ChannelCommandProcessor {
 
+    public static final int DEFAULT_MAX_PENDING_COMMANDS = 65536;
+
     private final ConcurrentHashMap<String, CompletableFuture<Command>> pendingCommandsMap;
+    private final PriorityQueue<TimedOutCommand> timedOutCommands;
+    private final HashedWheelTimer timeoutTimer;
+    private final Executor executor;
+    private final int maxPendingCommands;
+    private final AtomicInteger pendingCommandsCount;
+    private final AtomicLong timedOutCommandsCount;
+    private final AtomicLong lateResponsesCount;
+    private final AtomicLong rejectedCommandsCount;
 
     public ChannelCommandProcessorImpl() {
-        pendingCommandsMap = new ConcurrentHashMap<>();
+        this(DEFAULT_MAX_PENDING_COMMANDS);
+    }
+
+    public ChannelCommandProcessorImpl(int maxPendingCommands) {
+        this(SharedExecutors.getTimer(), maxPendingCommands);
+    }
+
+    /**
+     * Creates a command processor that expires the pending commands using the specified timer.
+     * @param timeoutTimer
+     * @param maxPendingCommands The number of commands awaiting for a response above which the new commands are rejected.
+     */
+    public ChannelCommandProcessorImpl(HashedWheelTimer timeoutTimer, int maxPendingCommands) {
+        this(timeoutTimer, SharedExecutors.getExecutor(), maxPendingCommands);
+    }
+
+    /**
+     * Creates a command processor that expires the pending commands using the specified timer.
+     * @param timeoutTimer
+     * @param executor The executor where the pipelined commands are sent when the previous ones are answered.
+     * @param maxPendingCommands
+     */
+    public ChannelCommandProcessorImpl(HashedWheelTimer timeoutTimer, Executor executor, int maxPendingCommands) {
+        if (timeoutTimer == null) {
+            throw new IllegalArgumentException("timeoutTimer");
+        }
+        if (executor == null) {
+            throw new IllegalArgumentException("executor");
+        }
+        if (maxPendingCommands <= 0) {
+            throw new IllegalArgumentException("maxPendingCommands");
+        }
+        this.pendingCommandsMap = new ConcurrentHashMap<>();
+        this.timedOutCommands = new PriorityQueue<>(11, new Comparator<TimedOutCommand>() {
+            @Override
+            public int compare(TimedOutCommand timedOutCommand, TimedOutCommand otherTimedOutCommand) {
+                // The commands may have different timeouts, so the placeholders are ordered by their expiration
+                return Long.compare(timedOutCommand.expirationNanos - otherTimedOutCommand.expirationNanos, 0);
+            }
+        });
+        this.timeoutTimer = timeoutTimer;
+        this.executor = executor;
+        this.maxPendingCommands = maxPendingCommands;
+        this.pendingCommandsCount = new AtomicInteger();
+        this.timedOutCommandsCount = new AtomicLong();
+        this.lateResponsesCount = new AtomicLong();
+        this.rejectedCommandsCount = new AtomicLong();
+    }
+
+    /**
+     * Gets the number of commands awaiting for a response.
+     * @return
+     */
+    public int getPendingCommandsCount() {
+        return pendingCommandsCount.get();
+    }
+
+    /**
+     * Gets the number of commands that were not answered in the timeout.
+     * @return
+     */
+    public long getTimedOutCommandsCount() {
+        return timedOutCommandsCount.get();
+    }
+
+    /**
+     * Gets the number of responses received after the command timeout, up to the timeout duration later.
+     * @return
+     */
+    public long getLateResponsesCount() {
+        return lateResponsesCount.get();
+    }
+
+    /**
+     * Gets the number of commands rejected because the pending commands limit was reached.
+     * @return
+     */
+    public long getRejectedCommandsCount() {
+        return rejectedCommandsCount.get();
     }
 
     @Override
     public Command processCommand(CommandChannel commandChannel, Command requestCommand, long timeout, TimeUnit timeoutTimeUnit) throws IOException, TimeoutException, InterruptedException {
+        CompletableFuture<Command> commandFuture = processCommandAsync(commandChannel, requestCommand, timeout, timeoutTimeUnit);
+        try {
+            // The timer completes the future on timeout, but a stopped timer would block the caller forever
+            return commandFuture.get(timeout, timeoutTimeUnit);
+        } catch (InterruptedException | TimeoutException e) {
+            commandFuture.cancel(false);
+            throw e;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof TimeoutException) {
+                throw (TimeoutException) cause;
+            }
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Command> processCommandAsync(CommandChannel commandChannel, Command requestCommand, long timeout, TimeUnit timeoutTimeUnit) {
+        Objects.requireNonNull(commandChannel);
+        validateRequestCommand(requestCommand);
+        Objects.requireNonNull(timeoutTimeUnit);
+
+        CompletableFuture<Command> commandFuture = register(requestCommand, timeout, timeoutTimeUnit);
+        if (!commandFuture.isDone()) {
+            try {
+                commandChannel.sendCommand(requestCommand);
+            } catch (IOException | RuntimeException e) {
+                commandFuture.completeExceptionally(e);
+            }
+        }
+        return commandFuture;
+    }
+
+    @Override
+    public List<CompletableFuture<Command>> processCommandsAsync(final CommandChannel commandChannel, List<Command> requestCommands, int maxInFlightCommands, final long timeout, final TimeUnit timeoutTimeUnit) {
         Objects.requireNonNull(commandChannel);
+        Objects.requireNonNull(requestCommands);
+        Objects.requireNonNull(timeoutTimeUnit);
+        Set<String> commandIds = new HashSet<>();
+        for (Command requestCommand : requestCommands) {
+            validateRequestCommand(requestCommand);
+            if (!commandIds.add(requestCommand.getId())) {
+                throw new IllegalArgumentException("The command ids must be unique");
+            }
+        }
+
+        return new CommandPipeline(requestCommands, maxInFlightCommands, executor) {
+            @Override
+            protected List<CompletableFuture<Command>> send(List<Command> chunk) {
+                List<CompletableFuture<Command>> commandFutures = new ArrayList<>(chunk.size());
+                List<Command> registeredCommands = new ArrayList<>(chunk.size());
+                List<CompletableFuture<Command>> registeredFutures = new ArrayList<>(chunk.size());
+                for (Command requestCommand : chunk) {
+                    CompletableFuture<Command> commandFuture;
+                    try {
+                        commandFuture = register(requestCommand, timeout, timeoutTimeUnit);
+                    } catch (IllegalArgumentException e) {
+                        commandFuture = new CompletableFuture<>();
+                        commandFuture.completeExceptionally(e);
+                    }
+                    if (!commandFuture.isDone()) {
+                        registeredCommands.add(requestCommand);
+                        registeredFutures.add(commandFuture);
+                    }
+                    commandFutures.add(commandFuture);
+                }
+                if (!registeredCommands.isEmpty()) {
+                    try {
+                        commandChannel.sendCommands(registeredCommands);
+                    } catch (IOException | RuntimeException e) {
+                        for (CompletableFuture<Command> commandFuture : registeredFutures) {
+                            commandFuture.completeExceptionally(e);
+                        }
+                    }
+                }
+                return commandFutures;
+            }
+        }.start();
+    }
+
+    private static void validateRequestCommand(Command requestCommand) {
         Objects.requireNonNull(requestCommand);
 
         if (requestCommand.getStatus() != null) {
@@ -32,20 +209,74 @@ public class ChannelCommandProcessorImpl implements ChannelCommandProcessor {
         if (requestCommand.getId() == null) {
             throw new IllegalArgumentException("Invalid command id");
         }
+    }
 
-        if (pendingCommandsMap.containsKey(requestCommand.getId())) {
+    /**
+     * Registers the pending command and schedules its timeout.
+     * @param requestCommand
+     * @param timeout
+     * @param timeoutTimeUnit
+     * @return The future of the response, which is already completed if the command was rejected.
+     */
+    private CompletableFuture<Command> register(Command requestCommand, final long timeout, final TimeUnit timeoutTimeUnit) {
+        removeExpiredTimedOutCommands();
+        final String commandId = requestCommand.getId();
+        final CompletableFuture<Command> commandFuture = new CompletableFuture<>();
+        if (pendingCommandsCount.incrementAndGet() > maxPendingCommands) {
+            pendingCommandsCount.decrementAndGet();
+            rejectedCommandsCount.incrementAndGet();
+            commandFuture.completeExceptionally(new RejectedExecutionException(
+                    String.format("Could not register the pending command request. The limit of %d pending commands was reached.", maxPendingCommands)));
+            return commandFuture;
+        }
+        CompletableFuture<Command> existingFuture = pendingCommandsMap.putIfAbsent(commandId, commandFuture);
+        if (existingFuture != null
+                && !(existingFuture instanceof TimedOutCommand && pendingCommandsMap.replace(commandId, existingFuture, commandFuture))) {
+            pendingCommandsCount.decrementAndGet();
             throw new IllegalArgumentException("Could not register the pending command request. The command id is already in use.");
         }
 
-        CompletableFuture<Command> commandFuture = new CompletableFuture<>();
-        pendingCommandsMap.put(requestCommand.getId(), commandFuture);
-
-        commandChannel.sendCommand(requestCommand);
+        final HashedWheelTimer.Timeout timeoutTask;
         try {
-            return commandFuture.get(timeout, timeoutTimeUnit);
-        } catch (ExecutionException e) {
-            throw new RuntimeException(e);
+            timeoutTask = timeoutTimer.newTimeout(new Runnable() {
+                @Override
+                public void run() {
+                    // Keeps a placeholder of the command to recognize the late responses
+                    TimedOutCommand timedOutCommand = new TimedOutCommand(commandId, System.nanoTime() + timeoutTimeUnit.toNanos(timeout));
+                    if (!pendingCommandsMap.replace(commandId, commandFuture, timedOutCommand)) {
+                        return;
+                    }
+                    timedOutCommandsCount.incrementAndGet();
+                    if (!commandFuture.completeExceptionally(new TimeoutException(
+                            String.format("The command '%s' response was not received in %d %s", commandId, timeout, timeoutTimeUnit)))) {
+                        // The command was cancelled or failed meanwhile
+                        timedOutCommandsCount.decrementAndGet();
+                        pendingCommandsMap.remove(commandId, timedOutCommand);
+                        return;
+                    }
+                    synchronized (timedOutCommands) {
+                        timedOutCommands.add(timedOutCommand);
+                    }
+                    removeExpiredTimedOutCommands();
+                }
+            }, timeout, timeoutTimeUnit);
+        } catch (IllegalStateException e) {
+            // The timer was stopped by its owner, so the command would never expire
+            pendingCommandsMap.remove(commandId, commandFuture);
+            pendingCommandsCount.decrementAndGet();
+            commandFuture.completeExceptionally(e);
+            return commandFuture;
         }
+        commandFuture.whenComplete(new BiConsumer<Command, Throwable>() {
+            @Override
+            public void accept(Command command, Throwable throwable) {
+                pendingCommandsCount.decrementAndGet();
+                timeoutTask.cancel();
+                pendingCommandsMap.remove(commandId, commandFuture);
+            }
+        });
+
+        return commandFuture;
     }
 
     @Override
@@ -61,6 +292,14 @@ public class ChannelCommandProcessorImpl implements ChannelCommandProcessor {
         CompletableFuture<Command> pendingRequestCommand = pendingCommandsMap.get(responseCommand.getId());
         if (pendingRequestCommand == null) return false;
 
+        if (pendingRequestCommand instanceof TimedOutCommand) {
+            if (pendingCommandsMap.remove(responseCommand.getId(), pendingRequestCommand)
+                    && !((TimedOutCommand) pendingRequestCommand).isExpired(System.nanoTime())) {
+                lateResponsesCount.incrementAndGet();
+            }
+            return false;
+        }
+
         return pendingRequestCommand.complete(responseCommand);
     }
 
@@ -68,8 +307,46 @@ public class ChannelCommandProcessorImpl implements ChannelCommandProcessor {
     public void cancelAll() {
         for (Iterator<Map.Entry<String, CompletableFuture<Command>>> it = pendingCommandsMap.entrySet().iterator(); it.hasNext(); ) {
             Map.Entry<String, CompletableFuture<Command>> entry = it.next();
-            entry.getValue().cancel(true);
+            if (!(entry.getValue() instanceof TimedOutCommand)) {
+                entry.getValue().cancel(true);
+            }
             it.remove();
         }
+        synchronized (timedOutCommands) {
+            timedOutCommands.clear();
+        }
+    }
+
+    /**
+     * Removes the placeholders of the timed out commands that are not waiting for a late response anymore.
+     * The placeholders are removed by the next registered or timed out commands instead of a timer task,
+     * since the timer may be stopped by its owner.
+     */
+    private void removeExpiredTimedOutCommands() {
+        long now = System.nanoTime();
+        synchronized (timedOutCommands) {
+            TimedOutCommand timedOutCommand;
+            while ((timedOutCommand = timedOutCommands.peek()) != null && timedOutCommand.isExpired(now)) {
+                timedOutCommands.poll();
+                pendingCommandsMap.remove(timedOutCommand.commandId, timedOutCommand);
+            }
+        }
+    }
+
+    /**
+     * Placeholder of a timed out command, kept for the command timeout to count the late responses.
+     */
+    private static final class TimedOutCommand extends CompletableFuture<Command> {
+        private final String commandId;
+        private final long expirationNanos;
+
+        private TimedOutCommand(String commandId, long expirationNanos) {
+            this.commandId = commandId;
+            this.expirationNanos = expirationNanos;
+        }
+
+        private boolean isExpired(long now) {
+            return now - expirationNanos >= 0;
+        }
     }
 }
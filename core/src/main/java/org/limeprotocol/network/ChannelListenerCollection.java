@@ -0,0 +1,99 @@
+package org.limeprotocol.network;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Listeners of a channel envelope type, backed by immutable arrays that are replaced on each change.
+ * The single receive listeners are taken all at once by the next received envelope.
+ * @param <T>
+ */
+final class ChannelListenerCollection<T> {
+
+    private final T[] emptyListeners;
+    private volatile T[] listeners;
+    private final AtomicReference<T[]> singleReceiveListeners;
+
+    ChannelListenerCollection(T[] emptyListeners) {
+        this.emptyListeners = emptyListeners;
+        this.listeners = emptyListeners;
+        this.singleReceiveListeners = new AtomicReference<>(emptyListeners);
+    }
+
+    synchronized void add(T listener, boolean removeAfterReceive) {
+        if (listener == null) {
+            throw new IllegalArgumentException("listener");
+        }
+        if (indexOf(listeners, listener) >= 0) {
+            return;
+        }
+        if (removeAfterReceive) {
+            T[] current;
+            do {
+                current = singleReceiveListeners.get();
+                if (indexOf(current, listener) >= 0) {
+                    return;
+                }
+            } while (!singleReceiveListeners.compareAndSet(current, append(current, listener)));
+        } else if (indexOf(singleReceiveListeners.get(), listener) < 0) {
+            listeners = append(listeners, listener);
+        }
+    }
+
+    synchronized void remove(T listener) {
+        int index = indexOf(listeners, listener);
+        if (index >= 0) {
+            listeners = removeAt(listeners, index);
+            return;
+        }
+        T[] current;
+        do {
+            current = singleReceiveListeners.get();
+            index = indexOf(current, listener);
+            if (index < 0) {
+                return;
+            }
+        } while (!singleReceiveListeners.compareAndSet(current, removeAt(current, index)));
+    }
+
+    /**
+     * Gets the listeners that are kept after receiving.
+     * @return
+     */
+    T[] getListeners() {
+        return listeners;
+    }
+
+    /**
+     * Removes and returns the single receive listeners.
+     * @return
+     */
+    T[] removeSingleReceiveListeners() {
+        T[] current = singleReceiveListeners.get();
+        if (current.length == 0) {
+            return current;
+        }
+        return singleReceiveListeners.getAndSet(emptyListeners);
+    }
+
+    private static <T> int indexOf(T[] array, T listener) {
+        for (int i = 0; i < array.length; i++) {
+            if (array[i].equals(listener)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static <T> T[] append(T[] array, T listener) {
+        T[] newArray = Arrays.copyOf(array, array.length + 1);
+        newArray[array.length] = listener;
+        return newArray;
+    }
+
+    private static <T> T[] removeAt(T[] array, int index) {
+        T[] newArray = Arrays.copyOf(array, array.length - 1);
+        System.arraycopy(array, index + 1, newArray, index, array.length - index - 1);
+        return newArray;
+    }
+}
@@ -0,0 +1,144 @@
+package org.limeprotocol.network;
+
+import org.limeprotocol.Envelope;
+import org.limeprotocol.network.modules.ChannelModuleBase;
+
+import java.util.AbstractCollection;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Collection of the channel modules backed by immutable arrays, which are replaced on each change.
+ * The channel reads the arrays without locking or copying them. The modules that keep the empty
+ * {@link ChannelModuleBase} implementation of a stage are left out of the array of that stage.
+ * @param <T>
+ */
+final class ChannelModuleCollection<T extends Envelope> extends AbstractCollection<ChannelModule<T>> {
+
+    private final static ChannelModule[] EMPTY_MODULES = new ChannelModule[0];
+
+    private volatile ChannelModule<T>[] modules;
+    private volatile ChannelModule<T>[] sendingModules;
+    private volatile ChannelModule<T>[] receivingModules;
+
+    @SuppressWarnings("unchecked")
+    ChannelModuleCollection() {
+        modules = EMPTY_MODULES;
+        sendingModules = EMPTY_MODULES;
+        receivingModules = EMPTY_MODULES;
+    }
+
+    /**
+     * Gets all the modules, in the registration order.
+     * @return
+     */
+    ChannelModule<T>[] getModules() {
+        return modules;
+    }
+
+    /**
+     * Gets the modules that handle the sending envelopes.
+     * @return
+     */
+    ChannelModule<T>[] getSendingModules() {
+        return sendingModules;
+    }
+
+    /**
+     * Gets the modules that handle the received envelopes.
+     * @return
+     */
+    ChannelModule<T>[] getReceivingModules() {
+        return receivingModules;
+    }
+
+    @Override
+    public synchronized boolean add(ChannelModule<T> module) {
+        if (module == null) {
+            throw new IllegalArgumentException("module");
+        }
+        ChannelModule<T>[] newModules = Arrays.copyOf(modules, modules.length + 1);
+        newModules[modules.length] = module;
+        setModules(newModules);
+        return true;
+    }
+
+    @Override
+    public synchronized boolean remove(Object module) {
+        for (int i = 0; i < modules.length; i++) {
+            if (modules[i].equals(module)) {
+                ChannelModule<T>[] newModules = Arrays.copyOf(modules, modules.length - 1);
+                System.arraycopy(modules, i + 1, newModules, i, modules.length - i - 1);
+                setModules(newModules);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public synchronized void clear() {
+        setModules(EMPTY_MODULES);
+    }
+
+    @Override
+    public int size() {
+        return modules.length;
+    }
+
+    @Override
+    public Iterator<ChannelModule<T>> iterator() {
+        final ChannelModule<T>[] snapshot = modules;
+        return new Iterator<ChannelModule<T>>() {
+            private int index;
+
+            @Override
+            public boolean hasNext() {
+                return index < snapshot.length;
+            }
+
+            @Override
+            public ChannelModule<T> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return snapshot[index++];
+            }
+
+            @Override
+            public void remove() {
+                if (index == 0) {
+                    throw new IllegalStateException();
+                }
+                ChannelModuleCollection.this.remove(snapshot[index - 1]);
+            }
+        };
+    }
+
+    private void setModules(ChannelModule<T>[] newModules) {
+        sendingModules = filter(newModules, "onSending");
+        receivingModules = filter(newModules, "onReceiving");
+        modules = newModules;
+    }
+
+    private static <T extends Envelope> ChannelModule<T>[] filter(ChannelModule<T>[] modules, String stageMethodName) {
+        ChannelModule<T>[] stageModules = Arrays.copyOf(modules, modules.length);
+        int length = 0;
+        for (ChannelModule<T> module : modules) {
+            if (implementsStage(module, stageMethodName)) {
+                stageModules[length++] = module;
+            }
+        }
+        return Arrays.copyOf(stageModules, length);
+    }
+
+    private static boolean implementsStage(ChannelModule<?> module, String stageMethodName) {
+        try {
+            return module.getClass().getMethod(stageMethodName, Envelope.class).getDeclaringClass() != ChannelModuleBase.class;
+        } catch (NoSuchMethodException e) {
+            return true;
+        }
+    }
+}
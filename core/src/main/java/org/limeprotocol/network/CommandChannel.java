@@ -3,6 +3,7 @@ package org.limeprotocol.network;
 import org.limeprotocol.Command;
 
 import java.io.IOException;
+import java.util.List;
 
 /**
  * Defines a command envelopes exchanging channel.
@@ -14,6 +15,19 @@ public interface CommandChannel extends CommandProcessor {
      */
     void sendCommand(Command command) throws IOException;
 
+    /**
+     * Sends the commands to the remote node in order, allowing them to be written together.
+     * @param commands
+     */
+    default void sendCommands(List<Command> commands) throws IOException {
+        if (commands == null) {
+            throw new IllegalArgumentException("commands");
+        }
+        for (Command command : commands) {
+            sendCommand(command);
+        }
+    }
+
     /**
      * Sets the listener for receiving commands.
      * @param listener
@@ -0,0 +1,141 @@
+package org.limeprotocol.network;
+
+import org.limeprotocol.Command;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+/**
+ * Sends a list of commands keeping up to a maximum of them awaiting for a response.
+ * The commands are sent in chunks of the available window slots, so the first window is written at once and
+ * each response releases a slot for the next command. The next commands are sent by the executor, so the
+ * threads that complete the responses, like the transport receiving thread, never block writing to the transport.
+ */
+abstract class CommandPipeline {
+
+    private final List<Command> commands;
+    private final List<CompletableFuture<Command>> results;
+    private final AtomicInteger availableSlots;
+    private final AtomicBoolean isSending;
+    private final Executor executor;
+    private final Runnable sendTask;
+    private volatile int nextIndex;
+
+    CommandPipeline(List<Command> commands, int maxInFlightCommands, Executor executor) {
+        if (commands == null) {
+            throw new IllegalArgumentException("commands");
+        }
+        if (maxInFlightCommands <= 0) {
+            throw new IllegalArgumentException("maxInFlightCommands");
+        }
+        if (executor == null) {
+            throw new IllegalArgumentException("executor");
+        }
+        this.commands = new ArrayList<>(commands);
+        List<CompletableFuture<Command>> results = new ArrayList<>(commands.size());
+        for (int i = 0; i < commands.size(); i++) {
+            results.add(new CompletableFuture<Command>());
+        }
+        this.results = Collections.unmodifiableList(results);
+        this.availableSlots = new AtomicInteger(Math.min(maxInFlightCommands, commands.size()));
+        this.isSending = new AtomicBoolean();
+        this.executor = executor;
+        this.sendTask = new Runnable() {
+            @Override
+            public void run() {
+                sendAvailable();
+            }
+        };
+    }
+
+    /**
+     * Starts sending the commands.
+     * @return The futures of the responses, in the same order of the commands.
+     */
+    List<CompletableFuture<Command>> start() {
+        if (isSending.compareAndSet(false, true)) {
+            sendAvailable();
+        }
+        return results;
+    }
+
+    /**
+     * Sends the commands, returning the futures of their responses.
+     * @param commands
+     * @return
+     */
+    protected abstract List<CompletableFuture<Command>> send(List<Command> commands);
+
+    /**
+     * Sends the commands of the available slots. It must be called by the thread that set the sending flag.
+     */
+    private void sendAvailable() {
+        // The responses may release slots while sending, so the sender checks again before leaving
+        do {
+            try {
+                int count;
+                while ((count = Math.min(availableSlots.getAndSet(0), commands.size() - nextIndex)) > 0) {
+                    int startIndex = nextIndex;
+                    nextIndex = startIndex + count;
+                    List<Command> chunk = commands.subList(startIndex, startIndex + count);
+                    List<CompletableFuture<Command>> futures;
+                    try {
+                        futures = send(chunk);
+                    } catch (RuntimeException e) {
+                        futures = new ArrayList<>(count);
+                        for (int i = 0; i < count; i++) {
+                            CompletableFuture<Command> future = new CompletableFuture<>();
+                            future.completeExceptionally(e);
+                            futures.add(future);
+                        }
+                    }
+                    for (int i = 0; i < count; i++) {
+                        futures.get(i).whenComplete(new ResultForwarder(results.get(startIndex + i)));
+                    }
+                }
+            } finally {
+                isSending.set(false);
+            }
+        } while (canSend() && isSending.compareAndSet(false, true));
+    }
+
+    private boolean canSend() {
+        return nextIndex < commands.size() && availableSlots.get() > 0;
+    }
+
+    private void scheduleSend() {
+        if (canSend() && isSending.compareAndSet(false, true)) {
+            try {
+                executor.execute(sendTask);
+            } catch (RejectedExecutionException e) {
+                sendAvailable();
+            }
+        }
+    }
+
+    private final class ResultForwarder implements BiConsumer<Command, Throwable> {
+        private final CompletableFuture<Command> result;
+
+        ResultForwarder(CompletableFuture<Command> result) {
+            this.result = result;
+        }
+
+        @Override
+        public void accept(Command command, Throwable throwable) {
+            if (throwable != null) {
+                result.completeExceptionally(throwable);
+            } else {
+                result.complete(command);
+            }
+            availableSlots.incrementAndGet();
+            scheduleSend();
+        }
+    }
+}
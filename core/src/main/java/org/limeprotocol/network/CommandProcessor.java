@@ -1,10 +1,16 @@
 package org.limeprotocol.network;
 
 import org.limeprotocol.*;
+import org.limeprotocol.util.SharedExecutors;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 /**
  * Defines a command processor, that allows sending a command request and awaits for a response.
@@ -20,6 +26,54 @@ public interface CommandProcessor {
      */
     Command processCommand(Command requestCommand, long timeout, TimeUnit timeoutTimeUnit) throws IOException, TimeoutException, InterruptedException;
 
+    /**
+     * Processes a command request without blocking the caller. The returned future is completed with the response,
+     * or exceptionally with a {@link TimeoutException} if the response is not received in the timeout.
+     * The non-async dependent stages of the future run in the thread that receives the response.
+     * The default implementation awaits for the response in a thread of the common pool.
+     * @param requestCommand
+     * @param timeout
+     * @param timeoutTimeUnit
+     * @return
+     */
+    default CompletableFuture<Command> processCommandAsync(final Command requestCommand, final long timeout, final TimeUnit timeoutTimeUnit) {
+        final CompletableFuture<Command> commandFuture = new CompletableFuture<>();
+        CompletableFuture.runAsync(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    commandFuture.complete(processCommand(requestCommand, timeout, timeoutTimeUnit));
+                } catch (Exception e) {
+                    commandFuture.completeExceptionally(e);
+                }
+            }
+        });
+        return commandFuture;
+    }
+
+    /**
+     * Processes the command requests keeping up to the specified number of them awaiting for a response,
+     * so a bulk operation takes about a round trip per window instead of one per command.
+     * The default implementation processes each command with {@link #processCommandAsync(Command, long, TimeUnit)}.
+     * @param requestCommands
+     * @param maxInFlightCommands
+     * @param timeout The timeout of each command, counted from when it is sent.
+     * @param timeoutTimeUnit
+     * @return The futures of the responses, in the same order of the commands.
+     */
+    default List<CompletableFuture<Command>> processCommandsAsync(List<Command> requestCommands, int maxInFlightCommands, final long timeout, final TimeUnit timeoutTimeUnit) {
+        return new CommandPipeline(requestCommands, maxInFlightCommands, SharedExecutors.getExecutor()) {
+            @Override
+            protected List<CompletableFuture<Command>> send(List<Command> commands) {
+                List<CompletableFuture<Command>> commandFutures = new ArrayList<>(commands.size());
+                for (Command command : commands) {
+                    commandFutures.add(processCommandAsync(command, timeout, timeoutTimeUnit));
+                }
+                return commandFutures;
+            }
+        }.start();
+    }
+
     /**
      * Composes a command envelope with a get method for the specified resource.
      *
@@ -141,4 +195,129 @@ public interface CommandProcessor {
             throw new LimeException(responseCommand.getReason());
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Composes a command envelope with a get method for the specified resource, without blocking the caller.
+     *
+     * @param limeUri
+     * @param <TResource>
+     * @return
+     */
+    default <TResource extends Document> CompletableFuture<TResource> getResourceAsync(final LimeUri limeUri) {
+        return getResourceAsync(limeUri, null);
+    }
+
+    /**
+     * Composes a command envelope with a get method for the specified resource, without blocking the caller.
+     *
+     * @param limeUri
+     * @param from
+     * @param <TResource>
+     * @return
+     */
+    default <TResource extends Document> CompletableFuture<TResource> getResourceAsync(final LimeUri limeUri, final Node from) {
+        if (limeUri == null) {
+            throw new IllegalArgumentException("limeUri");
+        }
+
+        final Command requestCommand = new Command(EnvelopeId.newId()) {{
+            setMethod(CommandMethod.GET);
+            setFrom(from);
+            setUri(limeUri);
+        }};
+
+        return processCommandAsync(requestCommand, DEFAULT_TIMEOUT_SECONDS, TimeUnit.SECONDS).thenApply(new Function<Command, TResource>() {
+            @Override
+            public TResource apply(Command responseCommand) {
+                if (responseCommand.getStatus() != Command.CommandStatus.SUCCESS) {
+                    throw new LimeException(responseCommand.getReason());
+                }
+                return (TResource) responseCommand.getResource();
+            }
+        });
+    }
+
+    /**
+     * Composes a command envelope with a set method for the specified resource, without blocking the caller.
+     *
+     * @param limeUri
+     * @param resource
+     * @param <TResource>
+     * @return
+     */
+    default <TResource extends Document> CompletableFuture<Void> setResourceAsync(final LimeUri limeUri, final TResource resource) {
+        return setResourceAsync(limeUri, null, resource);
+    }
+
+    /**
+     * Composes a command envelope with a set method for the specified resource, without blocking the caller.
+     *
+     * @param limeUri
+     * @param from
+     * @param resource
+     * @param <TResource>
+     * @return
+     */
+    default <TResource extends Document> CompletableFuture<Void> setResourceAsync(final LimeUri limeUri, final Node from, final TResource resource) {
+        if (limeUri == null) {
+            throw new IllegalArgumentException("limeUri");
+        }
+        if (resource == null) {
+            throw new IllegalArgumentException("resource");
+        }
+
+        final Command requestCommand = new Command(EnvelopeId.newId()) {{
+            setMethod(CommandMethod.SET);
+            setResource(resource);
+            setFrom(from);
+            setUri(limeUri);
+        }};
+
+        return processCommandAsync(requestCommand, DEFAULT_TIMEOUT_SECONDS, TimeUnit.SECONDS).thenAccept(new Consumer<Command>() {
+            @Override
+            public void accept(Command responseCommand) {
+                if (responseCommand.getStatus() != Command.CommandStatus.SUCCESS) {
+                    throw new LimeException(responseCommand.getReason());
+                }
+            }
+        });
+    }
+
+    /**
+     * Composes a command envelope with a delete method for the specified resource, without blocking the caller.
+     *
+     * @param limeUri
+     * @return
+     */
+    default CompletableFuture<Void> deleteResourceAsync(final LimeUri limeUri) {
+        return deleteResourceAsync(limeUri, null);
+    }
+
+    /**
+     * Composes a command envelope with a delete method for the specified resource, without blocking the caller.
+     *
+     * @param limeUri
+     * @param from
+     * @return
+     */
+    default CompletableFuture<Void> deleteResourceAsync(final LimeUri limeUri, final Node from) {
+        if (limeUri == null) {
+            throw new IllegalArgumentException("limeUri");
+        }
+
+        final Command requestCommand = new Command(EnvelopeId.newId()) {{
+            setMethod(CommandMethod.DELETE);
+            setFrom(from);
+            setUri(limeUri);
+        }};
+
+        return processCommandAsync(requestCommand, DEFAULT_TIMEOUT_SECONDS, TimeUnit.SECONDS).thenAccept(new Consumer<Command>() {
+            @Override
+            public void accept(Command responseCommand) {
+                if (responseCommand.getStatus() != Command.CommandStatus.SUCCESS) {
+                    throw new LimeException(responseCommand.getReason());
+                }
+            }
+        });
+    }
+}
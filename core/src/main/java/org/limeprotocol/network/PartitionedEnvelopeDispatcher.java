@@ -0,0 +1,172 @@
+package org.limeprotocol.network;
+
+import org.limeprotocol.Envelope;
+import org.limeprotocol.Node;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs the tasks of the received envelopes in an executor, partitioned by the envelope sender.
+ * The tasks of a partition are run one at a time in the dispatch order, so each sender keeps its order,
+ * while the partitions are run in parallel.
+ */
+public class PartitionedEnvelopeDispatcher {
+
+    public final static int DEFAULT_PARTITIONS_COUNT = 64;
+    private final static int MAX_TASKS_PER_RUN = 64;
+
+    private final Executor executor;
+    private final Partition[] partitions;
+
+    public PartitionedEnvelopeDispatcher(Executor executor) {
+        this(executor, DEFAULT_PARTITIONS_COUNT);
+    }
+
+    public PartitionedEnvelopeDispatcher(Executor executor, int partitionsCount) {
+        if (executor == null) {
+            throw new IllegalArgumentException("executor");
+        }
+        if (partitionsCount <= 0) {
+            throw new IllegalArgumentException("partitionsCount");
+        }
+        this.executor = executor;
+        this.partitions = new Partition[partitionsCount];
+        for (int i = 0; i < partitionsCount; i++) {
+            partitions[i] = new Partition();
+        }
+    }
+
+    /**
+     * Queues the task in the partition of the envelope sender.
+     * @param envelope
+     * @param task
+     */
+    public void dispatch(Envelope envelope, Runnable task) {
+        if (envelope == null) {
+            throw new IllegalArgumentException("envelope");
+        }
+        if (task == null) {
+            throw new IllegalArgumentException("task");
+        }
+        partitions[getPartition(envelope.getSender())].enqueue(task);
+    }
+
+    /**
+     * Gets the partition of the tasks of the specified sender.
+     * @param sender
+     * @return
+     */
+    public int getPartition(Node sender) {
+        if (sender == null) {
+            return 0;
+        }
+        int hash = sender.hashCode();
+        hash ^= hash >>> 16;
+        return (hash & Integer.MAX_VALUE) % partitions.length;
+    }
+
+    public int getPartitionsCount() {
+        return partitions.length;
+    }
+
+    /**
+     * Gets the number of tasks waiting in the partition.
+     * @param partition
+     * @return
+     */
+    public int getQueueDepth(int partition) {
+        return partitions[partition].depth.get();
+    }
+
+    /**
+     * Gets the number of tasks waiting in all partitions.
+     * @return
+     */
+    public long getQueueDepth() {
+        long depth = 0;
+        for (Partition partition : partitions) {
+            depth += partition.depth.get();
+        }
+        return depth;
+    }
+
+    /**
+     * Gets the number of tasks dispatched to the partition.
+     * @param partition
+     * @return
+     */
+    public long getDispatchedCount(int partition) {
+        return partitions[partition].dispatchedCount.get();
+    }
+
+    /**
+     * Gets the ratio between the tasks dispatched to the busiest partition and the average of the partitions.
+     * One means an even distribution, while the partitions count means that all tasks went to a single partition.
+     * @return
+     */
+    public double getPartitionSkew() {
+        long total = 0;
+        long max = 0;
+        for (Partition partition : partitions) {
+            long dispatchedCount = partition.dispatchedCount.get();
+            total += dispatchedCount;
+            max = Math.max(max, dispatchedCount);
+        }
+        if (total == 0) {
+            return 1;
+        }
+        return (double) max * partitions.length / total;
+    }
+
+    private class Partition implements Runnable {
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger depth = new AtomicInteger();
+        private final AtomicLong dispatchedCount = new AtomicLong();
+        private final AtomicBoolean isScheduled = new AtomicBoolean();
+
+        void enqueue(Runnable task) {
+            tasks.add(task);
+            depth.incrementAndGet();
+            dispatchedCount.incrementAndGet();
+            schedule();
+        }
+
+        private void schedule() {
+            if (isScheduled.compareAndSet(false, true)) {
+                try {
+                    executor.execute(this);
+                } catch (RejectedExecutionException e) {
+                    isScheduled.set(false);
+                    throw e;
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                // Yields the executor thread after a batch, so a busy sender does not starve the others
+                Runnable task;
+                for (int i = 0; i < MAX_TASKS_PER_RUN && (task = tasks.poll()) != null; i++) {
+                    depth.decrementAndGet();
+                    try {
+                        task.run();
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                }
+            } finally {
+                isScheduled.set(false);
+            }
+            if (!tasks.isEmpty()) {
+                schedule();
+            }
+        }
+    }
+}
@@ -7,6 +7,8 @@ import org.limeprotocol.SessionEncryption;
 import java.io.Closeable;
 import java.io.IOException;
 import java.net.URI;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Defines a network connection with a node.
@@ -19,6 +21,40 @@ public interface Transport extends Closeable {
      */
     void send(Envelope envelope) throws IOException;
 
+    /**
+     * Sends an envelope to the remote node without waiting for the write to complete, if supported by the transport.
+     * The default implementation sends the envelope synchronously.
+     * @param envelope
+     * @return A future that completes when the envelope is written.
+     */
+    default CompletableFuture<Void> sendAsync(Envelope envelope) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        try {
+            send(envelope);
+            future.complete(null);
+        } catch (IOException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Sends the envelopes to the remote node in order, allowing the transport to write them together.
+     * The default implementation sends each envelope with {@link #sendAsync(Envelope)}.
+     * @param envelopes
+     * @return A future that completes when all the envelopes are written.
+     */
+    default CompletableFuture<Void> sendAllAsync(List<? extends Envelope> envelopes) {
+        if (envelopes == null) {
+            throw new IllegalArgumentException("envelopes");
+        }
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[envelopes.size()];
+        for (int i = 0; i < futures.length; i++) {
+            futures[i] = sendAsync(envelopes.get(i));
+        }
+        return CompletableFuture.allOf(futures);
+    }
+
     /**
      *  Register the specified listener for receiving envelopes.
      * @param transportEnvelopeListener
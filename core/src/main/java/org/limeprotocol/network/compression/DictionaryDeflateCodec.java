@@ -0,0 +1,113 @@
+package org.limeprotocol.network.compression;
+
+import java.io.Closeable;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Compresses each envelope independently as a raw deflate block, using a preset {@link EnvelopeDictionary}.
+ * Since the dictionary already has the fragments repeated by the envelopes, even the small ones are compressed,
+ * unlike with a per-envelope GZIP, and no state is kept between the envelopes, so the transport can drop or
+ * reorder them.
+ * It is intended for transports that preserve the message boundaries; the instances are not thread safe.
+ */
+public class DictionaryDeflateCodec implements Closeable {
+
+    public final static int DEFAULT_MAX_DECOMPRESSED_SIZE = 1024 * 1024;
+    private final static int INITIAL_BUFFER_SIZE = 1024;
+
+    private final byte[] dictionary;
+    private final int maxDecompressedSize;
+    private final Deflater deflater;
+    private final Inflater inflater;
+    private byte[] buffer;
+
+    public DictionaryDeflateCodec() {
+        this(EnvelopeDictionary.getDefault(), Deflater.DEFAULT_COMPRESSION);
+    }
+
+    public DictionaryDeflateCodec(EnvelopeDictionary dictionary, int level) {
+        this(dictionary, level, DEFAULT_MAX_DECOMPRESSED_SIZE);
+    }
+
+    public DictionaryDeflateCodec(EnvelopeDictionary dictionary, int level, int maxDecompressedSize) {
+        if (dictionary == null) {
+            throw new IllegalArgumentException("dictionary");
+        }
+        if (maxDecompressedSize <= 0) {
+            throw new IllegalArgumentException("maxDecompressedSize");
+        }
+        this.dictionary = dictionary.getBytes();
+        this.maxDecompressedSize = maxDecompressedSize;
+        this.deflater = new Deflater(level, true);
+        this.inflater = new Inflater(true);
+        this.buffer = new byte[INITIAL_BUFFER_SIZE];
+    }
+
+    /**
+     * Compresses the serialized envelope.
+     * @param input
+     * @param offset
+     * @param length
+     * @return
+     */
+    public byte[] compress(byte[] input, int offset, int length) {
+        deflater.reset();
+        deflater.setDictionary(dictionary);
+        deflater.setInput(input, offset, length);
+        deflater.finish();
+        int compressedLength = 0;
+        while (!deflater.finished()) {
+            if (compressedLength == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+            compressedLength += deflater.deflate(buffer, compressedLength, buffer.length - compressedLength);
+        }
+        return Arrays.copyOf(buffer, compressedLength);
+    }
+
+    /**
+     * Decompresses an envelope compressed with the same dictionary.
+     * @param input
+     * @param offset
+     * @param length
+     * @return
+     */
+    public byte[] decompress(byte[] input, int offset, int length) throws ZipException {
+        inflater.reset();
+        inflater.setDictionary(dictionary);
+        inflater.setInput(input, offset, length);
+        int decompressedLength = 0;
+        try {
+            while (!inflater.finished()) {
+                if (decompressedLength == maxDecompressedSize) {
+                    throw new ZipException("The decompressed envelope exceeds the maximum size");
+                }
+                if (decompressedLength == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, Math.min(buffer.length * 2, maxDecompressedSize));
+                }
+                int inflated = inflater.inflate(buffer, decompressedLength,
+                        Math.min(buffer.length, maxDecompressedSize) - decompressedLength);
+                if (inflated == 0 && inflater.needsInput()) {
+                    throw new ZipException("The compressed envelope is truncated");
+                }
+                decompressedLength += inflated;
+            }
+        } catch (DataFormatException e) {
+            throw new ZipException(e.getMessage());
+        }
+        return Arrays.copyOf(buffer, decompressedLength);
+    }
+
+    /**
+     * Releases the native resources of the codec.
+     */
+    @Override
+    public void close() {
+        deflater.end();
+        inflater.end();
+    }
+}
@@ -0,0 +1,89 @@
+package org.limeprotocol.network.compression;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Preset deflate dictionary with the fragments that most envelopes repeat, like the property names, events,
+ * methods and the media types of the registered documents.
+ * The dictionaries are shipped as versioned resources and both nodes must use the same version, since the
+ * compressed envelopes reference the dictionary content.
+ */
+public class EnvelopeDictionary {
+
+    /**
+     * The version of the dictionary used by the {@link org.limeprotocol.SessionCompression#DEFLATE_DICTIONARY} mode.
+     */
+    public final static int CURRENT_VERSION = 1;
+
+    private final static String RESOURCE_NAME_FORMAT = "envelope-dictionary-v%d.txt";
+
+    private final int version;
+    private final byte[] bytes;
+
+    public EnvelopeDictionary(int version, byte[] bytes) {
+        if (bytes == null || bytes.length == 0) {
+            throw new IllegalArgumentException("bytes");
+        }
+        this.version = version;
+        this.bytes = bytes.clone();
+    }
+
+    /**
+     * Gets the dictionary of the current version.
+     * @return
+     */
+    public static EnvelopeDictionary getDefault() {
+        return DefaultHolder.INSTANCE;
+    }
+
+    /**
+     * Loads the dictionary of the specified version from the resources.
+     * @param version
+     * @return
+     */
+    public static EnvelopeDictionary load(int version) throws IOException {
+        String resourceName = String.format(RESOURCE_NAME_FORMAT, version);
+        try (InputStream inputStream = EnvelopeDictionary.class.getResourceAsStream(resourceName)) {
+            if (inputStream == null) {
+                throw new IllegalArgumentException("version");
+            }
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, read);
+            }
+            return new EnvelopeDictionary(version, outputStream.toByteArray());
+        }
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * Gets a copy of the dictionary content.
+     * @return
+     */
+    public byte[] getBytes() {
+        return bytes.clone();
+    }
+
+    public int getLength() {
+        return bytes.length;
+    }
+
+    private static class DefaultHolder {
+        private static final EnvelopeDictionary INSTANCE;
+
+        static {
+            try {
+                INSTANCE = load(CURRENT_VERSION);
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not load the envelope dictionary", e);
+            }
+        }
+    }
+}
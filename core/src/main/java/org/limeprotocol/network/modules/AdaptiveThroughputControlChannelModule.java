@@ -0,0 +1,306 @@
+package org.limeprotocol.network.modules;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.limeprotocol.*;
+import org.limeprotocol.network.Channel;
+import org.limeprotocol.network.CommandProcessor;
+import org.limeprotocol.serialization.JacksonEnvelopeSerializer;
+
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Limits the rate of the envelopes sent by the channel, adapting it to the server capacity.
+ * The rate is raised additively at each second that the senders were limited by it, and cut multiplicatively
+ * when a failed notification or command has a throttling reason code, or when the command response latency
+ * rises above a multiple of the lowest recent latency. The ceiling of the rate can be seeded from the session quota.
+ */
+public class AdaptiveThroughputControlChannelModule extends ChannelModuleBase {
+
+    public static final int DEFAULT_INITIAL_THROUGHPUT = 10;
+    public static final int DEFAULT_MIN_THROUGHPUT = 1;
+    public static final int DEFAULT_MAX_THROUGHPUT = 1000;
+    public static final double DEFAULT_ADDITIVE_INCREASE = 1;
+    public static final double DEFAULT_DECREASE_FACTOR = 0.5;
+    public static final double DEFAULT_LATENCY_THRESHOLD = 2;
+    public static final long DEFAULT_TIMEOUT_MILLIS = 10000;
+    public static final String QUOTA_URI = "/quota";
+
+    private static final long ADJUSTMENT_PERIOD_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final int MAX_TRACKED_COMMANDS = 10000;
+    private static final double LATENCY_SMOOTHING = 0.125;
+    private static final long MIN_LATENCY_WINDOW_NANOS = 10 * ADJUSTMENT_PERIOD_NANOS;
+
+    private final int minThroughput;
+    private final double additiveIncrease;
+    private final double decreaseFactor;
+    private final double latencyThreshold;
+    private final long timeoutNanos;
+    private final Set<Integer> throttlingReasonCodes;
+    private final ConcurrentHashMap<String, Long> commandSendTimes;
+    private final AtomicLong nextSendTime;
+    private final AtomicLong decreasesCount;
+
+    private volatile double throughput;
+    private volatile int maxThroughput;
+    private volatile boolean wasLimited;
+    private volatile long lastAdjustmentTime;
+    private long lastDecreaseTime;
+    private double smoothedLatency;
+    private long minLatencyWindowStart;
+    private long windowMinLatency;
+    private long previousWindowMinLatency;
+
+    private AdaptiveThroughputControlChannelModule(int initialThroughput, int minThroughput, int maxThroughput, long timeoutMillis) {
+        if (minThroughput <= 0) {
+            throw new IllegalArgumentException("minThroughput");
+        }
+        if (maxThroughput < minThroughput) {
+            throw new IllegalArgumentException("maxThroughput");
+        }
+        if (initialThroughput < minThroughput || initialThroughput > maxThroughput) {
+            throw new IllegalArgumentException("initialThroughput");
+        }
+        if (timeoutMillis < 0) {
+            throw new IllegalArgumentException("timeoutMillis");
+        }
+        this.minThroughput = minThroughput;
+        this.additiveIncrease = DEFAULT_ADDITIVE_INCREASE;
+        this.decreaseFactor = DEFAULT_DECREASE_FACTOR;
+        this.latencyThreshold = DEFAULT_LATENCY_THRESHOLD;
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        this.throttlingReasonCodes = ConcurrentHashMap.newKeySet();
+        this.throttlingReasonCodes.add(ReasonCodes.DISPATCH_ERROR);
+        this.throttlingReasonCodes.add(ReasonCodes.GATEWAY_ERROR);
+        this.commandSendTimes = new ConcurrentHashMap<>();
+        this.nextSendTime = new AtomicLong(System.nanoTime());
+        this.decreasesCount = new AtomicLong();
+        this.throughput = initialThroughput;
+        this.maxThroughput = maxThroughput;
+        this.lastAdjustmentTime = System.nanoTime();
+        this.lastDecreaseTime = lastAdjustmentTime - ADJUSTMENT_PERIOD_NANOS;
+        this.minLatencyWindowStart = lastAdjustmentTime;
+    }
+
+    /**
+     * Gets the current envelopes per second rate.
+     * @return
+     */
+    public double getThroughput() {
+        return throughput;
+    }
+
+    public int getMaxThroughput() {
+        return maxThroughput;
+    }
+
+    /**
+     * Sets the ceiling of the rate, lowering the current rate if needed.
+     * @param maxThroughput
+     */
+    public synchronized void setMaxThroughput(int maxThroughput) {
+        if (maxThroughput < minThroughput) {
+            throw new IllegalArgumentException("maxThroughput");
+        }
+        this.maxThroughput = maxThroughput;
+        if (throughput > maxThroughput) {
+            throughput = maxThroughput;
+        }
+    }
+
+    /**
+     * Gets the reason codes of the failures that indicate the server is throttling the session.
+     * The protocol doesn't define a specific code, so the dispatch and gateway errors are considered by default.
+     * @return
+     */
+    public Set<Integer> getThrottlingReasonCodes() {
+        return throttlingReasonCodes;
+    }
+
+    /**
+     * Gets the number of times that the rate was cut.
+     * @return
+     */
+    public long getDecreasesCount() {
+        return decreasesCount.get();
+    }
+
+    /**
+     * Gets the session quota and sets its throughput as the ceiling of the rate, if defined.
+     * @param commandProcessor
+     * @return A future with the quota throughput, or null if it is not defined.
+     */
+    public CompletableFuture<Integer> seedMaxThroughput(CommandProcessor commandProcessor) {
+        if (commandProcessor == null) {
+            throw new IllegalArgumentException("commandProcessor");
+        }
+        return commandProcessor.<Document>getResourceAsync(LimeUri.parse(QUOTA_URI)).thenApply(new Function<Document, Integer>() {
+            @Override
+            public Integer apply(Document quota) {
+                Integer quotaThroughput = getQuotaThroughput(quota);
+                if (quotaThroughput != null && quotaThroughput > 0) {
+                    setMaxThroughput(Math.max(quotaThroughput, minThroughput));
+                    return quotaThroughput;
+                }
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public void onStateChanged(Session.SessionState state) {
+        if (state == Session.SessionState.FINISHED || state == Session.SessionState.FAILED) {
+            commandSendTimes.clear();
+        }
+    }
+
+    /**
+     * Waits for the rate to allow the envelope to be sent.
+     * @param envelope
+     * @return
+     * @throws IllegalStateException If the rate doesn't allow the envelope in the timeout.
+     */
+    @Override
+    public Envelope onSending(Envelope envelope) {
+        long now = System.nanoTime();
+        if (now - lastAdjustmentTime >= ADJUSTMENT_PERIOD_NANOS) {
+            increase(now);
+        }
+
+        long interval = (long) (TimeUnit.SECONDS.toNanos(1) / throughput);
+        long sendTime;
+        while (true) {
+            long currentNextSendTime = nextSendTime.get();
+            sendTime = Math.max(currentNextSendTime, now);
+            if (sendTime - now > timeoutNanos) {
+                throw new IllegalStateException("The channel throughput was exceeded");
+            }
+            if (nextSendTime.compareAndSet(currentNextSendTime, sendTime + interval)) {
+                break;
+            }
+            now = System.nanoTime();
+        }
+        if (sendTime > now) {
+            wasLimited = true;
+            try {
+                TimeUnit.NANOSECONDS.sleep(sendTime - now);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("The sending thread was interrupted while waiting for the throughput", e);
+            }
+        }
+
+        if (envelope instanceof Command) {
+            Command command = (Command) envelope;
+            if (command.getStatus() == null && command.getId() != null && commandSendTimes.size() < MAX_TRACKED_COMMANDS) {
+                commandSendTimes.put(command.getId(), System.nanoTime());
+            }
+        }
+        return envelope;
+    }
+
+    @Override
+    public Envelope onReceiving(Envelope envelope) {
+        if (envelope instanceof Notification) {
+            Notification notification = (Notification) envelope;
+            if (notification.getEvent() == Notification.Event.FAILED && isThrottling(notification.getReason())) {
+                decrease(System.nanoTime());
+            }
+        } else if (envelope instanceof Command) {
+            Command command = (Command) envelope;
+            if (command.getStatus() != null && command.getId() != null) {
+                Long sendTime = commandSendTimes.remove(command.getId());
+                long now = System.nanoTime();
+                if (command.getStatus() == Command.CommandStatus.FAILURE && isThrottling(command.getReason())) {
+                    decrease(now);
+                } else if (sendTime != null) {
+                    onLatency(now, now - sendTime);
+                }
+            }
+        }
+        return envelope;
+    }
+
+    private boolean isThrottling(Reason reason) {
+        return reason != null && throttlingReasonCodes.contains(reason.getCode());
+    }
+
+    private synchronized void onLatency(long now, long latency) {
+        // The lowest latency is taken from the current and the previous windows, so a lasting rise of the base
+        // latency, like a route change, stops being seen as congestion
+        long windowsCount = (now - minLatencyWindowStart) / MIN_LATENCY_WINDOW_NANOS;
+        if (windowsCount > 0) {
+            previousWindowMinLatency = windowsCount == 1 ? windowMinLatency : 0;
+            windowMinLatency = 0;
+            minLatencyWindowStart = now;
+        }
+        if (windowMinLatency == 0 || latency < windowMinLatency) {
+            windowMinLatency = Math.max(latency, 1);
+        }
+        long minLatency = previousWindowMinLatency == 0 ? windowMinLatency : Math.min(windowMinLatency, previousWindowMinLatency);
+        smoothedLatency = smoothedLatency == 0 ? latency : smoothedLatency + LATENCY_SMOOTHING * (latency - smoothedLatency);
+        if (smoothedLatency > minLatency * latencyThreshold) {
+            decrease(now);
+        }
+    }
+
+    private synchronized void increase(long now) {
+        if (now - lastAdjustmentTime < ADJUSTMENT_PERIOD_NANOS) {
+            return;
+        }
+        // The rate is raised only when it was limiting the senders, otherwise an idle channel would raise it indefinitely
+        if (wasLimited) {
+            throughput = Math.min(throughput + additiveIncrease, maxThroughput);
+            wasLimited = false;
+        }
+        lastAdjustmentTime = now;
+    }
+
+    private synchronized void decrease(long now) {
+        // A single cut for the congestion signals of the same period
+        if (now - lastDecreaseTime < ADJUSTMENT_PERIOD_NANOS) {
+            return;
+        }
+        throughput = Math.max(throughput * decreaseFactor, minThroughput);
+        lastDecreaseTime = now;
+        lastAdjustmentTime = now;
+        wasLimited = false;
+        decreasesCount.incrementAndGet();
+    }
+
+    private static Integer getQuotaThroughput(Document quota) {
+        if (quota == null) {
+            return null;
+        }
+        JsonNode quotaThroughput = JacksonEnvelopeSerializer.getObjectMapper().valueToTree(quota).path("throughput");
+        return quotaThroughput.isNumber() ? quotaThroughput.intValue() : null;
+    }
+
+    public static AdaptiveThroughputControlChannelModule createAndRegister(Channel channel) {
+        return createAndRegister(channel, DEFAULT_INITIAL_THROUGHPUT, DEFAULT_MIN_THROUGHPUT, DEFAULT_MAX_THROUGHPUT);
+    }
+
+    /**
+     * Creates a module and registers it to the channel.
+     * @param channel
+     * @param initialThroughput The envelopes per second sent when the channel starts.
+     * @param minThroughput The lowest rate after the cuts.
+     * @param maxThroughput The ceiling of the rate, which can be replaced by the session quota.
+     * @return
+     */
+    public static AdaptiveThroughputControlChannelModule createAndRegister(Channel channel, int initialThroughput, int minThroughput, int maxThroughput) {
+        return createAndRegister(channel, initialThroughput, minThroughput, maxThroughput, DEFAULT_TIMEOUT_MILLIS);
+    }
+
+    public static AdaptiveThroughputControlChannelModule createAndRegister(Channel channel, int initialThroughput, int minThroughput, int maxThroughput, long timeoutMillis) {
+        AdaptiveThroughputControlChannelModule module = new AdaptiveThroughputControlChannelModule(initialThroughput, minThroughput, maxThroughput, timeoutMillis);
+        channel.getMessageModules().add(module);
+        channel.getCommandModules().add(module);
+        channel.getNotificationModules().add(module);
+        return module;
+    }
+}
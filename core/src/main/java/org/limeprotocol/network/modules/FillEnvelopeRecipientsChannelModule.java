@@ -12,9 +12,18 @@ import org.limeprotocol.util.StringUtils;
 public final class FillEnvelopeRecipientsChannelModule<T extends Envelope> extends ChannelModuleBase<T> {
 
     private final Channel channel;
+    private final NodeCache nodeCache;
 
     public FillEnvelopeRecipientsChannelModule(Channel channel) {
+        this(channel, NodeCache.getDefault());
+    }
+
+    public FillEnvelopeRecipientsChannelModule(Channel channel, NodeCache nodeCache) {
+        if (nodeCache == null) {
+            throw new IllegalArgumentException("nodeCache");
+        }
         this.channel = channel;
+        this.nodeCache = nodeCache;
     }
 
     @Override
@@ -22,10 +31,10 @@ public final class FillEnvelopeRecipientsChannelModule<T extends Envelope> exten
         if (channel instanceof ClientChannel && channel.getLocalNode() != null) {
             if (envelope.getPp() == null) {
                 if (envelope.getFrom() != null && !envelope.getFrom().equals(channel.getLocalNode())) {
-                    envelope.setPp(channel.getLocalNode().copy());
+                    envelope.setPp(nodeCache.intern(channel.getLocalNode()));
                 }
             } else if (StringUtils.isNullOrWhiteSpace(envelope.getPp().getDomain())) {
-                envelope.getPp().setDomain(channel.getLocalNode().getDomain());
+                envelope.setPp(withDomain(envelope.getPp(), channel.getLocalNode().getDomain()));
             }
         }
 
@@ -39,23 +48,33 @@ public final class FillEnvelopeRecipientsChannelModule<T extends Envelope> exten
 
         if (from != null) {
             if (envelope.getFrom() == null) {
-                envelope.setFrom(from.copy());
+                envelope.setFrom(nodeCache.intern(from));
             } else if (StringUtils.isNullOrEmpty(envelope.getFrom().getDomain())) {
-                envelope.getFrom().setDomain(from.getDomain());
+                envelope.setFrom(withDomain(envelope.getFrom(), from.getDomain()));
             }
         }
 
         if (to != null) {
             if (envelope.getTo() == null) {
-                envelope.setTo(to.copy());
+                envelope.setTo(nodeCache.intern(to));
             } else if (StringUtils.isNullOrEmpty(envelope.getTo().getDomain())) {
-                envelope.getTo().setDomain(to.getDomain());
+                envelope.setTo(withDomain(envelope.getTo(), to.getDomain()));
             }
         }
 
         return super.onReceiving(envelope);
     }
 
+    /**
+     * Gets the canonical node with the specified domain, since the envelope nodes may be shared by other envelopes.
+     * @param node
+     * @param domain
+     * @return
+     */
+    private Node withDomain(Node node, String domain) {
+        return nodeCache.intern(new Node(node.getName(), domain, node.getInstance()));
+    }
+
     public static void createAndRegister(Channel channel) {
         FillEnvelopeRecipientsChannelModule<Message> messageModule = new FillEnvelopeRecipientsChannelModule<>(channel);
         FillEnvelopeRecipientsChannelModule<Notification> notificationModule = new FillEnvelopeRecipientsChannelModule<>(channel);
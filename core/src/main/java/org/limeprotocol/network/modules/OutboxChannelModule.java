@@ -0,0 +1,164 @@
+package org.limeprotocol.network.modules;
+
+import org.limeprotocol.Envelope;
+import org.limeprotocol.Message;
+import org.limeprotocol.Notification;
+import org.limeprotocol.Session;
+import org.limeprotocol.network.Channel;
+import org.limeprotocol.network.ChannelModule;
+import org.limeprotocol.serialization.EnvelopeSerializer;
+import org.limeprotocol.serialization.JacksonEnvelopeSerializer;
+import org.limeprotocol.util.MappedJournal;
+import org.limeprotocol.util.SharedExecutors;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.limeprotocol.Session.SessionState.ESTABLISHED;
+
+/**
+ * Defines a module that keeps the sent messages in a durable journal until the expected notification arrives,
+ * so the messages without a receipt when the process stopped are sent again when the channel is established
+ * after the restart. The delivery is at least once, so the destination may receive the same message twice.
+ */
+public final class OutboxChannelModule implements ChannelModule, Closeable {
+
+    private final Channel channel;
+    private final MappedJournal journal;
+    private final EnvelopeSerializer serializer;
+    private final Notification.Event expectedEvent;
+    private final boolean syncOnSending;
+    private final AtomicBoolean isReplayed;
+
+    private OutboxChannelModule(Channel channel, MappedJournal journal, EnvelopeSerializer serializer, Notification.Event expectedEvent, boolean syncOnSending) {
+        if (channel == null) throw new IllegalArgumentException("channel");
+        if (journal == null) throw new IllegalArgumentException("journal");
+        if (serializer == null) throw new IllegalArgumentException("serializer");
+        if (expectedEvent == Notification.Event.FAILED) throw new IllegalArgumentException("Invalid expected event");
+        this.channel = channel;
+        this.journal = journal;
+        this.serializer = serializer;
+        this.expectedEvent = expectedEvent;
+        this.syncOnSending = syncOnSending;
+        this.isReplayed = new AtomicBoolean();
+    }
+
+    /**
+     * Gets the number of messages in the journal that are waiting for the expected notification.
+     * @return
+     */
+    public int getPendingMessagesCount() {
+        return journal.size();
+    }
+
+    /**
+     * Sends the messages of the journal through the channel. It is called on the first time that the
+     * channel is established.
+     * @return The number of sent messages.
+     * @throws IOException
+     */
+    public int replay() throws IOException {
+        int count = 0;
+        for (Map.Entry<String, byte[]> entry : journal.getEntries().entrySet()) {
+            if (!journal.contains(entry.getKey())) {
+                // Acknowledged while replaying
+                continue;
+            }
+            byte[] serializedMessage = entry.getValue();
+            channel.sendMessage((Message) serializer.deserialize(serializedMessage, 0, serializedMessage.length));
+            count++;
+        }
+        return count;
+    }
+
+    @Override
+    public void onStateChanged(Session.SessionState state) {
+        if (state == ESTABLISHED && isReplayed.compareAndSet(false, true) && journal.size() > 0) {
+            // The channel state is being changed, so the messages are sent by the shared executor
+            SharedExecutors.getExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        replay();
+                    } catch (IOException | IllegalStateException e) {
+                        e.printStackTrace();
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Appends the message to the journal, waiting for it to be durable if the module syncs on sending.
+     * @param envelope
+     * @return
+     * @throws IllegalStateException If the message could not be written to the journal.
+     */
+    @Override
+    public Envelope onSending(Envelope envelope) {
+        if (envelope instanceof Message && envelope.getId() != null && !journal.contains(envelope.getId())) {
+            try {
+                long position = journal.append(envelope.getId(), serializer.serialize(envelope).getBytes(StandardCharsets.UTF_8));
+                if (syncOnSending) {
+                    journal.sync(position);
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not write the message to the outbox journal", e);
+            }
+        }
+        return envelope;
+    }
+
+    @Override
+    public Envelope onReceiving(Envelope envelope) {
+        if (envelope instanceof Notification && envelope.getId() != null) {
+            Notification notification = (Notification) envelope;
+            if (notification.getEvent() == expectedEvent || notification.getEvent() == Notification.Event.FAILED) {
+                try {
+                    journal.remove(envelope.getId());
+                } catch (IOException e) {
+                    // The message will be sent again after a restart
+                    e.printStackTrace();
+                }
+            }
+        }
+        return envelope;
+    }
+
+    /**
+     * Closes the journal. The messages without a receipt are kept for the next execution.
+     */
+    @Override
+    public void close() {
+        journal.close();
+    }
+
+    public static OutboxChannelModule createAndRegister(Channel channel, File directory) throws IOException {
+        return createAndRegister(channel, directory, Notification.Event.RECEIVED);
+    }
+
+    public static OutboxChannelModule createAndRegister(Channel channel, File directory, Notification.Event expectedEvent) throws IOException {
+        return createAndRegister(channel, new MappedJournal(directory), new JacksonEnvelopeSerializer(), expectedEvent, true);
+    }
+
+    /**
+     * Creates a module and registers it to the channel.
+     * @param channel
+     * @param journal
+     * @param serializer
+     * @param expectedEvent The notification event that removes the message from the journal.
+     * @param syncOnSending Indicates if the sending waits for the message to be durable. Otherwise, the messages
+     *                     are durable after the next sync of the journal.
+     * @return
+     */
+    public static OutboxChannelModule createAndRegister(Channel channel, MappedJournal journal, EnvelopeSerializer serializer, Notification.Event expectedEvent, boolean syncOnSending) {
+        OutboxChannelModule module = new OutboxChannelModule(channel, journal, serializer, expectedEvent, syncOnSending);
+        channel.getMessageModules().add(module);
+        channel.getNotificationModules().add(module);
+        return module;
+    }
+}
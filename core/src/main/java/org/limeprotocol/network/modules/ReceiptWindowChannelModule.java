@@ -0,0 +1,241 @@
+package org.limeprotocol.network.modules;
+
+import org.limeprotocol.*;
+import org.limeprotocol.network.Channel;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the number of sent messages without a receipt at each destination, like a TCP window.
+ * A received, consumed or failed notification of a message gives its slot back to the destination window.
+ * When the window of a destination is full, the senders to it are held until a receipt arrives or the timeout
+ * elapses, while the messages to other destinations are sent normally.
+ * The slots of messages without a receipt for too long are reclaimed, so lost notifications don't close the window.
+ */
+public class ReceiptWindowChannelModule extends ChannelModuleBase {
+
+    public static final int DEFAULT_WINDOW_SIZE = 100;
+    public static final long DEFAULT_TIMEOUT_MILLIS = 10000;
+    public static final long DEFAULT_RECEIPT_TIMEOUT_MILLIS = 60000;
+    private static final int MAX_IDLE_WINDOWS = 10000;
+
+    private final int windowSize;
+    private final long timeoutMillis;
+    private final long receiptTimeoutNanos;
+    private final ConcurrentHashMap<Identity, Window> windows;
+    private final ConcurrentHashMap<String, Window> outstandingMessages;
+
+    private ReceiptWindowChannelModule(int windowSize, long timeoutMillis, long receiptTimeoutMillis) {
+        if (windowSize <= 0) {
+            throw new IllegalArgumentException("windowSize");
+        }
+        if (timeoutMillis < 0) {
+            throw new IllegalArgumentException("timeoutMillis");
+        }
+        if (receiptTimeoutMillis <= 0) {
+            throw new IllegalArgumentException("receiptTimeoutMillis");
+        }
+        this.windowSize = windowSize;
+        this.timeoutMillis = timeoutMillis;
+        this.receiptTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(receiptTimeoutMillis);
+        this.windows = new ConcurrentHashMap<>();
+        this.outstandingMessages = new ConcurrentHashMap<>();
+    }
+
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    /**
+     * Gets the number of sent messages without a receipt.
+     * @return
+     */
+    public int getOutstandingCount() {
+        return outstandingMessages.size();
+    }
+
+    /**
+     * Gets the number of sent messages without a receipt to the specified destination.
+     * @param destination
+     * @return
+     */
+    public int getOutstandingCount(Node destination) {
+        if (destination == null) {
+            throw new IllegalArgumentException("destination");
+        }
+        Window window = windows.get(destination.toIdentity());
+        return window != null ? window.sentTimes.size() : 0;
+    }
+
+    @Override
+    public void onStateChanged(Session.SessionState state) {
+        if (state == Session.SessionState.FINISHED || state == Session.SessionState.FAILED) {
+            // The receipts of the closed session won't arrive, so their slots are given back
+            outstandingMessages.clear();
+            for (Window window : windows.values()) {
+                for (String messageId : window.sentTimes.keySet()) {
+                    window.release(messageId);
+                }
+            }
+            removeIdleWindows();
+        }
+    }
+
+    /**
+     * Takes a slot of the message destination window, waiting for it if the window is full.
+     * @param envelope
+     * @return
+     * @throws IllegalStateException If the window is still full after the timeout.
+     */
+    @Override
+    public Envelope onSending(Envelope envelope) {
+        if (!(envelope instanceof Message) || envelope.getId() == null || envelope.getTo() == null
+                || outstandingMessages.containsKey(envelope.getId())) {
+            // The resent messages keep the slot of the first send
+            return envelope;
+        }
+        Window window;
+        do {
+            window = getWindow(envelope.getTo().toIdentity());
+            try {
+                if (!window.acquire(timeoutMillis)) {
+                    throw new IllegalStateException(String.format("The window of the destination '%s' is full", envelope.getTo()));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("The sending thread was interrupted while waiting for the window", e);
+            }
+        } while (!window.keepAcquiredSlot());
+        if (outstandingMessages.putIfAbsent(envelope.getId(), window) != null) {
+            // Another sender took a slot for the same message
+            window.slots.release();
+            return envelope;
+        }
+        window.sentTimes.put(envelope.getId(), System.nanoTime());
+        return envelope;
+    }
+
+    @Override
+    public Envelope onReceiving(Envelope envelope) {
+        if (envelope instanceof Notification && envelope.getId() != null) {
+            Notification.Event event = ((Notification) envelope).getEvent();
+            if (event == Notification.Event.RECEIVED
+                    || event == Notification.Event.CONSUMED
+                    || event == Notification.Event.FAILED) {
+                Window window = outstandingMessages.remove(envelope.getId());
+                if (window != null) {
+                    window.release(envelope.getId());
+                }
+            }
+        }
+        return envelope;
+    }
+
+    private Window getWindow(Identity destination) {
+        Window window = windows.get(destination);
+        if (window == null) {
+            if (windows.size() >= MAX_IDLE_WINDOWS) {
+                removeIdleWindows();
+            }
+            Window newWindow = new Window();
+            window = windows.putIfAbsent(destination, newWindow);
+            if (window == null) {
+                window = newWindow;
+            }
+        }
+        return window;
+    }
+
+    private void removeIdleWindows() {
+        for (Map.Entry<Identity, Window> entry : windows.entrySet()) {
+            if (entry.getValue().evictIfIdle()) {
+                windows.remove(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    private final class Window {
+        private final Semaphore slots;
+        private final ConcurrentHashMap<String, Long> sentTimes;
+        private boolean isEvicted;
+
+        Window() {
+            this.slots = new Semaphore(windowSize);
+            this.sentTimes = new ConcurrentHashMap<>();
+        }
+
+        boolean acquire(long timeoutMillis) throws InterruptedException {
+            if (slots.tryAcquire()) {
+                return true;
+            }
+            reclaimExpired();
+            return slots.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+
+        /**
+         * Checks if the window was not evicted after the slot was acquired, giving the slot back otherwise.
+         * @return
+         */
+        synchronized boolean keepAcquiredSlot() {
+            if (isEvicted) {
+                slots.release();
+                return false;
+            }
+            return true;
+        }
+
+        /**
+         * Evicts the window if none of its slots is taken and no sender is waiting for one. A sender that takes a
+         * slot between the acquire and the sent time still counts, so the destination never has two windows in use.
+         * @return
+         */
+        synchronized boolean evictIfIdle() {
+            if (!isEvicted && slots.availablePermits() == windowSize && !slots.hasQueuedThreads()) {
+                isEvicted = true;
+            }
+            return isEvicted;
+        }
+
+        void release(String messageId) {
+            if (sentTimes.remove(messageId) != null) {
+                slots.release();
+            }
+        }
+
+        private void reclaimExpired() {
+            long now = System.nanoTime();
+            for (Map.Entry<String, Long> entry : sentTimes.entrySet()) {
+                if (now - entry.getValue() > receiptTimeoutNanos
+                        && outstandingMessages.remove(entry.getKey(), this)) {
+                    release(entry.getKey());
+                }
+            }
+        }
+    }
+
+    public static ReceiptWindowChannelModule createAndRegister(Channel channel) {
+        return createAndRegister(channel, DEFAULT_WINDOW_SIZE);
+    }
+
+    public static ReceiptWindowChannelModule createAndRegister(Channel channel, int windowSize) {
+        return createAndRegister(channel, windowSize, DEFAULT_TIMEOUT_MILLIS, DEFAULT_RECEIPT_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Creates a module and registers it to the channel.
+     * @param channel
+     * @param windowSize The maximum number of messages without a receipt at each destination.
+     * @param timeoutMillis The time that a sender waits for a slot of a full window.
+     * @param receiptTimeoutMillis The time after which the slot of a message without a receipt is reclaimed.
+     * @return
+     */
+    public static ReceiptWindowChannelModule createAndRegister(Channel channel, int windowSize, long timeoutMillis, long receiptTimeoutMillis) {
+        ReceiptWindowChannelModule module = new ReceiptWindowChannelModule(windowSize, timeoutMillis, receiptTimeoutMillis);
+        channel.getMessageModules().add(module);
+        channel.getNotificationModules().add(module);
+        return module;
+    }
+}
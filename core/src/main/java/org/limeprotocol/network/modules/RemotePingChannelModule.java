@@ -4,6 +4,8 @@ import org.limeprotocol.*;
 import org.limeprotocol.client.ClientChannel;
 import org.limeprotocol.network.Channel;
 import org.limeprotocol.network.ChannelModule;
+import org.limeprotocol.util.HashedWheelTimer;
+import org.limeprotocol.util.SharedExecutors;
 
 import java.util.UUID;
 import java.util.concurrent.*;
@@ -14,6 +16,8 @@ import static org.limeprotocol.Session.SessionState.FINISHED;
 
 /**
  * Defines a module that pings the remote party after a period of inactivity.
+ * The idle checks of all channels are scheduled in a shared timer wheel. The envelopes only record the
+ * time of the last activity, which is compared with the idle deadline when the check expires.
  */
 public final class RemotePingChannelModule implements ChannelModule {
 
@@ -22,92 +26,171 @@ public final class RemotePingChannelModule implements ChannelModule {
     private final Channel channel;
     private final long pingInterval;
     private final long pingDisconnectionInterval;
+    private final boolean isSendingActivity;
+    private final HashedWheelTimer timer;
+    private final Executor executor;
+    private final IdleCheckRunnable idleCheckRunnable;
     private final PingRunnable pingRunnable;
-    private final ScheduledExecutorService executor;
-    private ScheduledFuture scheduledPing;
-    private long lastReceivedEnvelope;
+    private volatile HashedWheelTimer.Timeout scheduledCheck;
+    private volatile long lastReceivedEnvelope;
+    private volatile long lastSentEnvelope;
+    private volatile long lastPing;
 
 
-    private RemotePingChannelModule(Channel channel, long pingInterval, long pingDisconnectionInterval, ScheduledExecutorService executor) {
+    private RemotePingChannelModule(Channel channel, long pingInterval, long pingDisconnectionInterval, boolean isSendingActivity, HashedWheelTimer timer, Executor executor) {
         if (pingInterval < 0) throw new IllegalArgumentException("Invalid ping interval");
+        if (timer == null) throw new IllegalArgumentException("timer");
+        if (executor == null) throw new IllegalArgumentException("executor");
         this.channel = channel;
         this.pingInterval = pingInterval;
         this.pingDisconnectionInterval = pingDisconnectionInterval;
-        this.executor =  executor;
+        this.isSendingActivity = isSendingActivity;
+        this.timer = timer;
+        this.executor = executor;
+        this.idleCheckRunnable = new IdleCheckRunnable();
         this.pingRunnable = new PingRunnable();
     }
 
     @Override
     public synchronized void onStateChanged(Session.SessionState state) {
         if (state == ESTABLISHED) {
-            setLastReceivedEnvelope(System.currentTimeMillis());
+            lastReceivedEnvelope = System.currentTimeMillis();
+            scheduleCheck(pingInterval);
         } else if (state == FINISHED || state == FAILED) {
-            cancelScheduledPing();
+            cancelScheduledCheck();
         }
     }
 
     @Override
     public Envelope onSending(Envelope envelope) {
+        if (isSendingActivity && !isPing(envelope)) {
+            lastSentEnvelope = System.currentTimeMillis();
+        }
         return envelope;
     }
 
     @Override
     public Envelope onReceiving(Envelope envelope) {
-        setLastReceivedEnvelope(System.currentTimeMillis());
+        lastReceivedEnvelope = System.currentTimeMillis();
         return envelope;
     }
 
     public static RemotePingChannelModule createAndRegister(Channel channel, long pingInterval, long pingDisconnectionInterval) {
-        return createAndRegister(channel, pingInterval, pingDisconnectionInterval, Executors.newSingleThreadScheduledExecutor());
+        return createAndRegister(channel, pingInterval, pingDisconnectionInterval, false);
+    }
+
+    /**
+     * Creates a module and registers it to the channel.
+     * @param channel
+     * @param pingInterval
+     * @param pingDisconnectionInterval
+     * @param isSendingActivity Indicates if the sent envelopes delay the pings, like the received ones.
+     *                          The disconnection is still based only on the received envelopes.
+     * @return
+     */
+    public static RemotePingChannelModule createAndRegister(Channel channel, long pingInterval, long pingDisconnectionInterval, boolean isSendingActivity) {
+        return createAndRegister(channel, pingInterval, pingDisconnectionInterval, isSendingActivity, SharedExecutors.getTimer(), SharedExecutors.getExecutor());
     }
 
     public static RemotePingChannelModule createAndRegister(Channel channel, long pingInterval, long pingDisconnectionInterval, ScheduledExecutorService executor) {
-        RemotePingChannelModule module = new RemotePingChannelModule(channel, pingInterval, pingDisconnectionInterval, executor);
+        return createAndRegister(channel, pingInterval, pingDisconnectionInterval, false, SharedExecutors.getTimer(), executor);
+    }
+
+    /**
+     * Creates a module and registers it to the channel.
+     * @param channel
+     * @param pingInterval
+     * @param pingDisconnectionInterval
+     * @param isSendingActivity
+     * @param timer The timer of the idle checks.
+     * @param executor The executor where the pings are sent, out of the timer thread.
+     * @return
+     */
+    public static RemotePingChannelModule createAndRegister(Channel channel, long pingInterval, long pingDisconnectionInterval, boolean isSendingActivity, HashedWheelTimer timer, Executor executor) {
+        RemotePingChannelModule module = new RemotePingChannelModule(channel, pingInterval, pingDisconnectionInterval, isSendingActivity, timer, executor);
         channel.getMessageModules().add(module);
         channel.getNotificationModules().add(module);
         channel.getCommandModules().add(module);
         return module;
     }
 
-    private void setLastReceivedEnvelope(long time) {
-        this.lastReceivedEnvelope = time;
-        schedulePing();
+    private long getLastActivity() {
+        long lastActivity = Math.max(lastReceivedEnvelope, lastPing);
+        if (isSendingActivity) {
+            lastActivity = Math.max(lastActivity, lastSentEnvelope);
+        }
+        return lastActivity;
+    }
+
+    private synchronized void scheduleCheck(long delay) {
+        cancelScheduledCheck();
+        scheduledCheck = timer.newTimeout(idleCheckRunnable, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Schedules the next check after the current one expired, unless it was cancelled meanwhile.
+     * The check is kept until the channel is closed, so the received envelopes don't need to schedule it.
+     */
+    private synchronized void rescheduleCheck(long delay) {
+        if (scheduledCheck != null && scheduledCheck.isExpired()) {
+            scheduleCheck(delay);
+        }
+    }
+
+    private synchronized void cancelScheduledCheck() {
+        if (scheduledCheck != null) {
+            scheduledCheck.cancel();
+            scheduledCheck = null;
+        }
     }
 
-    private synchronized void schedulePing() {
-        cancelScheduledPing();
-        if (channel.getState() == ESTABLISHED && channel.getTransport().isConnected()) {
-            scheduledPing = executor.schedule(pingRunnable, pingInterval, TimeUnit.MILLISECONDS);
+    private static boolean isPing(Envelope envelope) {
+        if (!(envelope instanceof Command)) {
+            return false;
         }
+        Command command = (Command) envelope;
+        return command.getMethod() == Command.CommandMethod.GET
+                && command.getUri() != null
+                && PING_URI_TEMPLATE.equals(command.getUri().toString());
     }
 
-    private synchronized void cancelScheduledPing() {
-        if (scheduledPing != null) {
-            if (!scheduledPing.isCancelled() && !scheduledPing.isDone()) {
-                scheduledPing.cancel(false);
+    private class IdleCheckRunnable implements Runnable {
+        @Override
+        public void run() {
+            // Called by the timer thread, so the activity is only compared here and the ping is sent by the executor
+            long idleTime = System.currentTimeMillis() - getLastActivity();
+            if (idleTime < pingInterval) {
+                rescheduleCheck(pingInterval - idleTime);
+                return;
+            }
+            try {
+                executor.execute(pingRunnable);
+            } catch (RejectedExecutionException e) {
+                e.printStackTrace();
+                rescheduleCheck(pingInterval);
             }
-            scheduledPing = null;
         }
     }
 
     private class PingRunnable implements Runnable {
         @Override
         public void run() {
-            if (channel.getState() == ESTABLISHED && channel.getTransport().isConnected()) {
-                try {
+            try {
+                if (channel.getState() == ESTABLISHED && channel.getTransport().isConnected()) {
                     if (pingDisconnectionInterval == 0 || System.currentTimeMillis() - lastReceivedEnvelope < pingDisconnectionInterval) {
                         Command pingCommand = new Command(EnvelopeId.newId());
                         pingCommand.setMethod(Command.CommandMethod.GET);
                         pingCommand.setUri(new LimeUri(PING_URI_TEMPLATE));
+                        lastPing = System.currentTimeMillis();
                         channel.sendCommand(pingCommand);
-
-                        schedulePing();
                     } else if (channel instanceof ClientChannel) {
                         ((ClientChannel) channel).sendFinishingSession();
                     }
-                } catch (Exception e) {
-                    e.printStackTrace();
                 }
+            } catch (Exception e) {
+                e.printStackTrace();
+            } finally {
+                rescheduleCheck(pingInterval);
             }
         }
     }
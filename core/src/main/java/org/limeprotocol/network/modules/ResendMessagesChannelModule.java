@@ -6,8 +6,12 @@ import org.limeprotocol.Notification;
 import org.limeprotocol.Session;
 import org.limeprotocol.network.Channel;
 import org.limeprotocol.network.ChannelModule;
+import org.limeprotocol.serialization.EnvelopeSerializer;
+import org.limeprotocol.util.HashedWheelTimer;
+import org.limeprotocol.util.SharedExecutors;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.concurrent.*;
 
@@ -15,6 +19,8 @@ import static org.limeprotocol.Session.SessionState.*;
 
 /**
  * Defines a module that resend messages that doesn't have received receipts from the destination.
+ * The resends are scheduled in a timer wheel, which can be shared by the modules of many channels,
+ * and the interval between the resends of a message can grow exponentially with a random jitter.
  */
 public final class ResendMessagesChannelModule implements ChannelModule {
 
@@ -22,31 +28,90 @@ public final class ResendMessagesChannelModule implements ChannelModule {
 
     private final int resendMessageTryCount;
     private final long resendMessageInterval;
+    private final double backoffMultiplier;
+    private final double jitter;
     private final Notification.Event expectedEvent;
+    private final EnvelopeSerializer serializer;
+    private final HashedWheelTimer timer;
+    private final Executor executor;
     private final ConcurrentMap<String, SentMessage> sentMessageMap;
-    private final BlockingQueue<SentMessage> sentMessageQueue;
 
-    private Channel channel;
+    private volatile Channel channel;
     private boolean unbindWhenClosed;
-    private Thread consumerThread;
 
     public ResendMessagesChannelModule(int resendMessageTryCount, long resendMessageInterval) {
         this(resendMessageTryCount, resendMessageInterval, Notification.Event.RECEIVED);
     }
 
     public ResendMessagesChannelModule(int resendMessageTryCount, long resendMessageInterval, Notification.Event expectedEvent) {
+        this(resendMessageTryCount, resendMessageInterval, expectedEvent, 1, 0);
+    }
+
+    /**
+     * Creates a module with exponential backoff between the resends.
+     * @param resendMessageTryCount
+     * @param resendMessageInterval The interval before the first resend, in milliseconds.
+     * @param expectedEvent
+     * @param backoffMultiplier The factor applied to the interval at each resend.
+     * @param jitter The fraction of the interval that is randomly added or subtracted, so the resends of many messages are spread.
+     */
+    public ResendMessagesChannelModule(int resendMessageTryCount, long resendMessageInterval, Notification.Event expectedEvent, double backoffMultiplier, double jitter) {
+        this(resendMessageTryCount, resendMessageInterval, expectedEvent, backoffMultiplier, jitter, null);
+    }
+
+    /**
+     * Creates a module with exponential backoff between the resends.
+     * @param resendMessageTryCount
+     * @param resendMessageInterval
+     * @param expectedEvent
+     * @param backoffMultiplier
+     * @param jitter
+     * @param serializer If defined, the pending messages are kept serialized and a copy is sent at each resend.
+     */
+    public ResendMessagesChannelModule(int resendMessageTryCount, long resendMessageInterval, Notification.Event expectedEvent, double backoffMultiplier, double jitter, EnvelopeSerializer serializer) {
+        this(resendMessageTryCount, resendMessageInterval, expectedEvent, backoffMultiplier, jitter, serializer, SharedExecutors.getTimer(), SharedExecutors.getExecutor());
+    }
+
+    /**
+     * Creates a module with exponential backoff between the resends.
+     * @param resendMessageTryCount
+     * @param resendMessageInterval
+     * @param expectedEvent
+     * @param backoffMultiplier
+     * @param jitter
+     * @param serializer
+     * @param timer The timer of the resends.
+     * @param executor The executor where the messages are resent, out of the timer thread.
+     */
+    public ResendMessagesChannelModule(int resendMessageTryCount, long resendMessageInterval, Notification.Event expectedEvent, double backoffMultiplier, double jitter, EnvelopeSerializer serializer, HashedWheelTimer timer, Executor executor) {
         if (expectedEvent == Notification.Event.FAILED) throw new IllegalArgumentException("Invalid expected event");
+        if (backoffMultiplier < 1) throw new IllegalArgumentException("backoffMultiplier");
+        if (jitter < 0 || jitter >= 1) throw new IllegalArgumentException("jitter");
+        if (timer == null) throw new IllegalArgumentException("timer");
+        if (executor == null) throw new IllegalArgumentException("executor");
         this.resendMessageTryCount = resendMessageTryCount;
         this.resendMessageInterval = resendMessageInterval;
+        this.backoffMultiplier = backoffMultiplier;
+        this.jitter = jitter;
         this.expectedEvent = expectedEvent;
+        this.serializer = serializer;
+        this.timer = timer;
+        this.executor = executor;
         this.sentMessageMap = new ConcurrentHashMap<>();
-        this.sentMessageQueue = new ArrayBlockingQueue<>(100);
     }
 
     public boolean isBound() {
         return channel != null;
     }
 
+    /**
+     * Gets the number of sent messages that are waiting for the expected notification.
+     * @return
+     */
+    public int getPendingMessagesCount() {
+        return sentMessageMap.size();
+    }
+
     public synchronized void bind(Channel channel, boolean unbindWhenClosed) {
         if (channel == null) throw new IllegalArgumentException("Invalid channel");
         if (channel.getState() == FINISHED || channel.getState() == FAILED) throw new IllegalArgumentException("The channel has an invalid state");
@@ -67,22 +132,15 @@ public final class ResendMessagesChannelModule implements ChannelModule {
         channel.getMessageModules().remove(this);
         channel.getNotificationModules().remove(this);
         channel = null;
-        if (consumerThread != null && consumerThread.isAlive()) {
-            try {
-                consumerThread.join();
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
-        }
     }
 
     @Override
     public synchronized void onStateChanged(Session.SessionState state) {
         if (state == ESTABLISHED) {
-            consumerThread = new Thread(
-                new QueueConsumer()
-            );
-            consumerThread.start();
+            // The messages that were due while the module had no established channel are resent now
+            for (SentMessage sentMessage : sentMessageMap.values()) {
+                sentMessage.resumeResend();
+            }
         } else if (unbindWhenClosed && (state == FINISHED || state == FAILED)) {
             unbind();
         }
@@ -92,20 +150,24 @@ public final class ResendMessagesChannelModule implements ChannelModule {
     public Envelope onSending(Envelope envelope) {
         if (envelope instanceof Message && envelope.getId() != null) {
             SentMessage sentMessage = sentMessageMap.get(envelope.getId());
-            if (sentMessage != null) {
-                sentMessage.incrementResentCount();
-            } else {
+            int resentCount;
+            if (sentMessage == null) {
                 sentMessage = new SentMessage((Message) envelope);
-                sentMessageMap.put(envelope.getId(), sentMessage);
+                SentMessage existingSentMessage = sentMessageMap.putIfAbsent(envelope.getId(), sentMessage);
+                if (existingSentMessage != null) {
+                    sentMessage = existingSentMessage;
+                    resentCount = sentMessage.incrementResentCount();
+                } else {
+                    resentCount = 1;
+                }
+            } else {
+                resentCount = sentMessage.incrementResentCount();
             }
 
-            if (sentMessage.getResentCount() <= resendMessageTryCount) {
-                sentMessageQueue.add(sentMessage);
-            } else {
-                sentMessage = sentMessageMap.remove(envelope.getId());
-                if (sentMessage != null) {
-                    sentMessage.cancelResent();
-                }
+            if (resentCount <= resendMessageTryCount) {
+                sentMessage.scheduleResend(getResendDelay(resentCount));
+            } else if (sentMessageMap.remove(envelope.getId(), sentMessage)) {
+                sentMessage.cancelResend();
             }
         }
         return envelope;
@@ -118,7 +180,7 @@ public final class ResendMessagesChannelModule implements ChannelModule {
             if (notification.getEvent() == expectedEvent || notification.getEvent() == Notification.Event.FAILED) {
                 SentMessage sentMessage = sentMessageMap.remove(envelope.getId());
                 if (sentMessage != null) {
-                    sentMessage.cancelResent();
+                    sentMessage.cancelResend();
                 }
             }
         }
@@ -126,82 +188,123 @@ public final class ResendMessagesChannelModule implements ChannelModule {
         return envelope;
     }
 
-    private final class SentMessage {
+    private long getResendDelay(int resentCount) {
+        double delay = resendMessageInterval * Math.pow(backoffMultiplier, resentCount - 1);
+        if (jitter > 0) {
+            delay *= 1 + jitter * (2 * ThreadLocalRandom.current().nextDouble() - 1);
+        }
+        return (long) Math.min(delay, Long.MAX_VALUE);
+    }
+
+    private void resend(SentMessage sentMessage) {
+        if (sentMessageMap.get(sentMessage.id) != sentMessage) {
+            // The notification arrived after the resend was due
+            return;
+        }
+        Channel channel = this.channel;
+        if (channel == null || channel.getState() != ESTABLISHED) {
+            sentMessage.parkResend();
+            return;
+        }
+        int resentCount = sentMessage.getResentCount();
+        try {
+            channel.sendMessage(sentMessage.getMessage());
+        } catch (IOException | IllegalStateException e) {
+            e.printStackTrace();
+            // The message didn't reach the module, so the same try is scheduled again
+            if (sentMessage.getResentCount() == resentCount) {
+                sentMessage.scheduleResend(getResendDelay(resentCount));
+            }
+        }
+    }
+
+    private final class SentMessage implements Runnable {
 
+        private final String id;
+        private final Runnable resendTask;
         private final Message message;
-        private final Semaphore semaphore;
-        private long lastSentTime;
+        private final byte[] serializedMessage;
         private int resentCount;
+        private HashedWheelTimer.Timeout timeout;
+        private boolean isParked;
 
         private SentMessage(Message message) {
-            this.message = message;
-            this.lastSentTime = System.currentTimeMillis();
-            this.semaphore = new Semaphore(0);
+            this.id = message.getId();
+            if (serializer != null) {
+                this.message = null;
+                this.serializedMessage = serializer.serialize(message).getBytes(StandardCharsets.UTF_8);
+            } else {
+                this.message = message;
+                this.serializedMessage = null;
+            }
             this.resentCount = 1;
+            this.resendTask = new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        resend(SentMessage.this);
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                }
+            };
         }
 
         public Message getMessage() {
+            Message message = this.message != null
+                    ? this.message
+                    : (Message) serializer.deserialize(serializedMessage, 0, serializedMessage.length);
             if (message.getMetadata() == null) {
                 message.setMetadata(new HashMap<String, String>());
             }
-            message.getMetadata().put(RESENT_COUNT_KEY, String.valueOf(resentCount));
+            message.getMetadata().put(RESENT_COUNT_KEY, String.valueOf(getResentCount()));
             return message;
         }
 
-        public long getLastSentTime() {
-            return lastSentTime;
-        }
-
-        public int getResentCount() {
+        public synchronized int getResentCount() {
             return resentCount;
         }
 
-        public void incrementResentCount() {
-            resentCount++;
-            this.lastSentTime = System.currentTimeMillis();
+        public synchronized int incrementResentCount() {
+            return ++resentCount;
         }
 
-        public boolean waitForResent(long resentInterval) throws InterruptedException {
-            if (this.semaphore.availablePermits() > 0) {
-                return false;
+        public synchronized void scheduleResend(long delay) {
+            if (timeout != null) {
+                timeout.cancel();
             }
-
-            long now = System.currentTimeMillis();
-            long resendTime = lastSentTime + resentInterval;
-            if (resendTime > now) {
-                long waitInterval = resendTime - now;
-                return !this.semaphore.tryAcquire(1, waitInterval, TimeUnit.MILLISECONDS);
-            }
-
-            return this.semaphore.availablePermits() == 0;
+            isParked = false;
+            timeout = timer.newTimeout(this, delay, TimeUnit.MILLISECONDS);
         }
 
-        public void cancelResent() {
-            this.semaphore.release(1);
+        public synchronized void parkResend() {
+            timeout = null;
+            isParked = true;
         }
-    }
 
-    private final class QueueConsumer implements Runnable {
+        public synchronized void resumeResend() {
+            if (isParked) {
+                scheduleResend(0);
+            }
+        }
 
-        private static final long POLL_TIMEOUT = 1000;
+        public synchronized void cancelResend() {
+            if (timeout != null) {
+                timeout.cancel();
+                timeout = null;
+            }
+            isParked = false;
+        }
 
         @Override
         public void run() {
-            while (isBound()) {
-                try {
-                    SentMessage sentMessage = sentMessageQueue.poll(POLL_TIMEOUT, TimeUnit.MILLISECONDS);
-                    if (sentMessage == null) continue;
-                    if (sentMessage.waitForResent(resendMessageInterval)) {
-                        Channel channel = ResendMessagesChannelModule.this.channel;
-                        if (channel == null) {
-                            sentMessageQueue.add(sentMessage);
-                            continue;
-                        }
-                        channel.sendMessage(sentMessage.getMessage());
-                    }
-                } catch (InterruptedException | IOException | IllegalStateException e) {
-                    e.printStackTrace();
-                }
+            // Called by the timer thread, which must not block on the channel. Each message is resent by its own
+            // task, so a message held by a blocking send module doesn't delay the others.
+            try {
+                executor.execute(resendTask);
+            } catch (RejectedExecutionException e) {
+                e.printStackTrace();
+                scheduleResend(getResendDelay(getResentCount()));
             }
         }
     }
@@ -1,34 +1,120 @@
 package org.limeprotocol.network.modules;
 
 import org.limeprotocol.Envelope;
+import org.limeprotocol.Node;
 import org.limeprotocol.network.Channel;
-import org.limeprotocol.util.RateGate;
+import org.limeprotocol.util.TokenBucket;
 
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
+/**
+ * Limits the rate of the envelopes sent by the channel, blocking the senders until the rate allows them to proceed.
+ * Optionally, each destination has its own limit, so a single busy recipient cannot take the whole channel rate.
+ */
 public class ThroughputControlChannelModule extends ChannelModuleBase {
 
-    private RateGate rateGate;
-    private long timeoutSec = 10;
+    public static final long DEFAULT_TIMEOUT_MILLIS = 10000;
+    private static final int MAX_DESTINATION_BUCKETS = 10000;
 
-    private ThroughputControlChannelModule(int throughput) {
-        rateGate = new RateGate(throughput);
+    private final TokenBucket tokenBucket;
+    private final int destinationThroughput;
+    private final ConcurrentHashMap<Node, TokenBucket> destinationBuckets;
+    private final long timeoutMillis;
+
+    private ThroughputControlChannelModule(int throughput, int burst, int destinationThroughput, long timeoutMillis) {
+        if (throughput <= 0) {
+            throw new IllegalArgumentException("throughput");
+        }
+        if (burst <= 0) {
+            throw new IllegalArgumentException("burst");
+        }
+        if (destinationThroughput < 0) {
+            throw new IllegalArgumentException("destinationThroughput");
+        }
+        if (timeoutMillis < 0) {
+            throw new IllegalArgumentException("timeoutMillis");
+        }
+        this.tokenBucket = new TokenBucket(burst, throughput);
+        this.destinationThroughput = destinationThroughput;
+        this.destinationBuckets = new ConcurrentHashMap<>();
+        this.timeoutMillis = timeoutMillis;
     }
 
+    /**
+     * Waits for the channel and destination rates to allow the envelope to be sent.
+     * @param envelope
+     * @return
+     * @throws IllegalStateException If the rates don't allow the envelope in the timeout.
+     */
     @Override
     public Envelope onSending(Envelope envelope) {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        TokenBucket destinationBucket = null;
         try {
-            rateGate.waitToProceed(timeoutSec, TimeUnit.SECONDS);
-        }catch (InterruptedException e){ }
+            if (destinationThroughput > 0 && envelope.getTo() != null) {
+                destinationBucket = getDestinationBucket(envelope.getTo());
+                if (!destinationBucket.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                    throw new IllegalStateException(String.format("The throughput of the destination '%s' was exceeded", envelope.getTo()));
+                }
+            }
+            if (!tokenBucket.tryAcquire(deadline - System.currentTimeMillis(), TimeUnit.MILLISECONDS)) {
+                // The envelope is not sent, so the destination token is returned
+                if (destinationBucket != null) {
+                    destinationBucket.release();
+                }
+                throw new IllegalStateException("The channel throughput was exceeded");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("The sending thread was interrupted while waiting for the throughput", e);
+        }
         return envelope;
     }
 
+    private TokenBucket getDestinationBucket(Node destination) {
+        TokenBucket destinationBucket = destinationBuckets.get(destination);
+        if (destinationBucket == null) {
+            if (destinationBuckets.size() >= MAX_DESTINATION_BUCKETS) {
+                // The full buckets are the same as new ones, so they are discarded
+                for (Iterator<TokenBucket> iterator = destinationBuckets.values().iterator(); iterator.hasNext(); ) {
+                    if (iterator.next().isFull()) {
+                        iterator.remove();
+                    }
+                }
+            }
+            TokenBucket newDestinationBucket = new TokenBucket(destinationThroughput, destinationThroughput);
+            destinationBucket = destinationBuckets.putIfAbsent(destination, newDestinationBucket);
+            if (destinationBucket == null) {
+                destinationBucket = newDestinationBucket;
+            }
+        }
+        return destinationBucket;
+    }
+
     public static ThroughputControlChannelModule createAndRegister(Channel channel) {
         return createAndRegister(channel, 10);
     }
 
     public static ThroughputControlChannelModule createAndRegister(Channel channel, int throughput) {
-        ThroughputControlChannelModule throughputControlChannelModule = new ThroughputControlChannelModule(throughput);
+        return createAndRegister(channel, throughput, throughput, 0);
+    }
+
+    /**
+     * Creates a module and registers it to the channel.
+     * @param channel
+     * @param throughput The envelopes per second sent by the channel.
+     * @param burst The envelopes that can be sent at once after the channel was idle.
+     * @param destinationThroughput The envelopes per second sent to each destination, or zero for no limit.
+     * @return
+     */
+    public static ThroughputControlChannelModule createAndRegister(Channel channel, int throughput, int burst, int destinationThroughput) {
+        return createAndRegister(channel, throughput, burst, destinationThroughput, DEFAULT_TIMEOUT_MILLIS);
+    }
+
+    public static ThroughputControlChannelModule createAndRegister(Channel channel, int throughput, int burst, int destinationThroughput, long timeoutMillis) {
+        ThroughputControlChannelModule throughputControlChannelModule = new ThroughputControlChannelModule(throughput, burst, destinationThroughput, timeoutMillis);
         channel.getMessageModules().add(throughputControlChannelModule);
         channel.getCommandModules().add(throughputControlChannelModule);
         channel.getNotificationModules().add(throughputControlChannelModule);
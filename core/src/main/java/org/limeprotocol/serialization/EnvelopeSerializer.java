@@ -2,6 +2,11 @@ package org.limeprotocol.serialization;
 
 import org.limeprotocol.Envelope;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
 /**
  * Base interface for envelope serializers.
  */
@@ -20,4 +25,36 @@ public interface EnvelopeSerializer {
      * @return
      */
     Envelope deserialize(String envelopeString);
+
+    /**
+     * Serialize an envelope as UTF-8 bytes to the output stream, without closing it.
+     * @param envelope
+     * @param outputStream
+     */
+    default void serialize(Envelope envelope, OutputStream outputStream) throws IOException {
+        outputStream.write(serialize(envelope).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Deserialize an envelope from a UTF-8 byte array region.
+     * @param buffer
+     * @param offset
+     * @param length
+     * @return
+     */
+    default Envelope deserialize(byte[] buffer, int offset, int length) {
+        return deserialize(new String(buffer, offset, length, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Deserialize an envelope from the remaining UTF-8 bytes of the buffer, without changing its position.
+     * @param buffer
+     * @return
+     */
+    default Envelope deserialize(ByteBuffer buffer) {
+        if (buffer.hasArray()) {
+            return deserialize(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        }
+        return deserialize(StandardCharsets.UTF_8.decode(buffer.duplicate()).toString());
+    }
 }
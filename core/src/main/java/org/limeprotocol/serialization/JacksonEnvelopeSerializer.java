@@ -1,21 +1,23 @@
 package org.limeprotocol.serialization;
 
 import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.*;
-import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
 import com.fasterxml.jackson.databind.util.ISO8601DateFormat;
 import org.limeprotocol.*;
-import org.limeprotocol.security.*;
 import org.limeprotocol.serialization.jackson.CustomSerializerModule;
 
 import java.io.IOException;
-
-import static org.limeprotocol.security.Authentication.AuthenticationScheme;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 
 public class JacksonEnvelopeSerializer implements EnvelopeSerializer {
 
     private final static ObjectMapper templateObjectMapper;
     private final static ObjectMapper objectMapper;
+    private final static ObjectReader envelopeReader;
 
     static {
         templateObjectMapper = new ObjectMapper()
@@ -26,6 +28,7 @@ public class JacksonEnvelopeSerializer implements EnvelopeSerializer {
                 .setDateFormat(new ISO8601DateFormat());
 
         objectMapper = createObjectMapper().registerModule(new CustomSerializerModule());
+        envelopeReader = objectMapper.reader(Envelope.class);
     }
 
     public static ObjectMapper createObjectMapper() {
@@ -43,60 +46,41 @@ public class JacksonEnvelopeSerializer implements EnvelopeSerializer {
         }
     }
 
+    @Override
+    public void serialize(Envelope envelope, OutputStream outputStream) throws IOException {
+        try (JsonGenerator generator = getObjectMapper().getFactory().createGenerator(outputStream, JsonEncoding.UTF8)) {
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            getObjectMapper().writeValue(generator, envelope);
+        }
+    }
+
     @Override
     public Envelope deserialize(String envelopeString) {
         try {
-            ObjectNode node;
-            node = (ObjectNode) getObjectMapper().readTree(envelopeString);
-
-            if (node.has("content")) {
-                return  getObjectMapper().convertValue(node, Message.class);
-            } else if (node.has("event")) {
-                return getObjectMapper().convertValue(node, Notification.class);
-            } else if (node.has("method")) {
-                return  getObjectMapper().convertValue(node, Command.class);
-            } else if (node.has("state")) {
-                return deserializeSession(node);
-            } else {
-                throw new IllegalArgumentException("Envelope deserialization not implemented for this value");
-            }
+            return envelopeReader.readValue(envelopeString);
         } catch (IOException e) {
             throw new IllegalArgumentException("JSON string is not a valid envelope", e);
         }
     }
 
-    private Session deserializeSession(ObjectNode node) {
-        JsonNode schemeNode = node.get("scheme");
-        JsonNode authenticationNode = node.get("authentication");
-
-        node.remove("scheme");
-        node.remove("authentication");
-
-        Session session = getObjectMapper().convertValue(node, Session.class);
-        Authentication authentication = deserializeAuthentication(schemeNode, authenticationNode);
-        session.setAuthentication(authentication);
-
-        return session;
+    @Override
+    public Envelope deserialize(byte[] buffer, int offset, int length) {
+        try {
+            return envelopeReader.readValue(buffer, offset, length);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("JSON string is not a valid envelope", e);
+        }
     }
 
-    private Authentication deserializeAuthentication(JsonNode schemeNode, JsonNode authenticationNode) {
-        AuthenticationScheme scheme = getObjectMapper().convertValue(schemeNode, AuthenticationScheme.class);
-        if (scheme == null) {
-            return null;
+    @Override
+    public Envelope deserialize(ByteBuffer buffer) {
+        if (buffer.hasArray()) {
+            return deserialize(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
         }
-        switch (scheme) {
-            case GUEST:
-                return new GuestAuthentication();
-            case PLAIN:
-                return getObjectMapper().convertValue(authenticationNode, PlainAuthentication.class);
-            case TRANSPORT:
-                return new TransportAuthentication();
-            case KEY:
-                return new KeyAuthentication();
-            case EXTERNAL:
-                return new ExternalAuthentication();
-            default:
-                throw new IllegalArgumentException("JSON string is not a valid session envelope");
+        try {
+            return envelopeReader.readValue(new ByteBufferBackedInputStream(buffer.duplicate()));
+        } catch (IOException e) {
+            throw new IllegalArgumentException("JSON string is not a valid envelope", e);
         }
     }
 }
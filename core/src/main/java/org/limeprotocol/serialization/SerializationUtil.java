@@ -5,7 +5,9 @@ import org.limeprotocol.MediaType;
 
 import java.lang.reflect.Modifier;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Utility methods used in the serialization process.
@@ -45,4 +47,14 @@ public class SerializationUtil {
     public static Class<? extends Document> findDocumentClassFor(MediaType mediaType) {
         return documentTypesMap.get(mediaType);
     }
-}
\ No newline at end of file
+
+    /**
+     * Gets the media types of the registered document types.
+     * @return
+     */
+    public static Set<MediaType> getDocumentMediaTypes() {
+        synchronized (documentTypesMap) {
+            return new HashSet<>(documentTypesMap.keySet());
+        }
+    }
+}
@@ -2,6 +2,7 @@ package org.limeprotocol.serialization.jackson;
 
 import com.fasterxml.jackson.core.Version;
 import com.fasterxml.jackson.databind.*;
+import com.fasterxml.jackson.databind.deser.BeanDeserializerBase;
 import com.fasterxml.jackson.databind.deser.BeanDeserializerModifier;
 import com.fasterxml.jackson.databind.deser.Deserializers;
 import com.fasterxml.jackson.databind.module.SimpleModule;
@@ -18,15 +19,8 @@ import static org.limeprotocol.security.Authentication.AuthenticationScheme;
 
 public class CustomSerializerModule extends SimpleModule {
 
-    private final Class<?> ignoreDocumentContainerClass;
-
     public CustomSerializerModule() {
-        this(null);
-    }
-
-    CustomSerializerModule(Class<?> ignoreDocumentContainerClass) {
         super("CustomSerializers", new Version(1, 0, 0, null));
-        this.ignoreDocumentContainerClass = ignoreDocumentContainerClass;
 
         // Custom serializers
         addSerializer(Enum.class, new EnumSerializer());
@@ -41,6 +35,7 @@ public class CustomSerializerModule extends SimpleModule {
         addDeserializer(MediaType.class, new MediaTypeDeserializer());
         addDeserializer(LimeUri.class, new LimeUriDeserializer());
         addDeserializer(DocumentCollection.class, new DocumentCollectionDeserializer());
+        addDeserializer(Envelope.class, new EnvelopeDeserializer());
     }
 
     @Override
@@ -64,7 +59,8 @@ public class CustomSerializerModule extends SimpleModule {
                     // Check for custom document container deserializers.
                     // DocumentContainers are classes that have a 'MediaType' and a 'Document' properties, like Message, Command, and other contained objects.
                     Class documentContainerClass = beanDesc.getBeanClass();
-                    if (!documentContainerClass.equals(ignoreDocumentContainerClass) &&
+                    if (deserializer instanceof BeanDeserializerBase &&
+                            ((BeanDeserializerBase) deserializer).getValueInstantiator().canCreateUsingDefault() &&
                             !Modifier.isAbstract(documentContainerClass.getModifiers())) {
                         Method method = documentContainerClass.getMethod("getType");
                         if (method.getReturnType().equals(MediaType.class)) {
@@ -75,7 +71,8 @@ public class CustomSerializerModule extends SimpleModule {
                                         setDocumentMethod.getParameterTypes()[0] == Document.class) {
 
                                     String documentNodeName = methodName.substring(3, methodName.length()).toLowerCase();
-                                    return new DocumentContainerDeserializer<>(documentContainerClass, documentNodeName);
+                                    return new DocumentContainerDeserializer<>(documentContainerClass, documentNodeName,
+                                            setDocumentMethod, (BeanDeserializerBase) deserializer);
                                 }
                             }
                         }
@@ -123,13 +120,4 @@ public class CustomSerializerModule extends SimpleModule {
             }
         });
     }
-
-    private <T> SimpleModule addDocumentContainerDeserializer(Class<T> type, String documentNodeName) {
-        // This is needed to avoid StackOverflow inside the DocumentContainerDeserializer class, since it uses the mapper to deserialize the object.
-        if (!type.equals(ignoreDocumentContainerClass)) {
-            DocumentContainerDeserializer deserializer = new DocumentContainerDeserializer<>(type, documentNodeName);
-            addDeserializer(type, deserializer);
-        }
-        return this;
-    }
 }
@@ -2,21 +2,22 @@ package org.limeprotocol.serialization.jackson;
 
 import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.core.ObjectCodec;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.DeserializationContext;
 import com.fasterxml.jackson.databind.JsonDeserializer;
-import com.fasterxml.jackson.databind.node.ArrayNode;
-import com.fasterxml.jackson.databind.node.ObjectNode;
-import com.fasterxml.jackson.databind.node.TextNode;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
 import org.limeprotocol.Document;
 import org.limeprotocol.DocumentCollection;
 import org.limeprotocol.MediaType;
 import org.limeprotocol.PlainDocument;
-import org.limeprotocol.serialization.JacksonEnvelopeSerializer;
-import org.limeprotocol.serialization.SerializationUtil;
 
 import java.io.IOException;
-import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.limeprotocol.serialization.jackson.DocumentContainerDeserializer.asParser;
+import static org.limeprotocol.serialization.jackson.DocumentContainerDeserializer.bufferTokens;
+import static org.limeprotocol.serialization.jackson.DocumentContainerDeserializer.deserializeDocument;
 
 public class DocumentCollectionDeserializer extends JsonDeserializer<DocumentCollection> {
 
@@ -26,30 +27,49 @@ public class DocumentCollectionDeserializer extends JsonDeserializer<DocumentCol
 
     @Override
     public DocumentCollection deserialize(JsonParser jsonParser, DeserializationContext deserializationContext) throws IOException, JsonProcessingException {
-        ObjectCodec objectCodec = jsonParser.getCodec();
-        ObjectNode objectNode = objectCodec.readTree(jsonParser);
-        DocumentCollection collection = new DocumentCollection();
+        JsonToken token = jsonParser.getCurrentToken();
+        if (token == JsonToken.START_OBJECT) {
+            token = jsonParser.nextToken();
+        } else if (token != JsonToken.FIELD_NAME && token != JsonToken.END_OBJECT) {
+            throw deserializationContext.mappingException(DocumentCollection.class, token);
+        }
 
-        MediaType itemType = MediaType.parse(objectNode.get("itemType").asText());
-        ArrayNode documentsNode = (ArrayNode) objectNode.get("items");
-        Document[] items = new Document[documentsNode.size()];
+        DocumentCollection collection = new DocumentCollection();
+        MediaType itemType = null;
+        Document[] items = null;
+        TokenBuffer itemsTokens = null;
+        int total = 0;
 
-        int i = 0;
-        for (Iterator iterator = documentsNode.elements(); iterator.hasNext(); i++) {
-            Object node  = iterator.next();
-            if (node instanceof TextNode) {
-                TextNode textNode = (TextNode) node;
-                items[i] = new PlainDocument(textNode.textValue(), itemType);
-            } else {
-                ObjectNode documentNode = (ObjectNode) node;
-                Document document = DocumentContainerDeserializer.getDocument(documentNode, itemType, JacksonEnvelopeSerializer.getObjectMapper());
-                items[i] = document;
+        for (; token == JsonToken.FIELD_NAME; token = jsonParser.nextToken()) {
+            String fieldName = jsonParser.getCurrentName();
+            jsonParser.nextToken();
+            switch (fieldName) {
+                case "itemType":
+                    itemType = jsonParser.getCurrentToken() == JsonToken.VALUE_NULL ? null : MediaType.parse(jsonParser.getText());
+                    break;
+                case "items":
+                    if (itemType != null) {
+                        items = deserializeItems(jsonParser, deserializationContext, itemType);
+                    } else {
+                        itemsTokens = bufferTokens(jsonParser);
+                    }
+                    break;
+                case "total":
+                    total = jsonParser.getValueAsInt();
+                    break;
+                default:
+                    jsonParser.skipChildren();
+                    break;
             }
         }
 
-        int total = 0;
-        if (objectNode.has("total")) {
-            total = objectNode.get("total").asInt();
+        if (itemsTokens != null) {
+            if (itemType == null) {
+                throw deserializationContext.mappingException("The collection items requires the 'itemType' to be defined");
+            }
+            try (JsonParser tokensParser = asParser(itemsTokens, jsonParser)) {
+                items = deserializeItems(tokensParser, deserializationContext, itemType);
+            }
         }
 
         collection.setTotal(total);
@@ -58,4 +78,24 @@ public class DocumentCollectionDeserializer extends JsonDeserializer<DocumentCol
 
         return collection;
     }
-}
\ No newline at end of file
+
+    private static Document[] deserializeItems(JsonParser jsonParser, DeserializationContext deserializationContext, MediaType itemType) throws IOException {
+        JsonToken token = jsonParser.getCurrentToken();
+        if (token == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        if (token != JsonToken.START_ARRAY) {
+            throw deserializationContext.mappingException(Document[].class, token);
+        }
+
+        List<Document> items = new ArrayList<>();
+        while ((token = jsonParser.nextToken()) != JsonToken.END_ARRAY) {
+            if (token == JsonToken.VALUE_STRING) {
+                items.add(new PlainDocument(jsonParser.getText(), itemType));
+            } else {
+                items.add(deserializeDocument(jsonParser, deserializationContext, itemType));
+            }
+        }
+        return items.toArray(new Document[items.size()]);
+    }
+}
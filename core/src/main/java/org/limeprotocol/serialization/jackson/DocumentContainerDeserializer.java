@@ -2,114 +2,211 @@ package org.limeprotocol.serialization.jackson;
 
 import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.core.ObjectCodec;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.DeserializationContext;
 import com.fasterxml.jackson.databind.JsonDeserializer;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.deser.BeanDeserializerBase;
+import com.fasterxml.jackson.databind.deser.ResolvableDeserializer;
+import com.fasterxml.jackson.databind.deser.SettableBeanProperty;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
 import org.limeprotocol.Document;
 import org.limeprotocol.JsonDocument;
 import org.limeprotocol.MediaType;
 import org.limeprotocol.PlainDocument;
-import org.limeprotocol.serialization.JacksonEnvelopeSerializer;
-import org.limeprotocol.util.StringUtils;
 
 import java.io.IOException;
-import java.lang.reflect.InvocationTargetException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Method;
-import java.util.HashMap;
-import java.util.Map;
 
 import static org.limeprotocol.serialization.SerializationUtil.findDocumentClassFor;
 
-public class DocumentContainerDeserializer<T> extends JsonDeserializer<T> {
+/**
+ * Deserializes classes with a media type and a document property, like commands and messages.
+ * The document is deserialized in the same pass of the other properties, which are set by the default bean
+ * deserializer. If the document comes before its type, only its tokens are buffered.
+ */
+public class DocumentContainerDeserializer<T> extends JsonDeserializer<T> implements ResolvableDeserializer {
 
-    private static final Map<Class, ObjectMapper> documentContainerObjectMapperMap = new HashMap<>();
-    private static final Object syncRoot = new Object();
+    private static final String TYPE_NODE_NAME = "type";
 
     private final Class<T> type;
     private final String documentNodeName;
-
-    public DocumentContainerDeserializer(Class<T> type, String documentNodeName) {
+    private final MethodHandle documentSetter;
+    private final BeanDeserializerBase beanDeserializer;
+    private JsonDeserializer<Object> mediaTypeDeserializer;
+    private SettableBeanProperty typeProperty;
+
+    public DocumentContainerDeserializer(Class<T> type, String documentNodeName, Method setDocumentMethod, BeanDeserializerBase beanDeserializer) {
+        if (type == null) {
+            throw new IllegalArgumentException("type");
+        }
+        if (documentNodeName == null) {
+            throw new IllegalArgumentException("documentNodeName");
+        }
+        if (setDocumentMethod == null) {
+            throw new IllegalArgumentException("setDocumentMethod");
+        }
+        if (beanDeserializer == null) {
+            throw new IllegalArgumentException("beanDeserializer");
+        }
         this.type = type;
         this.documentNodeName = documentNodeName;
+        this.beanDeserializer = beanDeserializer;
+        try {
+            this.documentSetter = MethodHandles.publicLookup()
+                    .unreflect(setDocumentMethod)
+                    .asType(MethodType.methodType(void.class, Object.class, Document.class));
+        } catch (IllegalAccessException e) {
+            throw new IllegalArgumentException("setDocumentMethod", e);
+        }
     }
 
     @Override
-    public T deserialize(JsonParser jsonParser, DeserializationContext deserializationContext) throws IOException, JsonProcessingException {
-        ObjectCodec objectCodec = jsonParser.getCodec();
-        ObjectNode objectNode = objectCodec.readTree(jsonParser);
+    public void resolve(DeserializationContext ctxt) throws JsonMappingException {
+        beanDeserializer.resolve(ctxt);
+        mediaTypeDeserializer = ctxt.findRootValueDeserializer(ctxt.constructType(MediaType.class));
+        typeProperty = beanDeserializer.findProperty(TYPE_NODE_NAME);
+    }
 
-        ObjectMapper mapper = getObjectMapper();
-        Document document = deserializeDocument(objectNode, documentNodeName, mapper);
-        T value = mapper.convertValue(objectNode, type);
+    @Override
+    public boolean isCachable() {
+        return true;
+    }
 
-        if (document != null) {
-            try {
-                Method method = type.getMethod("set" + StringUtils.toProperCase(documentNodeName), Document.class);
-                method.invoke(value, document);
-            } catch (NoSuchMethodException e) {
-                e.printStackTrace();
-            } catch (InvocationTargetException e) {
-                e.printStackTrace();
-            } catch (IllegalAccessException e) {
-                e.printStackTrace();
-            }
+    @Override
+    @SuppressWarnings("unchecked")
+    public T deserialize(JsonParser jsonParser, DeserializationContext deserializationContext) throws IOException, JsonProcessingException {
+        JsonToken token = jsonParser.getCurrentToken();
+        if (token == JsonToken.START_OBJECT) {
+            token = jsonParser.nextToken();
+        } else if (token != JsonToken.FIELD_NAME && token != JsonToken.END_OBJECT) {
+            return (T) beanDeserializer.deserialize(jsonParser, deserializationContext);
         }
 
-        return value;
-    }
-
-    private ObjectMapper getObjectMapper() {
-        ObjectMapper mapper = documentContainerObjectMapperMap.get(type);
-        if (mapper == null) {
-            synchronized (syncRoot) {
-                mapper = documentContainerObjectMapperMap.get(type);
-                if (mapper == null) {
-                    // Creates a new mapper that excludes the current type in the custom serialization registration
-                    // to avoid stackoverflow exceptions in the convertValue call bellow.
-                    mapper = JacksonEnvelopeSerializer.createObjectMapper().registerModule(new CustomSerializerModule(type));
-                    documentContainerObjectMapperMap.put(type, mapper);
+        Object value = beanDeserializer.getValueInstantiator().createUsingDefault(deserializationContext);
+        MediaType mediaType = null;
+        Document document = null;
+        TokenBuffer documentTokens = null;
+
+        for (; token == JsonToken.FIELD_NAME; token = jsonParser.nextToken()) {
+            String fieldName = jsonParser.getCurrentName();
+            jsonParser.nextToken();
+            if (fieldName.equals(TYPE_NODE_NAME)) {
+                mediaType = jsonParser.getCurrentToken() == JsonToken.VALUE_NULL ?
+                        null : (MediaType) mediaTypeDeserializer.deserialize(jsonParser, deserializationContext);
+                if (typeProperty != null) {
+                    typeProperty.set(value, mediaType);
+                }
+            } else if (fieldName.equals(documentNodeName)) {
+                if (mediaType != null) {
+                    document = deserializeDocument(jsonParser, deserializationContext, mediaType);
+                } else {
+                    documentTokens = bufferTokens(jsonParser);
+                }
+            } else {
+                SettableBeanProperty property = beanDeserializer.findProperty(fieldName);
+                if (property != null) {
+                    property.deserializeAndSet(jsonParser, deserializationContext, value);
+                } else if (!deserializationContext.handleUnknownProperty(jsonParser, this, value, fieldName)) {
+                    deserializationContext.reportUnknownProperty(value, fieldName, this);
+                    jsonParser.skipChildren();
                 }
             }
         }
-        return mapper;
-    }
 
-    private static Document deserializeDocument(ObjectNode node, String documentNodeName, ObjectMapper mapper) {
-        JsonNode typeNode = node.get("type");
-        if (typeNode == null) return null;
-        MediaType mediaType = mapper.convertValue(typeNode, MediaType.class);
-        if (mediaType == null) return null;
-
-        JsonNode documentNode = node.get(documentNodeName);
-        if (documentNode == null) {
-            if (mediaType.isJson()) {
-                return new JsonDocument(mediaType);
-            } else {
-                return new PlainDocument(mediaType);
+        if (documentTokens != null) {
+            if (mediaType == null) {
+                throw deserializationContext.mappingException(
+                        String.format("The '%s' property of %s requires the '%s' to be defined", documentNodeName, type.getName(), TYPE_NODE_NAME));
             }
+            try (JsonParser tokensParser = asParser(documentTokens, jsonParser)) {
+                document = deserializeDocument(tokensParser, deserializationContext, mediaType);
+            }
+        } else if (document == null && mediaType != null) {
+            document = createEmptyDocument(mediaType);
         }
 
-        node.remove(documentNodeName);
-        node.remove("type");
-
-        return getDocument(documentNode, mediaType, mapper);
+        if (document != null) {
+            try {
+                documentSetter.invokeExact(value, document);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return (T) value;
     }
 
-    static Document getDocument(JsonNode documentNode, MediaType mediaType, ObjectMapper mapper) {
+    /**
+     * Deserializes the document value at the current token, using the class registered for the media type.
+     * @param jsonParser
+     * @param ctxt
+     * @param mediaType
+     * @return
+     */
+    static Document deserializeDocument(JsonParser jsonParser, DeserializationContext ctxt, MediaType mediaType) throws IOException {
         Class<?> documentClass = findDocumentClassFor(mediaType);
         if (documentClass == null) {
             if (mediaType.isJson()) {
-                documentClass = JsonDocument.class;
-                JsonDocument jsonDocument = (JsonDocument) mapper.convertValue(documentNode, documentClass);
+                if (jsonParser.getCurrentToken() == JsonToken.VALUE_NULL) {
+                    return null;
+                }
+                JsonDocument jsonDocument = (JsonDocument) findDocumentDeserializer(ctxt, JsonDocument.class).deserialize(jsonParser, ctxt);
                 jsonDocument.setMediaType(mediaType);
                 return jsonDocument;
             }
 
-            return new PlainDocument(documentNode.asText(), mediaType);
+            String value = jsonParser.getCurrentToken().isScalarValue() ? jsonParser.getText() : "";
+            jsonParser.skipChildren();
+            return new PlainDocument(value, mediaType);
         }
-        return (Document) mapper.convertValue(documentNode, documentClass);
+        if (jsonParser.getCurrentToken() == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        return (Document) findDocumentDeserializer(ctxt, documentClass).deserialize(jsonParser, ctxt);
+    }
+
+    private static JsonDeserializer<Object> findDocumentDeserializer(DeserializationContext ctxt, Class<?> documentClass) throws JsonMappingException {
+        // Avoids the root value lookup, which also searches for a polymorphic type deserializer on every call
+        return ctxt.findContextualValueDeserializer(ctxt.constructType(documentClass), null);
+    }
+
+    /**
+     * Creates the document for a media type without value.
+     * @param mediaType
+     * @return
+     */
+    static Document createEmptyDocument(MediaType mediaType) {
+        if (mediaType.isJson()) {
+            return new JsonDocument(mediaType);
+        }
+        return new PlainDocument(mediaType);
+    }
+
+    /**
+     * Copies the value at the current token, to be deserialized after the end of the container.
+     * @param jsonParser
+     * @return
+     */
+    static TokenBuffer bufferTokens(JsonParser jsonParser) throws IOException {
+        TokenBuffer tokens = new TokenBuffer(jsonParser);
+        tokens.copyCurrentStructure(jsonParser);
+        return tokens;
+    }
+
+    /**
+     * Creates a parser for the buffered tokens, positioned in its first token.
+     * @param tokens
+     * @param jsonParser
+     * @return
+     */
+    static JsonParser asParser(TokenBuffer tokens, JsonParser jsonParser) throws IOException {
+        JsonParser tokensParser = tokens.asParser(jsonParser);
+        tokensParser.nextToken();
+        return tokensParser;
     }
 }
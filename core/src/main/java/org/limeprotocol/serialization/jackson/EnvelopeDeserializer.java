@@ -0,0 +1,332 @@
+package org.limeprotocol.serialization.jackson;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.deser.ResolvableDeserializer;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import org.limeprotocol.*;
+import org.limeprotocol.security.*;
+
+import java.io.IOException;
+import java.util.Map;
+
+import static org.limeprotocol.security.Authentication.AuthenticationScheme;
+import static org.limeprotocol.serialization.jackson.DocumentContainerDeserializer.*;
+
+/**
+ * Deserializes the envelopes reading the JSON tokens only once.
+ * The envelope kind is defined by the presence of the content, event, method or state properties,
+ * in this order, and the instance is built after the end of the object.
+ * The documents and the session authentication are deserialized as soon as their type is known, otherwise
+ * only their tokens are buffered until the end of the envelope.
+ */
+public class EnvelopeDeserializer extends JsonDeserializer<Envelope> implements ResolvableDeserializer {
+
+    private JsonDeserializer<Object> nodeDeserializer;
+    private JsonDeserializer<Object> mediaTypeDeserializer;
+    private JsonDeserializer<Object> limeUriDeserializer;
+    private JsonDeserializer<Object> reasonDeserializer;
+    private JsonDeserializer<Object> metadataDeserializer;
+    private JsonDeserializer<Object> eventDeserializer;
+    private JsonDeserializer<Object> commandMethodDeserializer;
+    private JsonDeserializer<Object> commandStatusDeserializer;
+    private JsonDeserializer<Object> sessionStateDeserializer;
+    private JsonDeserializer<Object> encryptionDeserializer;
+    private JsonDeserializer<Object> encryptionOptionsDeserializer;
+    private JsonDeserializer<Object> compressionDeserializer;
+    private JsonDeserializer<Object> compressionOptionsDeserializer;
+    private JsonDeserializer<Object> schemeDeserializer;
+    private JsonDeserializer<Object> schemeOptionsDeserializer;
+    private JsonDeserializer<Object> plainAuthenticationDeserializer;
+
+    @Override
+    public void resolve(DeserializationContext ctxt) throws JsonMappingException {
+        nodeDeserializer = findDeserializer(ctxt, Node.class);
+        mediaTypeDeserializer = findDeserializer(ctxt, MediaType.class);
+        limeUriDeserializer = findDeserializer(ctxt, LimeUri.class);
+        reasonDeserializer = findDeserializer(ctxt, Reason.class);
+        metadataDeserializer = ctxt.findRootValueDeserializer(
+                ctxt.getTypeFactory().constructMapType(Map.class, String.class, String.class));
+        eventDeserializer = findDeserializer(ctxt, Notification.Event.class);
+        commandMethodDeserializer = findDeserializer(ctxt, Command.CommandMethod.class);
+        commandStatusDeserializer = findDeserializer(ctxt, Command.CommandStatus.class);
+        sessionStateDeserializer = findDeserializer(ctxt, Session.SessionState.class);
+        encryptionDeserializer = findDeserializer(ctxt, SessionEncryption.class);
+        encryptionOptionsDeserializer = findDeserializer(ctxt, SessionEncryption[].class);
+        compressionDeserializer = findDeserializer(ctxt, SessionCompression.class);
+        compressionOptionsDeserializer = findDeserializer(ctxt, SessionCompression[].class);
+        schemeDeserializer = findDeserializer(ctxt, AuthenticationScheme.class);
+        schemeOptionsDeserializer = findDeserializer(ctxt, AuthenticationScheme[].class);
+        plainAuthenticationDeserializer = findDeserializer(ctxt, PlainAuthentication.class);
+    }
+
+    @Override
+    public boolean isCachable() {
+        return true;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Envelope deserialize(JsonParser jsonParser, DeserializationContext ctxt) throws IOException {
+        JsonToken token = jsonParser.getCurrentToken();
+        if (token == JsonToken.START_OBJECT) {
+            token = jsonParser.nextToken();
+        } else if (token != JsonToken.FIELD_NAME && token != JsonToken.END_OBJECT) {
+            throw ctxt.mappingException(Envelope.class, token);
+        }
+
+        EnvelopeValues values = new EnvelopeValues();
+        for (; token == JsonToken.FIELD_NAME; token = jsonParser.nextToken()) {
+            String fieldName = jsonParser.getCurrentName();
+            jsonParser.nextToken();
+            switch (fieldName) {
+                case "id":
+                    values.id = jsonParser.getValueAsString();
+                    jsonParser.skipChildren();
+                    break;
+                case "from":
+                    values.from = (Node) readValue(jsonParser, ctxt, nodeDeserializer);
+                    break;
+                case "to":
+                    values.to = (Node) readValue(jsonParser, ctxt, nodeDeserializer);
+                    break;
+                case "pp":
+                    values.pp = (Node) readValue(jsonParser, ctxt, nodeDeserializer);
+                    break;
+                case "metadata":
+                    values.metadata = (Map<String, String>) readValue(jsonParser, ctxt, metadataDeserializer);
+                    break;
+                case "type":
+                    values.type = (MediaType) readValue(jsonParser, ctxt, mediaTypeDeserializer);
+                    break;
+                case "content":
+                    values.hasContent = true;
+                    if (values.type != null) {
+                        values.content = deserializeDocument(jsonParser, ctxt, values.type);
+                    } else {
+                        values.contentTokens = bufferTokens(jsonParser);
+                    }
+                    break;
+                case "resource":
+                    values.hasResource = true;
+                    if (values.type != null) {
+                        values.resource = deserializeDocument(jsonParser, ctxt, values.type);
+                    } else {
+                        values.resourceTokens = bufferTokens(jsonParser);
+                    }
+                    break;
+                case "event":
+                    values.hasEvent = true;
+                    values.event = (Notification.Event) readValue(jsonParser, ctxt, eventDeserializer);
+                    break;
+                case "method":
+                    values.hasMethod = true;
+                    values.method = (Command.CommandMethod) readValue(jsonParser, ctxt, commandMethodDeserializer);
+                    break;
+                case "status":
+                    values.status = (Command.CommandStatus) readValue(jsonParser, ctxt, commandStatusDeserializer);
+                    break;
+                case "uri":
+                    values.uri = (LimeUri) readValue(jsonParser, ctxt, limeUriDeserializer);
+                    break;
+                case "reason":
+                    values.reason = (Reason) readValue(jsonParser, ctxt, reasonDeserializer);
+                    break;
+                case "state":
+                    values.hasState = true;
+                    values.state = (Session.SessionState) readValue(jsonParser, ctxt, sessionStateDeserializer);
+                    break;
+                case "encryptionOptions":
+                    values.encryptionOptions = (SessionEncryption[]) readValue(jsonParser, ctxt, encryptionOptionsDeserializer);
+                    break;
+                case "encryption":
+                    values.encryption = (SessionEncryption) readValue(jsonParser, ctxt, encryptionDeserializer);
+                    break;
+                case "compressionOptions":
+                    values.compressionOptions = (SessionCompression[]) readValue(jsonParser, ctxt, compressionOptionsDeserializer);
+                    break;
+                case "compression":
+                    values.compression = (SessionCompression) readValue(jsonParser, ctxt, compressionDeserializer);
+                    break;
+                case "schemeOptions":
+                    values.schemeOptions = (AuthenticationScheme[]) readValue(jsonParser, ctxt, schemeOptionsDeserializer);
+                    break;
+                case "scheme":
+                    values.scheme = (AuthenticationScheme) readValue(jsonParser, ctxt, schemeDeserializer);
+                    break;
+                case "authentication":
+                    if (values.scheme != null) {
+                        values.authentication = deserializeAuthentication(jsonParser, ctxt, values.scheme);
+                    } else {
+                        values.authenticationTokens = bufferTokens(jsonParser);
+                    }
+                    break;
+                default:
+                    jsonParser.skipChildren();
+                    break;
+            }
+        }
+
+        if (token != JsonToken.END_OBJECT) {
+            throw ctxt.mappingException(Envelope.class, token);
+        }
+
+        Envelope envelope;
+        if (values.hasContent) {
+            envelope = createMessage(jsonParser, ctxt, values);
+        } else if (values.hasEvent) {
+            envelope = createNotification(values);
+        } else if (values.hasMethod) {
+            envelope = createCommand(jsonParser, ctxt, values);
+        } else if (values.hasState) {
+            envelope = createSession(jsonParser, ctxt, values);
+        } else {
+            throw ctxt.mappingException("Envelope deserialization not implemented for this value");
+        }
+
+        envelope.setId(values.id);
+        envelope.setFrom(values.from);
+        envelope.setTo(values.to);
+        envelope.setPp(values.pp);
+        envelope.setMetadata(values.metadata);
+        return envelope;
+    }
+
+    private Message createMessage(JsonParser jsonParser, DeserializationContext ctxt, EnvelopeValues values) throws IOException {
+        Message message = new Message();
+        message.setContent(getDocument(jsonParser, ctxt, values.type, values.content, values.contentTokens, "content"));
+        return message;
+    }
+
+    private Notification createNotification(EnvelopeValues values) {
+        Notification notification = new Notification();
+        notification.setEvent(values.event);
+        notification.setReason(values.reason);
+        return notification;
+    }
+
+    private Command createCommand(JsonParser jsonParser, DeserializationContext ctxt, EnvelopeValues values) throws IOException {
+        Command command = new Command();
+        command.setUri(values.uri);
+        command.setMethod(values.method);
+        command.setStatus(values.status);
+        command.setReason(values.reason);
+        if (values.hasResource || values.type != null) {
+            command.setResource(getDocument(jsonParser, ctxt, values.type, values.resource, values.resourceTokens, "resource"));
+        }
+        return command;
+    }
+
+    private Session createSession(JsonParser jsonParser, DeserializationContext ctxt, EnvelopeValues values) throws IOException {
+        Session session = new Session();
+        session.setState(values.state);
+        session.setEncryptionOptions(values.encryptionOptions);
+        session.setEncryption(values.encryption);
+        session.setCompressionOptions(values.compressionOptions);
+        session.setCompression(values.compression);
+        session.setSchemeOptions(values.schemeOptions);
+        session.setReason(values.reason);
+
+        Authentication authentication = values.authentication;
+        if (authentication == null && values.scheme != null) {
+            if (values.authenticationTokens != null) {
+                try (JsonParser tokensParser = asParser(values.authenticationTokens, jsonParser)) {
+                    authentication = deserializeAuthentication(tokensParser, ctxt, values.scheme);
+                }
+            } else {
+                authentication = createAuthentication(values.scheme);
+            }
+        }
+        session.setAuthentication(authentication);
+        return session;
+    }
+
+    private Document getDocument(JsonParser jsonParser, DeserializationContext ctxt, MediaType type, Document document, TokenBuffer documentTokens, String documentNodeName) throws IOException {
+        if (documentTokens != null) {
+            if (type == null) {
+                throw ctxt.mappingException(String.format("The '%s' property requires the 'type' to be defined", documentNodeName));
+            }
+            try (JsonParser tokensParser = asParser(documentTokens, jsonParser)) {
+                return deserializeDocument(tokensParser, ctxt, type);
+            }
+        }
+        if (document == null && type != null) {
+            return createEmptyDocument(type);
+        }
+        return document;
+    }
+
+    private Authentication deserializeAuthentication(JsonParser jsonParser, DeserializationContext ctxt, AuthenticationScheme scheme) throws IOException {
+        if (scheme == AuthenticationScheme.PLAIN) {
+            return (Authentication) readValue(jsonParser, ctxt, plainAuthenticationDeserializer);
+        }
+        jsonParser.skipChildren();
+        return createAuthentication(scheme);
+    }
+
+    private static Authentication createAuthentication(AuthenticationScheme scheme) {
+        switch (scheme) {
+            case GUEST:
+                return new GuestAuthentication();
+            case PLAIN:
+                return null;
+            case TRANSPORT:
+                return new TransportAuthentication();
+            case KEY:
+                return new KeyAuthentication();
+            case EXTERNAL:
+                return new ExternalAuthentication();
+            default:
+                throw new IllegalArgumentException("JSON string is not a valid session envelope");
+        }
+    }
+
+    private static Object readValue(JsonParser jsonParser, DeserializationContext ctxt, JsonDeserializer<Object> deserializer) throws IOException {
+        if (jsonParser.getCurrentToken() == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        return deserializer.deserialize(jsonParser, ctxt);
+    }
+
+    private static JsonDeserializer<Object> findDeserializer(DeserializationContext ctxt, Class<?> type) throws JsonMappingException {
+        return ctxt.findRootValueDeserializer(ctxt.constructType(type));
+    }
+
+    /**
+     * Holds the values read from the envelope properties, before the envelope kind is known.
+     */
+    private static class EnvelopeValues {
+        String id;
+        Node from;
+        Node to;
+        Node pp;
+        Map<String, String> metadata;
+        MediaType type;
+        boolean hasContent;
+        Document content;
+        TokenBuffer contentTokens;
+        boolean hasResource;
+        Document resource;
+        TokenBuffer resourceTokens;
+        boolean hasEvent;
+        Notification.Event event;
+        boolean hasMethod;
+        Command.CommandMethod method;
+        Command.CommandStatus status;
+        LimeUri uri;
+        Reason reason;
+        boolean hasState;
+        Session.SessionState state;
+        SessionEncryption[] encryptionOptions;
+        SessionEncryption encryption;
+        SessionCompression[] compressionOptions;
+        SessionCompression compression;
+        AuthenticationScheme[] schemeOptions;
+        AuthenticationScheme scheme;
+        Authentication authentication;
+        TokenBuffer authenticationTokens;
+    }
+}
@@ -4,6 +4,7 @@ import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.databind.DeserializationContext;
 import com.fasterxml.jackson.databind.JsonDeserializer;
 import org.limeprotocol.Identity;
+import org.limeprotocol.NodeCache;
 
 import java.io.IOException;
 
@@ -11,6 +12,6 @@ public class IdentityDeserializer extends JsonDeserializer<Identity> {
 
     @Override
     public Identity deserialize(JsonParser jsonParser, DeserializationContext deserializationContext) throws IOException {
-        return Identity.parse(jsonParser.getText());
+        return NodeCache.getDefault().parseIdentity(jsonParser.getText());
     }
 }
@@ -0,0 +1,307 @@
+package org.limeprotocol.util;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Timer that keeps the timeouts in a hashed wheel of buckets, which is advanced by a single worker thread
+ * at each tick. Scheduling and cancelling a timeout are constant time operations, at the cost of firing
+ * the timeouts with the tick precision. It is meant for large amounts of timeouts that usually are
+ * cancelled before expiring, like the request timeouts.
+ * The tasks are executed in the worker thread, so they should be short and never block.
+ */
+public final class HashedWheelTimer {
+
+    public static final long DEFAULT_TICK_DURATION_MILLIS = 100;
+    public static final int DEFAULT_TICKS_PER_WHEEL = 512;
+
+    private static final int WORKER_INIT = 0;
+    private static final int WORKER_STARTED = 1;
+    private static final int WORKER_STOPPED = 2;
+
+    private final long tickDuration;
+    private final Bucket[] wheel;
+    private final int mask;
+    private final long startTime;
+    private final Queue<Timeout> addedTimeouts;
+    private final Queue<Timeout> cancelledTimeouts;
+    private final AtomicInteger workerState;
+    private final AtomicLong pendingTimeoutsCount;
+    private final String threadName;
+    private volatile Thread workerThread;
+
+    public HashedWheelTimer(String threadName) {
+        this(threadName, DEFAULT_TICK_DURATION_MILLIS, TimeUnit.MILLISECONDS, DEFAULT_TICKS_PER_WHEEL);
+    }
+
+    /**
+     * Creates a timer.
+     * @param threadName
+     * @param tickDuration
+     * @param tickDurationTimeUnit
+     * @param ticksPerWheel The number of buckets of the wheel, which is rounded up to a power of two.
+     */
+    public HashedWheelTimer(String threadName, long tickDuration, TimeUnit tickDurationTimeUnit, int ticksPerWheel) {
+        if (threadName == null) {
+            throw new IllegalArgumentException("threadName");
+        }
+        if (tickDuration <= 0) {
+            throw new IllegalArgumentException("tickDuration");
+        }
+        if (tickDurationTimeUnit == null) {
+            throw new IllegalArgumentException("tickDurationTimeUnit");
+        }
+        if (ticksPerWheel <= 0 || ticksPerWheel > (1 << 30)) {
+            throw new IllegalArgumentException("ticksPerWheel");
+        }
+        this.threadName = threadName;
+        this.tickDuration = tickDurationTimeUnit.toNanos(tickDuration);
+        int wheelSize = Integer.highestOneBit(ticksPerWheel - 1) << 1;
+        this.wheel = new Bucket[Math.max(wheelSize, 1)];
+        for (int i = 0; i < wheel.length; i++) {
+            wheel[i] = new Bucket();
+        }
+        this.mask = wheel.length - 1;
+        this.startTime = System.nanoTime();
+        this.addedTimeouts = new ConcurrentLinkedQueue<>();
+        this.cancelledTimeouts = new ConcurrentLinkedQueue<>();
+        this.workerState = new AtomicInteger(WORKER_INIT);
+        this.pendingTimeoutsCount = new AtomicLong();
+    }
+
+    /**
+     * Schedules the execution of a task after the specified delay. The worker thread is started on the first call.
+     * @param task
+     * @param delay
+     * @param delayTimeUnit
+     * @return
+     */
+    public Timeout newTimeout(Runnable task, long delay, TimeUnit delayTimeUnit) {
+        if (task == null) {
+            throw new IllegalArgumentException("task");
+        }
+        if (delayTimeUnit == null) {
+            throw new IllegalArgumentException("delayTimeUnit");
+        }
+        start();
+        long deadline = System.nanoTime() + Math.max(delayTimeUnit.toNanos(delay), 0) - startTime;
+        // Guard against the overflow of very long delays
+        if (deadline < 0) {
+            deadline = Long.MAX_VALUE;
+        }
+        Timeout timeout = new Timeout(this, task, deadline);
+        pendingTimeoutsCount.incrementAndGet();
+        addedTimeouts.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * Stops the worker thread. The pending timeouts are discarded without being executed.
+     */
+    public void stop() {
+        if (workerState.getAndSet(WORKER_STOPPED) == WORKER_STARTED) {
+            Thread thread = workerThread;
+            if (thread != null && thread != Thread.currentThread()) {
+                thread.interrupt();
+            }
+        }
+    }
+
+    /**
+     * Gets the number of timeouts that were neither executed nor cancelled.
+     * @return
+     */
+    public long getPendingTimeoutsCount() {
+        return pendingTimeoutsCount.get();
+    }
+
+    private void start() {
+        switch (workerState.get()) {
+            case WORKER_STARTED:
+                return;
+            case WORKER_STOPPED:
+                throw new IllegalStateException("The timer was stopped");
+            default:
+                if (workerState.compareAndSet(WORKER_INIT, WORKER_STARTED)) {
+                    Thread thread = new Thread(new Worker(), threadName);
+                    thread.setDaemon(true);
+                    workerThread = thread;
+                    thread.start();
+                } else if (workerState.get() == WORKER_STOPPED) {
+                    throw new IllegalStateException("The timer was stopped");
+                }
+        }
+    }
+
+    private final class Worker implements Runnable {
+        private long tick;
+
+        @Override
+        public void run() {
+            while (workerState.get() == WORKER_STARTED) {
+                if (!waitForNextTick()) {
+                    break;
+                }
+                removeCancelledTimeouts();
+                transferAddedTimeouts();
+                wheel[(int) (tick & mask)].expireTimeouts();
+                tick++;
+            }
+        }
+
+        private boolean waitForNextTick() {
+            long deadline = tickDuration * (tick + 1);
+            while (true) {
+                long sleepTimeNanos = deadline - (System.nanoTime() - startTime);
+                if (sleepTimeNanos <= 0) {
+                    return true;
+                }
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleepTimeNanos);
+                } catch (InterruptedException e) {
+                    if (workerState.get() == WORKER_STOPPED) {
+                        return false;
+                    }
+                }
+            }
+        }
+
+        private void transferAddedTimeouts() {
+            Timeout timeout;
+            while ((timeout = addedTimeouts.poll()) != null) {
+                if (timeout.state.get() != Timeout.STATE_INIT) {
+                    continue;
+                }
+                long calculatedTick = timeout.deadline / tickDuration;
+                timeout.remainingRounds = (calculatedTick - tick) / wheel.length;
+                // The timeouts which deadline was already reached go to the current bucket
+                long ticks = Math.max(calculatedTick, tick);
+                wheel[(int) (ticks & mask)].add(timeout);
+            }
+        }
+
+        private void removeCancelledTimeouts() {
+            Timeout timeout;
+            while ((timeout = cancelledTimeouts.poll()) != null) {
+                if (timeout.bucket != null) {
+                    timeout.bucket.remove(timeout);
+                }
+            }
+        }
+    }
+
+    /**
+     * Handle of a task scheduled in the timer.
+     */
+    public static final class Timeout {
+        private static final int STATE_INIT = 0;
+        private static final int STATE_CANCELLED = 1;
+        private static final int STATE_EXPIRED = 2;
+
+        private final HashedWheelTimer timer;
+        private final Runnable task;
+        private final long deadline;
+        private final AtomicInteger state;
+
+        // Accessed only by the worker thread
+        private long remainingRounds;
+        private Bucket bucket;
+        private Timeout previous;
+        private Timeout next;
+
+        private Timeout(HashedWheelTimer timer, Runnable task, long deadline) {
+            this.timer = timer;
+            this.task = task;
+            this.deadline = deadline;
+            this.state = new AtomicInteger(STATE_INIT);
+        }
+
+        /**
+         * Cancels the task execution, if it was not executed yet.
+         * @return
+         */
+        public boolean cancel() {
+            if (!state.compareAndSet(STATE_INIT, STATE_CANCELLED)) {
+                return false;
+            }
+            timer.pendingTimeoutsCount.decrementAndGet();
+            timer.cancelledTimeouts.add(this);
+            return true;
+        }
+
+        public boolean isCancelled() {
+            return state.get() == STATE_CANCELLED;
+        }
+
+        public boolean isExpired() {
+            return state.get() == STATE_EXPIRED;
+        }
+
+        private void expire() {
+            if (!state.compareAndSet(STATE_INIT, STATE_EXPIRED)) {
+                return;
+            }
+            timer.pendingTimeoutsCount.decrementAndGet();
+            try {
+                task.run();
+            } catch (Throwable t) {
+                // The worker thread must survive the failing tasks
+                t.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Doubly linked list of the timeouts of a wheel slot.
+     */
+    private static final class Bucket {
+        private Timeout head;
+        private Timeout tail;
+
+        void add(Timeout timeout) {
+            timeout.bucket = this;
+            if (head == null) {
+                head = tail = timeout;
+            } else {
+                tail.next = timeout;
+                timeout.previous = tail;
+                tail = timeout;
+            }
+        }
+
+        void remove(Timeout timeout) {
+            if (timeout.previous != null) {
+                timeout.previous.next = timeout.next;
+            } else {
+                head = timeout.next;
+            }
+            if (timeout.next != null) {
+                timeout.next.previous = timeout.previous;
+            } else {
+                tail = timeout.previous;
+            }
+            timeout.previous = null;
+            timeout.next = null;
+            timeout.bucket = null;
+        }
+
+        void expireTimeouts() {
+            Timeout timeout = head;
+            while (timeout != null) {
+                Timeout next = timeout.next;
+                if (timeout.state.get() != Timeout.STATE_INIT) {
+                    remove(timeout);
+                } else if (timeout.remainingRounds <= 0) {
+                    remove(timeout);
+                    timeout.expire();
+                } else {
+                    timeout.remainingRounds--;
+                }
+                timeout = next;
+            }
+        }
+    }
+}
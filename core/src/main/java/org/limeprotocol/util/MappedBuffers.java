@@ -0,0 +1,69 @@
+package org.limeprotocol.util;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+
+/**
+ * Releases the memory-mapped buffers without waiting for them to be collected, so the address space and the
+ * disk space of the unlinked files are freed as soon as the mappings are discarded.
+ */
+public final class MappedBuffers {
+
+    private static final Unmapper UNMAPPER = createUnmapper();
+
+    private MappedBuffers() {
+    }
+
+    /**
+     * Unmaps the buffer. After that, any access to the buffer or to its views may crash the process, so it must
+     * be called only by the owner of the buffer, when no other thread can be reading it.
+     * If the runtime doesn't allow unmapping, the mapping is released when the buffer is collected.
+     * @param buffer
+     */
+    public static void unmap(MappedByteBuffer buffer) {
+        if (buffer == null) {
+            throw new IllegalArgumentException("buffer");
+        }
+        try {
+            UNMAPPER.unmap(buffer);
+        } catch (Exception e) {
+            // Released by the garbage collector
+        }
+    }
+
+    private static Unmapper createUnmapper() {
+        try {
+            // Java 9 and later
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            final Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            final Object unsafe = theUnsafe.get(null);
+            return new Unmapper() {
+                @Override
+                public void unmap(MappedByteBuffer buffer) throws Exception {
+                    invokeCleaner.invoke(unsafe, buffer);
+                }
+            };
+        } catch (Exception e) {
+            // Java 8
+            return new Unmapper() {
+                @Override
+                public void unmap(MappedByteBuffer buffer) throws Exception {
+                    Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+                    cleanerMethod.setAccessible(true);
+                    Object cleaner = cleanerMethod.invoke(buffer);
+                    if (cleaner != null) {
+                        cleaner.getClass().getMethod("clean").invoke(cleaner);
+                    }
+                }
+            };
+        }
+    }
+
+    private interface Unmapper {
+        void unmap(MappedByteBuffer buffer) throws Exception;
+    }
+}
@@ -0,0 +1,591 @@
+package org.limeprotocol.util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of keyed records in a memory-mapped file, which keeps the records that were appended
+ * and not removed yet across restarts.
+ * Appending is a copy to the mapped memory, while the durability is given by {@link #sync(long)}, which
+ * forces the file once for all the records appended by concurrent threads until then (group commit).
+ * When the removed records take most of the file, the live records are copied to a new file in background,
+ * without blocking the appends and removals, which are copied after them when the new file replaces the current one.
+ * The replaced mappings are unmapped once no sync is forcing them.
+ */
+public final class MappedJournal implements Closeable {
+
+    public static final int DEFAULT_CAPACITY = 16 * 1024 * 1024;
+
+    private static final int MAX_CAPACITY = 1 << 30;
+    private static final String FILE_PREFIX = "journal.";
+    private static final String FILE_SUFFIX = ".log";
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+    private static final String COMPACTION_FILE_SUFFIX = ".compaction" + TEMP_FILE_SUFFIX;
+    private static final int HEADER_LENGTH = 8;
+    private static final int BODY_HEADER_LENGTH = 3;
+    private static final byte APPEND_RECORD = 1;
+    private static final byte REMOVE_RECORD = 2;
+    private static final byte[] EMPTY_PAYLOAD = new byte[0];
+
+    private final File directory;
+    private final Map<String, Entry> entries;
+    private final Object commitLock;
+    private final AtomicLong committedBytes;
+    private final AtomicBoolean isCompacting;
+    private final List<MappedByteBuffer> retiredBuffers;
+    private volatile boolean hasRetiredBuffers;
+    private MappedByteBuffer buffer;
+    private MappedByteBuffer compactionSource;
+    private File file;
+    private long generation;
+    private int writePosition;
+    private long liveBytes;
+    private long writtenBytes;
+    private boolean isClosed;
+
+    public MappedJournal(File directory) throws IOException {
+        this(directory, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Opens the journal in the specified directory, loading the records of a previous execution.
+     * @param directory
+     * @param capacity The initial size of the journal file, which is doubled when the live records don't fit in half of it.
+     * @throws IOException
+     */
+    public MappedJournal(File directory, int capacity) throws IOException {
+        if (directory == null) {
+            throw new IllegalArgumentException("directory");
+        }
+        if (capacity <= HEADER_LENGTH || capacity > MAX_CAPACITY) {
+            throw new IllegalArgumentException("capacity");
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException(String.format("Could not create the journal directory '%s'", directory));
+        }
+        this.directory = directory;
+        this.entries = new LinkedHashMap<>();
+        this.commitLock = new Object();
+        this.committedBytes = new AtomicLong();
+        this.isCompacting = new AtomicBoolean();
+        this.retiredBuffers = new ArrayList<>();
+        open(capacity);
+    }
+
+    /**
+     * Appends a record, replacing the previous record with the same id.
+     * @param id
+     * @param payload
+     * @return The journal position after the record, to be passed to {@link #sync(long)}.
+     * @throws IOException If the journal needs to be compacted and the new file could not be written.
+     */
+    public long append(String id, byte[] payload) throws IOException {
+        if (id == null) {
+            throw new IllegalArgumentException("id");
+        }
+        if (payload == null) {
+            throw new IllegalArgumentException("payload");
+        }
+        long appendedBytes;
+        synchronized (this) {
+            checkNotClosed();
+            int position = writeRecord(APPEND_RECORD, id, payload);
+            Entry entry = new Entry(position, writePosition - position);
+            Entry previousEntry = entries.put(id, entry);
+            if (previousEntry != null) {
+                liveBytes -= previousEntry.length;
+            }
+            liveBytes += entry.length;
+            appendedBytes = writtenBytes;
+        }
+        releaseRetiredBuffers();
+        return appendedBytes;
+    }
+
+    /**
+     * Removes the record with the specified id.
+     * @param id
+     * @return
+     * @throws IOException
+     */
+    public boolean remove(String id) throws IOException {
+        if (id == null) {
+            throw new IllegalArgumentException("id");
+        }
+        synchronized (this) {
+            checkNotClosed();
+            Entry entry = entries.remove(id);
+            if (entry == null) {
+                return false;
+            }
+            liveBytes -= entry.length;
+            writeRecord(REMOVE_RECORD, id, EMPTY_PAYLOAD);
+            if (writePosition > buffer.capacity() / 2 && liveBytes < writePosition / 2) {
+                scheduleCompaction();
+            }
+        }
+        releaseRetiredBuffers();
+        return true;
+    }
+
+    public synchronized boolean contains(String id) {
+        return entries.containsKey(id);
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Gets a copy of the payloads of the records, in the append order.
+     * @return
+     */
+    public synchronized Map<String, byte[]> getEntries() {
+        Map<String, byte[]> payloads = new LinkedHashMap<>();
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            payloads.put(entry.getKey(), readPayload(entry.getValue()));
+        }
+        return payloads;
+    }
+
+    /**
+     * Makes the records appended until the specified position durable. The threads that call it while the
+     * file is being forced wait and are usually covered by the same force.
+     * @param position
+     */
+    public void sync(long position) {
+        if (committedBytes.get() >= position) {
+            return;
+        }
+        synchronized (commitLock) {
+            if (committedBytes.get() >= position) {
+                return;
+            }
+            MappedByteBuffer buffer;
+            long targetBytes;
+            synchronized (this) {
+                buffer = this.buffer;
+                targetBytes = writtenBytes;
+            }
+            buffer.force();
+            advanceCommittedBytes(targetBytes);
+        }
+    }
+
+    /**
+     * Makes all the appended records durable.
+     */
+    public void sync() {
+        long targetBytes;
+        synchronized (this) {
+            targetBytes = writtenBytes;
+        }
+        sync(targetBytes);
+    }
+
+    /**
+     * Copies the live records to a new file, discarding the removed ones.
+     * @throws IOException
+     */
+    public void compact() throws IOException {
+        synchronized (this) {
+            checkNotClosed();
+            compact(0);
+        }
+        releaseRetiredBuffers();
+    }
+
+    /**
+     * Closes the journal, waiting for a compaction in background to stop.
+     */
+    @Override
+    public synchronized void close() {
+        if (!isClosed) {
+            isClosed = true;
+            while (compactionSource != null) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            buffer.force();
+        }
+    }
+
+    private void open(int capacity) throws IOException {
+        long lastGeneration = -1;
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File existingFile : files) {
+                String name = existingFile.getName();
+                if (name.startsWith(FILE_PREFIX) && name.endsWith(TEMP_FILE_SUFFIX)) {
+                    // A compaction that didn't finish
+                    existingFile.delete();
+                } else if (name.startsWith(FILE_PREFIX) && name.endsWith(FILE_SUFFIX)) {
+                    try {
+                        lastGeneration = Math.max(lastGeneration, Long.parseLong(name.substring(FILE_PREFIX.length(), name.length() - FILE_SUFFIX.length())));
+                    } catch (NumberFormatException e) {
+                        // Not a journal file
+                    }
+                }
+            }
+        }
+        generation = Math.max(lastGeneration, 0);
+        file = getFile(generation, FILE_SUFFIX);
+        buffer = map(file, file.exists() ? (int) Math.min(Math.max(file.length(), capacity), MAX_CAPACITY) : capacity);
+        // A compaction that stopped before deleting the previous file
+        for (long oldGeneration = generation - 1; oldGeneration >= 0 && getFile(oldGeneration, FILE_SUFFIX).delete(); oldGeneration--) {
+        }
+        load();
+    }
+
+    private void load() {
+        int capacity = buffer.capacity();
+        int position = 0;
+        CRC32 crc = new CRC32();
+        while (position <= capacity - HEADER_LENGTH) {
+            int bodyLength = buffer.getInt(position);
+            if (bodyLength < BODY_HEADER_LENGTH || bodyLength > capacity - position - HEADER_LENGTH) {
+                break;
+            }
+            ByteBuffer body = buffer.duplicate();
+            body.limit(position + HEADER_LENGTH + bodyLength).position(position + HEADER_LENGTH);
+            crc.reset();
+            crc.update(body);
+            if ((int) crc.getValue() != buffer.getInt(position + 4)) {
+                break;
+            }
+            int idLength = buffer.getShort(position + HEADER_LENGTH + 1) & 0xFFFF;
+            if (idLength > bodyLength - BODY_HEADER_LENGTH) {
+                break;
+            }
+            String id = readId(position, idLength);
+            int recordLength = HEADER_LENGTH + bodyLength;
+            byte type = buffer.get(position + HEADER_LENGTH);
+            Entry previousEntry = null;
+            if (type == APPEND_RECORD) {
+                previousEntry = entries.put(id, new Entry(position, recordLength));
+                liveBytes += recordLength;
+            } else if (type == REMOVE_RECORD) {
+                previousEntry = entries.remove(id);
+            }
+            if (previousEntry != null) {
+                liveBytes -= previousEntry.length;
+            }
+            position += recordLength;
+        }
+        writePosition = position;
+        writtenBytes = position;
+        committedBytes.set(position);
+
+        // Clears a record that was being written when the process stopped, so it is not read after the next appends
+        for (int i = position; i < capacity; i++) {
+            if (buffer.get(i) != 0) {
+                for (int j = position; j < capacity; j++) {
+                    buffer.put(j, (byte) 0);
+                }
+                buffer.force();
+                break;
+            }
+        }
+    }
+
+    private int writeRecord(byte type, String id, byte[] payload) throws IOException {
+        byte[] idBytes = id.getBytes(StandardCharsets.UTF_8);
+        if (idBytes.length > 0xFFFF) {
+            throw new IllegalArgumentException("id");
+        }
+        int bodyLength = BODY_HEADER_LENGTH + idBytes.length + payload.length;
+        int recordLength = HEADER_LENGTH + bodyLength;
+        if (recordLength > buffer.capacity() - writePosition) {
+            compact(recordLength);
+        }
+        int position = writePosition;
+        ByteBuffer body = buffer.duplicate();
+        body.position(position + HEADER_LENGTH);
+        body.put(type).putShort((short) idBytes.length).put(idBytes).put(payload);
+        body.flip().position(position + HEADER_LENGTH);
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        // The length is written last, so a record is only read back when complete
+        buffer.putInt(position + 4, (int) crc.getValue());
+        buffer.putInt(position, bodyLength);
+        writePosition += recordLength;
+        writtenBytes += recordLength;
+        return position;
+    }
+
+    /**
+     * Copies the live records to a new file holding the journal lock, which is required when the current file is full.
+     */
+    private void compact(int additionalLength) throws IOException {
+        int newCapacity = getCompactedCapacity(additionalLength);
+        File tempFile = getFile(generation + 1, TEMP_FILE_SUFFIX);
+        MappedByteBuffer newBuffer = map(tempFile, newCapacity);
+        // The compacted offsets of the entries may be in use by a compaction in background
+        int[] newOffsets = new int[entries.size()];
+        int position = 0;
+        int i = 0;
+        for (Entry entry : entries.values()) {
+            copy(buffer, entry.offset, entry.length, newBuffer, position);
+            newOffsets[i++] = position;
+            position += entry.length;
+        }
+        newBuffer.force();
+        File newFile;
+        try {
+            newFile = renameToNextGeneration(tempFile);
+        } catch (IOException e) {
+            retireBuffer(newBuffer);
+            throw e;
+        }
+        i = 0;
+        for (Entry entry : entries.values()) {
+            entry.offset = newOffsets[i++];
+        }
+        replaceBuffer(newBuffer, newFile, position);
+    }
+
+    /**
+     * Copies the live records to a new file without holding the journal lock, which is only taken to copy the
+     * records written meanwhile and to replace the current file.
+     */
+    private void compactInBackground() throws IOException {
+        MappedByteBuffer source;
+        int sourceWritePosition;
+        Entry[] liveEntries;
+        int newCapacity;
+        File tempFile;
+        synchronized (this) {
+            if (isClosed) {
+                return;
+            }
+            newCapacity = getCompactedCapacity(0);
+            source = buffer;
+            sourceWritePosition = writePosition;
+            liveEntries = entries.values().toArray(new Entry[entries.size()]);
+            tempFile = getFile(generation + 1, COMPACTION_FILE_SUFFIX);
+            // Keeps the source mapped if the file is replaced by a compaction of a full journal meanwhile
+            compactionSource = source;
+        }
+        MappedByteBuffer newBuffer = null;
+        boolean isReplaced = false;
+        try {
+            newBuffer = map(tempFile, newCapacity);
+            int position = 0;
+            for (Entry entry : liveEntries) {
+                // The written records are never changed, so they can be read without the lock
+                copy(source, entry.offset, entry.length, newBuffer, position);
+                entry.compactedOffset = position;
+                position += entry.length;
+            }
+            newBuffer.force();
+            synchronized (this) {
+                int tailLength = writePosition - sourceWritePosition;
+                if (!isClosed && buffer == source && position + tailLength <= newBuffer.capacity()) {
+                    // The appended and removed records after the snapshot are replayed after the copied ones
+                    copy(source, sourceWritePosition, tailLength, newBuffer, position);
+                    newBuffer.force();
+                    File newFile = renameToNextGeneration(tempFile);
+                    for (Entry entry : entries.values()) {
+                        entry.offset = entry.offset >= sourceWritePosition
+                                ? position + entry.offset - sourceWritePosition
+                                : entry.compactedOffset;
+                    }
+                    compactionSource = null;
+                    replaceBuffer(newBuffer, newFile, position + tailLength);
+                    isReplaced = true;
+                }
+            }
+        } finally {
+            synchronized (this) {
+                if (!isReplaced) {
+                    if (newBuffer != null) {
+                        retireBuffer(newBuffer);
+                    }
+                    tempFile.delete();
+                }
+                if (compactionSource == source) {
+                    compactionSource = null;
+                    if (buffer != source) {
+                        retireBuffer(source);
+                    }
+                }
+                // Wakes a closing thread
+                notifyAll();
+            }
+            releaseRetiredBuffers();
+        }
+    }
+
+    private int getCompactedCapacity(int additionalLength) throws IOException {
+        long requiredLength = liveBytes + additionalLength;
+        if (requiredLength > MAX_CAPACITY) {
+            throw new IOException("The journal is full");
+        }
+        long newCapacity = buffer.capacity();
+        while (newCapacity < requiredLength * 2 && newCapacity < MAX_CAPACITY) {
+            newCapacity *= 2;
+        }
+        return (int) Math.min(newCapacity, MAX_CAPACITY);
+    }
+
+    private File renameToNextGeneration(File tempFile) throws IOException {
+        File newFile = getFile(generation + 1, FILE_SUFFIX);
+        if (!tempFile.renameTo(newFile)) {
+            tempFile.delete();
+            throw new IOException(String.format("Could not rename the journal file '%s'", tempFile));
+        }
+        return newFile;
+    }
+
+    private void replaceBuffer(MappedByteBuffer newBuffer, File newFile, int newWritePosition) {
+        File oldFile = file;
+        MappedByteBuffer oldBuffer = buffer;
+        buffer = newBuffer;
+        file = newFile;
+        generation++;
+        writePosition = newWritePosition;
+        advanceCommittedBytes(writtenBytes);
+        oldFile.delete();
+        if (oldBuffer != compactionSource) {
+            retireBuffer(oldBuffer);
+        }
+    }
+
+    private void retireBuffer(MappedByteBuffer retiredBuffer) {
+        retiredBuffers.add(retiredBuffer);
+        hasRetiredBuffers = true;
+    }
+
+    /**
+     * Unmaps the replaced buffers. It is called without the journal lock, after the commit lock, so a sync that
+     * is forcing a replaced buffer finishes first.
+     */
+    private void releaseRetiredBuffers() {
+        if (!hasRetiredBuffers) {
+            return;
+        }
+        synchronized (commitLock) {
+            List<MappedByteBuffer> buffers;
+            synchronized (this) {
+                buffers = new ArrayList<>(retiredBuffers);
+                retiredBuffers.clear();
+                hasRetiredBuffers = false;
+            }
+            for (MappedByteBuffer retiredBuffer : buffers) {
+                MappedBuffers.unmap(retiredBuffer);
+            }
+        }
+    }
+
+    private void scheduleCompaction() {
+        if (isCompacting.compareAndSet(false, true)) {
+            CompactionExecutorHolder.INSTANCE.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        compactInBackground();
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    } finally {
+                        isCompacting.set(false);
+                    }
+                }
+            });
+        }
+    }
+
+    private void advanceCommittedBytes(long targetBytes) {
+        long currentCommittedBytes;
+        while ((currentCommittedBytes = committedBytes.get()) < targetBytes
+                && !committedBytes.compareAndSet(currentCommittedBytes, targetBytes)) {
+        }
+    }
+
+    private String readId(int position, int idLength) {
+        byte[] idBytes = new byte[idLength];
+        ByteBuffer record = buffer.duplicate();
+        record.position(position + HEADER_LENGTH + BODY_HEADER_LENGTH);
+        record.get(idBytes);
+        return new String(idBytes, StandardCharsets.UTF_8);
+    }
+
+    private byte[] readPayload(Entry entry) {
+        int idLength = buffer.getShort(entry.offset + HEADER_LENGTH + 1) & 0xFFFF;
+        int payloadOffset = HEADER_LENGTH + BODY_HEADER_LENGTH + idLength;
+        byte[] payload = new byte[entry.length - payloadOffset];
+        ByteBuffer record = buffer.duplicate();
+        record.position(entry.offset + payloadOffset);
+        record.get(payload);
+        return payload;
+    }
+
+    private void checkNotClosed() {
+        if (isClosed) {
+            throw new IllegalStateException("The journal is closed");
+        }
+    }
+
+    private File getFile(long generation, String suffix) {
+        return new File(directory, FILE_PREFIX + generation + suffix);
+    }
+
+    private static void copy(ByteBuffer source, int sourceOffset, int length, ByteBuffer target, int targetOffset) {
+        ByteBuffer sourceSlice = source.duplicate();
+        sourceSlice.limit(sourceOffset + length).position(sourceOffset);
+        ByteBuffer targetSlice = target.duplicate();
+        targetSlice.position(targetOffset);
+        targetSlice.put(sourceSlice);
+    }
+
+    private static MappedByteBuffer map(File file, int capacity) throws IOException {
+        // The mapping stays valid after the file is closed
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            if (randomAccessFile.length() < capacity) {
+                randomAccessFile.setLength(capacity);
+            }
+            return randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        }
+    }
+
+    private static final class Entry {
+        private int offset;
+        private final int length;
+        private int compactedOffset;
+
+        Entry(int offset, int length) {
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    private static final class CompactionExecutorHolder {
+        private static final ExecutorService INSTANCE = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "lime-journal-compaction");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+}
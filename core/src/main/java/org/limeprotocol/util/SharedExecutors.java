@@ -0,0 +1,51 @@
+package org.limeprotocol.util;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Provides the timer and the executor shared by the components that are created without their own ones,
+ * so the process has a single timer thread for the timeouts of all channels.
+ * The timer tasks must not block; the blocking work, like sending an envelope, should be handed to the executor.
+ */
+public final class SharedExecutors {
+
+    private SharedExecutors() {
+    }
+
+    /**
+     * Gets the shared timer, which is started on the first scheduled timeout.
+     * @return
+     */
+    public static HashedWheelTimer getTimer() {
+        return TimerHolder.INSTANCE;
+    }
+
+    /**
+     * Gets the shared executor, which creates daemon threads on demand.
+     * @return
+     */
+    public static Executor getExecutor() {
+        return ExecutorHolder.INSTANCE;
+    }
+
+    private static final class TimerHolder {
+        private static final HashedWheelTimer INSTANCE = new HashedWheelTimer("lime-timer", 10, TimeUnit.MILLISECONDS, 512);
+    }
+
+    private static final class ExecutorHolder {
+        private static final Executor INSTANCE = Executors.newCachedThreadPool(new ThreadFactory() {
+            private final AtomicInteger threadsCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "lime-worker-" + threadsCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+}
@@ -0,0 +1,234 @@
+package org.limeprotocol.util;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free token bucket, which holds up to a capacity of tokens and is refilled with a number of tokens
+ * at each refill period. Instead of counting the tokens, the bucket keeps the time when it would be full
+ * again, so acquiring a token is a single compare-and-set of that time.
+ * A bucket refilled with one token at a time spreads the tokens evenly along the refill period, while
+ * bigger refills release the tokens in steps.
+ */
+public final class TokenBucket {
+
+    private final long capacity;
+    private final long refillTokens;
+    private final long refillPeriodNanos;
+    private final long tokenIntervalNanos;
+    private final long burstToleranceNanos;
+    private final long originNanos;
+    private final AtomicLong fullTime;
+
+    /**
+     * Creates a bucket with the specified capacity, refilled with a token at a time at the specified rate per second.
+     * @param capacity
+     * @param tokensPerSecond
+     */
+    public TokenBucket(long capacity, long tokensPerSecond) {
+        this(capacity, 1, TimeUnit.SECONDS.toNanos(1) / checkPositive(tokensPerSecond, "tokensPerSecond"), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Creates a full bucket.
+     * @param capacity The maximum number of tokens, which is the size of the bursts.
+     * @param refillTokens The number of tokens added at each refill period.
+     * @param refillPeriod
+     * @param refillPeriodTimeUnit
+     */
+    public TokenBucket(long capacity, long refillTokens, long refillPeriod, TimeUnit refillPeriodTimeUnit) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity");
+        }
+        if (refillTokens <= 0 || refillTokens > capacity) {
+            throw new IllegalArgumentException("refillTokens");
+        }
+        if (refillPeriodTimeUnit == null) {
+            throw new IllegalArgumentException("refillPeriodTimeUnit");
+        }
+        long refillPeriodNanos = refillPeriodTimeUnit.toNanos(refillPeriod);
+        if (refillPeriodNanos < refillTokens) {
+            throw new IllegalArgumentException("refillPeriod");
+        }
+        this.capacity = capacity;
+        this.refillTokens = refillTokens;
+        this.refillPeriodNanos = refillPeriodNanos;
+        this.tokenIntervalNanos = refillPeriodNanos / refillTokens;
+        this.burstToleranceNanos = capacity * tokenIntervalNanos;
+        this.originNanos = System.nanoTime();
+        this.fullTime = new AtomicLong(0);
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Gets the number of tokens that can be acquired now.
+     * @return
+     */
+    public long getAvailableTokens() {
+        long now = now();
+        long available = (now + burstToleranceNanos - Math.max(fullTime.get(), now)) / tokenIntervalNanos;
+        return Math.max(Math.min(available, capacity), 0);
+    }
+
+    /**
+     * Indicates if the bucket has all its tokens.
+     * @return
+     */
+    public boolean isFull() {
+        return fullTime.get() <= now();
+    }
+
+    /**
+     * Acquires a token if it is available now.
+     * @return
+     */
+    public boolean tryAcquire() {
+        return tryAcquire(1);
+    }
+
+    /**
+     * Acquires the tokens if they are available now.
+     * @param tokens
+     * @return
+     */
+    public boolean tryAcquire(int tokens) {
+        return reserve(tokens, 0) == 0;
+    }
+
+    /**
+     * Acquires a token, waiting up to the specified timeout for it to be available.
+     * @param timeout
+     * @param timeoutTimeUnit
+     * @return False if the token would not be available in the timeout, without waiting.
+     * @throws InterruptedException
+     */
+    public boolean tryAcquire(long timeout, TimeUnit timeoutTimeUnit) throws InterruptedException {
+        if (timeoutTimeUnit == null) {
+            throw new IllegalArgumentException("timeoutTimeUnit");
+        }
+        long waitNanos = reserve(1, Math.max(timeoutTimeUnit.toNanos(timeout), 0));
+        if (waitNanos < 0) {
+            return false;
+        }
+        TimeUnit.NANOSECONDS.sleep(waitNanos);
+        return true;
+    }
+
+    /**
+     * Acquires a token, waiting for it to be available.
+     * @throws InterruptedException
+     */
+    public void acquire() throws InterruptedException {
+        TimeUnit.NANOSECONDS.sleep(reserve(1, Long.MAX_VALUE));
+    }
+
+    /**
+     * Reserves a token, returning a future that is completed when it is available.
+     * The future is completed by a shared timer thread, so the dependent stages should not block.
+     * @return
+     */
+    public CompletableFuture<Void> acquireAsync() {
+        long waitNanos = reserve(1, Long.MAX_VALUE);
+        if (waitNanos == 0) {
+            return CompletableFuture.completedFuture(null);
+        }
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        SharedExecutors.getTimer().newTimeout(new Runnable() {
+            @Override
+            public void run() {
+                future.complete(null);
+            }
+        }, waitNanos, TimeUnit.NANOSECONDS);
+        return future;
+    }
+
+    /**
+     * Returns an acquired token that was not used, so it can be acquired again.
+     */
+    public void release() {
+        while (true) {
+            long currentFullTime = fullTime.get();
+            long refillTime = now();
+            if (currentFullTime <= refillTime) {
+                // The bucket was refilled meanwhile
+                return;
+            }
+            long newFullTime = Math.max(currentFullTime - tokenIntervalNanos, refillTime);
+            if (fullTime.compareAndSet(currentFullTime, newFullTime)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Takes the tokens from the bucket if they are available in the specified wait time.
+     * @param tokens
+     * @param maxWaitNanos
+     * @return The time to wait until the tokens are available, or -1 if they were not taken.
+     */
+    private long reserve(int tokens, long maxWaitNanos) {
+        if (tokens <= 0 || tokens > capacity) {
+            throw new IllegalArgumentException("tokens");
+        }
+        while (true) {
+            long elapsed = elapsed();
+            long currentFullTime = fullTime.get();
+            long newFullTime = Math.max(currentFullTime, getRefillTime(elapsed)) + tokens * tokenIntervalNanos;
+            long waitNanos = Math.max(getAvailableTime(newFullTime) - elapsed, 0);
+            if (waitNanos > maxWaitNanos) {
+                return -1;
+            }
+            if (fullTime.compareAndSet(currentFullTime, newFullTime)) {
+                return waitNanos;
+            }
+        }
+    }
+
+    /**
+     * Gets the time when the last token taken to reach the specified full time becomes available.
+     * @param newFullTime
+     * @return
+     */
+    private long getAvailableTime(long newFullTime) {
+        long availableTime = newFullTime - burstToleranceNanos;
+        if (refillTokens > 1 && availableTime > 0) {
+            // The tokens are released only at the end of each refill period
+            long remainder = availableTime % refillPeriodNanos;
+            if (remainder != 0) {
+                availableTime += refillPeriodNanos - remainder;
+            }
+        }
+        return availableTime;
+    }
+
+    /**
+     * Gets the time since the bucket creation as seen by the refill. When the tokens are refilled in steps,
+     * this time only advances at the end of each refill period.
+     * @return
+     */
+    private long now() {
+        return getRefillTime(elapsed());
+    }
+
+    private long getRefillTime(long elapsed) {
+        if (refillTokens > 1) {
+            return elapsed - elapsed % refillPeriodNanos;
+        }
+        return elapsed;
+    }
+
+    private long elapsed() {
+        return System.nanoTime() - originNanos;
+    }
+
+    private static long checkPositive(long value, String name) {
+        if (value <= 0) {
+            throw new IllegalArgumentException(name);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,96 @@
+package org.limeprotocol;
+
+import org.junit.Test;
+import org.limeprotocol.serialization.JacksonEnvelopeSerializer;
+import org.limeprotocol.testHelpers.Dummy;
+
+import static org.junit.Assert.*;
+
+public class NodeCacheTest {
+
+    @Test
+    public void parseNode_sameString_returnsSameInstance() {
+        // Arrange
+        NodeCache target = new NodeCache(100);
+
+        // Act
+        Node actual1 = target.parseNode("name@domain.com/instance");
+        Node actual2 = target.parseNode("name@domain.com/instance");
+
+        // Assert
+        assertSame(actual1, actual2);
+        assertEquals(new Node("name", "domain.com", "instance"), actual1);
+        assertEquals("name@domain.com/instance", actual1.toString());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void parseNode_setDomain_throwsUnsupportedOperationException() {
+        // Arrange
+        NodeCache target = new NodeCache(100);
+        Node node = target.parseNode("name@domain.com/instance");
+
+        // Act
+        node.setDomain("other.com");
+    }
+
+    @Test
+    public void intern_equalMutableNodes_returnsSameImmutableCopy() {
+        // Arrange
+        NodeCache target = new NodeCache(100);
+        Node node = Dummy.createNode();
+
+        // Act
+        Node actual1 = target.intern(node);
+        Node actual2 = target.intern(node.copy());
+
+        // Assert
+        assertSame(actual1, actual2);
+        assertNotSame(node, actual1);
+        assertEquals(node, actual1);
+        assertEquals(node.hashCode(), actual1.hashCode());
+    }
+
+    @Test
+    public void parseNode_fullCache_clearsCache() {
+        // Arrange
+        NodeCache target = new NodeCache(2);
+        target.parseNode("a@domain.com");
+        target.parseNode("b@domain.com");
+
+        // Act
+        target.parseNode("c@domain.com");
+
+        // Assert
+        assertEquals(1, target.size());
+    }
+
+    @Test
+    public void hashCode_changedNode_returnsHashCodeOfNewValue() {
+        // Arrange
+        Node target = new Node("name", "domain.com", "instance");
+        int hashCode = target.hashCode();
+
+        // Act
+        target.setInstance("other");
+
+        // Assert
+        assertNotEquals(hashCode, target.hashCode());
+        assertEquals("name@domain.com/other", target.toString());
+        assertEquals(new Node("NAME", "DOMAIN.COM", "OTHER").hashCode(), target.hashCode());
+    }
+
+    @Test
+    public void serialize_cachedNode_writesNodeString() {
+        // Arrange
+        JacksonEnvelopeSerializer serializer = new JacksonEnvelopeSerializer();
+        Message message = Dummy.createMessage(Dummy.createTextContent());
+        message.setFrom(NodeCache.getDefault().parseNode("name@domain.com/instance"));
+
+        // Act
+        Message actual = (Message) serializer.deserialize(serializer.serialize(message));
+
+        // Assert
+        assertEquals(message.getFrom(), actual.getFrom());
+        assertSame(message.getFrom(), actual.getFrom());
+    }
+}
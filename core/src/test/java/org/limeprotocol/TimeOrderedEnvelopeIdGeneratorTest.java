@@ -0,0 +1,111 @@
+package org.limeprotocol;
+
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+public class TimeOrderedEnvelopeIdGeneratorTest {
+
+    @Test
+    public void newId_sameThread_returnsIncreasingUuids() {
+        // Arrange
+        TimeOrderedEnvelopeIdGenerator target = new TimeOrderedEnvelopeIdGenerator();
+        String previousId = target.newId();
+
+        for (int i = 0; i < 100000; i++) {
+            // Act
+            String actual = target.newId();
+
+            // Assert
+            assertTrue(actual.compareTo(previousId) > 0);
+            UUID uuid = UUID.fromString(actual);
+            assertEquals(actual, uuid.toString());
+            assertEquals(7, uuid.version());
+            assertEquals(2, uuid.variant());
+            previousId = actual;
+        }
+    }
+
+    @Test
+    public void newId_multipleThreads_returnsUniqueIds() throws Exception {
+        // Arrange
+        final TimeOrderedEnvelopeIdGenerator target = new TimeOrderedEnvelopeIdGenerator();
+        int threadsCount = 8;
+        final int idsCount = 20000;
+        ExecutorService executorService = Executors.newFixedThreadPool(threadsCount);
+        List<Future<List<String>>> futures = new ArrayList<>();
+
+        // Act
+        for (int i = 0; i < threadsCount; i++) {
+            futures.add(executorService.submit(new Callable<List<String>>() {
+                @Override
+                public List<String> call() {
+                    List<String> ids = new ArrayList<>(idsCount);
+                    for (int j = 0; j < idsCount; j++) {
+                        ids.add(target.newId());
+                    }
+                    return ids;
+                }
+            }));
+        }
+
+        // Assert
+        Set<String> actual = new HashSet<>();
+        for (Future<List<String>> future : futures) {
+            actual.addAll(future.get(10, TimeUnit.SECONDS));
+        }
+        executorService.shutdown();
+        assertEquals(threadsCount * idsCount, actual.size());
+    }
+
+    @Test
+    public void newId_shortLivedThreads_returnsUniqueIds() throws Exception {
+        // Arrange
+        final TimeOrderedEnvelopeIdGenerator target = new TimeOrderedEnvelopeIdGenerator();
+        int threadsCount = 500;
+        final int idsCount = 100;
+        final Set<String> actual = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+        // Act
+        for (int i = 0; i < threadsCount; i++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < idsCount; j++) {
+                        actual.add(target.newId());
+                    }
+                }
+            });
+            thread.start();
+            thread.join();
+        }
+
+        // Assert
+        assertEquals(threadsCount * idsCount, actual.size());
+    }
+
+    @Test
+    public void newId_customGenerator_usesGenerator() {
+        // Arrange
+        EnvelopeIdGenerator previousGenerator = EnvelopeId.getGenerator();
+        EnvelopeId.setGenerator(new EnvelopeIdGenerator() {
+            @Override
+            public String newId() {
+                return "custom";
+            }
+        });
+
+        try {
+            // Act
+            String actual = EnvelopeId.newId();
+
+            // Assert
+            assertEquals("custom", actual);
+        } finally {
+            EnvelopeId.setGenerator(previousGenerator);
+        }
+    }
+}
@@ -6,6 +6,8 @@ import org.limeprotocol.*;
 import java.io.IOException;
 import java.net.URI;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
@@ -997,6 +999,32 @@ public class ChannelBaseTest {
         verify(listener2, times(2)).onReceiveMessage(message);
     }
     
+    @Test
+    public void raiseOnReceiveMessage_receiveDispatcher_callsListenerInDispatcherThread() throws InterruptedException {
+        // Arrange
+        final Thread transportThread = Thread.currentThread();
+        final Semaphore semaphore = new Semaphore(0);
+        Message message = createMessage(createPlainDocument());
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        ChannelBase target = getTarget(Session.SessionState.ESTABLISHED);
+        target.setReceiveDispatcher(new PartitionedEnvelopeDispatcher(executorService));
+        target.addMessageListener(new MessageChannel.MessageChannelListener() {
+            @Override
+            public void onReceiveMessage(Message message) {
+                if (Thread.currentThread() != transportThread) {
+                    semaphore.release();
+                }
+            }
+        }, false);
+
+        // Act
+        ((TestChannel)target).raiseOnReceiveMessage(message);
+
+        // Assert
+        assertTrue(semaphore.tryAcquire(1, TimeUnit.SECONDS));
+        executorService.shutdown();
+    }
+
     @Test(expected = IllegalStateException.class)
     public void raiseOnReceiveMessage_finishedSessionSate_throwsIllegalOperationException() {
         // Arrange
@@ -0,0 +1,280 @@
+package org.limeprotocol.network;
+
+import org.junit.Test;
+import org.limeprotocol.Command;
+import org.limeprotocol.testHelpers.Dummy;
+import org.limeprotocol.util.HashedWheelTimer;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class ChannelCommandProcessorImplTest {
+
+    private static Command createResponseCommand(Command requestCommand) {
+        Command responseCommand = Dummy.createCommand(Dummy.createJsonDocument());
+        responseCommand.setId(requestCommand.getId());
+        responseCommand.setStatus(Command.CommandStatus.SUCCESS);
+        return responseCommand;
+    }
+
+    private static void submitWhenSent(ChannelCommandProcessorImpl target, Command responseCommand) throws InterruptedException {
+        // The pipelined commands are sent by the executor when the slots are released
+        for (int i = 0; i < 100 && !target.trySubmitCommandResult(responseCommand); i++) {
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void processCommandAsync_responseReceived_completesFutureAndRemovesPendingCommand() throws Exception {
+        // Arrange
+        ChannelCommandProcessorImpl target = new ChannelCommandProcessorImpl();
+        CommandChannel commandChannel = mock(CommandChannel.class);
+        Command requestCommand = Dummy.createCommand();
+        Command responseCommand = createResponseCommand(requestCommand);
+
+        // Act
+        CompletableFuture<Command> actual = target.processCommandAsync(commandChannel, requestCommand, 5, TimeUnit.SECONDS);
+        boolean submitted = target.trySubmitCommandResult(responseCommand);
+
+        // Assert
+        verify(commandChannel).sendCommand(requestCommand);
+        assertTrue(submitted);
+        assertSame(responseCommand, actual.get(1, TimeUnit.SECONDS));
+        assertFalse(target.trySubmitCommandResult(responseCommand));
+    }
+
+    @Test
+    public void processCommandAsync_noResponse_completesFutureWithTimeoutException() throws Exception {
+        // Arrange
+        ChannelCommandProcessorImpl target = new ChannelCommandProcessorImpl();
+        CommandChannel commandChannel = mock(CommandChannel.class);
+        Command requestCommand = Dummy.createCommand();
+
+        // Act
+        CompletableFuture<Command> actual = target.processCommandAsync(commandChannel, requestCommand, 100, TimeUnit.MILLISECONDS);
+
+        // Assert
+        try {
+            actual.get(5, TimeUnit.SECONDS);
+            fail("The future should complete exceptionally");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+        assertFalse(target.trySubmitCommandResult(createResponseCommand(requestCommand)));
+    }
+
+    @Test
+    public void processCommandAsync_sendFails_completesFutureWithException() throws Exception {
+        // Arrange
+        ChannelCommandProcessorImpl target = new ChannelCommandProcessorImpl();
+        CommandChannel commandChannel = mock(CommandChannel.class);
+        Command requestCommand = Dummy.createCommand();
+        IOException exception = new IOException();
+        doThrow(exception).when(commandChannel).sendCommand(any(Command.class));
+
+        // Act
+        CompletableFuture<Command> actual = target.processCommandAsync(commandChannel, requestCommand, 5, TimeUnit.SECONDS);
+
+        // Assert
+        assertTrue(actual.isCompletedExceptionally());
+        try {
+            target.processCommand(commandChannel, Dummy.createCommand(), 5, TimeUnit.SECONDS);
+            fail("The send exception should be thrown");
+        } catch (IOException e) {
+            assertSame(exception, e);
+        }
+    }
+
+    @Test
+    public void processCommandAsync_maxPendingCommandsReached_rejectsCommand() throws Exception {
+        // Arrange
+        ChannelCommandProcessorImpl target = new ChannelCommandProcessorImpl(1);
+        CommandChannel commandChannel = mock(CommandChannel.class);
+        target.processCommandAsync(commandChannel, Dummy.createCommand(), 5, TimeUnit.SECONDS);
+        Command requestCommand = Dummy.createCommand();
+
+        // Act
+        CompletableFuture<Command> actual = target.processCommandAsync(commandChannel, requestCommand, 5, TimeUnit.SECONDS);
+
+        // Assert
+        try {
+            actual.get(1, TimeUnit.SECONDS);
+            fail("The future should complete exceptionally");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+        verify(commandChannel, never()).sendCommand(requestCommand);
+        assertEquals(1, target.getPendingCommandsCount());
+        assertEquals(1, target.getRejectedCommandsCount());
+    }
+
+    @Test
+    public void trySubmitCommandResult_responseAfterTimeout_countsLateResponse() throws Exception {
+        // Arrange
+        HashedWheelTimer timer = new HashedWheelTimer("test-timer", 10, TimeUnit.MILLISECONDS, 8);
+        ChannelCommandProcessorImpl target = new ChannelCommandProcessorImpl(timer, 10);
+        CommandChannel commandChannel = mock(CommandChannel.class);
+        Command requestCommand = Dummy.createCommand();
+        CompletableFuture<Command> commandFuture = target.processCommandAsync(commandChannel, requestCommand, 100, TimeUnit.MILLISECONDS);
+        try {
+            commandFuture.get(5, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+
+        // Act
+        boolean actual = target.trySubmitCommandResult(createResponseCommand(requestCommand));
+
+        // Assert
+        assertFalse(actual);
+        assertEquals(1, target.getTimedOutCommandsCount());
+        assertEquals(1, target.getLateResponsesCount());
+        timer.stop();
+    }
+
+    @Test
+    public void trySubmitCommandResult_responseAfterTwiceTheTimeoutWithStoppedTimer_doesNotCountLateResponse() throws Exception {
+        // Arrange
+        HashedWheelTimer timer = new HashedWheelTimer("test-timer", 10, TimeUnit.MILLISECONDS, 8);
+        ChannelCommandProcessorImpl target = new ChannelCommandProcessorImpl(timer, 10);
+        CommandChannel commandChannel = mock(CommandChannel.class);
+        Command requestCommand = Dummy.createCommand();
+        CompletableFuture<Command> commandFuture = target.processCommandAsync(commandChannel, requestCommand, 50, TimeUnit.MILLISECONDS);
+        try {
+            commandFuture.get(5, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+        timer.stop();
+        Thread.sleep(100);
+
+        // Act
+        boolean actual = target.trySubmitCommandResult(createResponseCommand(requestCommand));
+
+        // Assert
+        assertFalse(actual);
+        assertEquals(1, target.getTimedOutCommandsCount());
+        assertEquals(0, target.getLateResponsesCount());
+        assertEquals(0, target.getPendingCommandsCount());
+    }
+
+    @Test
+    public void processCommandAsync_stoppedTimer_failsCommandAndReleasesId() throws Exception {
+        // Arrange
+        HashedWheelTimer timer = new HashedWheelTimer("test-timer", 10, TimeUnit.MILLISECONDS, 8);
+        timer.stop();
+        ChannelCommandProcessorImpl target = new ChannelCommandProcessorImpl(timer, 10);
+        CommandChannel commandChannel = mock(CommandChannel.class);
+        Command requestCommand = Dummy.createCommand();
+
+        // Act
+        CompletableFuture<Command> actual = target.processCommandAsync(commandChannel, requestCommand, 50, TimeUnit.MILLISECONDS);
+        CompletableFuture<Command> retried = target.processCommandAsync(commandChannel, requestCommand, 50, TimeUnit.MILLISECONDS);
+
+        // Assert
+        assertTrue(actual.isCompletedExceptionally());
+        assertTrue(retried.isCompletedExceptionally());
+        try {
+            retried.get();
+            fail("The command should have failed");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        verify(commandChannel, never()).sendCommand(any(Command.class));
+        assertEquals(0, target.getPendingCommandsCount());
+    }
+
+    @Test
+    public void processCommand_timerDoesNotExpireCommand_throwsTimeoutException() throws Exception {
+        // Arrange
+        HashedWheelTimer timer = new HashedWheelTimer("test-timer", 1, TimeUnit.HOURS, 8);
+        ChannelCommandProcessorImpl target = new ChannelCommandProcessorImpl(timer, 10);
+        CommandChannel commandChannel = mock(CommandChannel.class);
+        Command requestCommand = Dummy.createCommand();
+
+        try {
+            // Act
+            target.processCommand(commandChannel, requestCommand, 50, TimeUnit.MILLISECONDS);
+            fail("The command should have timed out");
+        } catch (TimeoutException e) {
+            // Assert
+            assertEquals(0, target.getPendingCommandsCount());
+        } finally {
+            timer.stop();
+        }
+    }
+
+    @Test
+    public void processCommandsAsync_windowOfTwoCommands_sendsNextCommandOnResponse() throws Exception {
+        // Arrange
+        ChannelCommandProcessorImpl target = new ChannelCommandProcessorImpl();
+        CommandChannel commandChannel = mock(CommandChannel.class);
+        List<Command> requestCommands = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            requestCommands.add(Dummy.createCommand());
+        }
+
+        // Act
+        List<CompletableFuture<Command>> actual = target.processCommandsAsync(commandChannel, requestCommands, 2, 5, TimeUnit.SECONDS);
+        target.trySubmitCommandResult(createResponseCommand(requestCommands.get(1)));
+
+        // Assert
+        verify(commandChannel).sendCommands(requestCommands.subList(0, 2));
+        verify(commandChannel, timeout(1000)).sendCommands(Collections.singletonList(requestCommands.get(2)));
+        verify(commandChannel, never()).sendCommand(any(Command.class));
+        assertEquals(5, actual.size());
+        assertTrue(actual.get(1).isDone());
+        assertFalse(actual.get(0).isDone());
+        assertEquals(2, target.getPendingCommandsCount());
+        for (int i = 0; i < requestCommands.size(); i++) {
+            submitWhenSent(target, createResponseCommand(requestCommands.get(i)));
+        }
+        for (int i = 0; i < requestCommands.size(); i++) {
+            assertEquals(requestCommands.get(i).getId(), actual.get(i).get(1, TimeUnit.SECONDS).getId());
+        }
+        assertEquals(0, target.getPendingCommandsCount());
+    }
+
+    @Test
+    public void processCommandsAsync_responseReceived_sendsNextCommandOutOfReceivingThread() throws Exception {
+        // Arrange
+        ChannelCommandProcessorImpl target = new ChannelCommandProcessorImpl();
+        CommandChannel commandChannel = mock(CommandChannel.class);
+        final List<Thread> sendingThreads = Collections.synchronizedList(new ArrayList<Thread>());
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                sendingThreads.add(Thread.currentThread());
+                return null;
+            }
+        }).when(commandChannel).sendCommands(anyListOf(Command.class));
+        List<Command> requestCommands = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            requestCommands.add(Dummy.createCommand());
+        }
+
+        // Act
+        List<CompletableFuture<Command>> actual = target.processCommandsAsync(commandChannel, requestCommands, 1, 5, TimeUnit.SECONDS);
+        target.trySubmitCommandResult(createResponseCommand(requestCommands.get(0)));
+
+        // Assert
+        verify(commandChannel, timeout(1000).times(2)).sendCommands(anyListOf(Command.class));
+        assertEquals(2, sendingThreads.size());
+        assertSame(Thread.currentThread(), sendingThreads.get(0));
+        assertNotSame(Thread.currentThread(), sendingThreads.get(1));
+        target.trySubmitCommandResult(createResponseCommand(requestCommands.get(1)));
+        assertEquals(requestCommands.get(1).getId(), actual.get(1).get(1, TimeUnit.SECONDS).getId());
+    }
+}
@@ -0,0 +1,98 @@
+package org.limeprotocol.network;
+
+import org.junit.Test;
+import org.limeprotocol.Message;
+import org.limeprotocol.Session;
+import org.limeprotocol.network.modules.ChannelModuleBase;
+
+import java.util.Iterator;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+
+public class ChannelModuleCollectionTest {
+
+    @Test
+    public void add_moduleWithEmptyStages_skipsModuleInStages() {
+        // Arrange
+        ChannelModuleCollection<Message> target = new ChannelModuleCollection<>();
+        ChannelModule<Message> module = new ChannelModuleBase<Message>() {
+            @Override
+            public void onStateChanged(Session.SessionState state) {
+            }
+        };
+
+        // Act
+        target.add(module);
+
+        // Assert
+        assertEquals(1, target.size());
+        assertArrayEquals(new Object[] { module }, target.getModules());
+        assertEquals(0, target.getSendingModules().length);
+        assertEquals(0, target.getReceivingModules().length);
+    }
+
+    @Test
+    public void add_moduleOverridingReceiving_addsModuleToReceivingStageOnly() {
+        // Arrange
+        ChannelModuleCollection<Message> target = new ChannelModuleCollection<>();
+        ChannelModule<Message> module = new ChannelModuleBase<Message>() {
+            @Override
+            public Message onReceiving(Message envelope) {
+                return envelope;
+            }
+        };
+
+        // Act
+        target.add(module);
+
+        // Assert
+        assertEquals(0, target.getSendingModules().length);
+        assertArrayEquals(new Object[] { module }, target.getReceivingModules());
+    }
+
+    @Test
+    public void remove_registeredModule_keepsOtherModulesInOrder() {
+        // Arrange
+        ChannelModuleCollection<Message> target = new ChannelModuleCollection<>();
+        ChannelModule<Message> module1 = mock(ChannelModule.class);
+        ChannelModule<Message> module2 = mock(ChannelModule.class);
+        ChannelModule<Message> module3 = mock(ChannelModule.class);
+        target.add(module1);
+        target.add(module2);
+        target.add(module3);
+        ChannelModule<Message>[] modulesBeforeRemove = target.getSendingModules();
+
+        // Act
+        boolean removed = target.remove(module2);
+
+        // Assert
+        assertTrue(removed);
+        assertArrayEquals(new Object[] { module1, module3 }, target.getSendingModules());
+        assertArrayEquals(new Object[] { module1, module3 }, target.getReceivingModules());
+        assertEquals(3, modulesBeforeRemove.length);
+    }
+
+    @Test
+    public void iterator_removeWhileIterating_removesModule() {
+        // Arrange
+        ChannelModuleCollection<Message> target = new ChannelModuleCollection<>();
+        ChannelModule<Message> module1 = mock(ChannelModule.class);
+        ChannelModule<Message> module2 = mock(ChannelModule.class);
+        target.add(module1);
+        target.add(module2);
+
+        // Act
+        Iterator<ChannelModule<Message>> iterator = target.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next() == module1) {
+                iterator.remove();
+            }
+        }
+
+        // Assert
+        assertEquals(1, target.size());
+        assertFalse(target.contains(module1));
+        assertTrue(target.contains(module2));
+    }
+}
@@ -0,0 +1,123 @@
+package org.limeprotocol.network;
+
+import org.junit.After;
+import org.junit.Test;
+import org.limeprotocol.Message;
+import org.limeprotocol.Node;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.limeprotocol.testHelpers.Dummy.*;
+
+public class PartitionedEnvelopeDispatcherTest {
+
+    private ExecutorService executorService = Executors.newFixedThreadPool(4);
+
+    @After
+    public void tearDown() {
+        executorService.shutdownNow();
+    }
+
+    private static Message createMessageFrom(Node from) {
+        Message message = createMessage(createPlainDocument());
+        message.setFrom(from);
+        return message;
+    }
+
+    @Test
+    public void dispatch_sameSender_runsTasksInOrder() throws InterruptedException {
+        // Arrange
+        PartitionedEnvelopeDispatcher target = new PartitionedEnvelopeDispatcher(executorService, 8);
+        Node sender = createNode();
+        int tasksCount = 1000;
+        final List<Integer> actual = Collections.synchronizedList(new ArrayList<Integer>());
+        final CountDownLatch latch = new CountDownLatch(tasksCount);
+
+        // Act
+        for (int i = 0; i < tasksCount; i++) {
+            final int value = i;
+            target.dispatch(createMessageFrom(sender), new Runnable() {
+                @Override
+                public void run() {
+                    actual.add(value);
+                    latch.countDown();
+                }
+            });
+        }
+
+        // Assert
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < tasksCount; i++) {
+            assertEquals(i, (int) actual.get(i));
+        }
+        assertEquals(0, target.getQueueDepth());
+    }
+
+    @Test
+    public void dispatch_blockedSender_runsTasksOfOtherSenders() throws InterruptedException {
+        // Arrange
+        PartitionedEnvelopeDispatcher target = new PartitionedEnvelopeDispatcher(executorService, 8);
+        Node blockedSender = createNode();
+        Node otherSender;
+        do {
+            otherSender = createNode();
+        } while (target.getPartition(otherSender) == target.getPartition(blockedSender));
+        final CountDownLatch blockLatch = new CountDownLatch(1);
+        final CountDownLatch otherLatch = new CountDownLatch(1);
+        target.dispatch(createMessageFrom(blockedSender), new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    blockLatch.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        target.dispatch(createMessageFrom(blockedSender), new Runnable() {
+            @Override
+            public void run() {
+            }
+        });
+
+        // Act
+        target.dispatch(createMessageFrom(otherSender), new Runnable() {
+            @Override
+            public void run() {
+                otherLatch.countDown();
+            }
+        });
+
+        // Assert
+        assertTrue(otherLatch.await(5, TimeUnit.SECONDS));
+        assertEquals(1, target.getQueueDepth(target.getPartition(blockedSender)));
+        blockLatch.countDown();
+    }
+
+    @Test
+    public void getPartitionSkew_singleSender_returnsPartitionsCount() {
+        // Arrange
+        PartitionedEnvelopeDispatcher target = new PartitionedEnvelopeDispatcher(executorService, 8);
+        Node sender = createNode();
+
+        // Act
+        for (int i = 0; i < 10; i++) {
+            target.dispatch(createMessageFrom(sender), new Runnable() {
+                @Override
+                public void run() {
+                }
+            });
+        }
+
+        // Assert
+        assertEquals(8, target.getPartitionSkew(), 0.001);
+        assertEquals(10, target.getDispatchedCount(target.getPartition(sender)));
+    }
+}
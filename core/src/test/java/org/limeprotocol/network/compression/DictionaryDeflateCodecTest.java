@@ -0,0 +1,114 @@
+package org.limeprotocol.network.compression;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipException;
+
+import static org.junit.Assert.*;
+
+public class DictionaryDeflateCodecTest {
+
+    private DictionaryDeflateCodec target;
+
+    @Before
+    public void setUp() {
+        target = new DictionaryDeflateCodec();
+    }
+
+    @After
+    public void tearDown() {
+        target.close();
+    }
+
+    private static byte[] createNotificationJson() {
+        return ("{\"event\":\"received\",\"id\":\"" + UUID.randomUUID() + "\",\"from\":\"postmaster@msging.net\",\"to\":\"user@msging.net/default\"}")
+                .getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void getDefault_currentVersion_loadsDictionaryResource() {
+        // Act
+        EnvelopeDictionary actual = EnvelopeDictionary.getDefault();
+
+        // Assert
+        assertEquals(EnvelopeDictionary.CURRENT_VERSION, actual.getVersion());
+        assertTrue(actual.getLength() > 0);
+    }
+
+    @Test
+    public void compress_smallEnvelope_decompressesToSameBytes() throws IOException {
+        // Arrange
+        byte[] envelopeJson = createNotificationJson();
+
+        // Act
+        byte[] compressed = target.compress(envelopeJson, 0, envelopeJson.length);
+        byte[] actual = target.decompress(compressed, 0, compressed.length);
+
+        // Assert
+        assertArrayEquals(envelopeJson, actual);
+    }
+
+    @Test
+    public void compress_smallEnvelope_isSmallerThanGzip() throws IOException {
+        // Arrange
+        byte[] envelopeJson = createNotificationJson();
+        ByteArrayOutputStream gzipOutputStream = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzipStream = new GZIPOutputStream(gzipOutputStream)) {
+            gzipStream.write(envelopeJson);
+        }
+
+        // Act
+        byte[] actual = target.compress(envelopeJson, 0, envelopeJson.length);
+
+        // Assert
+        assertTrue(actual.length < gzipOutputStream.size());
+        assertTrue(actual.length < envelopeJson.length * 2 / 3);
+    }
+
+    @Test
+    public void decompress_multipleEnvelopesInAnyOrder_decompressesEachEnvelope() throws IOException {
+        // Arrange
+        byte[] envelopeJson1 = createNotificationJson();
+        byte[] envelopeJson2 = createNotificationJson();
+        byte[] compressed1 = target.compress(envelopeJson1, 0, envelopeJson1.length);
+        byte[] compressed2 = target.compress(envelopeJson2, 0, envelopeJson2.length);
+
+        // Act
+        byte[] actual2 = target.decompress(compressed2, 0, compressed2.length);
+        byte[] actual1 = target.decompress(compressed1, 0, compressed1.length);
+
+        // Assert
+        assertArrayEquals(envelopeJson1, actual1);
+        assertArrayEquals(envelopeJson2, actual2);
+    }
+
+    @Test(expected = ZipException.class)
+    public void decompress_truncatedEnvelope_throwsZipException() throws IOException {
+        // Arrange
+        byte[] envelopeJson = createNotificationJson();
+        byte[] compressed = target.compress(envelopeJson, 0, envelopeJson.length);
+
+        // Act
+        target.decompress(compressed, 0, compressed.length / 2);
+    }
+
+    @Test(expected = ZipException.class)
+    public void decompress_biggerThanMaxSize_throwsZipException() throws IOException {
+        // Arrange
+        byte[] envelopeJson = new byte[4096];
+        byte[] compressed = target.compress(envelopeJson, 0, envelopeJson.length);
+        target.close();
+        target = new DictionaryDeflateCodec(EnvelopeDictionary.getDefault(), Deflater.DEFAULT_COMPRESSION, 2048);
+
+        // Act
+        target.decompress(compressed, 0, compressed.length);
+    }
+}
@@ -0,0 +1,94 @@
+package org.limeprotocol.network.modules;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.limeprotocol.*;
+import org.limeprotocol.client.ClientChannel;
+import org.limeprotocol.network.CommandProcessor;
+import org.limeprotocol.testHelpers.Dummy;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class AdaptiveThroughputControlChannelModuleTest {
+
+    @Mock
+    private ClientChannel channel;
+
+    @Before
+    public void setup() throws Exception {
+        MockitoAnnotations.initMocks(this);
+    }
+
+    @Test
+    public void onReceiving_failedNotificationsWithThrottlingReason_cutsThroughputOncePerPeriod() {
+        // Arrange
+        AdaptiveThroughputControlChannelModule target = AdaptiveThroughputControlChannelModule.createAndRegister(channel, 100, 1, 1000);
+        Notification notification = Dummy.createNotification(Notification.Event.FAILED);
+        notification.setReason(new Reason(ReasonCodes.DISPATCH_ERROR, "Too many requests"));
+
+        // Act
+        target.onReceiving(notification);
+        target.onReceiving(notification);
+
+        // Assert
+        assertEquals(50, target.getThroughput(), 0.001);
+        assertEquals(1, target.getDecreasesCount());
+    }
+
+    @Test
+    public void onReceiving_failedNotificationWithOtherReason_keepsThroughput() {
+        // Arrange
+        AdaptiveThroughputControlChannelModule target = AdaptiveThroughputControlChannelModule.createAndRegister(channel, 100, 1, 1000);
+        Notification notification = Dummy.createNotification(Notification.Event.FAILED);
+        notification.setReason(new Reason(ReasonCodes.VALIDATION_ERROR, "Invalid content"));
+
+        // Act
+        target.onReceiving(notification);
+
+        // Assert
+        assertEquals(100, target.getThroughput(), 0.001);
+    }
+
+    @Test
+    public void onSending_limitedByThroughputForAPeriod_raisesThroughputAdditively() {
+        // Arrange
+        AdaptiveThroughputControlChannelModule target = AdaptiveThroughputControlChannelModule.createAndRegister(channel, 10, 1, 1000);
+        Message message = Dummy.createMessage(Dummy.createTextContent());
+        long startTime = System.nanoTime();
+
+        // Act
+        while (System.nanoTime() - startTime < TimeUnit.MILLISECONDS.toNanos(1100)) {
+            target.onSending(message);
+        }
+        target.onSending(message);
+
+        // Assert
+        assertEquals(11, target.getThroughput(), 0.001);
+    }
+
+    @Test
+    public void seedMaxThroughput_quotaWithThroughput_lowersThroughputToQuota() throws Exception {
+        // Arrange
+        AdaptiveThroughputControlChannelModule target = AdaptiveThroughputControlChannelModule.createAndRegister(channel, 100, 1, 1000);
+        JsonDocument quota = new JsonDocument(MediaType.parse("application/vnd.lime.quota+json"));
+        quota.put("throughput", 20);
+        CommandProcessor commandProcessor = mock(CommandProcessor.class);
+        when(commandProcessor.getResourceAsync(any(LimeUri.class))).thenReturn(CompletableFuture.<Document>completedFuture(quota));
+
+        // Act
+        Integer actual = target.seedMaxThroughput(commandProcessor).get(1, TimeUnit.SECONDS);
+
+        // Assert
+        assertEquals(20, (int) actual);
+        assertEquals(20, target.getMaxThroughput());
+        assertEquals(20, target.getThroughput(), 0.001);
+    }
+}
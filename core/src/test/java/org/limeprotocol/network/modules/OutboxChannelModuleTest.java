@@ -0,0 +1,82 @@
+package org.limeprotocol.network.modules;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.limeprotocol.EnvelopeId;
+import org.limeprotocol.Message;
+import org.limeprotocol.Notification;
+import org.limeprotocol.client.ClientChannel;
+import org.limeprotocol.testHelpers.Dummy;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class OutboxChannelModuleTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    @Mock
+    private ClientChannel channel;
+    @Captor
+    private ArgumentCaptor<Message> messageCaptor;
+
+    @Before
+    public void setup() throws Exception {
+        MockitoAnnotations.initMocks(this);
+    }
+
+    private static Message createMessage() {
+        Message message = Dummy.createMessage(Dummy.createTextContent());
+        message.setId(EnvelopeId.newId());
+        return message;
+    }
+
+    @Test
+    public void replay_messagesWithoutReceiptBeforeRestart_sendsMessages() throws IOException {
+        // Arrange
+        File directory = folder.newFolder();
+        OutboxChannelModule module = OutboxChannelModule.createAndRegister(channel, directory);
+        Message message1 = createMessage();
+        Message message2 = createMessage();
+        module.onSending(message1);
+        module.onSending(message2);
+        Notification notification = Dummy.createNotification(Notification.Event.RECEIVED);
+        notification.setId(message1.getId());
+        module.onReceiving(notification);
+        module.close();
+        OutboxChannelModule target = OutboxChannelModule.createAndRegister(channel, directory);
+
+        // Act
+        int actual = target.replay();
+
+        // Assert
+        assertEquals(1, actual);
+        verify(channel, times(1)).sendMessage(messageCaptor.capture());
+        assertEquals(message2.getId(), messageCaptor.getValue().getId());
+        assertEquals(message2.getTo(), messageCaptor.getValue().getTo());
+        assertEquals(1, target.getPendingMessagesCount());
+    }
+
+    @Test
+    public void onSending_replayedMessage_keepsSingleJournalEntry() throws IOException {
+        // Arrange
+        OutboxChannelModule target = OutboxChannelModule.createAndRegister(channel, folder.newFolder());
+        Message message = createMessage();
+        target.onSending(message);
+
+        // Act
+        target.onSending(message);
+
+        // Assert
+        assertEquals(1, target.getPendingMessagesCount());
+    }
+}
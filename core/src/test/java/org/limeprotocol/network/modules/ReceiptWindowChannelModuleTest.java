@@ -0,0 +1,135 @@
+package org.limeprotocol.network.modules;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.limeprotocol.Message;
+import org.limeprotocol.Node;
+import org.limeprotocol.Notification;
+import org.limeprotocol.Session;
+import org.limeprotocol.client.ClientChannel;
+import org.limeprotocol.testHelpers.Dummy;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ReceiptWindowChannelModuleTest {
+
+    @Mock
+    private ClientChannel channel;
+
+    @Before
+    public void setup() throws Exception {
+        MockitoAnnotations.initMocks(this);
+    }
+
+    private static Message createMessageTo(Node destination) {
+        Message message = Dummy.createMessage(Dummy.createTextContent());
+        message.setTo(destination);
+        return message;
+    }
+
+    private static Notification createNotificationFor(Message message, Notification.Event event) {
+        Notification notification = Dummy.createNotification(event);
+        notification.setId(message.getId());
+        notification.setFrom(message.getTo());
+        return notification;
+    }
+
+    @Test
+    public void onSending_fullWindow_throwsIllegalStateExceptionAfterTimeout() {
+        // Arrange
+        ReceiptWindowChannelModule target = ReceiptWindowChannelModule.createAndRegister(channel, 2, 10, 60000);
+        Node destination = Dummy.createNode();
+        target.onSending(createMessageTo(destination));
+        target.onSending(createMessageTo(destination));
+
+        // Act
+        try {
+            target.onSending(createMessageTo(destination));
+            fail("The window should be full");
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+
+        // Assert
+        assertEquals(2, target.getOutstandingCount(destination));
+    }
+
+    @Test
+    public void onSending_fullWindowOfOtherDestination_sendsMessage() {
+        // Arrange
+        ReceiptWindowChannelModule target = ReceiptWindowChannelModule.createAndRegister(channel, 1, 10, 60000);
+        target.onSending(createMessageTo(Dummy.createNode()));
+        Message message = createMessageTo(Dummy.createNode());
+
+        // Act
+        Message actual = (Message) target.onSending(message);
+
+        // Assert
+        assertSame(message, actual);
+        assertEquals(2, target.getOutstandingCount());
+    }
+
+    @Test
+    public void onReceiving_receivedNotification_releasesWindowSlot() {
+        // Arrange
+        ReceiptWindowChannelModule target = ReceiptWindowChannelModule.createAndRegister(channel, 1, 10, 60000);
+        Node destination = Dummy.createNode();
+        Message message = createMessageTo(destination);
+        target.onSending(message);
+
+        // Act
+        target.onReceiving(createNotificationFor(message, Notification.Event.RECEIVED));
+
+        // Assert
+        assertEquals(0, target.getOutstandingCount(destination));
+        Message nextMessage = createMessageTo(destination);
+        assertSame(nextMessage, target.onSending(nextMessage));
+    }
+
+    @Test
+    public void onSending_messageWithoutReceiptAfterReceiptTimeout_reclaimsSlot() throws InterruptedException {
+        // Arrange
+        ReceiptWindowChannelModule target = ReceiptWindowChannelModule.createAndRegister(channel, 1, 10, 50);
+        Node destination = Dummy.createNode();
+        target.onSending(createMessageTo(destination));
+        Thread.sleep(100);
+        Message message = createMessageTo(destination);
+
+        // Act
+        Message actual = (Message) target.onSending(message);
+
+        // Assert
+        assertSame(message, actual);
+        assertEquals(1, target.getOutstandingCount(destination));
+    }
+
+    @Test
+    public void onStateChanged_finishedWithWaitingSender_keepsWindowOfWaitingSender() throws Exception {
+        // Arrange
+        final ReceiptWindowChannelModule target = ReceiptWindowChannelModule.createAndRegister(channel, 1, 5000, 60000);
+        final Node destination = Dummy.createNode();
+        target.onSending(createMessageTo(destination));
+        final CountDownLatch sentLatch = new CountDownLatch(1);
+        Thread waitingSender = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                target.onSending(createMessageTo(destination));
+                sentLatch.countDown();
+            }
+        });
+        waitingSender.start();
+        Thread.sleep(100);
+
+        // Act
+        target.onStateChanged(Session.SessionState.FINISHED);
+
+        // Assert
+        assertTrue(sentLatch.await(1, TimeUnit.SECONDS));
+        assertEquals(1, target.getOutstandingCount(destination));
+    }
+}
@@ -86,4 +86,20 @@ public class RemotePingChannelModuleTest {
         // Assert
         verify(channel, never()).sendCommand(any(Command.class));
     }
+
+    @Test
+    public void onSending_sendingActivity_doNotSendPing() throws InterruptedException, IOException {
+        // Arrange
+        Message message = createMessage(createTextContent());
+        RemotePingChannelModule target = RemotePingChannelModule.createAndRegister(channel, 200, 0, true);
+        target.onStateChanged(Session.SessionState.ESTABLISHED);
+
+        // Act
+        Thread.sleep(125);
+        target.onSending(message);
+        Thread.sleep(125);
+
+        // Assert
+        verify(channel, never()).sendCommand(any(Command.class));
+    }
 }
@@ -6,6 +6,7 @@ import org.limeprotocol.*;
 import org.limeprotocol.client.ClientChannel;
 import org.limeprotocol.network.Channel;
 import org.limeprotocol.network.Transport;
+import org.limeprotocol.serialization.JacksonEnvelopeSerializer;
 import org.limeprotocol.testHelpers.Dummy;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Captor;
@@ -25,6 +26,8 @@ import static org.mockito.Mockito.*;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import static org.mockito.Mockito.when;
 
@@ -58,20 +61,25 @@ public class ResendMessagesChannelModuleTest {
     }
 
     private ResendMessagesChannelModule getTarget(boolean bindToChannel) throws IOException {
-        final ResendMessagesChannelModule module = new ResendMessagesChannelModule(resendMessageTryCount, resendMessageInterval);
+        ResendMessagesChannelModule module = new ResendMessagesChannelModule(resendMessageTryCount, resendMessageInterval);
         if (bindToChannel) {
-            module.bind(channel, true);
-            doAnswer(new Answer<Void>() {
-                @Override
-                public Void answer(InvocationOnMock invocationOnMock) throws Throwable {
-                    module.onSending((Message) invocationOnMock.getArguments()[0]);
-                    return null;
-                }
-            }).when(channel).sendMessage(any(Message.class));
+            bind(module);
         }
         return module;
     }
 
+    private ResendMessagesChannelModule bind(final ResendMessagesChannelModule module) throws IOException {
+        module.bind(channel, true);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocationOnMock) throws Throwable {
+                module.onSending((Message) invocationOnMock.getArguments()[0]);
+                return null;
+            }
+        }).when(channel).sendMessage(any(Message.class));
+        return module;
+    }
+
     @Test
     public void onSending_messageWithoutNotification_shouldResendAfterInterval() throws InterruptedException, IOException {
         // Arrange
@@ -411,4 +419,94 @@ public class ResendMessagesChannelModuleTest {
             verify(channel2, times(1)).sendMessage(message);
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    public void onSending_messageWithoutNotificationAndBackoff_shouldDoubleResendInterval() throws InterruptedException, IOException {
+        // Arrange
+        Message message = Dummy.createMessage(Dummy.createTextContent());
+        message.setId(EnvelopeId.newId());
+        ResendMessagesChannelModule target = bind(new ResendMessagesChannelModule(
+                resendMessageTryCount, resendMessageInterval, Notification.Event.RECEIVED, 2, 0));
+
+        // Act
+        target.onSending(message);
+        Thread.sleep(resendMessageIntervalWithSafeMargin * 2);
+        verify(channel, times(1)).sendMessage(message);
+        Thread.sleep(resendMessageIntervalWithSafeMargin);
+
+        // Assert
+        verify(channel, times(2)).sendMessage(message);
+    }
+
+    @Test
+    public void onSending_messageWithoutNotificationAndSerializer_shouldResendCopy() throws InterruptedException, IOException {
+        // Arrange
+        Message message = Dummy.createMessage(Dummy.createTextContent());
+        message.setId(EnvelopeId.newId());
+        resendMessageTryCount = 1;
+        ResendMessagesChannelModule target = bind(new ResendMessagesChannelModule(
+                resendMessageTryCount, resendMessageInterval, Notification.Event.RECEIVED, 1, 0, new JacksonEnvelopeSerializer()));
+
+        // Act
+        target.onSending(message);
+        Thread.sleep(resendMessageIntervalWithSafeMargin);
+
+        // Assert
+        verify(channel, times(1)).sendMessage(messageCaptor.capture());
+        Message actual = messageCaptor.getValue();
+        assertNotSame(message, actual);
+        assertEquals(message.getId(), actual.getId());
+        assertEquals(message.getTo(), actual.getTo());
+        assertEquals(message.getContent().toString(), actual.getContent().toString());
+        assertEquals("1", actual.getMetadata().get("#resentCount"));
+    }
+
+    @Test
+    public void onSending_manyMessagesWithoutNotification_shouldKeepAllPending() throws InterruptedException, IOException {
+        // Arrange
+        int messagesCount = 10000;
+        resendMessageInterval = 60000;
+        ResendMessagesChannelModule target = getTarget();
+
+        // Act
+        for (int i = 0; i < messagesCount; i++) {
+            Message message = Dummy.createMessage(Dummy.createTextContent());
+            message.setId(EnvelopeId.newId());
+            target.onSending(message);
+        }
+
+        // Assert
+        assertEquals(messagesCount, target.getPendingMessagesCount());
+        verify(channel, never()).sendMessage(any(Message.class));
+    }
+
+    @Test
+    public void onSending_blockedResendOfAnotherMessage_shouldResendAfterInterval() throws InterruptedException, IOException {
+        // Arrange
+        final Message blockedMessage = Dummy.createMessage(Dummy.createTextContent());
+        blockedMessage.setId(EnvelopeId.newId());
+        Message message = Dummy.createMessage(Dummy.createTextContent());
+        message.setId(EnvelopeId.newId());
+        resendMessageTryCount = 1;
+        ResendMessagesChannelModule target = getTarget(false);
+        target.bind(channel, true);
+        final CountDownLatch sendLatch = new CountDownLatch(1);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocationOnMock) throws Throwable {
+                // Like a send module waiting for the throughput or the receipt window
+                sendLatch.await(5, TimeUnit.SECONDS);
+                return null;
+            }
+        }).when(channel).sendMessage(blockedMessage);
+
+        // Act
+        target.onSending(blockedMessage);
+        target.onSending(message);
+        Thread.sleep(resendMessageIntervalWithSafeMargin);
+
+        // Assert
+        verify(channel, times(1)).sendMessage(message);
+        sendLatch.countDown();
+    }
+}
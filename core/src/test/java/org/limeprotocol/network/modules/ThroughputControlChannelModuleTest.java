@@ -4,6 +4,7 @@ import com.google.common.base.Stopwatch;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
+import org.limeprotocol.Envelope;
 import org.limeprotocol.EnvelopeId;
 import org.limeprotocol.Message;
 import org.limeprotocol.client.ClientChannel;
@@ -62,4 +63,48 @@ public class ThroughputControlChannelModuleTest {
         Assert.assertTrue(stopwatch.elapsed(TimeUnit.MILLISECONDS) >= 3950);
         Assert.assertTrue(stopwatch.elapsed(TimeUnit.MILLISECONDS) < 4050);
     }
+
+    @Test
+    public void onSending_destinationThroughputExceeded_sendsToOtherDestinations() {
+        // Arrange
+        ThroughputControlChannelModule target = ThroughputControlChannelModule.createAndRegister(channel, 100, 100, 2, 0);
+        Message hotMessage = Dummy.createMessage(Dummy.createTextContent());
+        Message otherMessage = Dummy.createMessage(Dummy.createTextContent());
+        otherMessage.setTo(Dummy.createNode());
+        target.onSending(hotMessage);
+        target.onSending(hotMessage);
+
+        // Act
+        Envelope actual = target.onSending(otherMessage);
+
+        // Assert
+        Assert.assertSame(otherMessage, actual);
+        try {
+            target.onSending(hotMessage);
+            Assert.fail("The destination throughput should be exceeded");
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void onSending_channelThroughputExceeded_keepsDestinationToken() throws InterruptedException {
+        // Arrange
+        ThroughputControlChannelModule target = ThroughputControlChannelModule.createAndRegister(channel, 10, 1, 2, 0);
+        Message message = Dummy.createMessage(Dummy.createTextContent());
+        target.onSending(message);
+        try {
+            target.onSending(message);
+            Assert.fail("The channel throughput should be exceeded");
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+        Thread.sleep(150);
+
+        // Act
+        Envelope actual = target.onSending(message);
+
+        // Assert
+        Assert.assertSame(message, actual);
+    }
 }
@@ -10,6 +10,10 @@ import org.limeprotocol.security.PlainAuthentication;
 import org.limeprotocol.testHelpers.JsonConstants;
 import org.limeprotocol.util.StringUtils;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 
 import static net.javacrumbs.jsonunit.fluent.JsonFluentAssert.assertThatJson;
@@ -719,6 +723,163 @@ public class JacksonEnvelopeSerializerTest {
 
     //endregion deserialize
 
+    //region byte methods
+
+    @Test
+    public void serialize_MessageToOutputStream_WritesUtf8JsonAndKeepsStreamOpen() throws IOException {
+        // Arrange
+        Message message = createMessage(createTextContent());
+        final boolean[] closed = {false};
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream() {
+            @Override
+            public void close() throws IOException {
+                closed[0] = true;
+                super.close();
+            }
+        };
+
+        // Act
+        target.serialize(message, outputStream);
+
+        // Assert
+        assertEquals(target.serialize(message), new String(outputStream.toByteArray(), StandardCharsets.UTF_8));
+        assertFalse(closed[0]);
+    }
+
+    @Test
+    public void deserialize_MessageBytesRegion_ReturnsValidInstance() {
+        // Arrange
+        Message message = createMessage(createTextContent());
+        byte[] json = target.serialize(message).getBytes(StandardCharsets.UTF_8);
+        byte[] buffer = new byte[json.length + 20];
+        System.arraycopy(json, 0, buffer, 10, json.length);
+
+        // Act
+        Envelope envelope = target.deserialize(buffer, 10, json.length);
+
+        // Assert
+        assertTrue(envelope instanceof Message);
+        assertEquals(message.getId(), envelope.getId());
+        assertEquals(message.getContent().toString(), ((Message) envelope).getContent().toString());
+    }
+
+    @Test
+    public void deserialize_DirectByteBuffer_ReturnsValidInstanceAndKeepsPosition() {
+        // Arrange
+        Command command = createCommand();
+        byte[] json = target.serialize(command).getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(json.length);
+        buffer.put(json);
+        buffer.flip();
+
+        // Act
+        Envelope envelope = target.deserialize(buffer);
+
+        // Assert
+        assertTrue(envelope instanceof Command);
+        assertEquals(command.getId(), envelope.getId());
+        assertEquals(0, buffer.position());
+        assertEquals(json.length, buffer.remaining());
+    }
+
+    //endregion byte methods
+
+    //region field order
+
+    @Test
+    public void deserialize_JsonContentBeforeType_ReturnsValidInstance() {
+        // Arrange
+        String id = EnvelopeId.newId();
+        MediaType type = createJsonMediaType();
+        String propertyName = createRandomString(10);
+        String propertyValue = createRandomString(10);
+        String json = StringUtils.format(
+                "{\"id\":\"{0}\",\"content\":{\"{1}\":\"{2}\",\"nested\":{\"items\":[1,2]}},\"type\":\"{3}\"}",
+                id,
+                propertyName,
+                propertyValue,
+                type
+        );
+
+        // Act
+        Envelope envelope = target.deserialize(json);
+
+        // Assert
+        assertTrue(envelope instanceof Message);
+        Message message = (Message) envelope;
+        assertEquals(id, message.getId());
+        assertEquals(type, message.getType());
+        assertTrue(message.getContent() instanceof JsonDocument);
+        JsonDocument content = (JsonDocument) message.getContent();
+        assertEquals(propertyValue, content.get(propertyName));
+        assertTrue(content.containsKey("nested"));
+    }
+
+    @Test
+    public void deserialize_CommandTypeWithoutResource_ReturnsEmptyResource() {
+        // Arrange
+        MediaType type = createPlainMediaType();
+        String json = StringUtils.format(
+                "{\"method\":\"set\",\"type\":\"{0}\",\"uri\":\"/presence\",\"id\":\"{1}\"}",
+                type,
+                EnvelopeId.newId()
+        );
+
+        // Act
+        Envelope envelope = target.deserialize(json);
+
+        // Assert
+        assertTrue(envelope instanceof Command);
+        Command command = (Command) envelope;
+        assertEquals(SET, command.getMethod());
+        assertTrue(command.getResource() instanceof PlainDocument);
+        assertEquals(type, command.getType());
+    }
+
+    @Test
+    public void deserialize_SessionAuthenticationBeforeScheme_ReturnsValidInstance() {
+        // Arrange
+        String json = "{\"authentication\":{\"password\":\"Zg==\"},\"id\":\"ec9c196c-da09-43b0-923b-8ec162705c32\",\"scheme\":\"plain\",\"state\":\"authenticating\"}";
+
+        // Act
+        Envelope envelope = target.deserialize(json);
+
+        // Assert
+        assertTrue(envelope instanceof Session);
+        Session session = (Session) envelope;
+        assertEquals(SessionState.AUTHENTICATING, session.getState());
+        assertTrue(session.getAuthentication() instanceof PlainAuthentication);
+        assertEquals("Zg==", ((PlainAuthentication) session.getAuthentication()).getPassword());
+    }
+
+    @Test
+    public void deserialize_UnknownPropertiesAroundEnvelopeKind_IgnoresProperties() {
+        // Arrange
+        String json = "{\"unknown\":{\"event\":\"failed\",\"list\":[{\"state\":\"new\"}]},\"id\":\"1\",\"event\":\"received\",\"other\":[1,{\"a\":null}]}";
+
+        // Act
+        Envelope envelope = target.deserialize(json);
+
+        // Assert
+        assertTrue(envelope instanceof Notification);
+        assertEquals("1", envelope.getId());
+        assertEquals(Notification.Event.RECEIVED, ((Notification) envelope).getEvent());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void deserialize_ContentWithoutType_ThrowsIllegalArgumentException() {
+        // Act
+        target.deserialize("{\"id\":\"1\",\"content\":{\"text\":\"value\"}}");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void deserialize_UnknownEnvelopeKind_ThrowsIllegalArgumentException() {
+        // Act
+        target.deserialize("{\"id\":\"1\",\"from\":\"a@b.c/d\"}");
+    }
+
+    //endregion field order
+
     public static void assertJsonEnvelopeProperties(Envelope expected, String jsonString, String... properties) {
         List<String> missingKeys = new ArrayList<>(Arrays.asList(JsonConstants.Envelope.ALL_KEYS));
 
@@ -0,0 +1,61 @@
+package org.limeprotocol.util;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class HashedWheelTimerTest {
+
+    private HashedWheelTimer target = new HashedWheelTimer("test-timer", 10, TimeUnit.MILLISECONDS, 8);
+
+    @After
+    public void tearDown() {
+        target.stop();
+    }
+
+    @Test
+    public void newTimeout_delayLongerThanWheel_runsTaskAfterDelay() throws InterruptedException {
+        // Arrange
+        final CountDownLatch latch = new CountDownLatch(1);
+        long startTime = System.nanoTime();
+
+        // Act
+        HashedWheelTimer.Timeout actual = target.newTimeout(new Runnable() {
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        }, 200, TimeUnit.MILLISECONDS);
+
+        // Assert
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime) >= 200);
+        assertTrue(actual.isExpired());
+        assertEquals(0, target.getPendingTimeoutsCount());
+    }
+
+    @Test
+    public void cancel_pendingTimeout_doesNotRunTask() throws InterruptedException {
+        // Arrange
+        final CountDownLatch latch = new CountDownLatch(1);
+        HashedWheelTimer.Timeout timeout = target.newTimeout(new Runnable() {
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        }, 50, TimeUnit.MILLISECONDS);
+
+        // Act
+        boolean actual = timeout.cancel();
+
+        // Assert
+        assertTrue(actual);
+        assertFalse(latch.await(200, TimeUnit.MILLISECONDS));
+        assertTrue(timeout.isCancelled());
+        assertEquals(0, target.getPendingTimeoutsCount());
+    }
+}
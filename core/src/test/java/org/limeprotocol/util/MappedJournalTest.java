@@ -0,0 +1,136 @@
+package org.limeprotocol.util;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class MappedJournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static byte[] createPayload(int i) {
+        return ("payload-" + i).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void open_previousJournal_loadsRecordsNotRemoved() throws IOException {
+        // Arrange
+        File directory = folder.newFolder();
+        MappedJournal journal = new MappedJournal(directory, 4096);
+        journal.append("1", createPayload(1));
+        journal.append("2", createPayload(2));
+        journal.append("3", createPayload(3));
+        journal.remove("2");
+        journal.sync();
+        journal.close();
+
+        // Act
+        MappedJournal target = new MappedJournal(directory, 4096);
+
+        // Assert
+        Map<String, byte[]> actual = target.getEntries();
+        assertEquals(2, actual.size());
+        assertArrayEquals(createPayload(1), actual.get("1"));
+        assertArrayEquals(createPayload(3), actual.get("3"));
+    }
+
+    @Test
+    public void append_journalFull_compactsAndKeepsLiveRecords() throws IOException {
+        // Arrange
+        File directory = folder.newFolder();
+        MappedJournal target = new MappedJournal(directory, 1024);
+
+        // Act
+        for (int i = 0; i < 1000; i++) {
+            target.append(String.valueOf(i), createPayload(i));
+            if (i % 10 != 0) {
+                target.remove(String.valueOf(i));
+            }
+        }
+        target.close();
+
+        // Assert
+        MappedJournal reopened = new MappedJournal(directory, 1024);
+        Map<String, byte[]> actual = reopened.getEntries();
+        assertEquals(100, actual.size());
+        for (int i = 0; i < 1000; i += 10) {
+            assertArrayEquals(createPayload(i), actual.get(String.valueOf(i)));
+        }
+        File[] files = directory.listFiles();
+        assertNotNull(files);
+        assertEquals(1, files.length);
+    }
+
+    @Test
+    public void remove_appendsWhileCompactingInBackground_keepsLiveRecords() throws IOException, InterruptedException {
+        // Arrange
+        File directory = folder.newFolder();
+        MappedJournal target = new MappedJournal(directory, 64 * 1024);
+        for (int i = 0; i < 1000; i++) {
+            target.append(String.valueOf(i), createPayload(i));
+        }
+
+        // Act
+        for (int i = 0; i < 1000; i++) {
+            if (i % 10 != 0) {
+                target.remove(String.valueOf(i));
+            }
+        }
+        for (int i = 1000; i < 2000; i++) {
+            target.append(String.valueOf(i), createPayload(i));
+        }
+        for (int i = 0; i < 100 && !new File(directory, "journal.1.log").exists(); i++) {
+            Thread.sleep(10);
+        }
+        target.close();
+
+        // Assert
+        MappedJournal reopened = new MappedJournal(directory, 64 * 1024);
+        Map<String, byte[]> actual = reopened.getEntries();
+        assertEquals(1100, actual.size());
+        for (int i = 0; i < 2000; i += i < 1000 ? 10 : 1) {
+            assertArrayEquals(createPayload(i), actual.get(String.valueOf(i)));
+        }
+        File[] files = directory.listFiles();
+        assertNotNull(files);
+        assertEquals(1, files.length);
+        assertNotEquals("journal.0.log", files[0].getName());
+    }
+
+    @Test
+    public void open_tornRecordAtTail_ignoresRecord() throws IOException {
+        // Arrange
+        File directory = folder.newFolder();
+        MappedJournal journal = new MappedJournal(directory, 4096);
+        journal.append("1", createPayload(1));
+        long position = journal.append("2", createPayload(2));
+        journal.close();
+        File[] files = directory.listFiles();
+        assertNotNull(files);
+        try (RandomAccessFile file = new RandomAccessFile(files[0], "rw")) {
+            // Corrupts the last byte of the second record payload
+            file.seek(position - 1);
+            file.write('x');
+        }
+
+        // Act
+        MappedJournal target = new MappedJournal(directory, 4096);
+        target.append("3", createPayload(3));
+        target.close();
+
+        // Assert
+        Map<String, byte[]> actual = new MappedJournal(directory, 4096).getEntries();
+        assertEquals(2, actual.size());
+        assertTrue(actual.containsKey("1"));
+        assertTrue(actual.containsKey("3"));
+    }
+}
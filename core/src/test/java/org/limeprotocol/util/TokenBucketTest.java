@@ -0,0 +1,88 @@
+package org.limeprotocol.util;
+
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class TokenBucketTest {
+
+    @Test
+    public void tryAcquire_emptyBucket_returnsFalse() {
+        // Arrange
+        TokenBucket target = new TokenBucket(5, 1);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(target.tryAcquire());
+        }
+
+        // Act
+        boolean actual = target.tryAcquire();
+
+        // Assert
+        assertFalse(actual);
+        assertEquals(0, target.getAvailableTokens());
+        assertFalse(target.isFull());
+    }
+
+    @Test
+    public void tryAcquire_steppedRefill_waitsForRefillPeriod() throws InterruptedException {
+        // Arrange
+        TokenBucket target = new TokenBucket(4, 4, 200, TimeUnit.MILLISECONDS);
+        assertTrue(target.tryAcquire(4));
+        long startTime = System.nanoTime();
+
+        // Act
+        boolean actual = target.tryAcquire(1, TimeUnit.SECONDS);
+
+        // Assert
+        assertTrue(actual);
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime) >= 150);
+        assertEquals(3, target.getAvailableTokens());
+    }
+
+    @Test
+    public void tryAcquire_timeoutShorterThanRefill_returnsFalseWithoutTakingToken() throws InterruptedException {
+        // Arrange
+        TokenBucket target = new TokenBucket(1, 1, 1, TimeUnit.SECONDS);
+        assertTrue(target.tryAcquire());
+
+        // Act
+        boolean actual = target.tryAcquire(10, TimeUnit.MILLISECONDS);
+
+        // Assert
+        assertFalse(actual);
+        assertFalse(target.tryAcquire(0, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void release_acquiredToken_allowsTokenToBeAcquiredAgain() {
+        // Arrange
+        TokenBucket target = new TokenBucket(2, 1);
+        assertTrue(target.tryAcquire(2));
+
+        // Act
+        target.release();
+
+        // Assert
+        assertTrue(target.tryAcquire());
+        assertFalse(target.tryAcquire());
+    }
+
+    @Test
+    public void acquireAsync_emptyBucket_completesAfterRefill() throws Exception {
+        // Arrange
+        TokenBucket target = new TokenBucket(1, 10);
+        target.acquireAsync().get(1, TimeUnit.SECONDS);
+        long startTime = System.nanoTime();
+
+        // Act
+        CompletableFuture<Void> actual = target.acquireAsync();
+
+        // Assert
+        assertFalse(actual.isDone());
+        actual.get(1, TimeUnit.SECONDS);
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime) >= 90);
+    }
+}
@@ -1,6 +1,8 @@
 package org.limeprotocol.messaging.serialization;
 
 import net.take.iris.messaging.resources.Schedule;
+import net.take.iris.messaging.resources.ThreadMessage;
+import net.take.iris.messaging.resources.ThreadMessageDirection;
 import net.take.iris.messaging.resources.artificialIntelligence.AnalysisResponse;
 import net.take.iris.messaging.resources.artificialIntelligence.Entity;
 import net.take.iris.messaging.resources.artificialIntelligence.Intention;
@@ -982,6 +984,39 @@ public class JacksonEnvelopeMessagingSerializerTest {
         assertThat(command.getResource()).isNotNull().isInstanceOf(Entity.class);
     }
 
+    @Test
+    public void deserialize_ThreadMessageCollectionWithValuesBeforeTypes_ReturnValidInstance() {
+
+        // Arrange
+        String json = "{\"resource\":{\"items\":[{\"id\":\"1\",\"direction\":\"received\",\"content\":\"Hello\",\"type\":\"text/plain\",\"metadata\":{\"key\":\"value\"}},{\"content\":{\"state\":\"composing\"},\"type\":\"application/vnd.lime.chatstate+json\",\"id\":\"2\",\"direction\":\"sent\",\"status\":\"consumed\"}],\"total\":2,\"itemType\":\"application/vnd.iris.thread-message+json\"},\"type\":\"application/vnd.lime.collection+json\",\"method\":\"get\",\"status\":\"success\",\"id\":\"830ad17d-875f-4c0a-b7a3-f08def17f633\",\"from\":\"postmaster@msging.net/#irismsging3\",\"to\":\"botwh@msging.net\"}";
+
+        // Act
+        Envelope envelope = target.deserialize(json);
+
+        // Assert
+        assertThat(envelope).isInstanceOf(Command.class);
+        Command command = (Command)envelope;
+        assertThat(command.getResource()).isNotNull().isInstanceOf(DocumentCollection.class);
+
+        DocumentCollection documents = (DocumentCollection)command.getResource();
+        assertThat(documents.getTotal()).isEqualTo(2);
+        assertThat(documents.getItems().length).isEqualTo(2);
+
+        ThreadMessage threadMessage1 = (ThreadMessage)documents.getItems()[0];
+        assertThat(threadMessage1.getId()).isEqualTo("1");
+        assertThat(threadMessage1.getDirection()).isEqualTo(ThreadMessageDirection.RECEIVED);
+        assertThat(threadMessage1.getType()).isEqualTo(MediaType.parse("text/plain"));
+        assertThat(threadMessage1.getContent()).isInstanceOf(PlainText.class);
+        assertThat(((PlainText)threadMessage1.getContent()).getText()).isEqualTo("Hello");
+        assertThat(threadMessage1.getMetadata().get("key")).isEqualTo("value");
+
+        ThreadMessage threadMessage2 = (ThreadMessage)documents.getItems()[1];
+        assertThat(threadMessage2.getId()).isEqualTo("2");
+        assertThat(threadMessage2.getStatus()).isEqualTo(Event.CONSUMED);
+        assertThat(threadMessage2.getContent()).isInstanceOf(ChatState.class);
+        assertThat(((ChatState)threadMessage2.getContent()).getState()).isEqualTo(ChatState.ChatStateEvent.COMPOSING);
+    }
+
     //endregion Command
 
     //endregion deserialize method
@@ -0,0 +1,525 @@
+package org.limeprotocol.network;
+
+import org.limeprotocol.util.MappedBuffers;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Incremental JSON framing buffer.
+ * Unlike the {@link JsonBuffer}, the extracted envelopes are not copied: they are exposed as views over the
+ * internal buffer, which are valid until the next call to {@link #compact()}.
+ * The scan state is kept across the reads and the unread bytes are moved to the start of the buffer only
+ * when the write position reaches its end.
+ * The backing buffer is leased from a {@link TransportBufferPool} on demand, grown up to the maximum buffer size
+ * and can be returned to the pool by calling {@link #release()}.
+ * Optionally, a document bigger than the maximum buffer size is spilled to a temporary memory-mapped file, which
+ * is remapped as it grows up to the maximum spill size and truncated once the document is consumed. The file is
+ * kept until the buffer is released and its mappings are unmapped when replaced, without waiting for the collector.
+ * Inside the strings, which are most of the envelope bytes, the scan reads 8 bytes at a time and looks for the
+ * next quote or backslash with bitwise operations; the structural bytes are scanned one at a time.
+ */
+public class JsonRingBuffer {
+    private static final int STREAM_READ_SIZE = 8192;
+    private static final long LOW_BITS = 0x7F7F7F7F7F7F7F7FL;
+    private static final long QUOTES = 0x2222222222222222L;
+    private static final long BACKSLASHES = 0x5C5C5C5C5C5C5C5CL;
+    private static final ThreadLocal<byte[]> streamReadBuffer = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[STREAM_READ_SIZE];
+        }
+    };
+
+    private final TransportBufferPool bufferPool;
+    private final int maxBufferSize;
+    private final int maxSpillSize;
+    private ByteBuffer buffer;
+    private boolean isSpilled;
+    private FileChannel spillChannel;
+    private MappedByteBuffer spillBuffer;
+    private int readPos;
+    private int writePos;
+    private int scanPos;
+    private int jsonStartPos;
+    private int jsonStackedBrackets;
+    private boolean jsonStarted;
+    private boolean insideQuotes;
+    private boolean isEscaping;
+    private int jsonOffset;
+    private int jsonLength;
+
+    public JsonRingBuffer(int bufferSize) {
+        this(new TransportBufferPool(false, bufferSize, bufferSize, 0), bufferSize);
+    }
+
+    public JsonRingBuffer(TransportBufferPool bufferPool, int maxBufferSize) {
+        this(bufferPool, maxBufferSize, 0);
+    }
+
+    /**
+     * Creates a buffer that spills the documents bigger than the maximum buffer size to a temporary file.
+     * @param bufferPool
+     * @param maxBufferSize
+     * @param maxSpillSize The maximum size of the spill file. If not bigger than the maximum buffer size, the spill is disabled.
+     */
+    public JsonRingBuffer(TransportBufferPool bufferPool, int maxBufferSize, int maxSpillSize) {
+        if (bufferPool == null) {
+            throw new IllegalArgumentException("bufferPool");
+        }
+        if (maxBufferSize <= 0) {
+            throw new IllegalArgumentException("maxBufferSize");
+        }
+        if (maxSpillSize < 0) {
+            throw new IllegalArgumentException("maxSpillSize");
+        }
+        this.bufferPool = bufferPool;
+        this.maxBufferSize = maxBufferSize;
+        this.maxSpillSize = maxSpillSize;
+    }
+
+    /**
+     * Indicates if the buffer is currently leased from the pool.
+     * @return
+     */
+    public boolean hasBuffer() {
+        return buffer != null;
+    }
+
+    /**
+     * Indicates if the current buffer is a temporary memory-mapped file.
+     * @return
+     */
+    public boolean isSpilled() {
+        return isSpilled;
+    }
+
+    /**
+     * Gets the capacity of the current buffer.
+     * @return
+     */
+    public int getCapacity() {
+        return buffer != null ? buffer.capacity() : 0;
+    }
+
+    /**
+     * Gets the position where the next received bytes should be written.
+     * @return
+     */
+    public int getWritePosition() {
+        return writePos;
+    }
+
+    /**
+     * Gets the number of bytes that can be written without compacting the buffer.
+     * @return
+     */
+    public int getWritableLength() {
+        return getCapacity() - writePos;
+    }
+
+    /**
+     * Advances the write position after the bytes were written to the buffer.
+     * @param bytes
+     */
+    public void increaseWritePosition(int bytes) {
+        if (bytes < 0 || bytes > getWritableLength()) {
+            throw new IllegalArgumentException("bytes");
+        }
+        writePos += bytes;
+    }
+
+    /**
+     * Gets a view of the writable region of the buffer. After writing, the write position must be increased.
+     * @return
+     */
+    public ByteBuffer getWritableBuffer() {
+        ensureBuffer();
+        ByteBuffer writableBuffer = buffer.duplicate();
+        writableBuffer.limit(writableBuffer.capacity());
+        writableBuffer.position(writePos);
+        return writableBuffer;
+    }
+
+    /**
+     * Copies the source bytes to the buffer, up to its writable length.
+     * @param source
+     * @return The number of copied bytes.
+     */
+    public int write(ByteBuffer source) {
+        ensureBuffer();
+        int length = Math.min(source.remaining(), getWritableLength());
+        ByteBuffer sourceSlice = source.duplicate();
+        sourceSlice.limit(sourceSlice.position() + length);
+        ByteBuffer writableBuffer = getWritableBuffer();
+        writableBuffer.put(sourceSlice);
+        source.position(source.position() + length);
+        writePos += length;
+        return length;
+    }
+
+    /**
+     * Writes a single byte to the buffer.
+     * @param b
+     */
+    public void write(byte b) {
+        if (getWritableLength() == 0) {
+            throw new IllegalStateException("The buffer has no writable space");
+        }
+        buffer.put(writePos++, b);
+    }
+
+    /**
+     * Reads the available bytes from the stream to the writable region of the buffer.
+     * @param inputStream
+     * @return The number of read bytes or -1 if the stream reached its end.
+     */
+    public int read(InputStream inputStream) throws IOException {
+        ensureBuffer();
+        int read;
+        if (buffer.hasArray()) {
+            int writableLength = getWritableLength();
+            read = inputStream.read(buffer.array(), buffer.arrayOffset() + writePos, writableLength);
+            read = Math.min(read, writableLength);
+        } else {
+            byte[] readBuffer = streamReadBuffer.get();
+            read = inputStream.read(readBuffer, 0, Math.min(readBuffer.length, getWritableLength()));
+            if (read > 0) {
+                ByteBuffer writableBuffer = getWritableBuffer();
+                writableBuffer.put(readBuffer, 0, read);
+            }
+        }
+        if (read > 0) {
+            writePos += read;
+        }
+        return read;
+    }
+
+    /**
+     * Reads the available bytes from the channel to the writable region of the buffer.
+     * @param channel
+     * @return The number of read bytes or -1 if the channel reached its end.
+     */
+    public int read(ReadableByteChannel channel) throws IOException {
+        int read = channel.read(getWritableBuffer());
+        if (read > 0) {
+            writePos += read;
+        }
+        return read;
+    }
+
+    /**
+     * Gets the number of received bytes that were not extracted yet.
+     * @return
+     */
+    public int getBufferedLength() {
+        return writePos - readPos;
+    }
+
+    /**
+     * Removes the received bytes that were not extracted yet, resetting the scan state.
+     * Used when the following bytes must be decoded before the framing, like after enabling the compression.
+     * @return
+     */
+    public byte[] removeBufferedBytes() {
+        byte[] bufferedBytes = new byte[getBufferedLength()];
+        if (bufferedBytes.length > 0) {
+            ByteBuffer bufferedSlice = buffer.duplicate();
+            bufferedSlice.limit(writePos);
+            bufferedSlice.position(readPos);
+            bufferedSlice.get(bufferedBytes);
+        }
+        readPos = writePos;
+        scanPos = writePos;
+        jsonStackedBrackets = 0;
+        jsonStarted = false;
+        insideQuotes = false;
+        isEscaping = false;
+        return bufferedBytes;
+    }
+
+    /**
+     * Indicates if there's no space left in the buffer, even after compacting and growing it.
+     * @return
+     */
+    public boolean isFull() {
+        return buffer != null && readPos == 0 && writePos == buffer.capacity()
+                && buffer.capacity() >= Math.max(maxBufferSize, maxSpillSize);
+    }
+
+    /**
+     * Prepares the buffer for writing, leasing it from the pool if required.
+     * The unread bytes are moved to its start if the write position reached the end. If the buffer is filled
+     * with a single incomplete JSON, it is replaced by a bigger one up to the maximum buffer size and then by a
+     * spill file up to the maximum spill size. After the spilled JSON is read, the unread bytes are moved back to
+     * a pooled buffer.
+     * Invalidates the last extracted JSON view.
+     */
+    public void compact() {
+        if (buffer == null) {
+            ensureBuffer();
+        } else if (isSpilled && readPos > 0 && writePos - readPos <= maxBufferSize) {
+            int length = writePos - readPos;
+            ByteBuffer pooledBuffer = bufferPool.lease(Math.max(length, Math.min(bufferPool.getMinBufferSize(), maxBufferSize)));
+            copy(buffer, readPos, pooledBuffer, 0, length);
+            buffer = pooledBuffer;
+            isSpilled = false;
+            unmapSpillBuffer();
+            truncateSpillFile();
+            rewind(readPos);
+            writePos = length;
+        } else if (readPos == writePos) {
+            // Nothing to keep, rewinds without copying
+            rewind(readPos);
+            writePos = 0;
+        } else if (writePos == buffer.capacity()) {
+            if (readPos > 0) {
+                int length = writePos - readPos;
+                copy(buffer, readPos, buffer, 0, length);
+                rewind(readPos);
+                writePos = length;
+            } else if (buffer.capacity() < maxBufferSize) {
+                ByteBuffer biggerBuffer = bufferPool.lease(Math.min(buffer.capacity() * 2, maxBufferSize));
+                copy(buffer, 0, biggerBuffer, 0, writePos);
+                bufferPool.release(buffer);
+                buffer = biggerBuffer;
+            } else if (buffer.capacity() < maxSpillSize) {
+                int capacity = (int) Math.min(buffer.capacity() * 2L, maxSpillSize);
+                if (isSpilled) {
+                    // The bytes are already in the file, which is extended by the bigger mapping
+                    unmapSpillBuffer();
+                    buffer = mapSpillFile(capacity);
+                } else {
+                    ByteBuffer mappedBuffer = mapSpillFile(capacity);
+                    copy(buffer, 0, mappedBuffer, 0, writePos);
+                    bufferPool.release(buffer);
+                    buffer = mappedBuffer;
+                    isSpilled = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the buffer to the pool, discarding any unread bytes.
+     */
+    public void release() {
+        if (buffer != null) {
+            if (!isSpilled) {
+                bufferPool.release(buffer);
+            }
+            buffer = null;
+            isSpilled = false;
+        }
+        unmapSpillBuffer();
+        closeSpillFile();
+        readPos = 0;
+        writePos = 0;
+        scanPos = 0;
+        jsonStartPos = 0;
+        jsonStackedBrackets = 0;
+        jsonStarted = false;
+        insideQuotes = false;
+        isEscaping = false;
+    }
+
+    /**
+     * Scans the received bytes for the next JSON document.
+     * If found, its position is available through {@link #getJsonOffset()} and {@link #getJsonLength()}.
+     * @return
+     */
+    public boolean tryExtractJson() {
+        if (scanPos == writePos) {
+            return false;
+        }
+        boolean isBigEndian = buffer.order() == ByteOrder.BIG_ENDIAN;
+        // The heap buffers are read through the array, which is cheaper than the buffer methods
+        byte[] array = buffer.hasArray() ? buffer.array() : null;
+        int arrayOffset = buffer.hasArray() ? buffer.arrayOffset() : 0;
+        int i = scanPos;
+        while (i < writePos) {
+            if (insideQuotes && !isEscaping && i + 8 <= writePos) {
+                // The string content only changes the state on a quote or a backslash, so it is skipped a word at a time
+                long word = buffer.getLong(i);
+                if (isBigEndian) {
+                    word = Long.reverseBytes(word);
+                }
+                long matches = matchBytes(word, QUOTES) | matchBytes(word, BACKSLASHES);
+                if (matches == 0) {
+                    i += 8;
+                    continue;
+                }
+                i += Long.numberOfTrailingZeros(matches) >>> 3;
+            }
+            if (scan(i, array != null ? array[arrayOffset + i] : buffer.get(i))) {
+                return true;
+            }
+            i++;
+        }
+        scanPos = writePos;
+        // Discards the bytes outside a JSON document
+        readPos = jsonStarted ? jsonStartPos : writePos;
+        return false;
+    }
+
+    /**
+     * Gets the offset in the buffer of the last extracted JSON.
+     * @return
+     */
+    public int getJsonOffset() {
+        return jsonOffset;
+    }
+
+    /**
+     * Gets the length of the last extracted JSON.
+     * @return
+     */
+    public int getJsonLength() {
+        return jsonLength;
+    }
+
+    /**
+     * Gets a view of the last extracted JSON, sharing the buffer content.
+     * @return
+     */
+    public ByteBuffer getJsonSlice() {
+        ByteBuffer slice = buffer.duplicate();
+        slice.limit(jsonOffset + jsonLength);
+        slice.position(jsonOffset);
+        return slice.slice();
+    }
+
+    /**
+     * Decodes the last extracted JSON.
+     * @return
+     */
+    public String getJsonString() {
+        if (buffer.hasArray()) {
+            return new String(buffer.array(), buffer.arrayOffset() + jsonOffset, jsonLength, StandardCharsets.UTF_8);
+        }
+        return StandardCharsets.UTF_8.decode(getJsonSlice()).toString();
+    }
+
+    /**
+     * Updates the scan state with the byte of the specified position.
+     * @return true if the byte completes a JSON document.
+     */
+    private boolean scan(int i, byte b) {
+        if (b == '"' && !isEscaping) {
+            insideQuotes = !insideQuotes;
+        }
+
+        if (!insideQuotes) {
+            if (b == '{') {
+                jsonStackedBrackets++;
+                if (!jsonStarted) {
+                    jsonStartPos = i;
+                    jsonStarted = true;
+                }
+            } else if (b == '}' && jsonStarted) {
+                jsonStackedBrackets--;
+            }
+
+            if (jsonStarted && jsonStackedBrackets == 0) {
+                scanPos = i + 1;
+                readPos = scanPos;
+                jsonStarted = false;
+                insideQuotes = false;
+                isEscaping = false;
+                jsonOffset = jsonStartPos;
+                jsonLength = i - jsonStartPos + 1;
+                return true;
+            }
+        } else if (isEscaping) {
+            isEscaping = false;
+        } else if (b == '\\') {
+            isEscaping = true;
+        }
+        return false;
+    }
+
+    /**
+     * Sets the high bit of each byte of the word that is equal to the byte repeated in the pattern.
+     * Unlike the usual zero byte test, there are no false positives in the bytes after a match.
+     */
+    private static long matchBytes(long word, long pattern) {
+        long x = word ^ pattern;
+        return ~(((x & LOW_BITS) + LOW_BITS) | x | LOW_BITS);
+    }
+
+    private void ensureBuffer() {
+        if (buffer == null) {
+            buffer = bufferPool.lease(Math.min(bufferPool.getMinBufferSize(), maxBufferSize));
+        }
+    }
+
+    /**
+     * Maps the spill file with the specified capacity, creating the file on the first spill.
+     * The file is sparse, so only the written bytes use disk space.
+     */
+    private MappedByteBuffer mapSpillFile(int capacity) {
+        try {
+            if (spillChannel == null) {
+                Path path = Files.createTempFile("lime-envelope-", ".json");
+                spillChannel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+            }
+            spillBuffer = spillChannel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+            return spillBuffer;
+        } catch (IOException e) {
+            closeSpillFile();
+            throw new UncheckedIOException("Could not map the spill file", e);
+        }
+    }
+
+    private void unmapSpillBuffer() {
+        if (spillBuffer != null) {
+            MappedBuffers.unmap(spillBuffer);
+            spillBuffer = null;
+        }
+    }
+
+    private void truncateSpillFile() {
+        try {
+            spillChannel.truncate(0);
+        } catch (IOException e) {
+            closeSpillFile();
+        }
+    }
+
+    private void closeSpillFile() {
+        if (spillChannel != null) {
+            try {
+                spillChannel.close();
+            } catch (IOException e) {
+                // Nothing else to release
+            }
+            spillChannel = null;
+        }
+    }
+
+    private void rewind(int offset) {
+        scanPos -= offset;
+        jsonStartPos -= offset;
+        readPos = 0;
+    }
+
+    private static void copy(ByteBuffer source, int sourceOffset, ByteBuffer target, int targetOffset, int length) {
+        ByteBuffer sourceSlice = source.duplicate();
+        sourceSlice.limit(sourceOffset + length);
+        sourceSlice.position(sourceOffset);
+        ByteBuffer targetSlice = target.duplicate();
+        targetSlice.limit(target.capacity());
+        targetSlice.position(targetOffset);
+        targetSlice.put(sourceSlice);
+    }
+}
@@ -0,0 +1,225 @@
+package org.limeprotocol.network;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of receive buffers shared by many transports.
+ * The buffers are grouped in size classes, doubling from the minimum to the maximum buffer size, and can be
+ * allocated in the heap or off-heap (direct). The released buffers are kept for reuse while the pooled bytes are
+ * below the configured limit.
+ */
+public class TransportBufferPool {
+
+    public final static int DEFAULT_MIN_BUFFER_SIZE = 4096;
+    public final static int DEFAULT_MAX_BUFFER_SIZE = 1024 * 1024;
+    public final static long DEFAULT_MAX_POOLED_BYTES = 32 * 1024 * 1024;
+
+    private static final Object syncRoot = new Object();
+    private static TransportBufferPool defaultPool;
+    private static TransportBufferPool defaultHeapPool;
+
+    private final boolean direct;
+    private final int[] sizeClasses;
+    private final Queue<ByteBuffer>[] pooledBuffers;
+    private final long maxPooledBytes;
+    private final AtomicLong pooledBytes;
+    private final AtomicLong pooledCount;
+    private final AtomicLong leasedBytes;
+    private final AtomicLong leasedCount;
+
+    public TransportBufferPool() {
+        this(true);
+    }
+
+    public TransportBufferPool(boolean direct) {
+        this(direct, DEFAULT_MIN_BUFFER_SIZE, DEFAULT_MAX_BUFFER_SIZE, DEFAULT_MAX_POOLED_BYTES);
+    }
+
+    @SuppressWarnings("unchecked")
+    public TransportBufferPool(boolean direct, int minBufferSize, int maxBufferSize, long maxPooledBytes) {
+        if (minBufferSize <= 0) {
+            throw new IllegalArgumentException("minBufferSize");
+        }
+        if (maxBufferSize < minBufferSize) {
+            throw new IllegalArgumentException("maxBufferSize");
+        }
+        if (maxPooledBytes < 0) {
+            throw new IllegalArgumentException("maxPooledBytes");
+        }
+        this.direct = direct;
+        this.maxPooledBytes = maxPooledBytes;
+
+        List<Integer> sizes = new ArrayList<>();
+        long size = minBufferSize;
+        while (size < maxBufferSize) {
+            sizes.add((int) size);
+            size *= 2;
+        }
+        sizes.add(maxBufferSize);
+        this.sizeClasses = new int[sizes.size()];
+        this.pooledBuffers = new Queue[sizes.size()];
+        for (int i = 0; i < sizeClasses.length; i++) {
+            sizeClasses[i] = sizes.get(i);
+            pooledBuffers[i] = new ConcurrentLinkedQueue<>();
+        }
+
+        this.pooledBytes = new AtomicLong();
+        this.pooledCount = new AtomicLong();
+        this.leasedBytes = new AtomicLong();
+        this.leasedCount = new AtomicLong();
+    }
+
+    /**
+     * Gets the default direct pool, shared by the channel based transports created without an explicit pool.
+     * @return
+     */
+    public static TransportBufferPool getDefault() {
+        synchronized (syncRoot) {
+            if (defaultPool == null) {
+                defaultPool = new TransportBufferPool(true);
+            }
+            return defaultPool;
+        }
+    }
+
+    /**
+     * Gets the default heap pool, shared by the stream based transports created without an explicit pool.
+     * The streams read into arrays, so a direct buffer would need an extra copy of the received bytes.
+     * @return
+     */
+    public static TransportBufferPool getDefaultHeap() {
+        synchronized (syncRoot) {
+            if (defaultHeapPool == null) {
+                defaultHeapPool = new TransportBufferPool(false);
+            }
+            return defaultHeapPool;
+        }
+    }
+
+    /**
+     * Leases a cleared buffer with at least the specified capacity.
+     * Buffers bigger than the maximum buffer size are allocated on demand and are not pooled.
+     * @param minCapacity
+     * @return
+     */
+    public ByteBuffer lease(int minCapacity) {
+        if (minCapacity <= 0) {
+            throw new IllegalArgumentException("minCapacity");
+        }
+        ByteBuffer buffer;
+        int sizeClass = getSizeClass(minCapacity);
+        if (sizeClass >= 0) {
+            buffer = pooledBuffers[sizeClass].poll();
+            if (buffer != null) {
+                pooledBytes.addAndGet(-buffer.capacity());
+                pooledCount.decrementAndGet();
+                buffer.clear();
+            } else {
+                buffer = allocate(sizeClasses[sizeClass]);
+            }
+        } else {
+            buffer = allocate(minCapacity);
+        }
+        leasedBytes.addAndGet(buffer.capacity());
+        leasedCount.incrementAndGet();
+        return buffer;
+    }
+
+    /**
+     * Returns a leased buffer to the pool. The buffer must not be used after being released.
+     * @param buffer
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer == null) {
+            throw new IllegalArgumentException("buffer");
+        }
+        leasedBytes.addAndGet(-buffer.capacity());
+        leasedCount.decrementAndGet();
+
+        int sizeClass = getSizeClass(buffer.capacity());
+        if (sizeClass < 0 || sizeClasses[sizeClass] != buffer.capacity() || buffer.isDirect() != direct) {
+            return;
+        }
+        if (pooledBytes.addAndGet(buffer.capacity()) <= maxPooledBytes) {
+            pooledCount.incrementAndGet();
+            pooledBuffers[sizeClass].add(buffer);
+        } else {
+            // The pool is full, let the buffer be collected
+            pooledBytes.addAndGet(-buffer.capacity());
+        }
+    }
+
+    /**
+     * Indicates if the pool allocates off-heap buffers.
+     * @return
+     */
+    public boolean isDirect() {
+        return direct;
+    }
+
+    /**
+     * Gets the capacity of the smallest buffer of the pool.
+     * @return
+     */
+    public int getMinBufferSize() {
+        return sizeClasses[0];
+    }
+
+    /**
+     * Gets the capacity of the biggest pooled buffer.
+     * @return
+     */
+    public int getMaxBufferSize() {
+        return sizeClasses[sizeClasses.length - 1];
+    }
+
+    /**
+     * Gets the number of buffers currently leased by the transports.
+     * @return
+     */
+    public long getLeasedCount() {
+        return leasedCount.get();
+    }
+
+    /**
+     * Gets the capacity sum of the buffers currently leased by the transports.
+     * @return
+     */
+    public long getLeasedBytes() {
+        return leasedBytes.get();
+    }
+
+    /**
+     * Gets the number of idle buffers kept by the pool.
+     * @return
+     */
+    public long getPooledCount() {
+        return pooledCount.get();
+    }
+
+    /**
+     * Gets the capacity sum of the idle buffers kept by the pool.
+     * @return
+     */
+    public long getPooledBytes() {
+        return pooledBytes.get();
+    }
+
+    private int getSizeClass(int capacity) {
+        for (int i = 0; i < sizeClasses.length; i++) {
+            if (sizeClasses[i] >= capacity) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private ByteBuffer allocate(int capacity) {
+        return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+}
@@ -0,0 +1,56 @@
+package org.limeprotocol.network.tcp;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes the envelopes of a session as a single GZIP member.
+ * The deflater is sync flushed after each envelope, so the remote node can inflate it without waiting for the
+ * next ones. The flushed bytes are written to the underlying stream, which is flushed only by {@link #flush()}.
+ */
+class GzipEnvelopeOutputStream extends GZIPOutputStream {
+
+    private static final byte[] EMPTY_INPUT = new byte[0];
+
+    private int level;
+
+    GzipEnvelopeOutputStream(OutputStream outputStream, int bufferSize) throws IOException {
+        super(outputStream, bufferSize);
+        this.level = Deflater.DEFAULT_COMPRESSION;
+    }
+
+    /**
+     * Compresses the envelope with the specified level and sync flushes the deflater.
+     * @param buffer
+     * @param offset
+     * @param length
+     * @param level The compression level, from {@link Deflater#NO_COMPRESSION} to {@link Deflater#BEST_COMPRESSION}.
+     */
+    void writeEnvelope(byte[] buffer, int offset, int length, int level) throws IOException {
+        setLevel(level);
+        write(buffer, offset, length);
+        int deflatedLength;
+        while ((deflatedLength = def.deflate(buf, 0, buf.length, Deflater.SYNC_FLUSH)) > 0) {
+            out.write(buf, 0, deflatedLength);
+            if (deflatedLength < buf.length) {
+                break;
+            }
+        }
+    }
+
+    private void setLevel(int level) throws IOException {
+        if (level != this.level) {
+            def.setLevel(level);
+            // The deflater applies the new level in its next call, so it is called without input to
+            // avoid compressing the envelope with the previous level
+            def.setInput(EMPTY_INPUT);
+            int length = def.deflate(buf, 0, buf.length, Deflater.NO_FLUSH);
+            if (length > 0) {
+                out.write(buf, 0, length);
+            }
+            this.level = level;
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package org.limeprotocol.network.tcp;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * A single selector thread that multiplexes the I/O readiness events of many channels.
+ * All the handler callbacks and the submitted tasks are executed in the loop thread.
+ */
+class NioEventLoop implements Runnable {
+
+    private final Selector selector;
+    private final Queue<Runnable> tasks;
+    private final Thread thread;
+    private volatile boolean isStopping;
+
+    NioEventLoop(String threadName) throws IOException {
+        this.selector = Selector.open();
+        this.tasks = new ConcurrentLinkedQueue<>();
+        this.thread = new Thread(this, threadName);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Indicates if the current thread is the loop thread.
+     * @return
+     */
+    boolean inEventLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * Executes the task in the loop thread.
+     * @param task
+     */
+    void execute(Runnable task) {
+        if (task == null) {
+            throw new IllegalArgumentException("task");
+        }
+        if (isStopping) {
+            throw new IllegalStateException("The event loop is stopped");
+        }
+        tasks.add(task);
+        if (!inEventLoop()) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * Registers the channel in the loop selector, using the specified handler for the readiness events.
+     * @param channel
+     * @param interestOps
+     * @param handler
+     * @return
+     */
+    SelectionKey register(final SelectableChannel channel, final int interestOps, final Handler handler) throws IOException {
+        if (inEventLoop()) {
+            return channel.register(selector, interestOps, handler);
+        }
+
+        final CompletableFuture<SelectionKey> future = new CompletableFuture<>();
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    future.complete(channel.register(selector, interestOps, handler));
+                } catch (ClosedChannelException e) {
+                    future.completeExceptionally(e);
+                }
+            }
+        });
+
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while registering the channel", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Could not register the channel", e.getCause());
+        }
+    }
+
+    /**
+     * Changes the interest set of a registered key, waking up the selector if required.
+     * @param key
+     * @param interestOps
+     */
+    void setInterestOps(SelectionKey key, int interestOps) {
+        try {
+            if (key.isValid() && key.interestOps() != interestOps) {
+                key.interestOps(interestOps);
+                if (!inEventLoop()) {
+                    selector.wakeup();
+                }
+            }
+        } catch (CancelledKeyException e) {
+            // The channel was closed concurrently
+        }
+    }
+
+    void stop() {
+        isStopping = true;
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        while (!isStopping) {
+            try {
+                if (tasks.isEmpty()) {
+                    selector.select();
+                } else {
+                    selector.selectNow();
+                }
+                runTasks();
+
+                Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+                while (iterator.hasNext()) {
+                    SelectionKey key = iterator.next();
+                    iterator.remove();
+                    Handler handler = (Handler) key.attachment();
+                    try {
+                        if (key.isValid() && key.isReadable()) {
+                            handler.onReadable();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            handler.onWritable();
+                        }
+                    } catch (CancelledKeyException e) {
+                        // The channel was closed by the handler
+                    } catch (Exception e) {
+                        handler.onFailure(e);
+                    }
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+
+        try {
+            for (SelectionKey key : selector.keys()) {
+                key.channel().close();
+            }
+            selector.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Defines a handler for the readiness events of a registered channel.
+     */
+    interface Handler {
+        void onReadable() throws IOException;
+
+        void onWritable() throws IOException;
+
+        void onFailure(Exception e);
+    }
+}
@@ -0,0 +1,78 @@
+package org.limeprotocol.network.tcp;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A group of selector threads shared by many {@link NioTcpTransport} instances.
+ * Each transport is bound to a single loop of the group, chosen in a round-robin fashion.
+ */
+public class NioEventLoopGroup implements Closeable {
+
+    private static final Object syncRoot = new Object();
+    private static NioEventLoopGroup defaultGroup;
+
+    private final NioEventLoop[] eventLoops;
+    private final AtomicInteger nextIndex;
+
+    public NioEventLoopGroup() throws IOException {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public NioEventLoopGroup(int threadCount) throws IOException {
+        if (threadCount <= 0) {
+            throw new IllegalArgumentException("threadCount");
+        }
+        this.eventLoops = new NioEventLoop[threadCount];
+        this.nextIndex = new AtomicInteger();
+        int groupId = System.identityHashCode(this);
+        for (int i = 0; i < threadCount; i++) {
+            eventLoops[i] = new NioEventLoop(String.format("lime-nio-%x-%d", groupId, i));
+        }
+    }
+
+    /**
+     * Gets the number of selector threads of the group.
+     * @return
+     */
+    public int getThreadCount() {
+        return eventLoops.length;
+    }
+
+    /**
+     * Gets the default group, shared by all transports created without an explicit group.
+     * @return
+     */
+    public static NioEventLoopGroup getDefault() {
+        synchronized (syncRoot) {
+            if (defaultGroup == null) {
+                try {
+                    defaultGroup = new NioEventLoopGroup();
+                } catch (IOException e) {
+                    throw new RuntimeException("Could not create the default event loop group", e);
+                }
+            }
+            return defaultGroup;
+        }
+    }
+
+    /**
+     * Stops all the loops of the group, closing the registered channels.
+     */
+    @Override
+    public void close() {
+        synchronized (syncRoot) {
+            if (defaultGroup == this) {
+                defaultGroup = null;
+            }
+        }
+        for (NioEventLoop eventLoop : eventLoops) {
+            eventLoop.stop();
+        }
+    }
+
+    NioEventLoop next() {
+        return eventLoops[(nextIndex.getAndIncrement() & Integer.MAX_VALUE) % eventLoops.length];
+    }
+}
@@ -0,0 +1,648 @@
+package org.limeprotocol.network.tcp;
+
+import org.limeprotocol.Envelope;
+import org.limeprotocol.SessionEncryption;
+import org.limeprotocol.network.JsonRingBuffer;
+import org.limeprotocol.network.TransportBufferPool;
+import org.limeprotocol.network.TraceWriter;
+import org.limeprotocol.network.Transport;
+import org.limeprotocol.network.TransportBase;
+import org.limeprotocol.serialization.EnvelopeSerializer;
+import org.limeprotocol.serialization.JacksonEnvelopeSerializer;
+
+import javax.net.ssl.*;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.security.KeyManagementException;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static javax.net.ssl.SSLEngineResult.HandshakeStatus;
+import static javax.net.ssl.SSLEngineResult.Status;
+
+/**
+ * Non-blocking TCP transport implementation, that shares the selector threads of a {@link NioEventLoopGroup}
+ * between many connections instead of using a listener thread per connection.
+ * The envelope listener is invoked in the loop thread, so it should not block.
+ * It can be used in the client channel builder with {@code ClientChannelBuilderImpl.create(NioTcpTransport::new, uri)}.
+ */
+public class NioTcpTransport extends TransportBase implements Transport {
+
+    public final static int DEFAULT_BUFFER_SIZE = TcpTransport.DEFAULT_BUFFER_SIZE;
+    public final static long HANDSHAKE_TIMEOUT_MILLIS = 30000;
+    private final static int MAX_PENDING_WRITE_BYTES = 4 * 1024 * 1024;
+    private final static ByteBuffer EMPTY_BUFFER = ByteBuffer.allocate(0);
+
+    private final EnvelopeSerializer envelopeSerializer;
+    private final NioEventLoopGroup eventLoopGroup;
+    private final X509TrustManager trustManager;
+    private final TraceWriter traceWriter;
+    private final TransportBufferPool bufferPool;
+    private final int bufferSize;
+    private final ChannelHandler channelHandler;
+    private final Object writeLock;
+    private final Queue<ByteBuffer> pendingWrites;
+    private final Queue<ByteBuffer> pendingHandshakeWrites;
+
+    private SocketChannel socketChannel;
+    private NioEventLoop eventLoop;
+    private volatile SelectionKey selectionKey;
+    private volatile boolean isConnected;
+    private JsonRingBuffer jsonBuffer;
+    private volatile int maxSpilledEnvelopeSize;
+    private URI uri;
+
+    private volatile SSLEngine sslEngine;
+    private volatile boolean isHandshaking;
+    private CompletableFuture<Void> handshakeFuture;
+    private ByteBuffer netInBuffer;
+    private ByteBuffer appInBuffer;
+    private ByteBuffer netOutBuffer;
+    private int pendingWriteBytes;
+
+    public NioTcpTransport() {
+        this(new JacksonEnvelopeSerializer());
+    }
+
+    public NioTcpTransport(EnvelopeSerializer envelopeSerializer) {
+        this(envelopeSerializer, NioEventLoopGroup.getDefault());
+    }
+
+    public NioTcpTransport(EnvelopeSerializer envelopeSerializer, NioEventLoopGroup eventLoopGroup) {
+        this(envelopeSerializer, eventLoopGroup, null, null);
+    }
+
+    public NioTcpTransport(EnvelopeSerializer envelopeSerializer, NioEventLoopGroup eventLoopGroup, X509TrustManager trustManager, TraceWriter traceWriter) {
+        this(envelopeSerializer, eventLoopGroup, trustManager, traceWriter, TransportBufferPool.getDefault(), DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Creates a transport with a dedicated receive buffer of fixed size.
+     */
+    public NioTcpTransport(EnvelopeSerializer envelopeSerializer, NioEventLoopGroup eventLoopGroup, X509TrustManager trustManager, TraceWriter traceWriter, int bufferSize) {
+        this(envelopeSerializer, eventLoopGroup, trustManager, traceWriter, new TransportBufferPool(true, bufferSize, bufferSize, bufferSize), bufferSize);
+    }
+
+    /**
+     * Creates a transport that leases its receive buffer from the specified pool on each read.
+     * The buffer grows on demand up to the maximum envelope size and is returned to the pool once all the received
+     * envelopes were dispatched.
+     */
+    public NioTcpTransport(EnvelopeSerializer envelopeSerializer, NioEventLoopGroup eventLoopGroup, X509TrustManager trustManager, TraceWriter traceWriter, TransportBufferPool bufferPool, int maxEnvelopeSize) {
+        if (envelopeSerializer == null) {
+            throw new IllegalArgumentException("envelopeSerializer");
+        }
+        if (eventLoopGroup == null) {
+            throw new IllegalArgumentException("eventLoopGroup");
+        }
+        if (bufferPool == null) {
+            throw new IllegalArgumentException("bufferPool");
+        }
+        this.bufferPool = bufferPool;
+        this.envelopeSerializer = envelopeSerializer;
+        this.eventLoopGroup = eventLoopGroup;
+        this.trustManager = trustManager;
+        this.traceWriter = traceWriter;
+        this.bufferSize = maxEnvelopeSize;
+        this.channelHandler = new ChannelHandler();
+        this.writeLock = new Object();
+        this.pendingWrites = new ArrayDeque<>();
+        this.pendingHandshakeWrites = new ArrayDeque<>();
+    }
+
+    /**
+     * Gets the maximum size of the received envelopes that are spilled to a temporary file.
+     * @return
+     */
+    public int getMaxSpilledEnvelopeSize() {
+        return maxSpilledEnvelopeSize;
+    }
+
+    /**
+     * Sets the maximum size of the received envelopes that are spilled to a temporary file, instead of closing
+     * the transport, when bigger than the maximum envelope size. Zero disables the spill.
+     * Applied to the connections opened after it is set.
+     * @param maxSpilledEnvelopeSize
+     */
+    public void setMaxSpilledEnvelopeSize(int maxSpilledEnvelopeSize) {
+        if (maxSpilledEnvelopeSize < 0) {
+            throw new IllegalArgumentException("maxSpilledEnvelopeSize");
+        }
+        this.maxSpilledEnvelopeSize = maxSpilledEnvelopeSize;
+    }
+
+    /**
+     * Checks if the client is connected based on the channel state.
+     * @return
+     */
+    @Override
+    public boolean isConnected() {
+        return isConnected && socketChannel != null && socketChannel.isOpen();
+    }
+
+    /**
+     * Sends an envelope to the remote node.
+     * The envelope is written directly to the socket if possible, or queued for writing by the loop thread.
+     *
+     * @param envelope
+     */
+    @Override
+    public void send(Envelope envelope) throws IOException {
+        if (envelope == null) {
+            throw new IllegalArgumentException("envelope");
+        }
+        ensureSocketOpen();
+        SendBuffer sendBuffer = SendBuffer.forCurrentThread();
+        envelopeSerializer.serialize(envelope, sendBuffer);
+        ByteBuffer envelopeBuffer = sendBuffer.toByteBuffer();
+
+        try {
+            synchronized (writeLock) {
+                waitForPendingWrites();
+                if (isHandshaking) {
+                    pendingHandshakeWrites.add(ByteBuffer.wrap(sendBuffer.toByteArray()));
+                } else {
+                    writeApplicationData(envelopeBuffer);
+                }
+            }
+
+            if (traceWriter != null && traceWriter.isEnabled()) {
+                traceWriter.trace(sendBuffer.toUtf8String(), TraceWriter.DataOperation.SEND);
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    @Override
+    public void setEnvelopeListener(TransportEnvelopeListener listener) {
+        super.setEnvelopeListener(listener);
+        if (selectionKey != null) {
+            if (listener != null) {
+                // Process the envelopes that were buffered while there was no listener
+                eventLoop.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            dispatchEnvelopes();
+                            updateInterestOps();
+                        } catch (Exception e) {
+                            channelHandler.onFailure(e);
+                        }
+                    }
+                });
+            } else {
+                updateInterestOps();
+            }
+        }
+    }
+
+    /**
+     * Enumerates the supported encryption options for the transport.
+     *
+     * @return
+     */
+    @Override
+    public SessionEncryption[] getSupportedEncryption() {
+        return new SessionEncryption[]{SessionEncryption.NONE, SessionEncryption.TLS};
+    }
+
+    /**
+     * Defines the encryption mode for the transport.
+     * The TLS handshake is performed by the loop thread. If this method is called outside the loop, it awaits for
+     * the handshake completion; otherwise, the envelopes sent before the handshake completion are queued.
+     *
+     * @param encryption
+     */
+    @Override
+    public void setEncryption(SessionEncryption encryption) throws IOException {
+        switch (encryption) {
+            case TLS:
+                if (sslEngine == null) {
+                    ensureSocketOpen();
+                    CompletableFuture<Void> future = startTls();
+                    if (!eventLoop.inEventLoop()) {
+                        awaitHandshake(future);
+                    }
+                }
+                break;
+            case NONE:
+                if (sslEngine != null) {
+                    throw new IllegalStateException("Cannot downgrade an encrypted connection");
+                }
+                break;
+        }
+        super.setEncryption(encryption);
+    }
+
+    /**
+     * Opens the transport connection with the specified Uri.
+     *
+     * @param uri
+     */
+    @Override
+    protected void performOpen(URI uri) throws IOException {
+        if (uri == null) {
+            throw new IllegalArgumentException("uri");
+        }
+
+        if (!uri.getScheme().equals("net.tcp")) {
+            throw new IllegalArgumentException("Invalid URI scheme. Expected is 'net.tcp'", null);
+        }
+
+        if (socketChannel != null) {
+            throw new IllegalStateException("The client is already open");
+        }
+
+        SocketChannel channel = SocketChannel.open();
+        try {
+            channel.connect(new InetSocketAddress(uri.getHost(), uri.getPort()));
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            channel.configureBlocking(false);
+
+            this.uri = uri;
+            this.jsonBuffer = new JsonRingBuffer(bufferPool, bufferSize, maxSpilledEnvelopeSize);
+            this.eventLoop = eventLoopGroup.next();
+            this.socketChannel = channel;
+            this.isConnected = true;
+            this.selectionKey = eventLoop.register(channel, 0, channelHandler);
+            updateInterestOps();
+        } catch (IOException e) {
+            isConnected = false;
+            channel.close();
+            throw e;
+        }
+    }
+
+    @Override
+    protected void performClose() throws IOException {
+        isConnected = false;
+        synchronized (writeLock) {
+            pendingWrites.clear();
+            pendingHandshakeWrites.clear();
+            pendingWriteBytes = 0;
+            writeLock.notifyAll();
+        }
+        if (handshakeFuture != null && !handshakeFuture.isDone()) {
+            handshakeFuture.completeExceptionally(new IOException("The transport was closed"));
+        }
+        if (socketChannel != null) {
+            socketChannel.close();
+            releaseBuffer();
+        }
+    }
+
+    private void releaseBuffer() {
+        Runnable releaseTask = new Runnable() {
+            @Override
+            public void run() {
+                jsonBuffer.release();
+            }
+        };
+        if (eventLoop.inEventLoop()) {
+            releaseTask.run();
+        } else {
+            try {
+                eventLoop.execute(releaseTask);
+            } catch (IllegalStateException e) {
+                // The loop was stopped, the buffer is left to be collected
+            }
+        }
+    }
+
+    private void ensureSocketOpen() {
+        if (socketChannel == null) {
+            throw new IllegalStateException("The client is not open");
+        }
+    }
+
+    private void updateInterestOps() {
+        SelectionKey key = selectionKey;
+        if (key == null) {
+            return;
+        }
+        int interestOps = 0;
+        if (getEnvelopeListener() != null || isHandshaking) {
+            interestOps |= SelectionKey.OP_READ;
+        }
+        synchronized (writeLock) {
+            if (!pendingWrites.isEmpty()) {
+                interestOps |= SelectionKey.OP_WRITE;
+            }
+        }
+        eventLoop.setInterestOps(key, interestOps);
+    }
+
+    /**
+     * Extracts and raises the buffered envelopes while there's a registered listener.
+     */
+    private void dispatchEnvelopes() {
+        while (isConnected && getEnvelopeListener() != null) {
+            if (!jsonBuffer.tryExtractJson()) {
+                break;
+            }
+            if (traceWriter != null && traceWriter.isEnabled()) {
+                traceWriter.trace(jsonBuffer.getJsonString(), TraceWriter.DataOperation.RECEIVE);
+            }
+            raiseOnReceive(envelopeSerializer.deserialize(jsonBuffer.getJsonSlice()));
+        }
+        if (jsonBuffer.getBufferedLength() == 0) {
+            // Returns the buffer to the pool until the next read
+            jsonBuffer.release();
+        }
+    }
+
+    private void readPlainData() throws IOException {
+        ensureBufferWritable();
+        if (jsonBuffer.read(socketChannel) == -1) {
+            close();
+        }
+    }
+
+    private void readEncryptedData() throws IOException {
+        int read = socketChannel.read(netInBuffer);
+        if (read == -1) {
+            close();
+            return;
+        }
+
+        netInBuffer.flip();
+        try {
+            while (netInBuffer.hasRemaining()) {
+                SSLEngineResult result = sslEngine.unwrap(netInBuffer, appInBuffer);
+                transferApplicationData();
+                if (result.getStatus() == Status.BUFFER_OVERFLOW) {
+                    continue;
+                }
+                if (result.getStatus() == Status.BUFFER_UNDERFLOW) {
+                    int packetBufferSize = sslEngine.getSession().getPacketBufferSize();
+                    if (netInBuffer.capacity() < packetBufferSize) {
+                        ByteBuffer buffer = ByteBuffer.allocate(packetBufferSize);
+                        buffer.put(netInBuffer);
+                        buffer.flip();
+                        netInBuffer = buffer;
+                    }
+                    break;
+                }
+                if (result.getStatus() == Status.CLOSED) {
+                    close();
+                    return;
+                }
+                processHandshakeStatus(result.getHandshakeStatus());
+                if (result.bytesConsumed() == 0 && result.bytesProduced() == 0) {
+                    break;
+                }
+            }
+        } finally {
+            netInBuffer.compact();
+        }
+    }
+
+    /**
+     * Moves the decrypted data to the json buffer.
+     */
+    private void transferApplicationData() {
+        appInBuffer.flip();
+        while (appInBuffer.hasRemaining()) {
+            ensureBufferWritable();
+            jsonBuffer.write(appInBuffer);
+        }
+        appInBuffer.clear();
+    }
+
+    private void ensureBufferWritable() {
+        jsonBuffer.compact();
+        if (jsonBuffer.isFull()) {
+            throw new BufferOverflowException("Maximum buffer size reached");
+        }
+    }
+
+    private CompletableFuture<Void> startTls() throws IOException {
+        final SSLEngine engine = getSslContext().createSSLEngine(uri.getHost(), uri.getPort());
+        engine.setUseClientMode(true);
+        engine.setEnabledCipherSuites(engine.getSupportedCipherSuites());
+
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        handshakeFuture = future;
+        eventLoop.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    SSLSession session = engine.getSession();
+                    netInBuffer = ByteBuffer.allocate(session.getPacketBufferSize());
+                    appInBuffer = ByteBuffer.allocate(session.getApplicationBufferSize());
+                    synchronized (writeLock) {
+                        netOutBuffer = ByteBuffer.allocate(session.getPacketBufferSize());
+                        sslEngine = engine;
+                        isHandshaking = true;
+                    }
+                    engine.beginHandshake();
+                    processHandshakeStatus(engine.getHandshakeStatus());
+                    updateInterestOps();
+                } catch (Exception e) {
+                    future.completeExceptionally(e);
+                    channelHandler.onFailure(e);
+                }
+            }
+        });
+        return future;
+    }
+
+    private void awaitHandshake(CompletableFuture<Void> future) throws IOException {
+        try {
+            future.get(HANDSHAKE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            close();
+            throw new IOException("Interrupted while awaiting the TLS handshake", e);
+        } catch (ExecutionException e) {
+            close();
+            throw new IOException("The TLS handshake has failed", e.getCause());
+        } catch (TimeoutException e) {
+            close();
+            throw new IOException("The TLS handshake has timed out", e);
+        }
+    }
+
+    private void processHandshakeStatus(HandshakeStatus handshakeStatus) throws IOException {
+        while (true) {
+            switch (handshakeStatus) {
+                case NEED_TASK:
+                    Runnable task;
+                    while ((task = sslEngine.getDelegatedTask()) != null) {
+                        task.run();
+                    }
+                    handshakeStatus = sslEngine.getHandshakeStatus();
+                    break;
+                case NEED_WRAP:
+                    handshakeStatus = wrapHandshakeData();
+                    break;
+                case FINISHED:
+                    onHandshakeFinished();
+                    return;
+                default:
+                    return;
+            }
+        }
+    }
+
+    private HandshakeStatus wrapHandshakeData() throws IOException {
+        synchronized (writeLock) {
+            SSLEngineResult result = wrap(EMPTY_BUFFER);
+            return result.getHandshakeStatus();
+        }
+    }
+
+    private void onHandshakeFinished() throws IOException {
+        synchronized (writeLock) {
+            isHandshaking = false;
+            ByteBuffer buffer;
+            while ((buffer = pendingHandshakeWrites.poll()) != null) {
+                writeApplicationData(buffer);
+            }
+        }
+        updateInterestOps();
+        if (handshakeFuture != null) {
+            handshakeFuture.complete(null);
+        }
+    }
+
+    /**
+     * Writes the application data to the socket, encrypting it if required. Must be called holding the write lock.
+     * @param buffer
+     */
+    private void writeApplicationData(ByteBuffer buffer) throws IOException {
+        if (sslEngine == null) {
+            writeOrEnqueue(buffer);
+            return;
+        }
+        while (buffer.hasRemaining()) {
+            SSLEngineResult result = wrap(buffer);
+            if (result.getStatus() == Status.CLOSED) {
+                throw new IOException("The TLS session is closed");
+            }
+        }
+    }
+
+    /**
+     * Wraps the source data and writes the produced packet. Must be called holding the write lock.
+     * @param source
+     * @return
+     */
+    private SSLEngineResult wrap(ByteBuffer source) throws IOException {
+        while (true) {
+            netOutBuffer.clear();
+            SSLEngineResult result = sslEngine.wrap(source, netOutBuffer);
+            if (result.getStatus() == Status.BUFFER_OVERFLOW) {
+                netOutBuffer = ByteBuffer.allocate(netOutBuffer.capacity() * 2);
+                continue;
+            }
+            netOutBuffer.flip();
+            writeOrEnqueue(netOutBuffer);
+            return result;
+        }
+    }
+
+    /**
+     * Writes the buffer to the socket, enqueuing the remaining data for the loop thread. Must be called holding the write lock.
+     * @param buffer
+     */
+    private void writeOrEnqueue(ByteBuffer buffer) throws IOException {
+        if (pendingWrites.isEmpty()) {
+            socketChannel.write(buffer);
+        }
+        if (buffer.hasRemaining()) {
+            ByteBuffer pendingBuffer = ByteBuffer.allocate(buffer.remaining());
+            pendingBuffer.put(buffer);
+            pendingBuffer.flip();
+            pendingWrites.add(pendingBuffer);
+            pendingWriteBytes += pendingBuffer.remaining();
+            updateInterestOps();
+        }
+    }
+
+    /**
+     * Blocks the sender while the pending writes are above the limit. The loop thread is never blocked.
+     * Must be called holding the write lock.
+     */
+    private void waitForPendingWrites() throws IOException {
+        if (eventLoop.inEventLoop()) {
+            return;
+        }
+        while (pendingWriteBytes > MAX_PENDING_WRITE_BYTES && isConnected) {
+            try {
+                writeLock.wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for the pending writes", e);
+            }
+        }
+        if (!isConnected) {
+            throw new IOException("The transport is closed");
+        }
+    }
+
+    private SSLContext getSslContext() throws IOException {
+        try {
+            if (trustManager != null) {
+                SSLContext sslContext = SSLContext.getInstance("SSL");
+                sslContext.init(null, new TrustManager[]{trustManager}, null);
+                return sslContext;
+            }
+            return SSLContext.getDefault();
+        } catch (NoSuchAlgorithmException | KeyManagementException e) {
+            throw new IOException("Could not create the TLS context", e);
+        }
+    }
+
+    private class ChannelHandler implements NioEventLoop.Handler {
+
+        @Override
+        public void onReadable() throws IOException {
+            if (sslEngine == null) {
+                readPlainData();
+            } else {
+                readEncryptedData();
+            }
+            dispatchEnvelopes();
+        }
+
+        @Override
+        public void onWritable() throws IOException {
+            synchronized (writeLock) {
+                ByteBuffer buffer;
+                while ((buffer = pendingWrites.peek()) != null) {
+                    int written = socketChannel.write(buffer);
+                    pendingWriteBytes -= written;
+                    if (buffer.hasRemaining()) {
+                        break;
+                    }
+                    pendingWrites.remove();
+                }
+                writeLock.notifyAll();
+            }
+            updateInterestOps();
+        }
+
+        @Override
+        public void onFailure(Exception e) {
+            try {
+                close();
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+            raiseOnException(e);
+        }
+    }
+}
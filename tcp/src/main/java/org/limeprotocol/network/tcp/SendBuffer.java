@@ -0,0 +1,69 @@
+package org.limeprotocol.network.tcp;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reusable serialization buffer for the sent envelopes, which exposes its content without copying.
+ */
+class SendBuffer extends ByteArrayOutputStream {
+
+    private final static int INITIAL_SIZE = 1024;
+    private final static int MAX_RETAINED_SIZE = 64 * 1024;
+    private final static ThreadLocal<SendBuffer> threadBuffers = new ThreadLocal<SendBuffer>() {
+        @Override
+        protected SendBuffer initialValue() {
+            return new SendBuffer();
+        }
+    };
+
+    SendBuffer() {
+        super(INITIAL_SIZE);
+    }
+
+    /**
+     * Gets the cleared buffer of the current thread, which allows the senders to serialize concurrently.
+     * @return
+     */
+    static SendBuffer forCurrentThread() {
+        SendBuffer sendBuffer = threadBuffers.get();
+        sendBuffer.clear();
+        return sendBuffer;
+    }
+
+    /**
+     * Gets a view of the buffer content, which is valid until the next reset.
+     * @return
+     */
+    ByteBuffer toByteBuffer() {
+        return ByteBuffer.wrap(buf, 0, count);
+    }
+
+    /**
+     * Copies the buffer content to the specified array.
+     * @param destination
+     * @param offset
+     */
+    void copyTo(byte[] destination, int offset) {
+        System.arraycopy(buf, 0, destination, offset, count);
+    }
+
+    /**
+     * Decodes the buffer content.
+     * @return
+     */
+    String toUtf8String() {
+        return new String(buf, 0, count, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Discards the content, replacing the internal array if it grew too much for a single big envelope.
+     */
+    void clear() {
+        if (buf.length > MAX_RETAINED_SIZE) {
+            buf = new byte[INITIAL_SIZE];
+        }
+        count = 0;
+    }
+}
@@ -1,19 +1,36 @@
 package org.limeprotocol.network.tcp;
 
 import org.limeprotocol.Envelope;
+import org.limeprotocol.Session;
+import org.limeprotocol.SessionCompression;
 import org.limeprotocol.SessionEncryption;
-import org.limeprotocol.network.JsonBuffer;
+import org.limeprotocol.network.JsonRingBuffer;
+import org.limeprotocol.network.TransportBufferPool;
 import org.limeprotocol.network.TraceWriter;
 import org.limeprotocol.network.Transport;
 import org.limeprotocol.network.TransportBase;
 import org.limeprotocol.serialization.EnvelopeSerializer;
 import org.limeprotocol.serialization.JacksonEnvelopeSerializer;
+import org.limeprotocol.util.SharedExecutors;
 
 import java.io.*;
 import java.net.InetSocketAddress;
 import java.net.SocketTimeoutException;
 import java.net.URI;
-import java.nio.charset.Charset;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
 
 /**
  * Synchronous TCP transport implementation.
@@ -21,41 +38,171 @@ import java.nio.charset.Charset;
 public class TcpTransport extends TransportBase implements Transport {
 
     public final static int DEFAULT_BUFFER_SIZE = 8192 * 8;
+    public final static int DEFAULT_MIN_COMPRESSION_SIZE = 256;
+    public final static int DEFAULT_MAX_PENDING_ENVELOPES = 1024;
+    private final static int COMPRESSION_BUFFER_SIZE = 8192;
     private final EnvelopeSerializer envelopeSerializer;
     private final TcpClientFactory tcpClientFactory;
     private final TraceWriter traceWriter;
+    private final TransportBufferPool bufferPool;
     private final int bufferSize;
+    private final EnvelopeWriter envelopeWriter;
+    private volatile int compressionLevel;
+    private volatile int minCompressionSize;
+    private volatile int maxSpilledEnvelopeSize;
+    private volatile Executor deserializationExecutor;
+    private volatile int maxPendingEnvelopes;
     private TcpClient tcpClient;
-    private BufferedOutputStream outputStream;
-    private BufferedInputStream inputStream;
+    private OutputStream outputStream;
+    private InputStream inputStream;
     private JsonListener jsonListener;
     private Thread jsonListenerThread;
     private boolean isConnected;
 
     public TcpTransport() {
-        this(new JacksonEnvelopeSerializer(), new SocketTcpClientFactory(), null, DEFAULT_BUFFER_SIZE);
+        this(new JacksonEnvelopeSerializer(), new SocketTcpClientFactory(), null, TransportBufferPool.getDefaultHeap(), DEFAULT_BUFFER_SIZE);
     }
 
     public TcpTransport(EnvelopeSerializer envelopeSerializer) {
-        this(envelopeSerializer, new SocketTcpClientFactory(), null, DEFAULT_BUFFER_SIZE);
+        this(envelopeSerializer, new SocketTcpClientFactory(), null, TransportBufferPool.getDefaultHeap(), DEFAULT_BUFFER_SIZE);
     }
 
     public TcpTransport(EnvelopeSerializer envelopeSerializer, TcpClientFactory tcpClientFactory) {
-        this(envelopeSerializer, tcpClientFactory, null, DEFAULT_BUFFER_SIZE);
+        this(envelopeSerializer, tcpClientFactory, null, TransportBufferPool.getDefaultHeap(), DEFAULT_BUFFER_SIZE);
     }
 
     public TcpTransport(EnvelopeSerializer envelopeSerializer, TcpClientFactory tcpClientFactory, TraceWriter traceWriter) {
-        this(envelopeSerializer, tcpClientFactory, traceWriter, DEFAULT_BUFFER_SIZE);
+        this(envelopeSerializer, tcpClientFactory, traceWriter, TransportBufferPool.getDefaultHeap(), DEFAULT_BUFFER_SIZE);
     }
 
+    /**
+     * Creates a transport with a dedicated receive buffer of fixed size.
+     */
     public TcpTransport(EnvelopeSerializer envelopeSerializer, TcpClientFactory tcpClientFactory, TraceWriter traceWriter, int bufferSize) {
+        this(envelopeSerializer, tcpClientFactory, traceWriter, new TransportBufferPool(false, bufferSize, bufferSize, bufferSize), bufferSize);
+    }
+
+    /**
+     * Creates a transport that leases its receive buffer from the specified pool.
+     * The buffer grows on demand up to the maximum envelope size and is returned to the pool when the connection is quiet.
+     */
+    public TcpTransport(EnvelopeSerializer envelopeSerializer, TcpClientFactory tcpClientFactory, TraceWriter traceWriter, TransportBufferPool bufferPool, int maxEnvelopeSize) {
+        if (bufferPool == null) {
+            throw new IllegalArgumentException("bufferPool");
+        }
         this.envelopeSerializer = envelopeSerializer;
         this.tcpClientFactory = tcpClientFactory;
         this.traceWriter = traceWriter;
-        this.bufferSize = bufferSize;
+        this.bufferPool = bufferPool;
+        this.bufferSize = maxEnvelopeSize;
+        this.envelopeWriter = new EnvelopeWriter();
+        this.compressionLevel = Deflater.DEFAULT_COMPRESSION;
+        this.minCompressionSize = DEFAULT_MIN_COMPRESSION_SIZE;
+        this.maxPendingEnvelopes = DEFAULT_MAX_PENDING_ENVELOPES;
         this.isConnected = false;
     }
 
+    /**
+     * Gets the deflate level used to compress the envelopes when the GZIP compression is enabled.
+     * @return
+     */
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    /**
+     * Sets the deflate level used to compress the envelopes when the GZIP compression is enabled.
+     * @param compressionLevel From {@link Deflater#BEST_SPEED} to {@link Deflater#BEST_COMPRESSION}, or {@link Deflater#DEFAULT_COMPRESSION}.
+     */
+    public void setCompressionLevel(int compressionLevel) {
+        if (compressionLevel != Deflater.DEFAULT_COMPRESSION &&
+                (compressionLevel < Deflater.NO_COMPRESSION || compressionLevel > Deflater.BEST_COMPRESSION)) {
+            throw new IllegalArgumentException("compressionLevel");
+        }
+        this.compressionLevel = compressionLevel;
+    }
+
+    /**
+     * Gets the serialized envelope size below which the envelopes are not compressed.
+     * @return
+     */
+    public int getMinCompressionSize() {
+        return minCompressionSize;
+    }
+
+    /**
+     * Sets the serialized envelope size below which the envelopes are not compressed.
+     * These envelopes are still written to the GZIP stream, but in stored blocks, avoiding the deflate cost
+     * where it would barely reduce the size.
+     * @param minCompressionSize
+     */
+    public void setMinCompressionSize(int minCompressionSize) {
+        if (minCompressionSize < 0) {
+            throw new IllegalArgumentException("minCompressionSize");
+        }
+        this.minCompressionSize = minCompressionSize;
+    }
+
+    /**
+     * Gets the maximum size of the received envelopes that are spilled to a temporary file.
+     * @return
+     */
+    public int getMaxSpilledEnvelopeSize() {
+        return maxSpilledEnvelopeSize;
+    }
+
+    /**
+     * Sets the maximum size of the received envelopes that are spilled to a temporary file, instead of closing
+     * the transport, when bigger than the maximum envelope size. Zero disables the spill.
+     * Applied to the connections opened after it is set.
+     * @param maxSpilledEnvelopeSize
+     */
+    public void setMaxSpilledEnvelopeSize(int maxSpilledEnvelopeSize) {
+        if (maxSpilledEnvelopeSize < 0) {
+            throw new IllegalArgumentException("maxSpilledEnvelopeSize");
+        }
+        this.maxSpilledEnvelopeSize = maxSpilledEnvelopeSize;
+    }
+
+    /**
+     * Gets the executor that deserializes the received envelopes.
+     * @return
+     */
+    public Executor getDeserializationExecutor() {
+        return deserializationExecutor;
+    }
+
+    /**
+     * Sets the executor that deserializes the received envelopes, leaving only the framing to the listener thread.
+     * The envelopes are still raised in the receive order, one at a time. Until the session is established, the
+     * envelopes are deserialized by the listener thread, since the session envelopes may change the stream
+     * compression or encryption. Applied to the connections opened after it is set.
+     * @param deserializationExecutor The executor or null to deserialize in the listener thread.
+     */
+    public void setDeserializationExecutor(Executor deserializationExecutor) {
+        this.deserializationExecutor = deserializationExecutor;
+    }
+
+    /**
+     * Gets the number of received envelopes that can be waiting for the deserialization executor.
+     * @return
+     */
+    public int getMaxPendingEnvelopes() {
+        return maxPendingEnvelopes;
+    }
+
+    /**
+     * Sets the number of received envelopes that can be waiting for the deserialization executor.
+     * When reached, the listener thread stops reading from the socket.
+     * @param maxPendingEnvelopes
+     */
+    public void setMaxPendingEnvelopes(int maxPendingEnvelopes) {
+        if (maxPendingEnvelopes <= 0) {
+            throw new IllegalArgumentException("maxPendingEnvelopes");
+        }
+        this.maxPendingEnvelopes = maxPendingEnvelopes;
+    }
+
     /**
      * Checks if the client is connected based on the last read/write operation
      * @returns
@@ -65,32 +212,92 @@ public class TcpTransport extends TransportBase implements Transport {
     }
 
     /**
-     * Sends an envelope to the remote node.
+     * Sends an envelope to the remote node, waiting until it is written to the socket.
      *
      * @param envelope
      */
     @Override
-    public synchronized void send(Envelope envelope) throws IOException {
+    public void send(Envelope envelope) throws IOException {
+        CompletableFuture<Void> future = sendAsync(envelope);
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("The send was interrupted");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Serializes the envelope in the caller thread and enqueues it to be written to the remote node.
+     * The envelopes enqueued by concurrent senders are gathered in a single socket write.
+     *
+     * @param envelope
+     * @return A future that completes when the envelope is written.
+     */
+    @Override
+    public CompletableFuture<Void> sendAsync(Envelope envelope) {
         if (envelope == null) {
             throw new IllegalArgumentException("envelope");
         }
         ensureSocketOpen();
-        String envelopeString = envelopeSerializer.serialize(envelope);
-
+        SendBuffer sendBuffer = SendBuffer.forCurrentThread();
         try {
-            byte[] envelopeBytes = envelopeString.getBytes("UTF-8");
-            outputStream.write(envelopeBytes);
-            outputStream.flush();
+            envelopeSerializer.serialize(envelope, sendBuffer);
+        } catch (IOException e) {
+            CompletableFuture<Void> future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+            return future;
+        }
+
+        String trace = null;
+        if (traceWriter != null && traceWriter.isEnabled()) {
+            trace = sendBuffer.toUtf8String();
+        }
+        return envelopeWriter.write(sendBuffer, trace);
+    }
 
+    /**
+     * Serializes the envelopes in the caller thread and enqueues them together, so they are written
+     * with as few socket writes and flushes as possible.
+     *
+     * @param envelopes
+     * @return A future that completes when all the envelopes are written.
+     */
+    @Override
+    public CompletableFuture<Void> sendAllAsync(List<? extends Envelope> envelopes) {
+        if (envelopes == null) {
+            throw new IllegalArgumentException("envelopes");
+        }
+        ensureSocketOpen();
+        SendBuffer sendBuffer = SendBuffer.forCurrentThread();
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[envelopes.size()];
+        for (int i = 0; i < futures.length; i++) {
+            Envelope envelope = envelopes.get(i);
+            if (envelope == null) {
+                throw new IllegalArgumentException("envelopes");
+            }
+            sendBuffer.clear();
+            try {
+                envelopeSerializer.serialize(envelope, sendBuffer);
+            } catch (IOException e) {
+                CompletableFuture<Void> future = new CompletableFuture<>();
+                future.completeExceptionally(e);
+                futures[i] = future;
+                continue;
+            }
+            String trace = null;
             if (traceWriter != null && traceWriter.isEnabled()) {
-                traceWriter.trace(envelopeString, TraceWriter.DataOperation.SEND);
+                trace = sendBuffer.toUtf8String();
             }
-        } catch (UnsupportedEncodingException e) {
-            throw new IllegalArgumentException("Could not convert the serialized envelope to a UTF-8 byte array", e);
-        } catch (IOException e){
-            close();
-            throw e;
+            futures[i] = envelopeWriter.enqueue(sendBuffer, trace);
         }
+        envelopeWriter.drainIfIdle();
+        return CompletableFuture.allOf(futures);
     }
 
     @Override
@@ -144,6 +351,38 @@ public class TcpTransport extends TransportBase implements Transport {
         }
     }
 
+    /**
+     * Enumerates the supported compression options for the transport.
+     *
+     * @return
+     */
+    @Override
+    public SessionCompression[] getSupportedCompression() {
+        return new SessionCompression[]{SessionCompression.NONE, SessionCompression.GZIP};
+    }
+
+    /**
+     * Defines the compression mode for the transport.
+     * With GZIP, each direction of the connection becomes a single GZIP stream, which is sync flushed after
+     * each envelope. The received bytes are inflated from the envelope following the current one, so it
+     * should be called by the envelope listener when receiving the session that confirms the compression.
+     *
+     * @param compression
+     */
+    @Override
+    public void setCompression(SessionCompression compression) throws IOException {
+        if (compression == SessionCompression.NONE && getCompression() == SessionCompression.GZIP) {
+            throw new IllegalStateException("Cannot disable the compression of a compressed connection");
+        }
+        super.setCompression(compression);
+        if (compression == SessionCompression.GZIP) {
+            JsonListener listener = jsonListener;
+            if (listener != null) {
+                listener.decompressInput();
+            }
+        }
+    }
+
     /**
      * Enumerates the supported encryption options for the transport.
      *
@@ -197,8 +436,8 @@ public class TcpTransport extends TransportBase implements Transport {
     }
 
     private void initializeStreams() throws IOException {
-        outputStream = new BufferedOutputStream(tcpClient.getOutputStream());
-        inputStream = new BufferedInputStream(tcpClient.getInputStream());
+        outputStream = tcpClient.getOutputStream();
+        inputStream = tcpClient.getInputStream();
     }
 
     private boolean isListening() {
@@ -213,7 +452,10 @@ public class TcpTransport extends TransportBase implements Transport {
         if (isListening()) {
             throw new IllegalStateException("The input listener is already started");
         }
-        jsonListener = new JsonListener(inputStream, bufferSize);
+        jsonListener = new JsonListener(inputStream, new JsonRingBuffer(bufferPool, bufferSize, maxSpilledEnvelopeSize));
+        if (getCompression() == SessionCompression.GZIP) {
+            jsonListener.decompressInput();
+        }
         jsonListenerThread = new Thread(jsonListener);
         jsonListenerThread.start();
     }
@@ -229,48 +471,294 @@ public class TcpTransport extends TransportBase implements Transport {
         }
     }
 
+    /**
+     * Writes the envelopes enqueued by the senders.
+     * The senders copy the serialized envelopes to a pending batch, which is swapped with the written one by the
+     * writer, so the envelopes enqueued meanwhile are gathered in a single socket write and flush.
+     * The first sender that finds the writer idle writes the batch with its own envelopes and hands the next
+     * batches to an executor, so a sender never keeps writing for the others under sustained load.
+     * When the GZIP compression is enabled, each envelope is compressed and sync flushed to a buffered stream.
+     */
+    class EnvelopeWriter {
+
+        private final static int GATHER_BUFFER_SIZE = 64 * 1024;
+
+        private final Object batchLock;
+        private final AtomicBoolean isWriting;
+        private final Runnable drainTask;
+        private WriteBatch pendingBatch;
+        private WriteBatch writingBatch;
+        private GzipEnvelopeOutputStream gzipOutputStream;
+
+        EnvelopeWriter() {
+            this.batchLock = new Object();
+            this.isWriting = new AtomicBoolean();
+            this.drainTask = new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        while (hasPendingWrites()) {
+                            drainBatch();
+                        }
+                    } finally {
+                        isWriting.set(false);
+                    }
+                    scheduleDrain();
+                }
+            };
+            this.pendingBatch = new WriteBatch();
+            this.writingBatch = new WriteBatch();
+        }
+
+        CompletableFuture<Void> write(SendBuffer sendBuffer, String trace) {
+            CompletableFuture<Void> future = enqueue(sendBuffer, trace);
+            drainIfIdle();
+            return future;
+        }
+
+        /**
+         * Copies the serialized envelope to the pending batch, without writing it.
+         * @param sendBuffer
+         * @param trace
+         * @return
+         */
+        CompletableFuture<Void> enqueue(SendBuffer sendBuffer, String trace) {
+            synchronized (batchLock) {
+                return pendingBatch.add(sendBuffer, trace);
+            }
+        }
+
+        void drainIfIdle() {
+            if (isWriting.compareAndSet(false, true)) {
+                try {
+                    // The pending batch has the envelopes enqueued by the caller
+                    drainBatch();
+                } finally {
+                    isWriting.set(false);
+                }
+                // Another sender may have enqueued while the batch was written
+                scheduleDrain();
+            }
+        }
+
+        private boolean hasPendingWrites() {
+            synchronized (batchLock) {
+                return !pendingBatch.isEmpty();
+            }
+        }
+
+        private void scheduleDrain() {
+            if (hasPendingWrites() && isWriting.compareAndSet(false, true)) {
+                try {
+                    SharedExecutors.getExecutor().execute(drainTask);
+                } catch (RejectedExecutionException e) {
+                    isWriting.set(false);
+                    drainIfIdle();
+                }
+            }
+        }
+
+        private void drainBatch() {
+            synchronized (batchLock) {
+                if (pendingBatch.isEmpty()) {
+                    return;
+                }
+                WriteBatch batch = pendingBatch;
+                pendingBatch = writingBatch;
+                writingBatch = batch;
+            }
+            try {
+                if (getCompression() == SessionCompression.GZIP) {
+                    writeCompressed(writingBatch);
+                } else {
+                    OutputStream outputStream = TcpTransport.this.outputStream;
+                    outputStream.write(writingBatch.buffer, 0, writingBatch.length);
+                    outputStream.flush();
+                }
+                writingBatch.complete();
+            } catch (IOException e) {
+                failPendingWrites(e);
+                try {
+                    close();
+                } catch (IOException closeException) {
+                    raiseOnException(closeException);
+                }
+            } catch (RuntimeException e) {
+                failPendingWrites(e);
+                throw e;
+            } finally {
+                writingBatch.clear();
+            }
+        }
+
+        private void writeCompressed(WriteBatch batch) throws IOException {
+            if (gzipOutputStream == null) {
+                // Created on the first write, after the stream is replaced when the encryption is enabled
+                gzipOutputStream = new GzipEnvelopeOutputStream(
+                        new BufferedOutputStream(TcpTransport.this.outputStream, GATHER_BUFFER_SIZE), COMPRESSION_BUFFER_SIZE);
+            }
+            for (PendingWrite pendingWrite : batch.writes) {
+                int level = pendingWrite.length < minCompressionSize ? Deflater.NO_COMPRESSION : compressionLevel;
+                gzipOutputStream.writeEnvelope(batch.buffer, pendingWrite.offset, pendingWrite.length, level);
+            }
+            gzipOutputStream.flush();
+        }
+
+        private void failPendingWrites(Exception e) {
+            writingBatch.fail(e);
+            synchronized (batchLock) {
+                pendingBatch.fail(e);
+                pendingBatch.clear();
+            }
+        }
+    }
+
+    /**
+     * Serialized envelopes that are written together.
+     */
+    class WriteBatch {
+        private final List<PendingWrite> writes;
+        private byte[] buffer;
+        private int length;
+
+        WriteBatch() {
+            this.writes = new ArrayList<>();
+            this.buffer = new byte[EnvelopeWriter.GATHER_BUFFER_SIZE];
+        }
+
+        CompletableFuture<Void> add(SendBuffer sendBuffer, String trace) {
+            int envelopeLength = sendBuffer.size();
+            if (length + envelopeLength > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + envelopeLength));
+            }
+            sendBuffer.copyTo(buffer, length);
+            PendingWrite pendingWrite = new PendingWrite(length, envelopeLength, trace);
+            length += envelopeLength;
+            writes.add(pendingWrite);
+            return pendingWrite.future;
+        }
+
+        boolean isEmpty() {
+            return writes.isEmpty();
+        }
+
+        void complete() {
+            for (PendingWrite pendingWrite : writes) {
+                if (pendingWrite.trace != null) {
+                    traceWriter.trace(pendingWrite.trace, TraceWriter.DataOperation.SEND);
+                }
+                pendingWrite.future.complete(null);
+            }
+        }
+
+        void fail(Exception e) {
+            for (PendingWrite pendingWrite : writes) {
+                pendingWrite.future.completeExceptionally(e);
+            }
+        }
+
+        /**
+         * Discards the written envelopes, replacing the buffer if it grew for a burst of envelopes.
+         */
+        void clear() {
+            if (buffer.length > EnvelopeWriter.GATHER_BUFFER_SIZE) {
+                buffer = new byte[EnvelopeWriter.GATHER_BUFFER_SIZE];
+            }
+            writes.clear();
+            length = 0;
+        }
+    }
+
+    static class PendingWrite {
+        final int offset;
+        final int length;
+        final String trace;
+        final CompletableFuture<Void> future;
+
+        PendingWrite(int offset, int length, String trace) {
+            this.offset = offset;
+            this.length = length;
+            this.trace = trace;
+            this.future = new CompletableFuture<>();
+        }
+    }
+
     class JsonListener implements Runnable {
 
-        private final InputStream inputStream;
-        private JsonBuffer jsonBuffer;
+        private final static int GZIP_HEADER_LENGTH = 10;
+
+        private InputStream inputStream;
+        private final JsonRingBuffer jsonBuffer;
+        private boolean isQuiet;
+        private ReceivePipeline receivePipeline;
         volatile private boolean isStopping;
+        volatile private boolean isDecompressionPending;
 
-        JsonListener(InputStream inputStream, int bufferSize) {
+        JsonListener(InputStream inputStream, JsonRingBuffer jsonBuffer) {
             this.inputStream = inputStream;
-            jsonBuffer = new JsonBuffer(bufferSize);
+            this.jsonBuffer = jsonBuffer;
         }
 
         @Override
         public void run() {
             try {
                 while (getEnvelopeListener() != null && !isStopping() && !Thread.currentThread().isInterrupted()) {
+                    if (isDecompressionPending && !startDecompression()) {
+                        break;
+                    }
                     Envelope envelope = null;
-                    while (envelope == null) {
-                        JsonBuffer.JsonBufferReadResult jsonBufferReadResult = jsonBuffer.tryExtractJsonFromBuffer();
-                        if (jsonBufferReadResult.isSuccess()) {
-                            String jsonString = new String(jsonBufferReadResult.getJsonBytes(), Charset.forName("UTF8"));
+                    while (envelope == null && !isStopping()) {
+                        if (jsonBuffer.tryExtractJson()) {
                             if (traceWriter != null && traceWriter.isEnabled()) {
-                                traceWriter.trace(jsonString, TraceWriter.DataOperation.RECEIVE);
+                                traceWriter.trace(jsonBuffer.getJsonString(), TraceWriter.DataOperation.RECEIVE);
                             }
-                            envelope = envelopeSerializer.deserialize(jsonString);
+                            if (receivePipeline != null) {
+                                try {
+                                    receivePipeline.submit(jsonBuffer.getJsonSlice());
+                                } catch (InterruptedException e) {
+                                    Thread.currentThread().interrupt();
+                                    break;
+                                }
+                                continue;
+                            }
+                            envelope = envelopeSerializer.deserialize(jsonBuffer.getJsonSlice());
                         }
                         if (envelope == null) {
                             try {
-                                int read = this.inputStream.read(jsonBuffer.getBuffer(), jsonBuffer.getBufferCurPos(), jsonBuffer.getBuffer().length - jsonBuffer.getBufferCurPos());
-                                if (read == -1) {
-                                    // The stream reached EOF, raise closed event.
-                                    close();
-                                    break;
+                                if (isQuiet) {
+                                    // Waits for the next byte without holding a buffer from the pool
+                                    int b = this.inputStream.read();
+                                    if (b == -1) {
+                                        closeAtEndOfStream();
+                                        break;
+                                    }
+                                    isQuiet = false;
+                                    jsonBuffer.compact();
+                                    jsonBuffer.write((byte) b);
+                                    continue;
                                 }
-                                jsonBuffer.increaseBufferCurPos(read);
-                                if (jsonBuffer.getBufferCurPos() >= jsonBuffer.getBuffer().length) {
+                                jsonBuffer.compact();
+                                if (jsonBuffer.isFull()) {
                                     TcpTransport.this.close();
                                     throw new BufferOverflowException("Maximum buffer size reached");
                                 }
+                                int read = jsonBuffer.read(this.inputStream);
+                                if (read == -1) {
+                                    // The stream reached EOF, raise closed event.
+                                    closeAtEndOfStream();
+                                    break;
+                                }
                             } catch (SocketTimeoutException e) {
                                 if(!isConnected()){
                                     stop();
+                                } else if (!isQuiet && jsonBuffer.getBufferedLength() == 0) {
+                                    jsonBuffer.release();
+                                    isQuiet = true;
                                 }
+                            } catch (EOFException e) {
+                                // The inflated stream reached EOF without the GZIP trailer
+                                closeAtEndOfStream();
+                                break;
                             } catch (IOException e){
                                 TcpTransport.this.close();
                                 throw e;
@@ -280,6 +768,12 @@ public class TcpTransport extends TransportBase implements Transport {
                     // Check if the transport was closed
                     if (envelope == null) break;
                     raiseOnReceive(envelope);
+                    if (receivePipeline == null && !(envelope instanceof Session)) {
+                        Executor executor = deserializationExecutor;
+                        if (executor != null) {
+                            receivePipeline = new ReceivePipeline(this, executor, maxPendingEnvelopes);
+                        }
+                    }
                 }
             } catch (Exception e) {
                 raiseOnException(e);
@@ -289,8 +783,9 @@ public class TcpTransport extends TransportBase implements Transport {
                     try {
                         bytesAvailable = this.inputStream.available();
                     }catch(Exception e) {}
-                    traceWriter.trace(String.format("TcpTransport JsonListener thread aborted with %d bytes in internal Buffer and %d bytes in input Stream", jsonBuffer.getBuffer().length, bytesAvailable), TraceWriter.DataOperation.RECEIVE);
+                    traceWriter.trace(String.format("TcpTransport JsonListener thread aborted with %d bytes in internal Buffer and %d bytes in input Stream", jsonBuffer.getBufferedLength(), bytesAvailable), TraceWriter.DataOperation.RECEIVE);
                 }
+                jsonBuffer.release();
             }
 
             this.isStopping = true;
@@ -300,9 +795,175 @@ public class TcpTransport extends TransportBase implements Transport {
             return this.isStopping;
         }
 
+        /**
+         * Inflates the bytes received after the current envelope.
+         */
+        public void decompressInput() {
+            this.isDecompressionPending = true;
+        }
+
+        /**
+         * Replaces the input stream by a GZIP stream, starting with the bytes that were already received.
+         * Waits for the GZIP header, since the stream reads it when created.
+         * @return false if the stream was closed before the header.
+         */
+        private boolean startDecompression() throws IOException {
+            ByteArrayOutputStream compressedBytes = new ByteArrayOutputStream();
+            compressedBytes.write(jsonBuffer.removeBufferedBytes());
+            byte[] headerBuffer = new byte[GZIP_HEADER_LENGTH];
+            while (compressedBytes.size() < GZIP_HEADER_LENGTH) {
+                if (isStopping()) {
+                    return false;
+                }
+                try {
+                    int read = this.inputStream.read(headerBuffer, 0, GZIP_HEADER_LENGTH - compressedBytes.size());
+                    if (read == -1) {
+                        close();
+                        return false;
+                    }
+                    compressedBytes.write(headerBuffer, 0, read);
+                } catch (SocketTimeoutException e) {
+                    if (!isConnected()) {
+                        stop();
+                    }
+                }
+            }
+            this.inputStream = new GZIPInputStream(
+                    new SequenceInputStream(new ByteArrayInputStream(compressedBytes.toByteArray()), this.inputStream),
+                    COMPRESSION_BUFFER_SIZE);
+            this.isDecompressionPending = false;
+            return true;
+        }
+
         public void stop() {
             this.isStopping = true;
         }
+
+        /**
+         * Closes the transport after raising the envelopes received before the end of the stream.
+         */
+        private void closeAtEndOfStream() throws IOException {
+            if (receivePipeline != null) {
+                try {
+                    receivePipeline.awaitPendingEnvelopes();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            close();
+        }
         
     }
+
+    /**
+     * Deserializes the envelopes framed by the listener thread in an executor.
+     * The envelopes are kept in a queue in the receive order and the thread that completes the deserialization
+     * of the queue head raises the completed envelopes, one thread at a time.
+     */
+    class ReceivePipeline {
+
+        private final JsonListener jsonListener;
+        private final Executor executor;
+        private final int maxPendingEnvelopes;
+        private final Semaphore pendingPermits;
+        private final Queue<PendingEnvelope> pendingEnvelopes;
+        private final AtomicBoolean isRaising;
+
+        ReceivePipeline(JsonListener jsonListener, Executor executor, int maxPendingEnvelopes) {
+            this.jsonListener = jsonListener;
+            this.executor = executor;
+            this.maxPendingEnvelopes = maxPendingEnvelopes;
+            this.pendingPermits = new Semaphore(maxPendingEnvelopes);
+            this.pendingEnvelopes = new ConcurrentLinkedQueue<>();
+            this.isRaising = new AtomicBoolean();
+        }
+
+        /**
+         * Copies the envelope JSON and submits its deserialization, waiting if the maximum pending envelopes is reached.
+         * @param json
+         */
+        void submit(ByteBuffer json) throws InterruptedException {
+            pendingPermits.acquire();
+            byte[] jsonBytes = new byte[json.remaining()];
+            json.get(jsonBytes);
+            PendingEnvelope pendingEnvelope = new PendingEnvelope(jsonBytes);
+            pendingEnvelopes.add(pendingEnvelope);
+            try {
+                executor.execute(pendingEnvelope);
+            } catch (RejectedExecutionException e) {
+                pendingEnvelope.complete(null, e);
+            }
+        }
+
+        /**
+         * Waits until the submitted envelopes are raised.
+         */
+        void awaitPendingEnvelopes() throws InterruptedException {
+            pendingPermits.acquire(maxPendingEnvelopes);
+            pendingPermits.release(maxPendingEnvelopes);
+        }
+
+        private void raiseCompleted() {
+            while (isRaising.compareAndSet(false, true)) {
+                try {
+                    PendingEnvelope pendingEnvelope;
+                    while ((pendingEnvelope = pendingEnvelopes.peek()) != null && pendingEnvelope.isCompleted) {
+                        pendingEnvelopes.poll();
+                        try {
+                            if (jsonListener.isStopping()) {
+                                continue;
+                            }
+                            if (pendingEnvelope.exception != null) {
+                                throw pendingEnvelope.exception;
+                            }
+                            if (pendingEnvelope.envelope != null) {
+                                raiseOnReceive(pendingEnvelope.envelope);
+                            }
+                        } catch (Exception e) {
+                            // Stops the listener like an exception in the listener thread
+                            jsonListener.stop();
+                            raiseOnException(e);
+                        } finally {
+                            pendingPermits.release();
+                        }
+                    }
+                } finally {
+                    isRaising.set(false);
+                }
+                // Checks if the head was completed while releasing the flag
+                PendingEnvelope head = pendingEnvelopes.peek();
+                if (head == null || !head.isCompleted) {
+                    break;
+                }
+            }
+        }
+
+        class PendingEnvelope implements Runnable {
+            private byte[] json;
+            private Envelope envelope;
+            private Exception exception;
+            private volatile boolean isCompleted;
+
+            PendingEnvelope(byte[] json) {
+                this.json = json;
+            }
+
+            @Override
+            public void run() {
+                try {
+                    complete(envelopeSerializer.deserialize(ByteBuffer.wrap(json)), null);
+                } catch (Exception e) {
+                    complete(null, e);
+                }
+            }
+
+            void complete(Envelope envelope, Exception exception) {
+                this.envelope = envelope;
+                this.exception = exception;
+                this.json = null;
+                this.isCompleted = true;
+                raiseCompleted();
+            }
+        }
+    }
 }
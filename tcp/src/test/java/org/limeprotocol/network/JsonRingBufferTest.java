@@ -0,0 +1,429 @@
+package org.limeprotocol.network;
+
+import org.junit.Test;
+import org.limeprotocol.network.tcp.Dummy;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class JsonRingBufferTest {
+
+    private static void write(JsonRingBuffer target, byte[] bytes, int offset, int length) {
+        target.compact();
+        assertEquals(length, target.write(ByteBuffer.wrap(bytes, offset, length)));
+    }
+
+    private static void write(JsonRingBuffer target, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        write(target, bytes, 0, bytes.length);
+    }
+
+    private static String getJson(JsonRingBuffer target) {
+        return target.getJsonString();
+    }
+
+    private static final String[] STRING_TOKENS = { "a", "xyz", " ", "{", "}", "[", ":", ",", "\\\"", "\\\\", "\\n", "\u00e7", "\u20ac" };
+
+    private static String createStructuralJson(Random random, int depth) {
+        StringBuilder json = new StringBuilder("{");
+        int propertiesCount = random.nextInt(6);
+        for (int i = 0; i < propertiesCount; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append('"').append(createStructuralString(random)).append("\":");
+            int valueKind = random.nextInt(3);
+            if (valueKind == 0 && depth < 2) {
+                json.append(createStructuralJson(random, depth + 1));
+            } else if (valueKind == 1) {
+                json.append(random.nextInt());
+            } else {
+                json.append('"').append(createStructuralString(random)).append('"');
+            }
+        }
+        return json.append('}').toString();
+    }
+
+    private static String createStructuralString(Random random) {
+        StringBuilder value = new StringBuilder();
+        int tokensCount = random.nextInt(20);
+        for (int i = 0; i < tokensCount; i++) {
+            value.append(STRING_TOKENS[random.nextInt(STRING_TOKENS.length)]);
+        }
+        return value.toString();
+    }
+
+    private static void assertSameJsonsThanJsonBuffer(JsonRingBuffer target, int bufferSize, byte[] bytes, int expectedCount, Random random) {
+        JsonBuffer jsonBuffer = new JsonBuffer(bufferSize);
+        List<String> expected = new ArrayList<>();
+        List<String> actual = new ArrayList<>();
+        int offset = 0;
+        while (offset < bytes.length) {
+            target.compact();
+            int length = Math.min(Math.min(random.nextInt(300) + 1, bytes.length - offset), target.getWritableLength());
+            write(target, bytes, offset, length);
+            System.arraycopy(bytes, offset, jsonBuffer.getBuffer(), jsonBuffer.getBufferCurPos(), length);
+            jsonBuffer.increaseBufferCurPos(length);
+            offset += length;
+
+            while (target.tryExtractJson()) {
+                actual.add(getJson(target));
+            }
+            JsonBuffer.JsonBufferReadResult result;
+            while ((result = jsonBuffer.tryExtractJsonFromBuffer()).isSuccess()) {
+                expected.add(new String(result.getJsonBytes(), StandardCharsets.UTF_8));
+            }
+        }
+        assertEquals(expectedCount, actual.size());
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    public void tryExtractJson_multipleJsonsInSingleWrite_returnsViewsWithoutCopying() {
+        // Arrange
+        String json1 = Dummy.createMessageJson();
+        String json2 = Dummy.createMessageJson();
+        JsonRingBuffer target = new JsonRingBuffer(4096);
+        write(target, json1 + json2);
+
+        // Act
+        boolean firstSuccess = target.tryExtractJson();
+        String actual1 = getJson(target);
+        int firstOffset = target.getJsonOffset();
+        boolean secondSuccess = target.tryExtractJson();
+        String actual2 = getJson(target);
+        boolean thirdSuccess = target.tryExtractJson();
+
+        // Assert
+        assertTrue(firstSuccess);
+        assertTrue(secondSuccess);
+        assertFalse(thirdSuccess);
+        assertEquals(json1, actual1);
+        assertEquals(json2, actual2);
+        assertEquals(0, firstOffset);
+        assertEquals(json1.getBytes(StandardCharsets.UTF_8).length, target.getJsonOffset());
+        assertEquals(0, target.getBufferedLength());
+    }
+
+    @Test
+    public void removeBufferedBytes_bytesAfterExtractedJson_returnsBytesAndResetsScan() {
+        // Arrange
+        String json1 = Dummy.createMessageJson();
+        String json2 = Dummy.createMessageJson();
+        String remainingBytes = "{\"partial";
+        JsonRingBuffer target = new JsonRingBuffer(4096);
+        write(target, json1 + remainingBytes);
+        target.tryExtractJson();
+
+        // Act
+        byte[] actual = target.removeBufferedBytes();
+
+        // Assert
+        assertEquals(remainingBytes, new String(actual, StandardCharsets.UTF_8));
+        assertEquals(0, target.getBufferedLength());
+        write(target, json2);
+        assertTrue(target.tryExtractJson());
+        assertEquals(json2, getJson(target));
+    }
+
+    @Test
+    public void tryExtractJson_escapedQuotesAndBracketsInsideString_returnsWholeJson() {
+        // Arrange
+        String json = "{\"content\":\"a } \\\" { \\\\\",\"id\":\"1\"}";
+        JsonRingBuffer target = new JsonRingBuffer(128);
+        write(target, json);
+
+        // Act
+        boolean success = target.tryExtractJson();
+
+        // Assert
+        assertTrue(success);
+        assertEquals(json, getJson(target));
+    }
+
+    @Test
+    public void tryExtractJson_invalidCharsBetweenJsons_ignoresChars() {
+        // Arrange
+        String json1 = Dummy.createMessageJson();
+        String json2 = Dummy.createMessageJson();
+        JsonRingBuffer target = new JsonRingBuffer(4096);
+        write(target, " \t\r\n" + json1 + "\n \t" + json2 + " \n");
+
+        // Act & Assert
+        assertTrue(target.tryExtractJson());
+        assertEquals(json1, getJson(target));
+        assertTrue(target.tryExtractJson());
+        assertEquals(json2, getJson(target));
+        assertFalse(target.tryExtractJson());
+        assertEquals(0, target.getBufferedLength());
+    }
+
+    @Test
+    public void tryExtractJson_jsonSplitAcrossWrapping_keepsPartialJson() {
+        // Arrange
+        String json1 = "{\"id\":\"1\"}";
+        String json2 = "{\"id\":\"22\"}";
+        byte[] json2Bytes = json2.getBytes(StandardCharsets.UTF_8);
+        JsonRingBuffer target = new JsonRingBuffer(16);
+        write(target, json1);
+        write(target, json2Bytes, 0, 6);
+
+        // Act
+        boolean firstSuccess = target.tryExtractJson();
+        boolean secondSuccess = target.tryExtractJson();
+        write(target, json2Bytes, 6, json2Bytes.length - 6);
+        boolean thirdSuccess = target.tryExtractJson();
+
+        // Assert
+        assertTrue(firstSuccess);
+        assertFalse(secondSuccess);
+        assertTrue(thirdSuccess);
+        assertEquals(0, target.getJsonOffset());
+        assertEquals(json2, getJson(target));
+    }
+
+    @Test
+    public void isFull_jsonBiggerThanBuffer_returnsTrue() {
+        // Arrange
+        byte[] json = Dummy.createMessageJson().getBytes(StandardCharsets.UTF_8);
+        JsonRingBuffer target = new JsonRingBuffer(json.length - 1);
+        write(target, json, 0, json.length - 1);
+
+        // Act
+        boolean success = target.tryExtractJson();
+        target.compact();
+
+        // Assert
+        assertFalse(success);
+        assertTrue(target.isFull());
+    }
+
+    @Test
+    public void getJsonSlice_extractedJson_returnsSliceOfJson() {
+        // Arrange
+        String json = Dummy.createMessageJson();
+        JsonRingBuffer target = new JsonRingBuffer(4096);
+        write(target, "  " + json);
+        target.tryExtractJson();
+
+        // Act
+        ByteBuffer actual = target.getJsonSlice();
+
+        // Assert
+        assertEquals(0, actual.position());
+        byte[] actualBytes = new byte[actual.remaining()];
+        actual.get(actualBytes);
+        assertEquals(json, new String(actualBytes, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void tryExtractJson_randomChunks_extractsSameJsonsThanJsonBuffer() {
+        // Arrange
+        int jsonsCount = Dummy.createRandomInt(200) + 1;
+        StringBuilder jsonsBuilder = new StringBuilder();
+        for (int i = 0; i < jsonsCount; i++) {
+            jsonsBuilder.append(Dummy.createMessageJson());
+        }
+        byte[] bytes = jsonsBuilder.toString().getBytes(StandardCharsets.UTF_8);
+        JsonRingBuffer target = new JsonRingBuffer(1024);
+        JsonBuffer jsonBuffer = new JsonBuffer(1024);
+        List<String> expected = new ArrayList<>();
+        List<String> actual = new ArrayList<>();
+
+        // Act
+        int offset = 0;
+        while (offset < bytes.length) {
+            target.compact();
+            int length = Math.min(Math.min(Dummy.createRandomInt(300) + 1, bytes.length - offset), target.getWritableLength());
+            write(target, bytes, offset, length);
+            System.arraycopy(bytes, offset, jsonBuffer.getBuffer(), jsonBuffer.getBufferCurPos(), length);
+            jsonBuffer.increaseBufferCurPos(length);
+            offset += length;
+
+            while (target.tryExtractJson()) {
+                actual.add(getJson(target));
+            }
+            JsonBuffer.JsonBufferReadResult result;
+            while ((result = jsonBuffer.tryExtractJsonFromBuffer()).isSuccess()) {
+                expected.add(new String(result.getJsonBytes(), StandardCharsets.UTF_8));
+            }
+        }
+
+        // Assert
+        assertEquals(jsonsCount, actual.size());
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    public void tryExtractJson_structuralCharsAtEveryWordOffset_extractsSameJsonsThanJsonBuffer() {
+        for (int seed = 0; seed < 50; seed++) {
+            // Arrange
+            Random random = new Random(seed);
+            int jsonsCount = random.nextInt(50) + 1;
+            StringBuilder jsonsBuilder = new StringBuilder();
+            for (int i = 0; i < jsonsCount; i++) {
+                // The padding moves the structural chars through the offsets of the scanned words
+                for (int padding = random.nextInt(9); padding > 0; padding--) {
+                    jsonsBuilder.append(random.nextBoolean() ? ' ' : '\n');
+                }
+                jsonsBuilder.append(createStructuralJson(random, 0));
+            }
+            byte[] bytes = jsonsBuilder.toString().getBytes(StandardCharsets.UTF_8);
+            TransportBufferPool bufferPool = new TransportBufferPool(seed % 2 == 0, 1024, 16384, 0);
+            JsonRingBuffer target = new JsonRingBuffer(bufferPool, 16384);
+
+            // Act & Assert
+            assertSameJsonsThanJsonBuffer(target, 16384, bytes, jsonsCount, random);
+        }
+    }
+
+    @Test
+    public void compact_jsonBiggerThanLeasedBuffer_growsUpToMaxBufferSize() {
+        // Arrange
+        TransportBufferPool bufferPool = new TransportBufferPool(true, 64, 1024, 4096);
+        String json = Dummy.createMessageJson();
+        byte[] jsonBytes = json.getBytes(StandardCharsets.UTF_8);
+        JsonRingBuffer target = new JsonRingBuffer(bufferPool, 1024);
+
+        // Act
+        int offset = 0;
+        while (offset < jsonBytes.length) {
+            target.compact();
+            offset += target.write(ByteBuffer.wrap(jsonBytes, offset, jsonBytes.length - offset));
+        }
+        boolean success = target.tryExtractJson();
+
+        // Assert
+        assertTrue(success);
+        assertEquals(json, getJson(target));
+        assertTrue(target.getCapacity() >= jsonBytes.length);
+        assertEquals(1, bufferPool.getLeasedCount());
+        assertEquals(target.getCapacity(), bufferPool.getLeasedBytes());
+        assertTrue(bufferPool.getPooledCount() > 0);
+    }
+
+    @Test
+    public void compact_jsonBiggerThanMaxBufferSize_spillsJsonUpToMaxSpillSize() {
+        // Arrange
+        TransportBufferPool bufferPool = new TransportBufferPool(false, 64, 256, 4096);
+        String json = Dummy.createMessageJson();
+        byte[] jsonBytes = json.getBytes(StandardCharsets.UTF_8);
+        JsonRingBuffer target = new JsonRingBuffer(bufferPool, 64, jsonBytes.length * 2);
+
+        // Act
+        int offset = 0;
+        while (offset < jsonBytes.length) {
+            target.compact();
+            assertFalse(target.isFull());
+            offset += target.write(ByteBuffer.wrap(jsonBytes, offset, jsonBytes.length - offset));
+        }
+        boolean success = target.tryExtractJson();
+
+        // Assert
+        assertTrue(success);
+        assertTrue(target.isSpilled());
+        assertEquals(json, getJson(target));
+        assertEquals(0, bufferPool.getLeasedCount());
+    }
+
+    @Test
+    public void compact_spilledJsonExtracted_movesUnreadBytesToPooledBuffer() {
+        // Arrange
+        TransportBufferPool bufferPool = new TransportBufferPool(false, 64, 256, 4096);
+        String json = Dummy.createMessageJson();
+        byte[] jsonBytes = (json + "{\"id\"").getBytes(StandardCharsets.UTF_8);
+        JsonRingBuffer target = new JsonRingBuffer(bufferPool, 64, jsonBytes.length * 2);
+        int offset = 0;
+        while (offset < jsonBytes.length) {
+            target.compact();
+            offset += target.write(ByteBuffer.wrap(jsonBytes, offset, jsonBytes.length - offset));
+        }
+        target.tryExtractJson();
+
+        // Act
+        target.compact();
+        write(target, ":\"1\"}");
+        boolean success = target.tryExtractJson();
+
+        // Assert
+        assertTrue(success);
+        assertFalse(target.isSpilled());
+        assertEquals(64, target.getCapacity());
+        assertEquals(1, bufferPool.getLeasedCount());
+        assertEquals("{\"id\":\"1\"}", getJson(target));
+    }
+
+    @Test
+    public void release_spilledJson_spillsNextJsonToNewFile() {
+        // Arrange
+        TransportBufferPool bufferPool = new TransportBufferPool(false, 64, 256, 4096);
+        String json = Dummy.createMessageJson();
+        byte[] jsonBytes = json.getBytes(StandardCharsets.UTF_8);
+        JsonRingBuffer target = new JsonRingBuffer(bufferPool, 64, jsonBytes.length * 2);
+        int offset = 0;
+        while (offset < jsonBytes.length) {
+            target.compact();
+            offset += target.write(ByteBuffer.wrap(jsonBytes, offset, jsonBytes.length - offset));
+        }
+
+        // Act
+        target.release();
+        offset = 0;
+        while (offset < jsonBytes.length) {
+            target.compact();
+            offset += target.write(ByteBuffer.wrap(jsonBytes, offset, jsonBytes.length - offset));
+        }
+        boolean success = target.tryExtractJson();
+
+        // Assert
+        assertTrue(success);
+        assertTrue(target.isSpilled());
+        assertEquals(json, getJson(target));
+        target.release();
+        assertFalse(target.hasBuffer());
+        assertEquals(0, bufferPool.getLeasedCount());
+    }
+
+    @Test
+    public void isFull_jsonBiggerThanMaxSpillSize_returnsTrue() {
+        // Arrange
+        byte[] json = Dummy.createMessageJson().getBytes(StandardCharsets.UTF_8);
+        JsonRingBuffer target = new JsonRingBuffer(new TransportBufferPool(false, 16, 16, 0), 16, json.length - 1);
+        int offset = 0;
+        while (offset < json.length - 1 && !target.isFull()) {
+            target.compact();
+            offset += target.write(ByteBuffer.wrap(json, offset, json.length - 1 - offset));
+        }
+
+        // Act
+        boolean success = target.tryExtractJson();
+        target.compact();
+
+        // Assert
+        assertFalse(success);
+        assertTrue(target.isFull());
+    }
+
+    @Test
+    public void release_leasedBuffer_returnsBufferToPool() {
+        // Arrange
+        TransportBufferPool bufferPool = new TransportBufferPool(false, 256, 1024, 4096);
+        JsonRingBuffer target = new JsonRingBuffer(bufferPool, 1024);
+        write(target, "{\"id\":\"1\"}");
+        target.tryExtractJson();
+
+        // Act
+        target.release();
+
+        // Assert
+        assertFalse(target.hasBuffer());
+        assertEquals(0, bufferPool.getLeasedCount());
+        assertEquals(1, bufferPool.getPooledCount());
+        assertEquals(256, bufferPool.getPooledBytes());
+    }
+}
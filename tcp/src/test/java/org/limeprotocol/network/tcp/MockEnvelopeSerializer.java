@@ -0,0 +1,40 @@
+package org.limeprotocol.network.tcp;
+
+import org.limeprotocol.Envelope;
+import org.limeprotocol.serialization.EnvelopeSerializer;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.mockito.Mockito.*;
+
+/**
+ * Creates envelope serializer mocks whose byte methods delegate to the string ones, so the tests can stub only the latter.
+ */
+public class MockEnvelopeSerializer {
+
+    public static EnvelopeSerializer create() throws IOException {
+        final EnvelopeSerializer envelopeSerializer = mock(EnvelopeSerializer.class);
+        when(envelopeSerializer.deserialize(any(ByteBuffer.class))).thenAnswer(new Answer<Envelope>() {
+            @Override
+            public Envelope answer(InvocationOnMock invocationOnMock) throws Throwable {
+                ByteBuffer buffer = (ByteBuffer) invocationOnMock.getArguments()[0];
+                return envelopeSerializer.deserialize(StandardCharsets.UTF_8.decode(buffer.duplicate()).toString());
+            }
+        });
+        doAnswer(new Answer() {
+            @Override
+            public Object answer(InvocationOnMock invocationOnMock) throws Throwable {
+                Envelope envelope = (Envelope) invocationOnMock.getArguments()[0];
+                OutputStream outputStream = (OutputStream) invocationOnMock.getArguments()[1];
+                outputStream.write(envelopeSerializer.serialize(envelope).getBytes(StandardCharsets.UTF_8));
+                return null;
+            }
+        }).when(envelopeSerializer).serialize(any(Envelope.class), any(OutputStream.class));
+        return envelopeSerializer;
+    }
+}
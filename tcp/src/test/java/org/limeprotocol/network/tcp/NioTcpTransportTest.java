@@ -0,0 +1,342 @@
+package org.limeprotocol.network.tcp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.limeprotocol.Envelope;
+import org.limeprotocol.SessionEncryption;
+import org.limeprotocol.network.TraceWriter;
+import org.limeprotocol.network.TransportBufferPool;
+import org.limeprotocol.network.Transport;
+import org.limeprotocol.serialization.EnvelopeSerializer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyStore;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class NioTcpTransportTest {
+
+    private NioEventLoopGroup eventLoopGroup;
+    private ServerSocket serverSocket;
+    private EnvelopeSerializer envelopeSerializer;
+    private TraceWriter traceWriter;
+
+    @Before
+    public void setUp() throws IOException {
+        eventLoopGroup = new NioEventLoopGroup(1);
+        serverSocket = new ServerSocket(0);
+        envelopeSerializer = MockEnvelopeSerializer.create();
+        traceWriter = mock(TraceWriter.class);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        serverSocket.close();
+        eventLoopGroup.close();
+    }
+
+    private NioTcpTransport getTarget() {
+        return getTarget(NioTcpTransport.DEFAULT_BUFFER_SIZE);
+    }
+
+    private NioTcpTransport getTarget(int bufferSize) {
+        return new NioTcpTransport(envelopeSerializer, eventLoopGroup, null, traceWriter, bufferSize);
+    }
+
+    private URI getServerUri() throws URISyntaxException {
+        return new URI(String.format("net.tcp://localhost:%d", serverSocket.getLocalPort()));
+    }
+
+    private Socket openTarget(NioTcpTransport target) throws IOException, URISyntaxException {
+        target.open(getServerUri());
+        Socket socket = serverSocket.accept();
+        socket.setSoTimeout(5000);
+        return socket;
+    }
+
+    private Envelope mockDeserialize(String json) {
+        Envelope envelope = mock(Envelope.class);
+        when(envelopeSerializer.deserialize(json)).thenReturn(envelope);
+        return envelope;
+    }
+
+    private BlockingQueue<Envelope> listen(NioTcpTransport target) {
+        final BlockingQueue<Envelope> receivedEnvelopes = new LinkedBlockingQueue<>();
+        target.setEnvelopeListener(new Transport.TransportEnvelopeListener() {
+            @Override
+            public void onReceive(Envelope envelope) {
+                receivedEnvelopes.add(envelope);
+            }
+        });
+        return receivedEnvelopes;
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void open_invalidUriScheme_throwsIllegalArgumentException() throws URISyntaxException, IOException {
+        // Arrange
+        NioTcpTransport target = getTarget();
+
+        // Act
+        target.open(Dummy.createUri("http", serverSocket.getLocalPort()));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void open_alreadyConnected_throwsIllegalStateException() throws URISyntaxException, IOException {
+        // Arrange
+        NioTcpTransport target = getTarget();
+        openTarget(target);
+
+        // Act
+        target.open(getServerUri());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void send_closedTransport_throwsIllegalStateException() throws IOException {
+        // Arrange
+        NioTcpTransport target = getTarget();
+
+        // Act
+        target.send(mock(Envelope.class));
+    }
+
+    @Test
+    public void send_validArgumentsAndTraceEnabled_writesToSocketAndTraces() throws IOException, URISyntaxException {
+        // Arrange
+        NioTcpTransport target = getTarget();
+        Socket socket = openTarget(target);
+        Envelope envelope = mock(Envelope.class);
+        String serializedEnvelope = Dummy.createRandomString(200);
+        when(envelopeSerializer.serialize(envelope)).thenReturn(serializedEnvelope);
+        when(traceWriter.isEnabled()).thenReturn(true);
+
+        // Act
+        target.send(envelope);
+
+        // Assert
+        byte[] received = new byte[serializedEnvelope.length()];
+        readFully(socket.getInputStream(), received);
+        assertEquals(serializedEnvelope, new String(received, StandardCharsets.UTF_8));
+        verify(traceWriter, times(1)).trace(serializedEnvelope, TraceWriter.DataOperation.SEND);
+    }
+
+    @Test
+    public void setEncryption_tlsWithLoopbackServer_sendsAndReceivesEnvelopesEncrypted() throws Exception {
+        // Arrange
+        NioTcpTransport target = new NioTcpTransport(envelopeSerializer, eventLoopGroup, new CustomTrustManager(null), traceWriter, NioTcpTransport.DEFAULT_BUFFER_SIZE);
+        final Socket socket = openTarget(target);
+        BlockingQueue<Envelope> receivedEnvelopes = listen(target);
+        final SSLContext serverSslContext = createServerSslContext();
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        Future<SSLSocket> serverHandshake = executorService.submit(new Callable<SSLSocket>() {
+            @Override
+            public SSLSocket call() throws Exception {
+                SSLSocket sslSocket = (SSLSocket) serverSslContext.getSocketFactory().createSocket(socket, null, socket.getPort(), true);
+                sslSocket.setUseClientMode(false);
+                sslSocket.startHandshake();
+                return sslSocket;
+            }
+        });
+        Envelope envelope = mock(Envelope.class);
+        String serializedEnvelope = Dummy.createRandomString(200);
+        when(envelopeSerializer.serialize(envelope)).thenReturn(serializedEnvelope);
+        String messageJson = Dummy.createMessageJson();
+        Envelope remoteEnvelope = mockDeserialize(messageJson);
+
+        try {
+            // Act
+            target.setEncryption(SessionEncryption.TLS);
+            SSLSocket sslSocket = serverHandshake.get(5, TimeUnit.SECONDS);
+            target.send(envelope);
+            sslSocket.getOutputStream().write(messageJson.getBytes(StandardCharsets.UTF_8));
+            sslSocket.getOutputStream().flush();
+
+            // Assert
+            assertEquals(SessionEncryption.TLS, target.getEncryption());
+            byte[] received = new byte[serializedEnvelope.length()];
+            readFully(sslSocket.getInputStream(), received);
+            assertEquals(serializedEnvelope, new String(received, StandardCharsets.UTF_8));
+            assertSame(remoteEnvelope, receivedEnvelopes.poll(5, TimeUnit.SECONDS));
+            sslSocket.close();
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    @Test
+    public void onReceive_multipleWritesMultipleEnvelopes_raisesEnvelopesInOrder() throws IOException, URISyntaxException, InterruptedException {
+        // Arrange
+        int messagesCount = Dummy.createRandomInt(100) + 1;
+        NioTcpTransport target = getTarget();
+        Socket socket = openTarget(target);
+        BlockingQueue<Envelope> receivedEnvelopes = listen(target);
+        StringBuilder messagesJson = new StringBuilder();
+        Envelope[] envelopes = new Envelope[messagesCount];
+        for (int i = 0; i < messagesCount; i++) {
+            String messageJson = Dummy.createMessageJson();
+            envelopes[i] = mockDeserialize(messageJson);
+            messagesJson.append(messageJson);
+        }
+        byte[] messagesBytes = messagesJson.toString().getBytes(StandardCharsets.UTF_8);
+
+        // Act
+        OutputStream outputStream = socket.getOutputStream();
+        int offset = 0;
+        while (offset < messagesBytes.length) {
+            int length = Math.min(Dummy.createRandomInt(500) + 1, messagesBytes.length - offset);
+            outputStream.write(messagesBytes, offset, length);
+            outputStream.flush();
+            offset += length;
+        }
+
+        // Assert
+        for (int i = 0; i < messagesCount; i++) {
+            assertSame(envelopes[i], receivedEnvelopes.poll(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void onReceive_noListener_buffersUntilListenerIsSet() throws IOException, URISyntaxException, InterruptedException {
+        // Arrange
+        NioTcpTransport target = getTarget();
+        Socket socket = openTarget(target);
+        String messageJson = Dummy.createMessageJson();
+        Envelope envelope = mockDeserialize(messageJson);
+        socket.getOutputStream().write(messageJson.getBytes(StandardCharsets.UTF_8));
+        socket.getOutputStream().flush();
+        Thread.sleep(100);
+
+        // Act
+        BlockingQueue<Envelope> receivedEnvelopes = listen(target);
+
+        // Assert
+        assertSame(envelope, receivedEnvelopes.poll(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void onReceive_pooledBuffer_returnsBufferToPoolAfterDispatch() throws IOException, URISyntaxException, InterruptedException {
+        // Arrange
+        TransportBufferPool bufferPool = new TransportBufferPool(true, 64, 4096, 65536);
+        NioTcpTransport target = new NioTcpTransport(envelopeSerializer, eventLoopGroup, null, traceWriter, bufferPool, 4096);
+        Socket socket = openTarget(target);
+        BlockingQueue<Envelope> receivedEnvelopes = listen(target);
+        String messageJson = Dummy.createMessageJson();
+        Envelope envelope = mockDeserialize(messageJson);
+
+        // Act
+        socket.getOutputStream().write(messageJson.getBytes(StandardCharsets.UTF_8));
+        socket.getOutputStream().flush();
+
+        // Assert
+        assertSame(envelope, receivedEnvelopes.poll(5, TimeUnit.SECONDS));
+        Thread.sleep(100);
+        assertEquals(0, bufferPool.getLeasedCount());
+        assertTrue(bufferPool.getPooledCount() > 0);
+    }
+
+    @Test
+    public void onReceive_remoteClosed_closesTransport() throws IOException, URISyntaxException, InterruptedException {
+        // Arrange
+        NioTcpTransport target = getTarget();
+        Socket socket = openTarget(target);
+        final CountDownLatch closedLatch = new CountDownLatch(1);
+        target.setStateListener(new Transport.TransportStateListener() {
+            @Override
+            public void onClosing() {
+            }
+
+            @Override
+            public void onClosed() {
+                closedLatch.countDown();
+            }
+
+            @Override
+            public void onException(Exception e) {
+            }
+        });
+        listen(target);
+
+        // Act
+        socket.close();
+
+        // Assert
+        assertTrue(closedLatch.await(5, TimeUnit.SECONDS));
+        assertFalse(target.isConnected());
+    }
+
+    @Test
+    public void onReceive_envelopeBiggerThanBuffer_raisesBufferOverflowException() throws IOException, URISyntaxException, InterruptedException {
+        // Arrange
+        NioTcpTransport target = getTarget(64);
+        Socket socket = openTarget(target);
+        final BlockingQueue<Exception> exceptions = new LinkedBlockingQueue<>();
+        target.setStateListener(new Transport.TransportStateListener() {
+            @Override
+            public void onClosing() {
+            }
+
+            @Override
+            public void onClosed() {
+            }
+
+            @Override
+            public void onException(Exception e) {
+                exceptions.add(e);
+            }
+        });
+        listen(target);
+
+        // Act
+        socket.getOutputStream().write(Dummy.createMessageJson().getBytes(StandardCharsets.UTF_8));
+        socket.getOutputStream().flush();
+
+        // Assert
+        assertTrue(exceptions.poll(5, TimeUnit.SECONDS) instanceof BufferOverflowException);
+        assertFalse(target.isConnected());
+    }
+
+    private static SSLContext createServerSslContext() throws Exception {
+        // The test keystore has a self-signed certificate for localhost, with the changeit password
+        char[] password = "changeit".toCharArray();
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        try (InputStream inputStream = NioTcpTransportTest.class.getResourceAsStream("/test-server.p12")) {
+            keyStore.load(inputStream, password);
+        }
+        KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagerFactory.init(keyStore, password);
+        SSLContext sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(keyManagerFactory.getKeyManagers(), null, null);
+        return sslContext;
+    }
+
+    private static void readFully(InputStream inputStream, byte[] buffer) throws IOException {
+        int offset = 0;
+        while (offset < buffer.length) {
+            int read = inputStream.read(buffer, offset, buffer.length - offset);
+            if (read == -1) {
+                throw new IOException("Unexpected end of stream");
+            }
+            offset += read;
+        }
+    }
+}
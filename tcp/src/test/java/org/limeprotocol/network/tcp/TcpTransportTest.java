@@ -5,6 +5,7 @@ import org.junit.Test;
 import org.limeprotocol.*;
 import org.limeprotocol.client.ClientChannel;
 import org.limeprotocol.client.ClientChannelImpl;
+import org.limeprotocol.network.JsonRingBuffer;
 import org.limeprotocol.network.SessionChannel;
 import org.limeprotocol.network.TraceWriter;
 import org.limeprotocol.network.Transport;
@@ -19,12 +20,11 @@ import java.io.*;
 import java.net.InetSocketAddress;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.util.Arrays;
-import java.util.Queue;
-import java.util.UUID;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.Semaphore;
-import java.util.concurrent.TimeUnit;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
@@ -54,7 +54,7 @@ public class TcpTransportTest {
     }
 
     private TcpTransport getTarget(InputStream inputStream, OutputStream outputStream, int bufferSize) throws IOException {
-        envelopeSerializer = mock(EnvelopeSerializer.class);
+        envelopeSerializer = MockEnvelopeSerializer.create();
         tcpClient = mock(TcpClient.class);
         when(tcpClient.getOutputStream()).thenReturn(outputStream);
         when(tcpClient.getInputStream()).thenReturn(inputStream);
@@ -136,6 +136,107 @@ public class TcpTransportTest {
         verify(traceWriter, atLeastOnce()).trace(serializedEnvelope, TraceWriter.DataOperation.SEND);
     }
 
+    @Test
+    public void send_concurrentSenders_writesEveryEnvelopeWithoutInterleaving() throws Exception {
+        // Arrange
+        final int sendersCount = 8;
+        final int envelopesPerSender = 200;
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        getTarget(new ByteArrayInputStream(new byte[0]), outputStream);
+        final TcpTransport target = new TcpTransport(new JacksonEnvelopeSerializer(), new MockTcpClientFactory(), traceWriter);
+        target.open(Dummy.createUri());
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        ExecutorService executorService = Executors.newFixedThreadPool(sendersCount);
+        List<Future<?>> senders = new ArrayList<>();
+
+        // Act
+        for (int i = 0; i < sendersCount; i++) {
+            senders.add(executorService.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    startLatch.await();
+                    for (int j = 0; j < envelopesPerSender; j++) {
+                        Message message = new Message(EnvelopeId.newId());
+                        message.setContent(new PlainDocument(Dummy.createRandomString(Dummy.createRandomInt(500) + 1), MediaType.parse("text/plain")));
+                        target.send(message);
+                    }
+                    return null;
+                }
+            }));
+        }
+        startLatch.countDown();
+        for (Future<?> sender : senders) {
+            sender.get(30, TimeUnit.SECONDS);
+        }
+        executorService.shutdown();
+
+        // Assert
+        JsonRingBuffer jsonBuffer = new JsonRingBuffer(outputStream.size());
+        jsonBuffer.write(ByteBuffer.wrap(outputStream.toByteArray()));
+        Set<String> ids = new HashSet<>();
+        JacksonEnvelopeSerializer serializer = new JacksonEnvelopeSerializer();
+        while (jsonBuffer.tryExtractJson()) {
+            ids.add(serializer.deserialize(jsonBuffer.getJsonString()).getId());
+        }
+        assertEquals(sendersCount * envelopesPerSender, ids.size());
+        assertEquals(0, jsonBuffer.getBufferedLength());
+    }
+
+    @Test
+    public void sendAllAsync_multipleEnvelopes_writesEnvelopesInOrderWithSingleFlush() throws Exception {
+        // Arrange
+        final int[] flushCount = {0};
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream() {
+            @Override
+            public void flush() throws IOException {
+                super.flush();
+                flushCount[0]++;
+            }
+        };
+        TcpTransport target = getAndOpenTarget(new ByteArrayInputStream(new byte[0]), outputStream);
+        List<Envelope> envelopes = new ArrayList<>();
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 10; i++) {
+            Envelope envelope = mock(Envelope.class);
+            String serializedEnvelope = Dummy.createRandomString(100);
+            when(envelopeSerializer.serialize(envelope)).thenReturn(serializedEnvelope);
+            envelopes.add(envelope);
+            expected.append(serializedEnvelope);
+        }
+
+        // Act
+        CompletableFuture<Void> future = target.sendAllAsync(envelopes);
+
+        // Assert
+        future.get(5, TimeUnit.SECONDS);
+        assertEquals(expected.toString(), outputStream.toString());
+        assertEquals(1, flushCount[0]);
+    }
+
+    @Test
+    public void sendAsync_writeFails_completesExceptionallyAndClosesTransport() throws Exception {
+        // Arrange
+        OutputStream outputStream = mock(OutputStream.class);
+        IOException exception = new IOException("Broken pipe");
+        doThrow(exception).when(outputStream).write(any(byte[].class), anyInt(), anyInt());
+        TcpTransport target = getAndOpenTarget(new ByteArrayInputStream(new byte[0]), outputStream);
+        Envelope envelope = mock(Envelope.class);
+        when(envelopeSerializer.serialize(envelope)).thenReturn(Dummy.createRandomString(100));
+
+        // Act
+        CompletableFuture<Void> future = target.sendAsync(envelope);
+
+        // Assert
+        assertTrue(future.isCompletedExceptionally());
+        try {
+            future.get();
+            fail("The future should complete exceptionally");
+        } catch (ExecutionException e) {
+            assertSame(exception, e.getCause());
+        }
+        verify(tcpClient, times(1)).close();
+    }
+
     @Test(expected = IllegalArgumentException.class)
     public void send_nullEnvelope_throwsIllegalArgumentException() throws IOException, URISyntaxException {
         // Arrange
@@ -541,6 +642,74 @@ public class TcpTransportTest {
         verify(tcpClient, times(1)).close();
     }
 
+    @Test
+    public void onReceive_envelopeBiggerThanBufferWithSpill_readEnvelopeJsonFromStream() throws IOException, URISyntaxException, InterruptedException {
+        // Arrange
+        String messageJson = Dummy.createMessageJson();
+        byte[] messageBuffer = messageJson.getBytes("UTF-8");
+        Envelope envelope = mock(Envelope.class);
+        TcpTransport target = getTarget(new ByteArrayInputStream(messageBuffer), new ByteArrayOutputStream(), messageBuffer.length / 4);
+        target.setMaxSpilledEnvelopeSize(messageBuffer.length * 2);
+        when(envelopeSerializer.deserialize(messageJson)).thenReturn(envelope);
+        Transport.TransportEnvelopeListener transportEnvelopeListener = mock(Transport.TransportEnvelopeListener.class);
+        target.setEnvelopeListener(transportEnvelopeListener);
+        Transport.TransportStateListener transportStateListener = mock(Transport.TransportStateListener.class);
+        target.setStateListener(transportStateListener);
+
+        // Act
+        target.open(Dummy.createUri());
+        Thread.sleep(500);
+
+        // Assert
+        verify(transportEnvelopeListener, times(1)).onReceive(envelope);
+        verify(transportStateListener, never()).onException(any(Exception.class));
+    }
+
+    @Test
+    public void onReceive_deserializationExecutor_raisesEnvelopesInReceiveOrder() throws IOException, URISyntaxException, InterruptedException {
+        // Arrange
+        int messagesCount = 200;
+        final JacksonEnvelopeSerializer serializer = new JacksonEnvelopeSerializer();
+        List<String> expectedIds = new ArrayList<>();
+        ByteArrayOutputStream messagesJson = new ByteArrayOutputStream();
+        for (int i = 0; i < messagesCount; i++) {
+            Message message = new Message(EnvelopeId.newId());
+            message.setContent(new PlainDocument(Dummy.createRandomString(Dummy.createRandomInt(500) + 1), MediaType.parse("text/plain")));
+            expectedIds.add(message.getId());
+            messagesJson.write(serializer.serialize(message).getBytes("UTF-8"));
+        }
+        TcpTransport target = getTarget(new ByteArrayInputStream(messagesJson.toByteArray()), new ByteArrayOutputStream());
+        when(envelopeSerializer.deserialize(anyString())).thenAnswer(new Answer<Envelope>() {
+            @Override
+            public Envelope answer(InvocationOnMock invocationOnMock) throws Throwable {
+                // Completes the envelopes out of order
+                Thread.sleep(Dummy.createRandomInt(3));
+                return serializer.deserialize((String) invocationOnMock.getArguments()[0]);
+            }
+        });
+        ExecutorService executorService = Executors.newFixedThreadPool(4);
+        target.setDeserializationExecutor(executorService);
+        target.setMaxPendingEnvelopes(16);
+        final List<String> actualIds = Collections.synchronizedList(new ArrayList<String>());
+        target.setEnvelopeListener(new Transport.TransportEnvelopeListener() {
+            @Override
+            public void onReceive(Envelope envelope) {
+                actualIds.add(envelope.getId());
+            }
+        });
+        Transport.TransportStateListener transportStateListener = mock(Transport.TransportStateListener.class);
+        target.setStateListener(transportStateListener);
+
+        // Act
+        target.open(Dummy.createUri());
+        verify(transportStateListener, timeout(10000)).onClosed();
+        executorService.shutdown();
+
+        // Assert
+        assertEquals(expectedIds, actualIds);
+        verify(transportStateListener, never()).onException(any(Exception.class));
+    }
+
     @Test
     public void performCloseAsync_streamOpened_closesClient() throws IOException, URISyntaxException {
         // Arrange
@@ -586,6 +755,108 @@ public class TcpTransportTest {
         verify(tcpClient, times(1)).startTls();
     }
 
+    @Test
+    public void getSupportedCompression_default_returnsNoneAndGzip() throws IOException {
+        // Arrange
+        TcpTransport target = getTarget();
+
+        // Act
+        SessionCompression[] actual = target.getSupportedCompression();
+
+        // Assert
+        assertEquals(2, actual.length);
+        assertTrue(Arrays.asList(actual).contains(SessionCompression.NONE));
+        assertTrue(Arrays.asList(actual).contains(SessionCompression.GZIP));
+    }
+
+    @Test
+    public void send_gzipCompression_writesInflatableEnvelopes() throws IOException, URISyntaxException {
+        // Arrange
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        TcpTransport target = getAndOpenTarget(new ByteArrayInputStream(new byte[0]), outputStream);
+        target.setCompression(SessionCompression.GZIP);
+        Envelope smallEnvelope = mock(Envelope.class);
+        String smallSerializedEnvelope = Dummy.createRandomString(50);
+        when(envelopeSerializer.serialize(smallEnvelope)).thenReturn(smallSerializedEnvelope);
+        Envelope largeEnvelope = mock(Envelope.class);
+        StringBuilder largeSerializedEnvelope = new StringBuilder();
+        while (largeSerializedEnvelope.length() < 10000) {
+            largeSerializedEnvelope.append(smallSerializedEnvelope);
+        }
+        when(envelopeSerializer.serialize(largeEnvelope)).thenReturn(largeSerializedEnvelope.toString());
+
+        // Act
+        target.send(smallEnvelope);
+        int smallEnvelopeCompressedLength = outputStream.size();
+        target.send(largeEnvelope);
+
+        // Assert
+        byte[] expected = (smallSerializedEnvelope + largeSerializedEnvelope).getBytes("UTF-8");
+        byte[] actual = new byte[expected.length];
+        new DataInputStream(new GZIPInputStream(new ByteArrayInputStream(outputStream.toByteArray()))).readFully(actual);
+        assertArrayEquals(expected, actual);
+        assertTrue(smallEnvelopeCompressedLength > smallSerializedEnvelope.length());
+        assertTrue(outputStream.size() - smallEnvelopeCompressedLength < largeSerializedEnvelope.length() / 10);
+    }
+
+    @Test
+    public void onReceive_gzipCompressionSetByListener_readsEnvelopesFromInflatedStream() throws IOException, URISyntaxException, InterruptedException {
+        // Arrange
+        String sessionJson = Dummy.createMessageJson();
+        String messageJson1 = Dummy.createMessageJson();
+        String messageJson2 = Dummy.createMessageJson();
+        ByteArrayOutputStream receivedBytes = new ByteArrayOutputStream();
+        receivedBytes.write(sessionJson.getBytes("UTF-8"));
+        GZIPOutputStream gzipOutputStream = new GZIPOutputStream(receivedBytes, true);
+        gzipOutputStream.write(messageJson1.getBytes("UTF-8"));
+        gzipOutputStream.flush();
+        gzipOutputStream.write(messageJson2.getBytes("UTF-8"));
+        gzipOutputStream.flush();
+        TestInputStream inputStream = new TestInputStream(new byte[][]{receivedBytes.toByteArray()});
+        final TcpTransport target = getTarget(inputStream, new ByteArrayOutputStream());
+        final Envelope sessionEnvelope = mock(Envelope.class);
+        Envelope messageEnvelope1 = mock(Envelope.class);
+        Envelope messageEnvelope2 = mock(Envelope.class);
+        when(envelopeSerializer.deserialize(sessionJson)).thenReturn(sessionEnvelope);
+        when(envelopeSerializer.deserialize(messageJson1)).thenReturn(messageEnvelope1);
+        when(envelopeSerializer.deserialize(messageJson2)).thenReturn(messageEnvelope2);
+        final BlockingQueue<Envelope> receivedEnvelopes = new LinkedBlockingQueue<>();
+        target.setEnvelopeListener(new Transport.TransportEnvelopeListener() {
+            @Override
+            public void onReceive(Envelope envelope) {
+                receivedEnvelopes.add(envelope);
+                if (envelope == sessionEnvelope) {
+                    try {
+                        target.setCompression(SessionCompression.GZIP);
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            }
+        });
+        Transport.TransportStateListener transportStateListener = mock(Transport.TransportStateListener.class);
+        target.setStateListener(transportStateListener);
+
+        // Act
+        target.open(Dummy.createUri());
+
+        // Assert
+        assertSame(sessionEnvelope, receivedEnvelopes.poll(5, TimeUnit.SECONDS));
+        assertSame(messageEnvelope1, receivedEnvelopes.poll(5, TimeUnit.SECONDS));
+        assertSame(messageEnvelope2, receivedEnvelopes.poll(5, TimeUnit.SECONDS));
+        verify(transportStateListener, never()).onException(any(Exception.class));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void setCompression_noneAfterGzip_throwsIllegalStateException() throws IOException, URISyntaxException {
+        // Arrange
+        TcpTransport target = getAndOpenTarget();
+        target.setCompression(SessionCompression.GZIP);
+
+        // Act
+        target.setCompression(SessionCompression.NONE);
+    }
+
 
     private byte[][] splitBuffer(byte[] messageBuffer) {
         int bufferParts = Dummy.createRandomInt(25) + 1;